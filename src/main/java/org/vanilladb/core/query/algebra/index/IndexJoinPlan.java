@@ -55,6 +55,9 @@ public class IndexJoinPlan extends AbstractJoinPlan {
 	 */
 	public IndexJoinPlan(Plan p1, TablePlan tp2, IndexInfo ii,
 			String joinField, Transaction tx) {
+		// The indexes are not versioned, so they cannot serve a snapshot
+		if (tx.concurrencyMgr().readsSnapshot())
+			throw new UnsupportedOperationException("indexes cannot be read as of a snapshot");
 		this.p1 = p1;
 		this.tp2 = tp2;
 		this.ii = ii;
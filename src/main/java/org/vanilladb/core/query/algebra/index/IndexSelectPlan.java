@@ -56,6 +56,9 @@ public class IndexSelectPlan implements Plan {
 	 */
 	public IndexSelectPlan(TablePlan tp, IndexInfo ii,
 			ConstantRange searchRange, Transaction tx) {
+		// The indexes are not versioned, so they cannot serve a snapshot
+		if (tx.concurrencyMgr().readsSnapshot())
+			throw new UnsupportedOperationException("indexes cannot be read as of a snapshot");
 		this.tp = tp;
 		this.ii = ii;
 		this.searchRange = searchRange;
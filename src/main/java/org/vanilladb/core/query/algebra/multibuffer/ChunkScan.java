@@ -57,7 +57,7 @@ public class ChunkScan implements Scan {
 		this.fileName = ti.fileName();
 		for (long i = startBlkNum; i <= endBlkNum; i++) {
 			BlockId blk = new BlockId(fileName, i);
-			pages.add(new RecordPage(blk, ti, tx, true));
+			pages.add(ti.openPage(blk, tx, true));
 		}
 		beforeFirst();
 	}
@@ -23,18 +23,22 @@ import org.vanilladb.core.sql.Schema;
 public class CreateTableData {
 	private String tblName;
 	private Schema schema;
+	private int format;
 
 	/**
-	 * Saves the table name and schema.
+	 * Saves the table name, schema and record format.
 	 * 
 	 * @param tblName
 	 *            the name of the new table
 	 * @param schema
 	 *            the schema of the new table
+	 * @param format
+	 *            the record format of the new table
 	 */
-	public CreateTableData(String tblName, Schema schema) {
+	public CreateTableData(String tblName, Schema schema, int format) {
 		this.tblName = tblName;
 		this.schema = schema;
+		this.format = format;
 	}
 
 	/**
@@ -54,4 +58,13 @@ public class CreateTableData {
 	public Schema newSchema() {
 		return schema;
 	}
+
+	/**
+	 * Returns the record format of the new table.
+	 * 
+	 * @return the record format of the new table
+	 */
+	public int format() {
+		return format;
+	}
 }
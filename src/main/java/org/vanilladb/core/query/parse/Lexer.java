@@ -193,6 +193,6 @@ public class Lexer {
 				"int", "double", "varchar", "view", "as", "index", "on",
 				"long", "order", "by", "asc", "desc", "sum", "count", "avg",
 				"min", "max", "distinct", "group", "add", "sub", "mul", "div",
-				"explain");
+				"explain", "using");
 	}
 }
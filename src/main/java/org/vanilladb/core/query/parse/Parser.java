@@ -31,6 +31,8 @@ import static org.vanilladb.core.sql.predicate.Term.OP_GTE;
 import static org.vanilladb.core.sql.predicate.Term.OP_LT;
 import static org.vanilladb.core.sql.predicate.Term.OP_LTE;
 import static org.vanilladb.core.storage.index.Index.IDX_BTREE;
+import static org.vanilladb.core.storage.record.RecordFile.FMT_FIXED;
+import static org.vanilladb.core.storage.record.RecordFile.FMT_SLOTTED;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -64,10 +66,13 @@ import org.vanilladb.core.util.CoreProperties;
  */
 public class Parser {
 	public static final int DEFAULT_INDEX_TYPE;
+	public static final int DEFAULT_TABLE_FORMAT;
 
 	static {
 		DEFAULT_INDEX_TYPE = CoreProperties.getLoader().getPropertyAsInteger(
 				Parser.class.getName() + ".DEFAULT_INDEX_TYPE", IDX_BTREE);
+		DEFAULT_TABLE_FORMAT = CoreProperties.getLoader().getPropertyAsInteger(
+				Parser.class.getName() + ".DEFAULT_TABLE_FORMAT", FMT_FIXED);
 	}
 
 	private static class ProjectEl {
@@ -527,7 +532,18 @@ public class Parser {
 		lex.eatDelim('(');
 		Schema sch = fieldDefs();
 		lex.eatDelim(')');
-		return new CreateTableData(tblname, sch);
+		int format = DEFAULT_TABLE_FORMAT;
+		if (lex.matchKeyword("using")) {
+			lex.eatKeyword("using");
+			String formatName = lex.eatId();
+			if (formatName.equals("fixed"))
+				format = FMT_FIXED;
+			else if (formatName.equals("slotted"))
+				format = FMT_SLOTTED;
+			else
+				throw new BadSyntaxException();
+		}
+		return new CreateTableData(tblname, sch, format);
 	}
 
 	private Schema fieldDefs() {
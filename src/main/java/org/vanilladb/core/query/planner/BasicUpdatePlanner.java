@@ -93,7 +93,7 @@ public class BasicUpdatePlanner implements UpdatePlanner {
 	@Override
 	public int executeCreateTable(CreateTableData data, Transaction tx) {
 		VanillaDb.catalogMgr().createTable(data.tableName(), data.newSchema(),
-				tx);
+				data.format(), tx);
 		return 0;
 	}
 
@@ -16,6 +16,7 @@
 package org.vanilladb.core.query.planner.index;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -88,8 +89,9 @@ public class IndexUpdatePlanner implements UpdatePlanner {
 		Map<String, IndexInfo> indexInfoMap = VanillaDb.catalogMgr()
 				.getIndexInfo(tblname, tx);
 		String keyFld = null;
-		// create a IndexSelectPlan if there is matching index in predicate
-		for (String fld : indexInfoMap.keySet()) {
+		// create a IndexSelectPlan if there is matching index in predicate,
+		// unless the records are read as of a snapshot
+		for (String fld : selectableIndexes(indexInfoMap, tx)) {
 			ConstantRange cr = data.pred().constantRange(fld);
 			if (cr != null) {
 				IndexInfo ii = indexInfoMap.get(fld);
@@ -154,8 +156,9 @@ public class IndexUpdatePlanner implements UpdatePlanner {
 
 		TablePlan tp = new TablePlan(tblname, tx);
 		Plan selectPlan = null;
-		// create a IndexSelectPlan if there is matching index in predicate
-		for (String fld : indexInfoMap.keySet()) {
+		// create a IndexSelectPlan if there is matching index in predicate,
+		// unless the records are read as of a snapshot
+		for (String fld : selectableIndexes(indexInfoMap, tx)) {
 			ConstantRange cr = data.pred().constantRange(fld);
 			/*
 			 * Don't select with index when the indexed fld is in target flds.
@@ -207,7 +210,7 @@ public class IndexUpdatePlanner implements UpdatePlanner {
 	@Override
 	public int executeCreateTable(CreateTableData data, Transaction tx) {
 		VanillaDb.catalogMgr().createTable(data.tableName(), data.newSchema(),
-				tx);
+				data.format(), tx);
 		return 0;
 	}
 
@@ -241,4 +244,16 @@ public class IndexUpdatePlanner implements UpdatePlanner {
 		VanillaDb.catalogMgr().dropIndex(data.indexName(), tx);
 		return 0;
 	}
+
+	/*
+	 * Returns the indexed fields which can be used to select the records. The
+	 * indexes are not versioned, so none is used if the records are read as
+	 * of a snapshot.
+	 */
+	private Collection<String> selectableIndexes(Map<String, IndexInfo> indexInfoMap,
+			Transaction tx) {
+		if (tx.concurrencyMgr().readsSnapshot())
+			return Collections.emptySet();
+		return indexInfoMap.keySet();
+	}
 }
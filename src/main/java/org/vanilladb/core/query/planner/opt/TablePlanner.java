@@ -18,6 +18,7 @@ package org.vanilladb.core.query.planner.opt;
 import static org.vanilladb.core.storage.index.Index.IDX_BTREE;
 import static org.vanilladb.core.storage.index.Index.IDX_HASH;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
@@ -62,7 +63,11 @@ class TablePlanner {
 		this.tx = tx;
 		tp = new TablePlan(tblName, tx);
 		sch = tp.schema();
-		idxes = VanillaDb.catalogMgr().getIndexInfo(tblName, tx);
+		// The indexes are not versioned, so a snapshot is read by table scans
+		if (tx.concurrencyMgr().readsSnapshot())
+			idxes = Collections.emptyMap();
+		else
+			idxes = VanillaDb.catalogMgr().getIndexInfo(tblName, tx);
 	}
 
 	/**
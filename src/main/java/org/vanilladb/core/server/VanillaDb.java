@@ -31,12 +31,15 @@ import org.vanilladb.core.query.planner.opt.HeuristicQueryPlanner;
 import org.vanilladb.core.server.task.TaskMgr;
 import org.vanilladb.core.sql.storedprocedure.SampleStoredProcedureFactory;
 import org.vanilladb.core.sql.storedprocedure.StoredProcedureFactory;
+import org.vanilladb.core.storage.buffer.PageCleanerTask;
 import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.storage.log.LogFlushTask;
 import org.vanilladb.core.storage.log.LogMgr;
 import org.vanilladb.core.storage.metadata.CatalogMgr;
 import org.vanilladb.core.storage.metadata.statistics.StatMgr;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionMgr;
+import org.vanilladb.core.storage.tx.concurrency.VersionGcTask;
 import org.vanilladb.core.storage.tx.recovery.CheckpointTask;
 import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
 import org.vanilladb.core.util.CoreProperties;
@@ -48,10 +51,13 @@ import org.vanilladb.core.util.Profiler;
  * methods {@link #initFileMgr(String) initFileMgr},
  * {@link #initFileAndLogMgr(String) initFileAndLogMgr},
  * {@link #initTaskMgr() initTaskMgr},
+ * {@link #initLogFlushTask() initLogFlushTask},
  * {@link #initTxMgr() initTxMgr},
  * {@link #initCatalogMgr(boolean, Transaction) initCatalogMgr},
- * {@link #initStatMgr(Transaction) initStatMgr}, and
- * {@link #initCheckpointingTask() initCheckpointingTask} provide limited
+ * {@link #initStatMgr(Transaction) initStatMgr},
+ * {@link #initCheckpointingTask() initCheckpointingTask},
+ * {@link #initPageCleanerTask() initPageCleanerTask}, and
+ * {@link #initVersionGcTask() initVersionGcTask} provide limited
  * initialization, and are useful for debugging purposes.
  */
 public class VanillaDb {
@@ -124,6 +130,7 @@ public class VanillaDb {
 		// initialize storage engine
 		initFileAndLogMgr(dirName);
 		initTaskMgr();
+		initLogFlushTask();
 		initTxMgr();
 
 		// the first transaction for initializing the system
@@ -159,6 +166,17 @@ public class VanillaDb {
 		if (doCheckpointing)
 			initCheckpointingTask();
 
+		// initializing the background page cleaner
+		boolean doPageCleaning = CoreProperties.getLoader().getPropertyAsBoolean(
+				VanillaDb.class.getName() + ".DO_PAGE_CLEANING", true);
+		if (doPageCleaning)
+			initPageCleanerTask();
+
+		// initializing the garbage collector of the record versions, which are
+		// kept only if some transactions read snapshots
+		if (TransactionMgr.keepsVersions())
+			initVersionGcTask();
+
 		// finish initialization
 		inited = true;
 	}
@@ -206,6 +224,14 @@ public class VanillaDb {
 		taskMgr = new TaskMgr();
 	}
 
+	/**
+	 * Initializes a background task writing the full log pages and the log
+	 * for committing transactions in groups.
+	 */
+	public static void initLogFlushTask() {
+		taskMgr.runTask(new LogFlushTask(logMgr));
+	}
+
 	/**
 	 * Initializes the transaction manager.
 	 */
@@ -244,6 +270,21 @@ public class VanillaDb {
 		taskMgr.runTask(new CheckpointTask());
 	}
 
+	/**
+	 * Initialize a background task writing dirty buffers back to disk.
+	 */
+	public static void initPageCleanerTask() {
+		taskMgr.runTask(new PageCleanerTask());
+	}
+
+	/**
+	 * Initialize a background task removing the record versions which no
+	 * snapshot needs.
+	 */
+	public static void initVersionGcTask() {
+		taskMgr.runTask(new VersionGcTask());
+	}
+
 	public static FileMgr fileMgr() {
 		return fileMgr;
 	}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.sql.storedprocedure;
+
+import org.vanilladb.core.remote.storedprocedure.SpResultSet;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
+
+/**
+ * A stored procedure running in a transaction of its own. The transaction is
+ * created with the isolation level and read-only flag of the parameter
+ * helper once the parameters are prepared. The items declared by the helper
+ * are locked all at once before {@link #executeSql()} is called, and the
+ * transaction commits after it, or rolls back if it is aborted.
+ * 
+ * @param <H>
+ *            the type of the parameter helper
+ */
+public abstract class BasicStoredProcedure<H extends StoredProcedureParamHelper>
+		implements StoredProcedure {
+	private H paramHelper;
+	private Transaction tx;
+
+	public BasicStoredProcedure(H paramHelper) {
+		if (paramHelper == null)
+			throw new IllegalArgumentException("the parameter helper should not be null");
+		this.paramHelper = paramHelper;
+	}
+
+	@Override
+	public void prepare(Object... pars) {
+		paramHelper.prepareParameters(pars);
+		tx = VanillaDb.txMgr().newTransaction(paramHelper.isolationLevel(),
+				paramHelper.isReadOnly());
+	}
+
+	@Override
+	public SpResultSet execute() {
+		try {
+			tx.concurrencyMgr().lockDeclared(paramHelper.readSet(), paramHelper.writeSet());
+			executeSql();
+		} catch (RuntimeException e) {
+			tx.rollback();
+			paramHelper.setCommitted(false);
+			if (e instanceof LockAbortException)
+				return paramHelper.createResultSet();
+			throw e;
+		}
+
+		try {
+			tx.commit();
+			paramHelper.setCommitted(true);
+		} catch (LockAbortException e) {
+			// The transaction is rolled back if it fails to commit
+			paramHelper.setCommitted(false);
+		}
+		return paramHelper.createResultSet();
+	}
+
+	/**
+	 * Executes the statements of the procedure in its transaction. The items
+	 * declared during the preparation have been locked.
+	 */
+	protected abstract void executeSql();
+
+	protected H getParamHelper() {
+		return paramHelper;
+	}
+
+	protected Transaction getTransaction() {
+		return tx;
+	}
+}
@@ -15,15 +15,23 @@
  ******************************************************************************/
 package org.vanilladb.core.sql.storedprocedure;
 
+import java.sql.Connection;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.vanilladb.core.remote.storedprocedure.SpResultSet;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.sql.VarcharConstant;
+import org.vanilladb.core.storage.tx.TransactionMgr;
 
 public abstract class StoredProcedureParamHelper {
 
 	protected boolean isCommitted = true;
 	private boolean isReadOnly = false;
+	private boolean isOptimistic = false;
+	private Set<Object> readSet = new HashSet<Object>();
+	private Set<Object> writeSet = new HashSet<Object>();
 
 	/**
 	 * Prepare parameters for this stored procedure.
@@ -66,6 +74,67 @@ public abstract class StoredProcedureParamHelper {
 		return isReadOnly;
 	}
 
+	/**
+	 * Runs the stored procedure with optimistic concurrency control, which
+	 * suits short procedures rarely conflicting with others.
+	 * 
+	 * @param isOptimistic
+	 *            true if the procedure runs optimistically
+	 */
+	protected void setOptimistic(boolean isOptimistic) {
+		this.isOptimistic = isOptimistic;
+	}
+
+	public boolean isOptimistic() {
+		return isOptimistic;
+	}
+
+	/**
+	 * Returns the isolation level which the transaction running this stored
+	 * procedure should be created with.
+	 * 
+	 * @return the isolation level
+	 */
+	public int isolationLevel() {
+		return isOptimistic ? TransactionMgr.TRANSACTION_OPTIMISTIC : Connection.TRANSACTION_SERIALIZABLE;
+	}
+
+	/**
+	 * Declares an item which the stored procedure reads, such as a
+	 * {@link org.vanilladb.core.storage.record.RecordId} or a file name known
+	 * from the parameters. {@link BasicStoredProcedure} locks the declared
+	 * items all at once by
+	 * {@link org.vanilladb.core.storage.tx.concurrency.ConcurrencyMgr#lockDeclared(Set, Set)}
+	 * before the procedure executes.
+	 * 
+	 * @param item
+	 *            the item to be read
+	 */
+	protected void declareRead(Object item) {
+		readSet.add(item);
+	}
+
+	/**
+	 * Declares an item which the stored procedure writes. The records a
+	 * procedure inserts cannot be declared, since their IDs are known only
+	 * after free slots are found. An insertion locks the slot it takes during
+	 * the execution, and locks the whole file only if it appends a block.
+	 * 
+	 * @param item
+	 *            the item to be written
+	 */
+	protected void declareWrite(Object item) {
+		writeSet.add(item);
+	}
+
+	public Set<Object> readSet() {
+		return readSet;
+	}
+
+	public Set<Object> writeSet() {
+		return writeSet;
+	}
+
 	public void setCommitted(boolean b) {
 		isCommitted = b;
 	}
@@ -16,7 +16,9 @@
 package org.vanilladb.core.storage.buffer;
 
 import java.util.HashSet;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -35,6 +37,14 @@ import org.vanilladb.core.storage.log.LogSeqNum;
  * the block has been pinned, whether the contents of the page have been
  * modified, and if so, the id of the modifying transaction and the LSN of the
  * corresponding log record.
+ * 
+ * <p>
+ * The pin count and the state of a buffer are packed into a single atomic
+ * word, so pinning and unpinning a buffer which already holds the requested
+ * block never takes a lock. A buffer is <em>frozen</em> by the buffer pool
+ * while it is being assigned to another block; a frozen buffer cannot be
+ * pinned, and only an unpinned buffer can be frozen.
+ * </p>
  */
 public class Buffer {
 	
@@ -48,18 +58,32 @@ public class Buffer {
 	private static final int LAST_LSN_OFFSET = 0;
 	private static final int DATA_START_OFFSET = LogSeqNum.SIZE;
 	
+	// The highest bit of the pin word marks a frozen buffer
+	private static final int FROZEN = 0x80000000;
+	private static final int PIN_MASK = ~FROZEN;
+	
 	private Page contents = new Page();
-	private BlockId blk = null;
-	private int pins = 0;
+	private volatile BlockId blk = null;
+	private final AtomicInteger pinState = new AtomicInteger(0);
 	private boolean isNew = false;
 	private Set<Long> modifiedBy = new HashSet<Long>();
 	// TODO: We use (-1, -1) for the default value. Will this be a problem ?
 	private LogSeqNum lastLsn = LogSeqNum.DEFAULT_VALUE;
+	// The redo of the page must start from recLsn, or null if the page is
+	// clean. cleanLsn is the end of the log when the page was last clean.
+	private LogSeqNum recLsn = null;
+	private LogSeqNum cleanLsn = LogSeqNum.DEFAULT_VALUE;
+	// The index of this buffer in the buffer pool
+	private final int poolIdx;
+	// The queue of the pool which the buffer joins once it becomes dirty,
+	// and whether the buffer is in that queue
+	private final Queue<Buffer> dirtyQueue;
+	private boolean inDirtyQueue = false;
 	
 	// Locks
 	private final ReadWriteLock internalLock = new ReentrantReadWriteLock();
-	private final Lock externalLock = new ReentrantLock();
 	private final Lock flushLock = new ReentrantLock();
+	private final ReadWriteLock contentLatch = new ReentrantReadWriteLock();
 	
 	/**
 	 * Creates a new buffer, wrapping a new {@link Page page}. This constructor
@@ -70,6 +94,23 @@ public class Buffer {
 	 * {@link VanillaDb#initFileAndLogMgr(String)} or is called first.
 	 */
 	Buffer() {
+		this(-1, null);
+	}
+	
+	/**
+	 * Creates a new buffer located at the specified index of the buffer pool.
+	 * The buffer adds itself to the specified queue whenever it turns from
+	 * clean to dirty, so the pool can find the dirty buffers without scanning
+	 * all of them.
+	 * 
+	 * @param poolIdx
+	 *            the index of this buffer in the buffer pool
+	 * @param dirtyQueue
+	 *            the queue of dirty buffers of the pool
+	 */
+	Buffer(int poolIdx, Queue<Buffer> dirtyQueue) {
+		this.poolIdx = poolIdx;
+		this.dirtyQueue = dirtyQueue;
 	}
 
 	/**
@@ -92,6 +133,211 @@ public class Buffer {
 			internalLock.readLock().unlock();
 		}
 	}
+
+	/**
+	 * Returns the serialized bytes of the value at the specified offset of
+	 * this buffer's page. It is used to log the value without creating a
+	 * constant.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param type
+	 *            the type of the value
+	 * 
+	 * @return the bytes of the value at that offset
+	 */
+	public byte[] getValBytes(int offset, Type type) {
+		internalLock.readLock().lock();
+		try {
+			return contents.getValBytes(DATA_START_OFFSET + offset, type);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of serialized bytes of the value at the specified
+	 * offset of this buffer's page.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param type
+	 *            the type of the value
+	 * 
+	 * @return the size of the value at that offset
+	 */
+	public int getValSize(int offset, Type type) {
+		internalLock.readLock().lock();
+		try {
+			return contents.getValSize(DATA_START_OFFSET + offset, type);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copies the serialized bytes of the value at the specified offset of
+	 * this buffer's page into the specified array. It is used to log the
+	 * value without creating an array.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param type
+	 *            the type of the value
+	 * @param dst
+	 *            the array to be written
+	 * @param dstOffset
+	 *            the offset in the array to write the bytes at
+	 * 
+	 * @return the number of bytes copied
+	 */
+	public int getValBytes(int offset, Type type, byte[] dst, int dstOffset) {
+		internalLock.readLock().lock();
+		try {
+			return contents.getValBytes(DATA_START_OFFSET + offset, type, dst, dstOffset);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a copy of the raw bytes in the specified range of this buffer's
+	 * page.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param size
+	 *            the number of bytes
+	 * 
+	 * @return the bytes in that range
+	 */
+	public byte[] getBytes(int offset, int size) {
+		internalLock.readLock().lock();
+		try {
+			return contents.getBytes(DATA_START_OFFSET + offset, size);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the integer at the specified offset of this buffer's page,
+	 * without creating a constant.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * 
+	 * @return the integer at that offset
+	 */
+	public int getInt(int offset) {
+		internalLock.readLock().lock();
+		try {
+			return contents.getInt(DATA_START_OFFSET + offset);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the long integer at the specified offset of this buffer's page,
+	 * without creating a constant.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * 
+	 * @return the long integer at that offset
+	 */
+	public long getLong(int offset) {
+		internalLock.readLock().lock();
+		try {
+			return contents.getLong(DATA_START_OFFSET + offset);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the double at the specified offset of this buffer's page,
+	 * without creating a constant.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * 
+	 * @return the double at that offset
+	 */
+	public double getDouble(int offset) {
+		internalLock.readLock().lock();
+		try {
+			return contents.getDouble(DATA_START_OFFSET + offset);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Compares the varchar at the specified offset of this buffer's page with
+	 * the specified string in place.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param val
+	 *            the string to be compared with
+	 * 
+	 * @return a negative integer, zero, or a positive integer as the varchar
+	 *         is less than, equal to, or greater than the string
+	 * @see Page#compareVarchar(int, String)
+	 */
+	public int compareVarchar(int offset, String val) {
+		internalLock.readLock().lock();
+		try {
+			return contents.compareVarchar(DATA_START_OFFSET + offset, val);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the hash code of the varchar at the specified offset of this
+	 * buffer's page, computed in place.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * 
+	 * @return the hash code of the varchar
+	 * @see Page#hashVarchar(int)
+	 */
+	public int hashVarchar(int offset) {
+		internalLock.readLock().lock();
+		try {
+			return contents.hashVarchar(DATA_START_OFFSET + offset);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Compares the value at the specified offset of this buffer's page with
+	 * the specified constant, without creating a constant for the value.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param type
+	 *            the type of the value
+	 * @param val
+	 *            the constant to be compared with
+	 * 
+	 * @return a negative integer, zero, or a positive integer as the value is
+	 *         less than, equal to, or greater than the constant
+	 * @see Page#compareVal(int, Type, Constant)
+	 */
+	public int compareVal(int offset, Type type, Constant val) {
+		internalLock.readLock().lock();
+		try {
+			return contents.compareVal(DATA_START_OFFSET + offset, type, val);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
 	
 	void setVal(int offset, Constant val) {
 		internalLock.writeLock().lock();
@@ -124,6 +370,12 @@ public class Buffer {
 			modifiedBy.add(txNum);
 			if (lsn != null && lsn.compareTo(lastLsn) > 0)
 				lastLsn = lsn;
+			// A modification without its own log record may belong to a
+			// record written since the page was last clean
+			if (recLsn == null) {
+				recLsn = (lsn != null) ? lsn : cleanLsn;
+				enqueueDirty();
+			}
 			
 			// Put the last LSN in front of the data
 			lastLsn.writeToPage(contents, LAST_LSN_OFFSET);
@@ -133,6 +385,39 @@ public class Buffer {
 		}
 	}
 	
+	/**
+	 * Writes the specified bytes to the specified offset of this buffer's
+	 * page. Like {@link #setVal(int, Constant, long, LogSeqNum)}, this method
+	 * assumes that the transaction has already written an appropriate log
+	 * record.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param bytes
+	 *            the bytes to be written
+	 * @param txNum
+	 *            the id of the transaction performing the modification
+	 * @param lsn
+	 *            the LSN of the corresponding log record
+	 */
+	public void setBytes(int offset, byte[] bytes, long txNum, LogSeqNum lsn) {
+		internalLock.writeLock().lock();
+		try {
+			modifiedBy.add(txNum);
+			if (lsn != null && lsn.compareTo(lastLsn) > 0)
+				lastLsn = lsn;
+			if (recLsn == null) {
+				recLsn = (lsn != null) ? lsn : cleanLsn;
+				enqueueDirty();
+			}
+
+			lastLsn.writeToPage(contents, LAST_LSN_OFFSET);
+			contents.setBytes(DATA_START_OFFSET + offset, bytes);
+		} finally {
+			internalLock.writeLock().unlock();
+		}
+	}
+
 	/**
 	 * Return the log sequence number (LSN) of the latest log record 
 	 * which has been applied to this buffer. Note that the last LSN
@@ -150,18 +435,30 @@ public class Buffer {
 	}
 
 	/**
-	 * Returns a block ID refers to the disk block that the buffer is pinned to.
+	 * Returns the LSN from which the log must be redone to bring the disk
+	 * block of this buffer up to date, or null if the buffer is clean. The
+	 * caller should hold the flushing lock, so no physiological operation is
+	 * half done on the buffer.
 	 * 
-	 * @return a block ID
+	 * @return the recovery LSN of the page
 	 */
-	public BlockId block() {
+	LogSeqNum recoveryLsn() {
 		internalLock.readLock().lock();
 		try {
-			return blk;
+			return recLsn;
 		} finally {
 			internalLock.readLock().unlock();
 		}
 	}
+
+	/**
+	 * Returns a block ID refers to the disk block that the buffer is pinned to.
+	 * 
+	 * @return a block ID
+	 */
+	public BlockId block() {
+		return blk;
+	}
 	
 	/**
 	 * Lock the flushing mechanism in order to prevent a thread
@@ -184,11 +481,60 @@ public class Buffer {
 	public void unlockFlushing() {
 		flushLock.unlock();
 	}
-	
-	protected Lock getExternalLock() {
-		return externalLock;
+
+	/**
+	 * Latches the contents of the buffer in shared mode, so that a thread can
+	 * read several values of the page without seeing another thread's
+	 * modification in between. A latch is a short-term physical lock; unlike
+	 * the locks of transactions, it is held only while the buffer is pinned,
+	 * and it is never involved in deadlock detection, so the thread must not
+	 * wait for any lock while holding it.
+	 * 
+	 * @see Buffer#unlatchShared()
+	 */
+	public void latchShared() {
+		contentLatch.readLock().lock();
 	}
 
+	/**
+	 * Releases the shared latch on the contents of the buffer.
+	 * 
+	 * @see Buffer#latchShared()
+	 */
+	public void unlatchShared() {
+		contentLatch.readLock().unlock();
+	}
+
+	/**
+	 * Latches the contents of the buffer in exclusive mode, so that a thread
+	 * can modify several values of the page as one step to the other threads
+	 * latching the buffer.
+	 * 
+	 * @see Buffer#unlatchExclusive()
+	 */
+	public void latchExclusive() {
+		contentLatch.writeLock().lock();
+	}
+
+	/**
+	 * Releases the exclusive latch on the contents of the buffer.
+	 * 
+	 * @see Buffer#latchExclusive()
+	 */
+	public void unlatchExclusive() {
+		contentLatch.writeLock().unlock();
+	}
+	
+	/**
+	 * Returns the index of this buffer in the buffer pool, or -1 if the buffer
+	 * does not belong to a pool.
+	 * 
+	 * @return the index of this buffer
+	 */
+	int poolIndex() {
+		return poolIdx;
+	}
+	
 	protected void close() {
 		internalLock.writeLock().lock();
 		try {
@@ -204,45 +550,95 @@ public class Buffer {
 	 * to writing the page to disk.
 	 */
 	void flush() {
-		internalLock.writeLock().lock();
+		// Take the locks in the same order as a physiological operation does
 		flushLock.lock();
+		internalLock.writeLock().lock();
 		try {
 			if (isNew || modifiedBy.size() > 0) {
 				VanillaDb.logMgr().flush(lastLsn);
 				contents.write(blk);
 				modifiedBy.clear();
 				isNew = false;
+				markClean();
 			}
 		} finally {
-			flushLock.unlock();
 			internalLock.writeLock().unlock();
+			flushLock.unlock();
 		}
 	}
 
 	/**
-	 * Increases the buffer's pin count.
+	 * Records that the page is the same as its disk block. Since a logged
+	 * modification and its log record are made under the flushing lock, all
+	 * the log records before the current end of the log have been applied to
+	 * the page.
+	 */
+	private void markClean() {
+		recLsn = null;
+		cleanLsn = VanillaDb.logMgr().tailLsn();
+	}
+
+	/**
+	 * Increases the buffer's pin count. The buffer must not be frozen.
 	 */
 	void pin() {
-		internalLock.writeLock().lock();
-		try {
-			pins++;
-		} finally {
-			internalLock.writeLock().unlock();
+		pinState.incrementAndGet();
+	}
+
+	/**
+	 * Increases the buffer's pin count if the buffer is not frozen. The caller
+	 * should check {@link #block()} afterwards, since the buffer may have been
+	 * assigned to another block before it is pinned.
+	 * 
+	 * @return the pin count before this pin, or -1 if the buffer is frozen
+	 */
+	int tryPin() {
+		while (true) {
+			int state = pinState.get();
+			if ((state & FROZEN) != 0)
+				return -1;
+			if (pinState.compareAndSet(state, state + 1))
+				return state;
 		}
 	}
 
 	/**
-	 * Decreases the buffer's pin count.
+	 * Decreases the buffer's pin count. Unpinning a buffer which is not pinned
+	 * has no effect.
+	 * 
+	 * @return the pin count after this unpin, or -1 if the buffer was not
+	 *         pinned
 	 */
-	void unpin() {
-		internalLock.writeLock().lock();
-		try {
-			pins--;
-		} finally {
-			internalLock.writeLock().unlock();
+	int unpin() {
+		while (true) {
+			int state = pinState.get();
+			if ((state & PIN_MASK) == 0)
+				return -1;
+			if (pinState.compareAndSet(state, state - 1))
+				return (state - 1) & PIN_MASK;
 		}
 	}
 
+	/**
+	 * Freezes the buffer if it is neither pinned nor frozen. A frozen buffer
+	 * can be assigned to another block safely, since no one can pin it.
+	 * 
+	 * @return true if the buffer is frozen by this call
+	 */
+	boolean tryFreeze() {
+		return pinState.compareAndSet(0, FROZEN);
+	}
+
+	/**
+	 * Unfreezes a frozen buffer.
+	 * 
+	 * @param pin
+	 *            whether the buffer should be pinned once when it is unfrozen
+	 */
+	void unfreeze(boolean pin) {
+		pinState.set(pin ? 1 : 0);
+	}
+
 	/**
 	 * Returns true if the buffer is currently pinned (that is, if it has a
 	 * nonzero pin count).
@@ -250,14 +646,66 @@ public class Buffer {
 	 * @return true if the buffer is pinned
 	 */
 	boolean isPinned() {
+		return (pinState.get() & PIN_MASK) > 0;
+	}
+
+	/**
+	 * Returns true if the contents of the buffer have not been written to
+	 * disk yet.
+	 * 
+	 * @return true if the buffer is dirty
+	 */
+	boolean isDirty() {
 		internalLock.readLock().lock();
 		try {
-			return pins > 0;
+			return isNew || modifiedBy.size() > 0;
 		} finally {
 			internalLock.readLock().unlock();
 		}
 	}
 
+	/**
+	 * Takes the buffer out of the dirty queue of its pool. The caller must
+	 * have polled the buffer from the queue.
+	 * 
+	 * @return true if the buffer is still dirty
+	 */
+	boolean leaveDirtyQueue() {
+		internalLock.writeLock().lock();
+		try {
+			inDirtyQueue = false;
+			return isNew || modifiedBy.size() > 0;
+		} finally {
+			internalLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Puts the buffer back to the dirty queue of its pool if it is dirty and
+	 * not in the queue. This is for a buffer which leaves the queue but
+	 * cannot be written yet.
+	 */
+	void requeueIfDirty() {
+		internalLock.writeLock().lock();
+		try {
+			if (isNew || modifiedBy.size() > 0)
+				enqueueDirty();
+		} finally {
+			internalLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the buffer to the dirty queue of its pool unless it is already
+	 * there. The caller must hold the write lock of the buffer.
+	 */
+	private void enqueueDirty() {
+		if (dirtyQueue != null && !inDirtyQueue) {
+			inDirtyQueue = true;
+			dirtyQueue.offer(this);
+		}
+	}
+
 	/**
 	 * Returns true if the buffer is dirty due to a modification by the
 	 * specified transaction.
@@ -279,20 +727,23 @@ public class Buffer {
 	 * Reads the contents of the specified block into the buffer's page. If the
 	 * buffer was dirty, then the contents of the previous page are first
 	 * written to disk.
+	 * The buffer must have been frozen by the caller.
 	 * 
 	 * @param blk
 	 *            a block ID
 	 */
 	void assignToBlock(BlockId blk) {
+		flushLock.lock();
 		internalLock.writeLock().lock();
 		try {
 			flush();
 			this.blk = blk;
 			contents.read(blk);
-			pins = 0;
 			lastLsn = LogSeqNum.readFromPage(contents, LAST_LSN_OFFSET);
+			markClean();
 		} finally {
 			internalLock.writeLock().unlock();
+			flushLock.unlock();
 		}
 	}
 
@@ -300,6 +751,7 @@ public class Buffer {
 	 * Initializes the buffer's page according to the specified formatter, and
 	 * appends the page to the specified file. If the buffer was dirty, then the
 	 * contents of the previous page are first written to disk.
+	 * The buffer must have been frozen by the caller.
 	 * 
 	 * @param filename
 	 *            the name of the file
@@ -307,16 +759,20 @@ public class Buffer {
 	 *            a page formatter, used to initialize the page
 	 */
 	void assignToNew(String fileName, PageFormatter fmtr) {
+		flushLock.lock();
 		internalLock.writeLock().lock();
 		try {
 			flush();
 			fmtr.format(this);
 			blk = contents.append(fileName);
-			pins = 0;
 			isNew = true;
 			lastLsn = LogSeqNum.DEFAULT_VALUE;
+			markClean();
+			recLsn = cleanLsn;
+			enqueueDirty();
 		} finally {
 			internalLock.writeLock().unlock();
+			flushLock.unlock();
 		}
 	}
 	
@@ -22,10 +22,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
 import org.vanilladb.core.util.CoreProperties;
@@ -36,10 +39,10 @@ import org.vanilladb.core.util.CoreProperties;
  * difference is that the methods {@link #pin(BlockId)} and
  * {@link #pinNew(String, PageFormatter)} will never return false and null
  * respectively. If no buffers are currently available, then the calling thread
- * will be placed on a waiting list. The waiting threads are removed from the
- * list when a buffer becomes available. If a thread has been waiting for a
- * buffer for an excessive amount of time (currently, 10 seconds) then repins
- * all currently holding blocks by the calling transaction. Buffer manager
+ * will be placed on a FIFO waiting queue. Only the thread at the head of the
+ * queue is woken up when a buffer becomes available. If a thread has been
+ * waiting for a buffer for an excessive amount of time (currently, 10 seconds)
+ * then repins all currently holding blocks by the calling transaction. Buffer manager
  * implements {@link TransactionLifecycleListener} for the purpose of unpinning buffers
  * when transaction commit/rollback/recovery.
  * 
@@ -54,10 +57,13 @@ public class BufferMgr implements TransactionLifecycleListener {
 	protected static final int BUFFER_POOL_SIZE;
 	private static final long MAX_TIME;
 	private static final long EPSILON;
+	private static final boolean FAIR_WAITING;
 
 	static {
 		MAX_TIME = CoreProperties.getLoader().getPropertyAsLong(BufferMgr.class.getName() + ".MAX_TIME", 10000);
 		EPSILON = CoreProperties.getLoader().getPropertyAsLong(BufferMgr.class.getName() + ".EPSILON", 50);
+		FAIR_WAITING = CoreProperties.getLoader()
+				.getPropertyAsBoolean(BufferMgr.class.getName() + ".FAIR_WAITING", false);
 		BUFFER_POOL_SIZE = CoreProperties.getLoader()
 				.getPropertyAsInteger(BufferMgr.class.getName() + ".BUFFER_POOL_SIZE", 1024);
 	}
@@ -72,10 +78,12 @@ public class BufferMgr implements TransactionLifecycleListener {
 	}
 
 	protected static BufferPoolMgr bufferPool = new BufferPoolMgr(BUFFER_POOL_SIZE);
-	protected static List<Thread> waitingThreads = new LinkedList<Thread>();
+	protected static BufferWaitQueue waitQueue = new BufferWaitQueue();
+	private static AtomicLong totalWaitTime = new AtomicLong(), totalWaitCount = new AtomicLong();
 
 	private Map<BlockId, PinnedBuffer> pinnedBuffers = new HashMap<BlockId, PinnedBuffer>();
 	private long txNum;
+	private long waitTime;
 	
 	public BufferMgr(long txNum) {
 		this.txNum = txNum;
@@ -84,11 +92,13 @@ public class BufferMgr implements TransactionLifecycleListener {
 	@Override
 	public void onTxCommit(Transaction tx) {
 		unpinAll(tx);
+		logWaitTime();
 	}
 
 	@Override
 	public void onTxRollback(Transaction tx) {
 		unpinAll(tx);
+		logWaitTime();
 	}
 
 	@Override
@@ -118,51 +128,43 @@ public class BufferMgr implements TransactionLifecycleListener {
 			throw new BufferAbortException();
 		
 		// Pinning process
-		try {
-			Buffer buff;
-			long timestamp = System.currentTimeMillis();
-			boolean waitedBeforeGotBuffer = false;
+		Buffer buff = null;
+		long timestamp = System.currentTimeMillis();
 
-			// Try to pin a buffer or the pinned buffer for the given BlockId
+		// Try to pin a buffer or the pinned buffer for the given BlockId.
+		// In fair mode, do not overtake the threads already waiting.
+		if (!FAIR_WAITING || !waitQueue.hasWaiters())
 			buff = bufferPool.pin(blk);
 
-			// If there is no such buffer or no available buffer,
-			// wait for it
-			if (buff == null) {
-				waitedBeforeGotBuffer = true;
-				synchronized (bufferPool) {
-					waitingThreads.add(Thread.currentThread());
-
-					while (buff == null && !waitingTooLong(timestamp)) {
-						bufferPool.wait(MAX_TIME);
-						if (waitingThreads.get(0).equals(Thread.currentThread()))
-							buff = bufferPool.pin(blk);
-					}
-
-					waitingThreads.remove(Thread.currentThread());
-				}
-			}
-
-			// If it still has no buffer after a long wait,
-			// release and re-pin all buffers it has
-			if (buff == null) {
-				repin();
-				buff = pin(blk);
-			} else {
-				pinnedBuffers.put(buff.block(), new PinnedBuffer(buff));
-			}
-
-			// TODO: Add some comment here
-			if (waitedBeforeGotBuffer) {
-				synchronized (bufferPool) {
-					bufferPool.notifyAll();
+		// If there is no such buffer or no available buffer,
+		// wait for it
+		if (buff == null) {
+			long waitStart = System.nanoTime();
+			waitQueue.enqueue();
+			try {
+				while (buff == null && !waitingTooLong(timestamp)) {
+					if (waitQueue.isMyTurn())
+						buff = bufferPool.pin(blk);
+					if (buff == null)
+						awaitBuffer(timestamp);
 				}
+			} finally {
+				// Let the next thread try
+				waitQueue.leave();
+				recordWaitTime(waitStart);
 			}
+		}
 
-			return buff;
-		} catch (InterruptedException e) {
-			throw new BufferAbortException();
+		// If it still has no buffer after a long wait,
+		// release and re-pin all buffers it has
+		if (buff == null) {
+			repin();
+			buff = pin(blk);
+		} else {
+			pinnedBuffers.put(buff.block(), new PinnedBuffer(buff));
 		}
+
+		return buff;
 	}
 
 	/**
@@ -179,57 +181,48 @@ public class BufferMgr implements TransactionLifecycleListener {
 	public Buffer pinNew(String fileName, PageFormatter fmtr) {
 		if (pinnedBuffers.size() == BUFFER_POOL_SIZE)
 			throw new BufferAbortException();
-		try {
-			Buffer buff;
-			long timestamp = System.currentTimeMillis();
-			boolean waitedBeforeGotBuffer = false;
+		Buffer buff = null;
+		long timestamp = System.currentTimeMillis();
 
-			// Try to pin a buffer or the pinned buffer for the given BlockId
+		// Try to pin a buffer or the pinned buffer for the given BlockId.
+		// In fair mode, do not overtake the threads already waiting.
+		if (!FAIR_WAITING || !waitQueue.hasWaiters())
 			buff = bufferPool.pinNew(fileName, fmtr);
 
-			// If there is no such buffer or no available buffer,
-			// wait for it
-			if (buff == null) {
-				waitedBeforeGotBuffer = true;
-				synchronized (bufferPool) {
-					waitingThreads.add(Thread.currentThread());
-
-					while (buff == null && !waitingTooLong(timestamp)) {
-						bufferPool.wait(MAX_TIME);
-						if (waitingThreads.get(0).equals(Thread.currentThread()))
-							buff = bufferPool.pinNew(fileName, fmtr);
-					}
-
-					waitingThreads.remove(Thread.currentThread());
-				}
-			}
-
-			// If it still has no buffer after a long wait,
-			// release and re-pin all buffers it has
-			if (buff == null) {
-				repin();
-				buff = pinNew(fileName, fmtr);
-			} else {
-				pinnedBuffers.put(buff.block(), new PinnedBuffer(buff));
-			}
-
-			// TODO: Add some comment here
-			if (waitedBeforeGotBuffer) {
-				synchronized (bufferPool) {
-					bufferPool.notifyAll();
+		// If there is no such buffer or no available buffer,
+		// wait for it
+		if (buff == null) {
+			long waitStart = System.nanoTime();
+			waitQueue.enqueue();
+			try {
+				while (buff == null && !waitingTooLong(timestamp)) {
+					if (waitQueue.isMyTurn())
+						buff = bufferPool.pinNew(fileName, fmtr);
+					if (buff == null)
+						awaitBuffer(timestamp);
 				}
+			} finally {
+				// Let the next thread try
+				waitQueue.leave();
+				recordWaitTime(waitStart);
 			}
+		}
 
-			return buff;
-		} catch (InterruptedException e) {
-			throw new BufferAbortException();
+		// If it still has no buffer after a long wait,
+		// release and re-pin all buffers it has
+		if (buff == null) {
+			repin();
+			buff = pinNew(fileName, fmtr);
+		} else {
+			pinnedBuffers.put(buff.block(), new PinnedBuffer(buff));
 		}
 
+		return buff;
 	}
 
 	/**
 	 * Unpins the specified buffer. If the buffer's pin count becomes 0, then
-	 * the threads on the wait list are notified.
+	 * the thread at the head of the waiting queue is woken up.
 	 * 
 	 * @param buff
 	 *            the buffer to be unpinned
@@ -244,10 +237,7 @@ public class BufferMgr implements TransactionLifecycleListener {
 			if (pinnedBuff.pinnedCount == 0) {
 				bufferPool.unpin(buff);
 				pinnedBuffers.remove(blk);
-				
-				synchronized (bufferPool) {
-					bufferPool.notifyAll();
-				}
+				waitQueue.wakeHead();
 			}
 		}
 	}
@@ -269,6 +259,28 @@ public class BufferMgr implements TransactionLifecycleListener {
 		bufferPool.flushAll(txNum);
 	}
 
+	/**
+	 * Returns the dirty page table of the buffer pool, which maps each dirty
+	 * block to the LSN from which its redo must start.
+	 * 
+	 * @return the recovery LSNs of the dirty blocks
+	 */
+	public Map<BlockId, LogSeqNum> dirtyPages() {
+		return bufferPool.dirtyPages();
+	}
+
+	/**
+	 * Writes back the buffers which have been dirty since before the specified
+	 * LSN.
+	 * 
+	 * @param lsn
+	 *            the LSN
+	 * @return the number of buffers written
+	 */
+	public int flushDirtiedBefore(LogSeqNum lsn) {
+		return bufferPool.flushDirtiedBefore(lsn);
+	}
+
 	/**
 	 * Returns the number of available (ie unpinned) buffers.
 	 * 
@@ -278,6 +290,58 @@ public class BufferMgr implements TransactionLifecycleListener {
 		return bufferPool.available();
 	}
 
+	/**
+	 * Returns the total time (in microseconds) this transaction has spent
+	 * waiting for an available buffer. A transaction waiting for buffers
+	 * frequently indicates that the buffer pool is too small for the workload.
+	 * 
+	 * @return the buffer waiting time of this transaction
+	 */
+	public long waitTime() {
+		return TimeUnit.NANOSECONDS.toMicros(waitTime);
+	}
+
+	/**
+	 * Returns the total time (in microseconds) all transactions have spent
+	 * waiting for an available buffer.
+	 * 
+	 * @return the total buffer waiting time
+	 */
+	public static long totalWaitTime() {
+		return TimeUnit.NANOSECONDS.toMicros(totalWaitTime.get());
+	}
+
+	/**
+	 * Returns the number of times a transaction had to wait for an available
+	 * buffer.
+	 * 
+	 * @return the number of buffer waits
+	 */
+	public static long totalWaitCount() {
+		return totalWaitCount.get();
+	}
+
+	/**
+	 * Returns the number of pins served by the buffer pool without reading
+	 * the block from disk. Together with {@link #missCount()}, this can be used
+	 * to compare different replacement policies on the same workload.
+	 * 
+	 * @return the number of buffer hits
+	 */
+	public long hitCount() {
+		return bufferPool.hitCount();
+	}
+
+	/**
+	 * Returns the number of pins that required a buffer to be replaced, either
+	 * to read the block from disk or to append a new block.
+	 * 
+	 * @return the number of buffer misses
+	 */
+	public long missCount() {
+		return bufferPool.missCount();
+	}
+
 	private void unpinAll(Transaction tx) {
 		// Copy the set of pinned buffers to avoid ConcurrentModificationException
 		Set<PinnedBuffer> pinnedBuffs = new HashSet<PinnedBuffer>(pinnedBuffers.values());
@@ -286,9 +350,7 @@ public class BufferMgr implements TransactionLifecycleListener {
 				bufferPool.unpin(pinnedBuff.buffer);
 		}
 
-		synchronized (bufferPool) {
-			bufferPool.notifyAll();
-		}
+		waitQueue.wakeHead();
 	}
 
 	/**
@@ -299,37 +361,65 @@ public class BufferMgr implements TransactionLifecycleListener {
 		if (logger.isLoggable(Level.WARNING))
 			logger.warning("Tx." + txNum + " is re-pinning all buffers");
 		
+		// Copy the set of pinned buffers to avoid ConcurrentModificationException
+		List<BlockId> blksToBeRepinned = new LinkedList<BlockId>();
+		Map<BlockId, Integer> pinCounts = new HashMap<BlockId, Integer>();
+		List<Buffer> buffersToBeUnpinned = new LinkedList<Buffer>();
+		
+		// Record the buffers to be un-pinned and the blocks to be re-pinned
+		for (Entry<BlockId, PinnedBuffer> entry : pinnedBuffers.entrySet()) {
+			blksToBeRepinned.add(entry.getKey());
+			pinCounts.put(entry.getKey(), entry.getValue().pinnedCount);
+			buffersToBeUnpinned.add(entry.getValue().buffer);
+		}
+		
+		// Un-pin all buffers it has
+		for (Buffer buf : buffersToBeUnpinned)
+			unpin(buf);
+
+		// Wait other threads pinning blocks, i.e. until the threads
+		// waiting before this one have left the queue, and then until
+		// another thread releases a buffer or the time is up
+		long timestamp = System.currentTimeMillis();
+		waitQueue.enqueue();
 		try {
-			// Copy the set of pinned buffers to avoid ConcurrentModificationException
-			List<BlockId> blksToBeRepinned = new LinkedList<BlockId>();
-			Map<BlockId, Integer> pinCounts = new HashMap<BlockId, Integer>();
-			List<Buffer> buffersToBeUnpinned = new LinkedList<Buffer>();
-			
-			// Record the buffers to be un-pinned and the blocks to be re-pinned
-			for (Entry<BlockId, PinnedBuffer> entry : pinnedBuffers.entrySet()) {
-				blksToBeRepinned.add(entry.getKey());
-				pinCounts.put(entry.getKey(), entry.getValue().pinnedCount);
-				buffersToBeUnpinned.add(entry.getValue().buffer);
-			}
-			
-			// Un-pin all buffers it has
-			for (Buffer buf : buffersToBeUnpinned)
-				unpin(buf);
-
-			// Wait other threads pinning blocks
-			synchronized (bufferPool) {
-				bufferPool.wait(MAX_TIME);
-			}
-
-			// Re-pin all blocks
-			for (BlockId blk : blksToBeRepinned)
-				pin(blk);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			while (!waitQueue.isMyTurn() && !waitingTooLong(timestamp))
+				awaitBuffer(timestamp);
+			if (!waitingTooLong(timestamp))
+				awaitBuffer(timestamp);
+		} finally {
+			waitQueue.leave();
 		}
+
+		// Re-pin all blocks
+		for (BlockId blk : blksToBeRepinned)
+			pin(blk);
 	}
 
 	private boolean waitingTooLong(long startTime) {
 		return System.currentTimeMillis() - startTime + EPSILON > MAX_TIME;
 	}
+
+	/**
+	 * Waits in the queue until this thread is woken up or it has waited for
+	 * too long.
+	 */
+	private void awaitBuffer(long startTime) {
+		long remaining = MAX_TIME - (System.currentTimeMillis() - startTime);
+		waitQueue.await(TimeUnit.MILLISECONDS.toNanos(remaining));
+		if (Thread.interrupted())
+			throw new BufferAbortException();
+	}
+
+	private void recordWaitTime(long waitStart) {
+		long elapsed = System.nanoTime() - waitStart;
+		waitTime += elapsed;
+		totalWaitTime.addAndGet(elapsed);
+		totalWaitCount.incrementAndGet();
+	}
+
+	private void logWaitTime() {
+		if (waitTime > 0 && logger.isLoggable(Level.FINE))
+			logger.fine("Tx." + txNum + " waited " + waitTime() + " us for buffers");
+	}
 }
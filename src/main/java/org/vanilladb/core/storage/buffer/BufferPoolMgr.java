@@ -15,22 +15,78 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.buffer;
 
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.storage.buffer.ReplacementPolicy.FrameReserver;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * 
+ * <p>
+ * Pinning a block which is already in the pool (a buffer hit) looks up the
+ * page table and increases the pin count of the buffer with a CAS, without
+ * taking any lock. Only a buffer miss synchronizes on a striped anchor of the
+ * block, so that two threads never load the same block into different
+ * buffers. A thread missing a block which is still being written out by
+ * another thread waits on the anchor of the block, and is notified once the
+ * block leaves the pool.
+ * </p>
  */
 class BufferPoolMgr {
+	private static Logger logger = Logger.getLogger(BufferPoolMgr.class.getName());
+
+	private static final Class<?> REPLACEMENT_POLICY_CLS;
+
+	static {
+		REPLACEMENT_POLICY_CLS = CoreProperties.getLoader().getPropertyAsClass(
+				BufferPoolMgr.class.getName() + ".REPLACEMENT_POLICY", ClockReplacementPolicy.class,
+				ReplacementPolicy.class);
+	}
+
 	private Buffer[] bufferPool;
 	private Map<BlockId, Buffer> blockMap;
-	private volatile int lastReplacedBuff;
+	private ReplacementPolicy replacementPolicy;
 	private AtomicInteger numAvailable;
+	// Hits are counted per buffer, so pinning different hot blocks does not
+	// contend on a single counter
+	private AtomicLongArray hitCounts;
+	private AtomicLong missCount = new AtomicLong();
+	private AtomicLong replaceCount = new AtomicLong();
+	// The buffers which have become dirty since they were last cleaned. A
+	// buffer is queued at most once, and may have been cleaned by others
+	// while in the queue.
+	private Queue<Buffer> dirtyQueue = new ConcurrentLinkedQueue<Buffer>();
+
+	/**
+	 * Reserves an unpinned buffer for replacement by freezing it. The buffer
+	 * must be unfrozen by the caller once it is swapped.
+	 */
+	private FrameReserver unpinnedBufferReserver = new FrameReserver() {
+		@Override
+		public boolean tryReserve(int frameIdx) {
+			return bufferPool[frameIdx].tryFreeze();
+		}
+	};
 
 	// Optimization: Lock striping
 	private Object[] anchors = new Object[1009];
@@ -50,15 +106,28 @@ class BufferPoolMgr {
 		bufferPool = new Buffer[numBuffs];
 		blockMap = new ConcurrentHashMap<BlockId, Buffer>();
 		numAvailable = new AtomicInteger(numBuffs);
-		lastReplacedBuff = 0;
+		hitCounts = new AtomicLongArray(numBuffs);
+		replacementPolicy = newReplacementPolicy(numBuffs);
 		for (int i = 0; i < numBuffs; i++)
-			bufferPool[i] = new Buffer();
+			bufferPool[i] = new Buffer(i, dirtyQueue);
 
 		for (int i = 0; i < anchors.length; ++i) {
 			anchors[i] = new Object();
 		}
 	}
 
+	private static ReplacementPolicy newReplacementPolicy(int numBuffs) {
+		try {
+			Constructor<?> ct = REPLACEMENT_POLICY_CLS.getConstructor(Integer.TYPE);
+			return (ReplacementPolicy) ct.newInstance(numBuffs);
+		} catch (Exception e) {
+			if (logger.isLoggable(Level.WARNING))
+				logger.log(Level.WARNING, "cannot create replacement policy: " + REPLACEMENT_POLICY_CLS.getName()
+						+ ", using " + ClockReplacementPolicy.class.getName(), e);
+			return new ClockReplacementPolicy(numBuffs);
+		}
+	}
+
 	// Optimization: Lock striping
 	private Object prepareAnchor(Object o) {
 		int code = o.hashCode() % anchors.length;
@@ -71,14 +140,8 @@ class BufferPoolMgr {
 	 * Flushes all dirty buffers.
 	 */
 	void flushAll() {
-		for (Buffer buff : bufferPool) {
-			try {
-				buff.getExternalLock().lock();
-				buff.flush();
-			} finally {
-				buff.getExternalLock().unlock();
-			}
-		}
+		for (Buffer buff : bufferPool)
+			buff.flush();
 	}
 
 	/**
@@ -89,15 +152,116 @@ class BufferPoolMgr {
 	 */
 	void flushAll(long txNum) {
 		for (Buffer buff : bufferPool) {
+			if (buff.isModifiedBy(txNum))
+				buff.flush();
+		}
+	}
+
+	/**
+	 * Returns the dirty page table, which maps the blocks of the dirty buffers
+	 * to their recovery LSNs. The buffers of temporary files are left out.
+	 * Each buffer is examined on its own, so the table is only a fuzzy
+	 * snapshot of the pool.
+	 * 
+	 * @return the recovery LSNs of the dirty blocks
+	 */
+	Map<BlockId, LogSeqNum> dirtyPages() {
+		Map<BlockId, LogSeqNum> dirtyPages = new HashMap<BlockId, LogSeqNum>();
+		for (Buffer buff : bufferPool) {
+			buff.lockFlushing();
 			try {
-				buff.getExternalLock().lock();
-				if (buff.isModifiedBy(txNum)) {
-					buff.flush();
-				}
+				LogSeqNum recLsn = buff.recoveryLsn();
+				BlockId blk = buff.block();
+				if (recLsn != null && !blk.fileName().startsWith(FileMgr.TMP_FILE_NAME_PREFIX))
+					dirtyPages.put(blk, recLsn);
 			} finally {
-				buff.getExternalLock().unlock();
+				buff.unlockFlushing();
 			}
 		}
+		return dirtyPages;
+	}
+
+	/**
+	 * Writes back the buffers which have been dirty since before the specified
+	 * LSN, one at a time.
+	 * 
+	 * @param lsn
+	 *            the LSN
+	 * @return the number of buffers written
+	 */
+	int flushDirtiedBefore(LogSeqNum lsn) {
+		int flushed = 0;
+		for (Buffer buff : bufferPool) {
+			LogSeqNum recLsn = buff.recoveryLsn();
+			if (recLsn != null && recLsn.compareTo(lsn) < 0) {
+				buff.flush();
+				flushed++;
+			}
+		}
+		return flushed;
+	}
+
+	/**
+	 * Writes back at most the specified number of dirty buffers which are not
+	 * pinned, in the order of their block ids so that the writes to the same
+	 * file are sequential. The buffers are taken from the dirty queue rather
+	 * than found by scanning the pool. Buffers being used by other threads are
+	 * skipped instead of waited for, and put back to the queue. This method is designed for the
+	 * {@link PageCleanerTask} to clean buffers before they are chosen for
+	 * replacement, so a pin miss rarely needs to write a page. Since
+	 * {@link Buffer#flush()} excludes the swapping of a buffer, the buffers
+	 * are not frozen here and pinning them is never blocked.
+	 * 
+	 * @param maxCount
+	 *            the maximum number of buffers to be written
+	 * @return the number of buffers written
+	 */
+	int flushDirtyBuffers(int maxCount) {
+		// Take the candidates from the dirty queue. Each buffer is in the
+		// queue at most once, so polling as many times as the pool size
+		// never visits a buffer twice unless it is dirtied again meanwhile.
+		List<Buffer> candidates = new ArrayList<Buffer>();
+		List<Buffer> skipped = new ArrayList<Buffer>();
+		final Map<Buffer, BlockId> candidateBlks = new IdentityHashMap<Buffer, BlockId>();
+		Buffer buff;
+		for (int polls = 0; polls < bufferPool.length && candidates.size() < maxCount
+				&& (buff = dirtyQueue.poll()) != null; polls++) {
+			// A buffer written by others since it was queued is dropped
+			if (!buff.leaveDirtyQueue())
+				continue;
+			BlockId blk = buff.block();
+			if (buff.isPinned() || blk == null) {
+				skipped.add(buff);
+			} else {
+				candidates.add(buff);
+				candidateBlks.put(buff, blk);
+			}
+		}
+
+		Collections.sort(candidates, new Comparator<Buffer>() {
+			@Override
+			public int compare(Buffer b1, Buffer b2) {
+				BlockId blk1 = candidateBlks.get(b1), blk2 = candidateBlks.get(b2);
+				int c = blk1.fileName().compareTo(blk2.fileName());
+				if (c != 0)
+					return c;
+				return Long.compare(blk1.number(), blk2.number());
+			}
+		});
+
+		int flushed = 0;
+		for (Buffer cand : candidates) {
+			if (cand.isPinned()) {
+				skipped.add(cand);
+			} else if (cand.isDirty()) {
+				cand.flush();
+				flushed++;
+			}
+		}
+
+		for (Buffer skip : skipped)
+			skip.requeueIfDirty();
+		return flushed;
 	}
 
 	/**
@@ -111,69 +275,62 @@ class BufferPoolMgr {
 	 * @return the pinned buffer
 	 */
 	Buffer pin(BlockId blk) {
-		// Only the txs acquiring the same block will be blocked
-		synchronized (prepareAnchor(blk)) {
-			// Find existing buffer
-			Buffer buff = findExistingBuffer(blk);
+		// Fast path: the block is in the pool
+		Buffer buff = tryPinExistingBuffer(blk);
+		if (buff != null)
+			return buff;
 
-			// If there is no such buffer
-			if (buff == null) {
+		// Only the txs acquiring the same block will be blocked
+		Object anchor = prepareAnchor(blk);
+		BlockId evictedBlk = null;
+		try {
+			synchronized (anchor) {
+				while (true) {
+					// Check again since another tx may have loaded the block
+					buff = tryPinExistingBuffer(blk);
+					if (buff != null)
+						return buff;
 
-				// Choose Unpinned Buffer
-				int lastReplacedBuff = this.lastReplacedBuff;
-				int currBlk = (lastReplacedBuff + 1) % bufferPool.length;
-				while (currBlk != lastReplacedBuff) {
-					buff = bufferPool[currBlk];
-					
-					// Get the lock of buffer if it is free
-					if (buff.getExternalLock().tryLock()) {
+					// The block is being written out by a tx replacing it, wait
+					// until the block is removed from the pool
+					if (blockMap.containsKey(blk)) {
 						try {
-							// Check if there is no one use it
-							if (!buff.isPinned()) {
-								this.lastReplacedBuff = currBlk;
-								
-								// Swap
-								BlockId oldBlk = buff.block();
-								if (oldBlk != null)
-									blockMap.remove(oldBlk);
-								buff.assignToBlock(blk);
-								blockMap.put(blk, buff);
-								if (!buff.isPinned())
-									numAvailable.decrementAndGet();
-								
-								// Pin this buffer
-								buff.pin();
-								return buff;
-							}
-						} finally {
-							// Release the lock of buffer
-							buff.getExternalLock().unlock();
+							anchor.wait();
+						} catch (InterruptedException e) {
+							throw new BufferAbortException();
 						}
+						continue;
 					}
-					currBlk = (currBlk + 1) % bufferPool.length;
-				}
-				return null;
-				
-			// If it exists
-			} else {
-				// Get the lock of buffer
-				buff.getExternalLock().lock();
-				
-				try {
-					// Check its block id before pinning since it might be swapped
-					if (buff.block().equals(blk)) {
-						if (!buff.isPinned())
-							numAvailable.decrementAndGet();
-						buff.pin();
-						return buff;
+
+					// Choose Unpinned Buffer
+					int victimIdx = replacementPolicy.chooseVictim(unpinnedBufferReserver);
+					if (victimIdx < 0)
+						return null;
+					buff = bufferPool[victimIdx];
+					evictedBlk = buff.block();
+
+					// The buffer has been frozen by the reserver
+					try {
+						// Swap
+						evict(buff);
+						buff.assignToBlock(blk);
+						blockMap.put(blk, buff);
+						replacementPolicy.onLoad(victimIdx, blk);
+						missCount.incrementAndGet();
+						replaceCount.incrementAndGet();
+						numAvailable.decrementAndGet();
+					} catch (RuntimeException e) {
+						buff.unfreeze(false);
+						throw e;
 					}
-					return pin(blk);
-					
-				} finally {
-					// Release the lock of buffer
-					buff.getExternalLock().unlock();
+
+					// Pin this buffer
+					buff.unfreeze(true);
+					return buff;
 				}
 			}
+		} finally {
+			notifyEvicted(evictedBlk);
 		}
 	}
 
@@ -190,41 +347,38 @@ class BufferPoolMgr {
 	 */
 	Buffer pinNew(String fileName, PageFormatter fmtr) {
 		// Only the txs acquiring to append the block on the same file will be blocked
-		synchronized (prepareAnchor(fileName)) {
-			
-			// Choose Unpinned Buffer
-			int lastReplacedBuff = this.lastReplacedBuff;
-			int currBlk = (lastReplacedBuff + 1) % bufferPool.length;
-			while (currBlk != lastReplacedBuff) {
-				Buffer buff = bufferPool[currBlk];
-				
-				// Get the lock of buffer if it is free
-				if (buff.getExternalLock().tryLock()) {
-					try {
-						if (!buff.isPinned()) {
-							this.lastReplacedBuff = currBlk;
-							
-							// Swap
-							BlockId oldBlk = buff.block();
-							if (oldBlk != null)
-								blockMap.remove(oldBlk);
-							buff.assignToNew(fileName, fmtr);
-							blockMap.put(buff.block(), buff);
-							if (!buff.isPinned())
-								numAvailable.decrementAndGet();
-							
-							// Pin this buffer
-							buff.pin();
-							return buff;
-						}
-					} finally {
-						// Release the lock of buffer
-						buff.getExternalLock().unlock();
-					}
+		BlockId evictedBlk = null;
+		try {
+			synchronized (prepareAnchor(fileName)) {
+
+				// Choose Unpinned Buffer
+				int victimIdx = replacementPolicy.chooseVictim(unpinnedBufferReserver);
+				if (victimIdx < 0)
+					return null;
+				Buffer buff = bufferPool[victimIdx];
+				evictedBlk = buff.block();
+
+				// The buffer has been frozen by the reserver
+				try {
+					// Swap
+					evict(buff);
+					buff.assignToNew(fileName, fmtr);
+					blockMap.put(buff.block(), buff);
+					replacementPolicy.onLoad(victimIdx, buff.block());
+					missCount.incrementAndGet();
+					replaceCount.incrementAndGet();
+					numAvailable.decrementAndGet();
+				} catch (RuntimeException e) {
+					buff.unfreeze(false);
+					throw e;
 				}
-				currBlk = (currBlk + 1) % bufferPool.length;
+
+				// Pin this buffer
+				buff.unfreeze(true);
+				return buff;
 			}
-			return null;
+		} finally {
+			notifyEvicted(evictedBlk);
 		}
 	}
 
@@ -236,16 +390,8 @@ class BufferPoolMgr {
 	 */
 	void unpin(Buffer... buffs) {
 		for (Buffer buff : buffs) {
-			try {
-				// Get the lock of buffer
-				buff.getExternalLock().lock();
-				buff.unpin();
-				if (!buff.isPinned())
-					numAvailable.incrementAndGet();
-			} finally {
-				// Release the lock of buffer
-				buff.getExternalLock().unlock();
-			}
+			if (buff.unpin() == 0)
+				numAvailable.incrementAndGet();
 		}
 	}
 
@@ -258,10 +404,103 @@ class BufferPoolMgr {
 		return numAvailable.get();
 	}
 
-	private Buffer findExistingBuffer(BlockId blk) {
+	/**
+	 * Returns the number of pins served by a buffer already holding the block.
+	 * 
+	 * @return the number of buffer hits
+	 */
+	long hitCount() {
+		long count = 0;
+		for (int i = 0; i < hitCounts.length(); i++)
+			count += hitCounts.get(i);
+		return count;
+	}
+
+	/**
+	 * Returns the number of pins which could not be served by a buffer already
+	 * holding the block, including the pins of newly appended blocks.
+	 * 
+	 * @return the number of buffer misses
+	 */
+	long missCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the number of times a buffer has been assigned to another block,
+	 * including the ones assigned to newly appended blocks.
+	 * 
+	 * @return the number of buffer replacements
+	 */
+	long replaceCount() {
+		return replaceCount.get();
+	}
+
+	/**
+	 * Returns the number of buffers in this pool.
+	 * 
+	 * @return the number of buffers
+	 */
+	int size() {
+		return bufferPool.length;
+	}
+
+	/**
+	 * Pins the buffer holding the specified block without locking, if there
+	 * is one.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @return the pinned buffer, or null if the block is not in the pool or
+	 *         its buffer is being swapped
+	 */
+	private Buffer tryPinExistingBuffer(BlockId blk) {
 		Buffer buff = blockMap.get(blk);
-		if (buff != null && buff.block().equals(blk))
-			return buff;
-		return null;
+		if (buff == null)
+			return null;
+
+		int pins = buff.tryPin();
+		if (pins < 0)
+			return null;
+		if (pins == 0)
+			numAvailable.decrementAndGet();
+
+		// Check its block id after pinning since it might have been swapped
+		// before that. A pinned buffer cannot be swapped.
+		if (!blk.equals(buff.block())) {
+			unpin(buff);
+			return null;
+		}
+
+		replacementPolicy.onHit(buff.poolIndex());
+		hitCounts.incrementAndGet(buff.poolIndex());
+		return buff;
+	}
+
+	/**
+	 * Writes back the contents of a frozen buffer, and then removes it from
+	 * the page table. The buffer is removed after it is written so that a tx
+	 * pinning the old block again never reads a stale page from disk.
+	 */
+	private void evict(Buffer buff) {
+		BlockId oldBlk = buff.block();
+		if (oldBlk != null) {
+			buff.flush();
+			blockMap.remove(oldBlk);
+		}
+	}
+
+	/**
+	 * Wakes up the threads waiting for the specified block to be written out.
+	 * This must be called after the anchor of the replacing block is
+	 * released, so that a thread never holds two anchors at once.
+	 */
+	private void notifyEvicted(BlockId blk) {
+		if (blk == null)
+			return;
+		Object anchor = prepareAnchor(blk);
+		synchronized (anchor) {
+			anchor.notifyAll();
+		}
 	}
 }
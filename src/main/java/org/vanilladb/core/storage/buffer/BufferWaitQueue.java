@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A FIFO queue of the threads waiting for a buffer. Only the thread at the
+ * head of the queue is woken up when a buffer is released, and the next
+ * thread is woken up once the head leaves the queue, so releasing a buffer
+ * never wakes up all waiting threads.
+ */
+class BufferWaitQueue {
+
+	private Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+	/**
+	 * Returns true if there is any thread waiting in the queue.
+	 * 
+	 * @return true if the queue is not empty
+	 */
+	boolean hasWaiters() {
+		return !waiters.isEmpty();
+	}
+
+	/**
+	 * Appends the calling thread to the tail of the queue.
+	 */
+	void enqueue() {
+		waiters.add(Thread.currentThread());
+	}
+
+	/**
+	 * Returns true if the calling thread is at the head of the queue.
+	 * 
+	 * @return true if it is the turn of the calling thread
+	 */
+	boolean isMyTurn() {
+		return waiters.peek() == Thread.currentThread();
+	}
+
+	/**
+	 * Parks the calling thread until it is woken up, interrupted, or the
+	 * specified time has elapsed. A call may also return spuriously, so the
+	 * caller should check its condition again.
+	 * 
+	 * @param nanos
+	 *            the maximum time to wait in nanoseconds
+	 */
+	void await(long nanos) {
+		if (nanos > 0)
+			LockSupport.parkNanos(this, nanos);
+	}
+
+	/**
+	 * Removes the calling thread from the queue, and wakes up the thread
+	 * becoming the head of the queue.
+	 */
+	void leave() {
+		waiters.remove(Thread.currentThread());
+		wakeHead();
+	}
+
+	/**
+	 * Wakes up the thread at the head of the queue, if there is one.
+	 */
+	void wakeHead() {
+		Thread head = waiters.peek();
+		if (head != null)
+			LockSupport.unpark(head);
+	}
+}
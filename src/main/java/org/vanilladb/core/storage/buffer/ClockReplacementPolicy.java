@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.vanilladb.core.storage.file.BlockId;
+
+/**
+ * The CLOCK (second chance) replacement policy. A hand walks around the pool
+ * in round-robin order. A frame referenced since the hand last passed it gets
+ * a second chance; otherwise it is replaced.
+ */
+public class ClockReplacementPolicy extends ReplacementPolicy {
+
+	private AtomicIntegerArray refBits;
+	private int hand;
+
+	public ClockReplacementPolicy(int poolSize) {
+		super(poolSize);
+		refBits = new AtomicIntegerArray(poolSize);
+		hand = 0;
+	}
+
+	@Override
+	public void onHit(int frameIdx) {
+		if (refBits.get(frameIdx) == 0)
+			refBits.lazySet(frameIdx, 1);
+	}
+
+	@Override
+	public void onLoad(int frameIdx, BlockId blk) {
+		refBits.set(frameIdx, 0);
+	}
+
+	@Override
+	public synchronized int chooseVictim(FrameReserver reserver) {
+		// Two rounds are enough to clear all reference bits
+		for (int i = 0; i < poolSize * 2; i++) {
+			int frameIdx = hand;
+			hand = (hand + 1) % poolSize;
+
+			if (refBits.get(frameIdx) == 1) {
+				refBits.set(frameIdx, 0);
+				continue;
+			}
+
+			if (reserver.tryReserve(frameIdx))
+				return frameIdx;
+		}
+		return -1;
+	}
+}
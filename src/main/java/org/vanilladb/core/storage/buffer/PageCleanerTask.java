@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The task writes dirty buffers back to disk in the background, so that a
+ * transaction missing the buffer pool rarely has to write another
+ * transaction's page before it can read its own block.
+ * 
+ * <p>
+ * The number of buffers written in each round follows how fast the buffer
+ * pool is turning over: it is proportional to the number of buffer
+ * replacements since the last round. The task sleeps longer when there is
+ * nothing to write and wakes up more often when it cannot keep up.
+ * </p>
+ */
+public class PageCleanerTask extends Task {
+	private static Logger logger = Logger.getLogger(PageCleanerTask.class.getName());
+
+	private static final long MIN_INTERVAL, MAX_INTERVAL;
+	private static final int MIN_BATCH_SIZE;
+
+	static {
+		MIN_INTERVAL = CoreProperties.getLoader().getPropertyAsLong(
+				PageCleanerTask.class.getName() + ".MIN_INTERVAL", 10);
+		MAX_INTERVAL = CoreProperties.getLoader().getPropertyAsLong(
+				PageCleanerTask.class.getName() + ".MAX_INTERVAL", 1000);
+		MIN_BATCH_SIZE = CoreProperties.getLoader().getPropertyAsInteger(
+				PageCleanerTask.class.getName() + ".MIN_BATCH_SIZE", 16);
+	}
+
+	private BufferPoolMgr bufferPool;
+	private long interval = MAX_INTERVAL;
+	private long lastReplaceCount;
+
+	public PageCleanerTask() {
+		this(BufferMgr.bufferPool);
+	}
+
+	PageCleanerTask(BufferPoolMgr bufferPool) {
+		this.bufferPool = bufferPool;
+		this.lastReplaceCount = bufferPool.replaceCount();
+	}
+
+	/**
+	 * Writes back a batch of dirty buffers, and adjusts the sleeping interval
+	 * according to the result.
+	 * 
+	 * @return the number of buffers written
+	 */
+	int cleanOnce() {
+		long replaceCount = bufferPool.replaceCount();
+		long turnover = replaceCount - lastReplaceCount;
+		lastReplaceCount = replaceCount;
+
+		// Write twice as many buffers as the ones replaced, so the buffers
+		// ahead of the replacement hand are clean
+		int batchSize = (int) Math.min(bufferPool.size(), Math.max(MIN_BATCH_SIZE, turnover * 2));
+		int flushed = bufferPool.flushDirtyBuffers(batchSize);
+
+		if (flushed == 0)
+			interval = Math.min(interval * 2, MAX_INTERVAL);
+		else if (flushed >= batchSize)
+			interval = Math.max(interval / 2, MIN_INTERVAL);
+
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("page cleaner wrote " + flushed + " buffers, next round in " + interval + " ms");
+
+		return flushed;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				cleanOnce();
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				if (logger.isLoggable(Level.WARNING))
+					logger.warning("page cleaner is interrupted");
+				return;
+			} catch (RuntimeException e) {
+				// Keep cleaning even if a write fails
+				if (logger.isLoggable(Level.WARNING))
+					logger.log(Level.WARNING, "page cleaner failed to write buffers", e);
+			}
+		}
+	}
+}
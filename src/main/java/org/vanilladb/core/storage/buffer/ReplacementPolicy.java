@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import org.vanilladb.core.storage.file.BlockId;
+
+/**
+ * Decides which frame of the buffer pool should be replaced when a block that
+ * is not in the pool is pinned. The frames are identified by their indices in
+ * the pool, which range from 0 to {@code poolSize - 1}.
+ * 
+ * <p>
+ * A policy only keeps the access history. Whether a frame can actually be
+ * replaced (i.e. it is not pinned and no other thread is swapping it) is
+ * decided by the buffer pool through a {@link FrameReserver}. Implementations
+ * are created by {@link BufferPoolMgr} via reflection, so they must provide a
+ * public constructor taking the pool size as the only argument.
+ * </p>
+ * 
+ * <p>
+ * {@link #onHit(int)} is called on every buffer hit, so it should not block.
+ * The other methods are only called on buffer misses.
+ * </p>
+ */
+public abstract class ReplacementPolicy {
+
+	/**
+	 * A callback used by a policy to try to take a frame for replacement.
+	 */
+	public interface FrameReserver {
+
+		/**
+		 * Tries to reserve the specified frame for replacement. If this method
+		 * returns true, the frame is held by the calling thread until the
+		 * buffer pool finishes swapping it.
+		 * 
+		 * @param frameIdx
+		 *            the index of the frame
+		 * @return true if the frame is reserved
+		 */
+		boolean tryReserve(int frameIdx);
+	}
+
+	protected final int poolSize;
+
+	public ReplacementPolicy(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * Records that the block in the specified frame has been pinned again.
+	 * 
+	 * @param frameIdx
+	 *            the index of the frame
+	 */
+	public abstract void onHit(int frameIdx);
+
+	/**
+	 * Records that a block has been loaded into the specified frame, replacing
+	 * the block which was there before.
+	 * 
+	 * @param frameIdx
+	 *            the index of the frame
+	 * @param blk
+	 *            the block loaded into the frame
+	 */
+	public abstract void onLoad(int frameIdx, BlockId blk);
+
+	/**
+	 * Walks through the frames in the order this policy prefers to replace
+	 * them, and returns the first one reserved by the given reserver.
+	 * 
+	 * @param reserver
+	 *            the callback reserving a frame
+	 * @return the index of the reserved frame, or -1 if no frame can be
+	 *         reserved
+	 */
+	public abstract int chooseVictim(FrameReserver reserver);
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * A scan-resistant replacement policy based on 2Q, approximated with a clock
+ * hand. A newly loaded block enters the <em>cold</em> (probationary) set and
+ * is replaced as soon as the hand reaches it unless it has been referenced
+ * again in the meantime, in which case it is promoted to the <em>hot</em> set.
+ * Hot blocks are only demoted when the hot set grows larger than
+ * {@link #HOT_RATIO} of the pool. The ids of recently replaced cold blocks are
+ * remembered in a ghost queue, so a block re-read soon after its eviction is
+ * loaded directly into the hot set.
+ * 
+ * <p>
+ * A sequential scan touches each block once, so its blocks stay cold and only
+ * recycle the cold frames, leaving the hot blocks (e.g. the index directory
+ * and catalog blocks) in the pool.
+ * </p>
+ */
+public class TwoQueueReplacementPolicy extends ReplacementPolicy {
+
+	/**
+	 * The maximum fraction of the pool occupied by hot blocks.
+	 */
+	public static final double HOT_RATIO;
+
+	/**
+	 * The number of evicted blocks remembered in the ghost queue, as a
+	 * fraction of the pool size.
+	 */
+	public static final double GHOST_RATIO;
+
+	static {
+		HOT_RATIO = CoreProperties.getLoader().getPropertyAsDouble(
+				TwoQueueReplacementPolicy.class.getName() + ".HOT_RATIO", 0.75);
+		GHOST_RATIO = CoreProperties.getLoader().getPropertyAsDouble(
+				TwoQueueReplacementPolicy.class.getName() + ".GHOST_RATIO", 0.5);
+	}
+
+	private AtomicIntegerArray refBits;
+	private boolean[] isHot;
+	private BlockId[] blocks;
+	private int hotCount, maxHotCount;
+	private int hand;
+	private Map<BlockId, Boolean> ghosts;
+
+	@SuppressWarnings("serial")
+	public TwoQueueReplacementPolicy(int poolSize) {
+		super(poolSize);
+		refBits = new AtomicIntegerArray(poolSize);
+		isHot = new boolean[poolSize];
+		blocks = new BlockId[poolSize];
+		hotCount = 0;
+		maxHotCount = Math.max(1, (int) (poolSize * HOT_RATIO));
+		hand = 0;
+
+		final int ghostCapacity = Math.max(1, (int) (poolSize * GHOST_RATIO));
+		ghosts = new LinkedHashMap<BlockId, Boolean>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<BlockId, Boolean> eldest) {
+				return size() > ghostCapacity;
+			}
+		};
+	}
+
+	@Override
+	public void onHit(int frameIdx) {
+		if (refBits.get(frameIdx) == 0)
+			refBits.lazySet(frameIdx, 1);
+	}
+
+	@Override
+	public synchronized void onLoad(int frameIdx, BlockId blk) {
+		// Remember the replaced block if it has never been hot
+		BlockId oldBlk = blocks[frameIdx];
+		if (oldBlk != null && !isHot[frameIdx])
+			ghosts.put(oldBlk, Boolean.TRUE);
+
+		blocks[frameIdx] = blk;
+		refBits.set(frameIdx, 0);
+
+		// A block referenced again shortly after its eviction goes hot directly
+		boolean hot = ghosts.remove(blk) != null;
+		if (hot && !isHot[frameIdx])
+			hotCount++;
+		else if (!hot && isHot[frameIdx])
+			hotCount--;
+		isHot[frameIdx] = hot;
+	}
+
+	@Override
+	public synchronized int chooseVictim(FrameReserver reserver) {
+		// The first two rounds only replace cold blocks. If all of them are
+		// pinned, the last round also takes unreferenced hot blocks.
+		for (int i = 0; i < poolSize * 3; i++) {
+			boolean desperate = i >= poolSize * 2;
+			int frameIdx = hand;
+			hand = (hand + 1) % poolSize;
+
+			if (refBits.get(frameIdx) == 1) {
+				refBits.set(frameIdx, 0);
+				if (!isHot[frameIdx]) {
+					isHot[frameIdx] = true;
+					hotCount++;
+				}
+				continue;
+			}
+
+			if (isHot[frameIdx]) {
+				if (hotCount > maxHotCount) {
+					isHot[frameIdx] = false;
+					hotCount--;
+				} else if (!desperate)
+					continue;
+			}
+
+			if (reserver.tryReserve(frameIdx))
+				return frameIdx;
+		}
+		return -1;
+	}
+}
@@ -15,11 +15,23 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.file;
 
+import static java.sql.Types.BIGINT;
+import static java.sql.Types.DOUBLE;
+import static java.sql.Types.INTEGER;
+import static java.sql.Types.VARCHAR;
+
 import java.nio.BufferOverflowException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.BigIntConstant;
 import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.DoubleConstant;
+import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VarcharConstant;
+import org.vanilladb.core.sql.VarcharType;
 import org.vanilladb.core.storage.file.io.IoAllocator;
 import org.vanilladb.core.storage.file.io.IoBuffer;
 import org.vanilladb.core.util.ByteHelper;
@@ -53,6 +65,13 @@ import org.vanilladb.core.util.CoreProperties;
  * p3.read(blk);
  * String s = (String) p3.getVal(20).asJavaVal();
  * </pre>
+ * 
+ * <p>
+ * The primitive getters, such as {@link #getInt(int)} and
+ * {@link #compareVarchar(int, String)}, read the values in place without
+ * creating any constant or byte array, so the values can be examined before
+ * deciding whether to materialize them.
+ * </p>
  */
 
 public class Page {
@@ -65,6 +84,11 @@ public class Page {
 		BLOCK_SIZE = CoreProperties.getLoader().getPropertyAsInteger(Page.class.getName() + ".BLOCK_SIZE", 4096);
 	}
 
+	// Varchars in UTF-8 are decoded in place by the primitive getters
+	private static final boolean UTF8_VARCHAR = Charset.forName(VarcharType.CHAR_SET)
+			.equals(StandardCharsets.UTF_8);
+	private static final int CODE_LENGTH_SHIFT = 24, CODE_POINT_MASK = (1 << CODE_LENGTH_SHIFT) - 1;
+
 	/**
 	 * Calculates the maximum number of bytes required to store a value of a
 	 * particular {@link Type type} in disk.
@@ -148,23 +172,226 @@ public class Page {
 	 * @return the constant value at that offset
 	 */
 	public synchronized Constant getVal(int offset, Type type) {
+		switch (type.getSqlType()) {
+		case INTEGER:
+			return new IntegerConstant(contents.getInt(offset));
+		case BIGINT:
+			return new BigIntConstant(contents.getLong(offset));
+		case DOUBLE:
+			return new DoubleConstant(getDouble(offset));
+		default:
+			return Constant.newInstance(type, getValBytes(offset, type));
+		}
+	}
+
+	/**
+	 * Returns the serialized bytes of the value at a specified offset of this
+	 * page, without the length of a variable-length value. The bytes can be
+	 * turned into a constant by {@link Constant#newInstance(Type, byte[])}.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param type
+	 *            the type of the value
+	 * @return the bytes of the value at that offset
+	 */
+	public synchronized byte[] getValBytes(int offset, Type type) {
 		int size;
-		byte[] byteVal = null;
+		byte[] byteVal;
 
 		// Check the length of bytes
 		if (type.isFixedSize()) {
 			size = type.maxSize();
 		} else {
-			byteVal = new byte[ByteHelper.INT_SIZE];
-			contents.get(offset, byteVal);
-			size = ByteHelper.toInteger(byteVal);
+			size = contents.getInt(offset);
 			offset += ByteHelper.INT_SIZE;
 		}
 
-		// Get bytes and translate it to Constant
 		byteVal = new byte[size];
 		contents.get(offset, byteVal);
-		return Constant.newInstance(type, byteVal);
+		return byteVal;
+	}
+
+	/**
+	 * Returns the number of serialized bytes of the value at a specified
+	 * offset of this page, without the length of a variable-length value.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param type
+	 *            the type of the value
+	 * @return the size of the value at that offset
+	 */
+	public synchronized int getValSize(int offset, Type type) {
+		return type.isFixedSize() ? type.maxSize() : contents.getInt(offset);
+	}
+
+	/**
+	 * Copies the serialized bytes of the value at a specified offset of this
+	 * page into the specified array, like {@link #getValBytes(int, Type)} but
+	 * without creating an array.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param type
+	 *            the type of the value
+	 * @param dst
+	 *            the array to be written
+	 * @param dstOffset
+	 *            the offset in the array to write the bytes at
+	 * @return the number of bytes copied
+	 */
+	public synchronized int getValBytes(int offset, Type type, byte[] dst, int dstOffset) {
+		int size;
+		if (type.isFixedSize()) {
+			size = type.maxSize();
+		} else {
+			size = contents.getInt(offset);
+			offset += ByteHelper.INT_SIZE;
+		}
+		contents.get(offset, dst, dstOffset, size);
+		return size;
+	}
+
+	/**
+	 * Returns a copy of the raw bytes in the specified range of this page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param size
+	 *            the number of bytes
+	 * @return the bytes in that range
+	 */
+	public synchronized byte[] getBytes(int offset, int size) {
+		byte[] bytes = new byte[size];
+		contents.get(offset, bytes);
+		return bytes;
+	}
+
+	/**
+	 * Returns the integer at the specified offset of this page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the integer at that offset
+	 */
+	public synchronized int getInt(int offset) {
+		return contents.getInt(offset);
+	}
+
+	/**
+	 * Returns the long integer at the specified offset of this page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the long integer at that offset
+	 */
+	public synchronized long getLong(int offset) {
+		return contents.getLong(offset);
+	}
+
+	/**
+	 * Returns the double at the specified offset of this page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the double at that offset
+	 */
+	public synchronized double getDouble(int offset) {
+		return Double.longBitsToDouble(contents.getLong(offset));
+	}
+
+	/**
+	 * Compares the varchar at the specified offset of this page with the
+	 * specified string, in the same order as
+	 * {@link VarcharConstant#compareTo(Constant)}.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param val
+	 *            the string to be compared with
+	 * @return a negative integer, zero, or a positive integer as the varchar
+	 *         is less than, equal to, or greater than the string
+	 */
+	public synchronized int compareVarchar(int offset, String val) {
+		int length = contents.getInt(offset);
+		int pos = offset + ByteHelper.INT_SIZE, end = pos + length;
+		int idx = 0;
+		while (pos < end) {
+			int decoded = UTF8_VARCHAR ? decodeUtf8(pos, end) : -1;
+			if (decoded < 0)
+				return decodeVarchar(offset).compareTo(val);
+			int cp = decoded & CODE_POINT_MASK;
+			pos += decoded >>> CODE_LENGTH_SHIFT;
+			for (int i = 0; i < Character.charCount(cp); i++) {
+				if (idx == val.length())
+					return 1;
+				char c = utf16Unit(cp, i), other = val.charAt(idx++);
+				if (c != other)
+					return c - other;
+			}
+		}
+		return idx - val.length();
+	}
+
+	/**
+	 * Returns the hash code of the varchar at the specified offset of this
+	 * page, which equals that of {@link VarcharConstant#hashCode()}.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the hash code of the varchar
+	 */
+	public synchronized int hashVarchar(int offset) {
+		int length = contents.getInt(offset);
+		int pos = offset + ByteHelper.INT_SIZE, end = pos + length;
+		int hash = 0;
+		while (pos < end) {
+			int decoded = UTF8_VARCHAR ? decodeUtf8(pos, end) : -1;
+			if (decoded < 0)
+				return decodeVarchar(offset).hashCode();
+			int cp = decoded & CODE_POINT_MASK;
+			pos += decoded >>> CODE_LENGTH_SHIFT;
+			for (int i = 0; i < Character.charCount(cp); i++)
+				hash = 31 * hash + utf16Unit(cp, i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Compares the value of the specified type at the specified offset of this
+	 * page with the specified constant, in the same order as
+	 * {@link Constant#compareTo(Constant)}, without creating a constant for
+	 * the value.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param type
+	 *            the type of the value
+	 * @param val
+	 *            the constant to be compared with
+	 * @return a negative integer, zero, or a positive integer as the value is
+	 *         less than, equal to, or greater than the constant
+	 */
+	public synchronized int compareVal(int offset, Type type, Constant val) {
+		int sqlType = type.getSqlType();
+		if ((sqlType == VARCHAR) != (val instanceof VarcharConstant))
+			throw new IllegalArgumentException("cannot compare a value of SQL type " + sqlType
+					+ " with the constant " + val);
+		switch (sqlType) {
+		case INTEGER:
+		case BIGINT:
+			long l = sqlType == INTEGER ? contents.getInt(offset) : contents.getLong(offset);
+			if (val instanceof DoubleConstant)
+				return Double.compare(l, (Double) val.asJavaVal());
+			return Long.compare(l, ((Number) val.asJavaVal()).longValue());
+		case DOUBLE:
+			return Double.compare(getDouble(offset), ((Number) val.asJavaVal()).doubleValue());
+		case VARCHAR:
+			return compareVarchar(offset, (String) val.asJavaVal());
+		default:
+			throw new UnsupportedOperationException("Unsupported SQL type: " + sqlType);
+		}
 	}
 
 	/**
@@ -177,6 +404,19 @@ public class Page {
 	 *            the constant value to be written to the page
 	 */
 	public synchronized void setVal(int offset, Constant val) {
+		int sqlType = val.getType().getSqlType();
+		if (sqlType == INTEGER || sqlType == BIGINT || sqlType == DOUBLE) {
+			if (offset + val.size() > BLOCK_SIZE)
+				throw new BufferOverflowException();
+			if (sqlType == INTEGER)
+				contents.putInt(offset, (Integer) val.asJavaVal());
+			else if (sqlType == BIGINT)
+				contents.putLong(offset, (Long) val.asJavaVal());
+			else
+				contents.putLong(offset, Double.doubleToRawLongBits((Double) val.asJavaVal()));
+			return;
+		}
+
 		byte[] byteval = val.asBytes();
 
 		// Append the size of value if it is not fixed size
@@ -185,19 +425,98 @@ public class Page {
 			if (offset + ByteHelper.INT_SIZE + byteval.length > BLOCK_SIZE)
 				throw new BufferOverflowException();
 
-			byte[] sizeBytes = ByteHelper.toBytes(byteval.length);
-			contents.put(offset, sizeBytes);
-			offset += sizeBytes.length;
+			contents.putInt(offset, byteval.length);
+			offset += ByteHelper.INT_SIZE;
 		}
 
 		// Put bytes
 		contents.put(offset, byteval);
 	}
 
+	/**
+	 * Reads the bytes of the page starting at the specified offset into the
+	 * specified array.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param bytes
+	 *            the array to be filled
+	 */
+	public synchronized void getBytes(int offset, byte[] bytes) {
+		contents.get(offset, bytes);
+	}
+
+	/**
+	 * Writes the specified bytes to the page starting at the specified
+	 * offset.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param bytes
+	 *            the bytes to be written
+	 */
+	public synchronized void setBytes(int offset, byte[] bytes) {
+		if (offset + bytes.length > BLOCK_SIZE)
+			throw new BufferOverflowException();
+		contents.put(offset, bytes);
+	}
+
 	/**
 	 * Close this page to release resources.
 	 */
 	public void close() {
 		contents.close();
 	}
+
+	/*
+	 * Decodes the UTF-8 sequence starting at the specified position, and
+	 * returns the code point with the length of the sequence in the highest
+	 * byte, or -1 if the sequence is malformed. The malformed sequences are
+	 * left to the charset decoder, so they are replaced in the same way.
+	 */
+	private int decodeUtf8(int pos, int end) {
+		int b = contents.get(pos) & 0xFF;
+		int cp, length, min;
+		if (b < 0x80)
+			return b | (1 << CODE_LENGTH_SHIFT);
+		else if ((b & 0xE0) == 0xC0) {
+			cp = b & 0x1F;
+			length = 2;
+			min = 0x80;
+		} else if ((b & 0xF0) == 0xE0) {
+			cp = b & 0x0F;
+			length = 3;
+			min = 0x800;
+		} else if ((b & 0xF8) == 0xF0) {
+			cp = b & 0x07;
+			length = 4;
+			min = 0x10000;
+		} else
+			return -1;
+
+		if (pos + length > end)
+			return -1;
+		for (int i = 1; i < length; i++) {
+			int c = contents.get(pos + i) & 0xFF;
+			if ((c & 0xC0) != 0x80)
+				return -1;
+			cp = (cp << 6) | (c & 0x3F);
+		}
+		if (cp < min || cp > Character.MAX_CODE_POINT
+				|| (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE))
+			return -1;
+		return cp | (length << CODE_LENGTH_SHIFT);
+	}
+
+	private static char utf16Unit(int cp, int i) {
+		if (Character.isBmpCodePoint(cp))
+			return (char) cp;
+		return i == 0 ? Character.highSurrogate(cp) : Character.lowSurrogate(cp);
+	}
+
+	private String decodeVarchar(int offset) {
+		byte[] bytes = new byte[contents.getInt(offset)];
+		contents.get(offset + ByteHelper.INT_SIZE, bytes);
+		return new String(bytes, Charset.forName(VarcharType.CHAR_SET));
+	}
 }
@@ -17,20 +17,31 @@ package org.vanilladb.core.storage.file.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.vanilladb.core.storage.file.io.javanio.JavaNioByteBuffer;
 import org.vanilladb.core.storage.file.io.javanio.JavaNioFileChannel;
+import org.vanilladb.core.storage.file.io.javanio.JavaNioMappedFileChannel;
 import org.vanilladb.core.storage.file.io.jaydio.JaydioDirectByteBuffer;
 import org.vanilladb.core.storage.file.io.jaydio.JaydioDirectIoChannel;
 import org.vanilladb.core.util.CoreProperties;
 
 public class IoAllocator {
 
-	private static boolean USE_O_DIRECT;
+	private static boolean USE_O_DIRECT, USE_MMAP;
+	private static Set<String> MMAP_FILES = new HashSet<String>();
 
 	static {
 		USE_O_DIRECT = CoreProperties.getLoader().getPropertyAsBoolean(
 				IoAllocator.class.getName() + ".USE_O_DIRECT", false);
+		USE_MMAP = CoreProperties.getLoader().getPropertyAsBoolean(
+				IoAllocator.class.getName() + ".USE_MMAP", false);
+		String[] mmapFiles = CoreProperties.getLoader().getPropertyAsStringArray(
+				IoAllocator.class.getName() + ".MMAP_FILES", new String[0]);
+		for (String fileName : mmapFiles)
+			if (!fileName.trim().isEmpty())
+				MMAP_FILES.add(fileName.trim());
 	}
 
 	public static IoBuffer newIoBuffer(int capacity) {
@@ -43,6 +54,9 @@ public class IoAllocator {
 	public static IoChannel newIoChannel(File file) throws IOException {
 		if (USE_O_DIRECT)
 			return new JaydioDirectIoChannel(file);
+		// The mapped channel copies from and to the buffers of Java NIO
+		else if (USE_MMAP || MMAP_FILES.contains(file.getName()))
+			return new JavaNioMappedFileChannel(file);
 		else
 			return new JavaNioFileChannel(file);
 	}
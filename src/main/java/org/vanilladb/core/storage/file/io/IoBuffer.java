@@ -19,8 +19,20 @@ public interface IoBuffer {
 
 	IoBuffer get(int position, byte[] dst);
 
+	IoBuffer get(int position, byte[] dst, int offset, int length);
+
 	IoBuffer put(int position, byte[] src);
 
+	byte get(int position);
+
+	int getInt(int position);
+
+	long getLong(int position);
+
+	IoBuffer putInt(int position, int value);
+
+	IoBuffer putLong(int position, long value);
+
 	void clear();
 
 	void rewind();
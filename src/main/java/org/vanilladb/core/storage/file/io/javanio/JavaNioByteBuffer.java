@@ -34,12 +34,46 @@ public class JavaNioByteBuffer implements IoBuffer {
 		return this;
 	}
 
+	@Override
+	public IoBuffer get(int position, byte[] dst, int offset, int length) {
+		byteBuffer.position(position);
+		byteBuffer.get(dst, offset, length);
+		return this;
+	}
+
 	@Override
 	public IoBuffer put(int position, byte[] src) {
 		byteBuffer.position(position);
 		byteBuffer.put(src);
 		return this;
 	}
+
+	@Override
+	public byte get(int position) {
+		return byteBuffer.get(position);
+	}
+
+	@Override
+	public int getInt(int position) {
+		return byteBuffer.getInt(position);
+	}
+
+	@Override
+	public long getLong(int position) {
+		return byteBuffer.getLong(position);
+	}
+
+	@Override
+	public IoBuffer putInt(int position, int value) {
+		byteBuffer.putInt(position, value);
+		return this;
+	}
+
+	@Override
+	public IoBuffer putLong(int position, long value) {
+		byteBuffer.putLong(position, value);
+		return this;
+	}
 	
 	@Override
 	public void clear() {
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.file.io.javanio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.vanilladb.core.storage.file.io.IoBuffer;
+import org.vanilladb.core.storage.file.io.IoChannel;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * A file channel reading and writing the file through memory-mapped regions,
+ * so reading a block cached by the OS takes a memory copy instead of a system
+ * call. The file is mapped in regions of {@link #REGION_SIZE} bytes, and the
+ * region at the end of the file only covers the existing bytes, so mapping
+ * never changes the size of the file.
+ * 
+ * <p>
+ * The pages still have their own buffers, which are copied from and to the
+ * mapped regions; the OS could otherwise write a modified page back before
+ * its log records are flushed. A write is forced to the disk before it
+ * returns, as {@link JavaNioFileChannel} does. Only the written bytes are
+ * forced if the JDK can force a range of a mapped buffer (since Java 13),
+ * and the whole region otherwise. Appending a block writes it through the
+ * channel, and the region at the end of the file is remapped when the new
+ * bytes are accessed.
+ * </p>
+ * 
+ * <p>
+ * The bytes are copied to a region under the write lock, so a reader never
+ * sees a block partially written, while they are forced under the read lock,
+ * so the readers do not wait for the sync.
+ * </p>
+ */
+public class JavaNioMappedFileChannel implements IoChannel {
+	public static final int REGION_SIZE;
+	// MappedByteBuffer.force(int, int), or null before Java 13
+	private static final Method FORCE_RANGE;
+
+	static {
+		REGION_SIZE = CoreProperties.getLoader().getPropertyAsInteger(
+				JavaNioMappedFileChannel.class.getName() + ".REGION_SIZE", 16 * 1024 * 1024);
+		Method forceRange = null;
+		try {
+			forceRange = MappedByteBuffer.class.getMethod("force", Integer.TYPE, Integer.TYPE);
+		} catch (NoSuchMethodException e) {
+			// force the whole region instead
+		}
+		FORCE_RANGE = forceRange;
+	}
+
+	private FileChannel fileChannel;
+	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+	// Optimization: store the size of each table
+	private long fileSize;
+
+	public JavaNioMappedFileChannel(File file) throws IOException {
+		@SuppressWarnings("resource")
+		RandomAccessFile f = new RandomAccessFile(file, "rws");
+		fileChannel = f.getChannel();
+		fileSize = fileChannel.size();
+	}
+
+	@Override
+	public int read(IoBuffer buffer, long position) throws IOException {
+		ByteBuffer dst = ((JavaNioByteBuffer) buffer).getByteBuffer();
+		lock.readLock().lock();
+		try {
+			if (position >= fileSize)
+				return -1;
+			int size = (int) Math.min(dst.remaining(), fileSize - position);
+			if (!isMapped(position + size)) {
+				// Remap the region at the end of the file grown since mapped
+				lock.readLock().unlock();
+				lock.writeLock().lock();
+				try {
+					mapTo(position + size);
+				} finally {
+					// Downgrade to the read lock
+					lock.readLock().lock();
+					lock.writeLock().unlock();
+				}
+			}
+			for (int done = 0; done < size;) {
+				ByteBuffer src = slice(position + done, size - done);
+				done += src.remaining();
+				dst.put(src);
+			}
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int write(IoBuffer buffer, long position) throws IOException {
+		ByteBuffer src = ((JavaNioByteBuffer) buffer).getByteBuffer();
+		int size = src.remaining();
+		lock.writeLock().lock();
+		try {
+			// Grow the file through the channel, so the mapping never does
+			if (position + size > fileSize) {
+				int writeSize = fileChannel.write(src, position);
+				fileSize = position + writeSize;
+				return writeSize;
+			}
+
+			mapTo(position + size);
+			ByteBuffer bytes = src.duplicate();
+			for (int done = 0; done < size;) {
+				ByteBuffer dst = slice(position + done, size - done);
+				int length = dst.remaining();
+				bytes.limit(bytes.position() + length);
+				dst.put(bytes);
+				done += length;
+			}
+			// Downgrade to the read lock before forcing the bytes
+			lock.readLock().lock();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		try {
+			for (int done = 0; done < size;) {
+				ByteBuffer dst = slice(position + done, size - done);
+				force(regions.get(regionIndex(position + done)), dst.position(), dst.remaining());
+				done += dst.remaining();
+			}
+			src.position(src.position() + size);
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long append(IoBuffer buffer) throws IOException {
+		lock.writeLock().lock();
+		try {
+			JavaNioByteBuffer javaBuffer = (JavaNioByteBuffer) buffer;
+			int appendSize = fileChannel.write(javaBuffer.getByteBuffer(), fileSize);
+			fileSize += appendSize;
+			return fileSize;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public long size() throws IOException {
+		lock.readLock().lock();
+		try {
+			return fileSize;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			// The regions are unmapped once they are garbage collected
+			regions.clear();
+			fileChannel.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static int regionIndex(long position) {
+		return (int) (position / REGION_SIZE);
+	}
+
+	private boolean isMapped(long end) {
+		if (end == 0)
+			return true;
+		int last = regionIndex(end - 1);
+		return last < regions.size()
+				&& (long) last * REGION_SIZE + regions.get(last).capacity() >= end;
+	}
+
+	/*
+	 * Maps the regions up to the specified position of the file. The caller
+	 * must hold the write lock.
+	 */
+	private void mapTo(long end) throws IOException {
+		if (isMapped(end))
+			return;
+		int last = regionIndex(end - 1);
+		// The region previously at the end of the file is remapped in full
+		for (int i = Math.max(regions.size() - 1, 0); i <= last; i++) {
+			long start = (long) i * REGION_SIZE;
+			long size = Math.min(REGION_SIZE, fileSize - start);
+			MappedByteBuffer region = fileChannel.map(FileChannel.MapMode.READ_WRITE, start, size);
+			if (i < regions.size())
+				regions.set(i, region);
+			else
+				regions.add(region);
+		}
+	}
+
+	/*
+	 * Forces the specified bytes of a region to the disk.
+	 */
+	private static void force(MappedByteBuffer region, int offset, int length)
+			throws IOException {
+		if (FORCE_RANGE == null) {
+			region.force();
+			return;
+		}
+		try {
+			FORCE_RANGE.invoke(region, offset, length);
+		} catch (IllegalAccessException e) {
+			region.force();
+		} catch (InvocationTargetException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/*
+	 * Returns a view of the mapped bytes starting at the specified position,
+	 * up to the specified size or the end of the region.
+	 */
+	private ByteBuffer slice(long position, int size) {
+		MappedByteBuffer region = regions.get(regionIndex(position));
+		ByteBuffer view = region.duplicate();
+		int offset = (int) (position % REGION_SIZE);
+		view.position(offset);
+		view.limit(Math.min(region.capacity(), offset + size));
+		return view;
+	}
+}
@@ -20,6 +20,7 @@ import net.smacke.jaydio.buffer.AlignedDirectByteBuffer;
 
 import org.vanilladb.core.storage.file.FileMgr;
 import org.vanilladb.core.storage.file.io.IoBuffer;
+import org.vanilladb.core.util.ByteHelper;
 
 public class JaydioDirectByteBuffer implements IoBuffer {
 
@@ -37,12 +38,62 @@ public class JaydioDirectByteBuffer implements IoBuffer {
 		return this;
 	}
 
+	@Override
+	public IoBuffer get(int position, byte[] dst, int offset, int length) {
+		byteBuffer.position(position);
+		byteBuffer.get(dst, offset, length);
+		return this;
+	}
+
 	@Override
 	public IoBuffer put(int position, byte[] src) {
 		byteBuffer.position(position);
 		byteBuffer.put(src);
 		return this;
 	}
+
+	@Override
+	public byte get(int position) {
+		byteBuffer.position(position);
+		return byteBuffer.get();
+	}
+
+	// The aligned buffer has no typed accessors, so the values are assembled
+	// byte by byte in the big-endian order of ByteHelper
+
+	@Override
+	public int getInt(int position) {
+		byteBuffer.position(position);
+		int val = 0;
+		for (int i = 0; i < ByteHelper.INT_SIZE; i++)
+			val = (val << 8) | (byteBuffer.get() & 0xFF);
+		return val;
+	}
+
+	@Override
+	public long getLong(int position) {
+		byteBuffer.position(position);
+		long val = 0;
+		for (int i = 0; i < ByteHelper.LONG_SIZE; i++)
+			val = (val << 8) | (byteBuffer.get() & 0xFF);
+		return val;
+	}
+
+	@Override
+	public IoBuffer putInt(int position, int value) {
+		byteBuffer.position(position);
+		for (int i = ByteHelper.INT_SIZE - 1; i >= 0; i--)
+			byteBuffer.put((byte) (value >> (i * 8)));
+		return this;
+	}
+
+	@Override
+	public IoBuffer putLong(int position, long value) {
+		byteBuffer.position(position);
+		for (int i = ByteHelper.LONG_SIZE - 1; i >= 0; i--)
+			byteBuffer.put((byte) (value >> (i * 8)));
+		return this;
+	}
 	
 	@Override
 	public void clear() {
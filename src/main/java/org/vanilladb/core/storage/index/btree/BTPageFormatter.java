@@ -69,6 +69,7 @@ public class BTPageFormatter extends PageFormatter {
 			setVal(buf, pos, new BigIntConstant(flags[i]));
 			pos += flagSize;
 		}
+		// the high key record and the slots
 		int slotSize = BTreePage.slotSize(sch);
 		for (int p = pos; p + slotSize <= Buffer.BUFFER_SIZE; p += slotSize)
 			makeDefaultRecord(buf, p);
@@ -17,24 +17,30 @@ package org.vanilladb.core.storage.index.btree;
 
 import static org.vanilladb.core.sql.Type.BIGINT;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.vanilladb.core.sql.BigIntConstant;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.tx.Transaction;
-import org.vanilladb.core.storage.tx.concurrency.ConcurrencyMgr;
-import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
 
 /**
  * A B-tree directory page that iterates over the B-tree directory blocks in a
  * file.
  * <p>
- * There is one flag in each B-tree directory block: the level (starting from 0
- * at the deepest) of that block in the directory.
+ * There are two flags in each B-tree directory block: the level (starting from
+ * 0 at the deepest) of that block in the directory, and a pointer (block
+ * number) to the right sibling at the same level, or -1 if there is no such
+ * sibling. Together with the high key of the block, the sibling pointer makes
+ * the directory a B-link tree.
+ * </p>
+ * <p>
+ * The directory blocks are protected by latches instead of the locks of
+ * transactions. A search latches one block at a time in shared mode, and moves
+ * right when the search key is not smaller than the high key of the block, so
+ * it never blocks on a split nor waits for the lock table. A directory block is
+ * only modified by a structure modification, which latches the block in
+ * exclusive mode while modifying it.
  * </p>
  */
 public class BTreeDir {
@@ -43,7 +49,7 @@ public class BTreeDir {
 	 */
 	static final String SCH_KEY = "key", SCH_CHILD = "child";
 
-	static int NUM_FLAGS = 1;
+	static int NUM_FLAGS = 2;
 
 	private static final String FILENAME_POSTFIX = "_dir.idx";
 
@@ -52,7 +58,12 @@ public class BTreeDir {
 		BTreeDir dir = new BTreeDir(blk, keyType, tx);
 
 		// Insert the specified slot
-		dir.currentPage.insert(slotId);
+		dir.currentPage.latchExclusive();
+		try {
+			dir.currentPage.insert(slotId);
+		} finally {
+			dir.currentPage.unlatchExclusive();
+		}
 
 		// Close the directory
 		dir.close();
@@ -63,7 +74,12 @@ public class BTreeDir {
 		BTreeDir dir = new BTreeDir(blk, keyType, tx);
 
 		// Delete the specified slot
-		dir.currentPage.delete(slotId);
+		dir.currentPage.latchExclusive();
+		try {
+			dir.currentPage.delete(slotId);
+		} finally {
+			dir.currentPage.unlatchExclusive();
+		}
 
 		// Close the directory
 		dir.close();
@@ -96,22 +112,35 @@ public class BTreeDir {
 		p.setFlag(0, val);
 	}
 
+	static long getSiblingFlag(BTreePage p) {
+		return p.getFlag(1);
+	}
+
+	static void setSiblingFlag(BTreePage p, long val) {
+		p.setFlag(1, val);
+	}
+
+	static Constant getHighKey(BTreePage p) {
+		return p.getHighKey(SCH_KEY);
+	}
+
+	static void setHighKey(BTreePage p, Constant val) {
+		p.setHighKey(SCH_KEY, val);
+	}
+
 	static Constant getKey(BTreePage p, int slot) {
 		return p.getVal(slot, SCH_KEY);
 	}
 
 	static long getChildBlockNumber(BTreePage p, int slot) {
-		return (Long) p.getVal(slot, SCH_CHILD).asJavaVal();
+		return p.getLong(slot, SCH_CHILD);
 	}
 
 	private Type keyType;
 	private Schema schema;
 	private Transaction tx;
-	private ConcurrencyMgr ccMgr;
 	private BTreePage currentPage;
 
-	private List<BlockId> dirsMayBeUpdated;
-
 	/**
 	 * Creates an object to hold the contents of the specified B-tree block.
 	 * 
@@ -126,7 +155,6 @@ public class BTreeDir {
 		this.keyType = keyType;
 		this.tx = tx;
 		this.schema = schema(keyType);
-		ccMgr = tx.concurrencyMgr();
 		currentPage = new BTreePage(blk, NUM_FLAGS, schema, tx);
 	}
 
@@ -135,34 +163,62 @@ public class BTreeDir {
 	 */
 	public void close() {
 		currentPage.close();
-		dirsMayBeUpdated = null;
 	}
 
 	/**
 	 * Returns the block number of the B-tree leaf block that contains the
-	 * specified search key.
+	 * specified search key. The leaf block may have split after the search
+	 * leaves the directory, so the caller should check the high key of the
+	 * leaf block as well.
 	 * 
 	 * @param searchKey
 	 *            the search key
 	 * @param leafFileName
 	 *            the file name of the B-tree leaf file
-	 * @param purpose
-	 *            the purpose of searching (defined in BTreeIndex)
 	 * @return the BlockId of the leaf block containing that search key
 	 */
-	public BlockId search(Constant searchKey, String leafFileName, int purpose) {
-		if (purpose == BTreeIndex.READ)
-			return searchForRead(searchKey, leafFileName);
-		else if (purpose == BTreeIndex.INSERT)
-			return searchForInsert(searchKey, leafFileName);
-		else if (purpose == BTreeIndex.DELETE)
-			return searchForDelete(searchKey, leafFileName);
-		else
-			throw new UnsupportedOperationException();
+	public BlockId search(Constant searchKey, String leafFileName) {
+		descend(searchKey, 0);
+		try {
+			return new BlockId(leafFileName, findChildBlockNumber(searchKey));
+		} finally {
+			currentPage.unlatchShared();
+		}
 	}
 
-	public List<BlockId> dirsMayBeUpdated() {
-		return dirsMayBeUpdated;
+	/**
+	 * Inserts the specified directory entry to the directory block at the
+	 * specified level whose key range covers the key of the entry. If the root
+	 * splits, a new root is made and the tree grows by one level.
+	 * 
+	 * <p>
+	 * The structure modifications of an index must be done by one thread at a
+	 * time, since the parent of a split block is found by searching the
+	 * directory again.
+	 * </p>
+	 * 
+	 * @param e
+	 *            the directory entry to be inserted
+	 * @param level
+	 *            the level of the directory block to insert the entry
+	 * @return the directory entry of the newly-split block at that level, or
+	 *         null if there is no split to be propagated upward
+	 */
+	public DirEntry insert(DirEntry e, long level) {
+		descend(e.key(), level);
+		currentPage.unlatchShared();
+		currentPage.latchExclusive();
+		try {
+			moveRight(e.key(), true);
+			DirEntry newEntry = insert(e);
+			if (newEntry != null && currentPage.currentBlk().number() == 0) {
+				makeNewRoot(newEntry);
+				return null;
+			}
+			return newEntry;
+		} finally {
+			currentPage.unlatchExclusive();
+		}
 	}
 
 	/**
@@ -177,147 +233,113 @@ public class BTreeDir {
 	public void makeNewRoot(DirEntry e) {
 		// check that the content is the root block
 		if (currentPage.currentBlk().number() != 0) {
+			BlockId rootBlk = new BlockId(currentPage.currentBlk().fileName(), 0);
 			currentPage.close();
-			currentPage = new BTreePage(new BlockId(currentPage.currentBlk().fileName(), 0), NUM_FLAGS, schema, tx);
+			currentPage = new BTreePage(rootBlk, NUM_FLAGS, schema, tx);
+		}
+		currentPage.latchExclusive();
+		try {
+			Constant firstval = getKey(currentPage, 0);
+			long level = getLevelFlag(currentPage);
+			// transfer all records to the new block
+			long newBlkNum = currentPage.split(0, new long[] { level, getSiblingFlag(currentPage) });
+			setSiblingFlag(currentPage, -1);
+			DirEntry oldRootEntry = new DirEntry(firstval, newBlkNum);
+			insert(oldRootEntry);
+			insert(e);
+			setLevelFlag(currentPage, level + 1);
+		} finally {
+			currentPage.unlatchExclusive();
 		}
-		Constant firstval = getKey(currentPage, 0);
-		long level = getLevelFlag(currentPage);
-		// transfer all records to the new block
-		long newBlkNum = currentPage.split(0, new long[] { level });
-		DirEntry oldRootEntry = new DirEntry(firstval, newBlkNum);
-		insert(oldRootEntry);
-		insert(e);
-		setLevelFlag(currentPage, level + 1);
 	}
 
+	/**
+	 * Inserts the specified directory entry to the current directory block.
+	 * If the block becomes full, it splits, and the new block is linked as its
+	 * right sibling.
+	 * 
+	 * @param e
+	 *            the directory entry to be inserted
+	 * @return the directory entry of the newly-split block or null if there is
+	 *         no split
+	 */
 	public DirEntry insert(DirEntry e) {
-		int newslot = 1 + findSlotBefore(e.key());
-		insert(newslot, e.key(), e.blockNumber());
-		if (!currentPage.isFull())
-			return null;
-		// split full page
-		int splitPos = currentPage.getNumRecords() / 2;
-		Constant splitVal = getKey(currentPage, splitPos);
-		long newBlkNum = currentPage.split(splitPos, new long[] { getLevelFlag(currentPage) });
-		return new DirEntry(splitVal, newBlkNum);
+		currentPage.latchExclusive();
+		try {
+			int newslot = 1 + findSlotBefore(e.key());
+			insert(newslot, e.key(), e.blockNumber());
+			if (!currentPage.isFull())
+				return null;
+			// split full page
+			int splitPos = currentPage.getNumRecords() / 2;
+			Constant splitVal = getKey(currentPage, splitPos);
+			long newBlkNum = currentPage.split(splitPos,
+					new long[] { getLevelFlag(currentPage), getSiblingFlag(currentPage) });
+			setSiblingFlag(currentPage, newBlkNum);
+			setHighKey(currentPage, splitVal);
+			return new DirEntry(splitVal, newBlkNum);
+		} finally {
+			currentPage.unlatchExclusive();
+		}
 	}
 
 	public int getNumRecords() {
-		return currentPage.getNumRecords();
-	}
-
-	private BlockId searchForInsert(Constant searchKey, String leafFileName) {
-		// search from root to level 0
-		dirsMayBeUpdated = new ArrayList<BlockId>();
-		BlockId parentBlk = currentPage.currentBlk();
+		// the root is empty for a moment while a new root is being made
+		currentPage.latchShared();
 		try {
-			ccMgr.crabDownDirBlockForModification(parentBlk);
-			long childBlkNum = findChildBlockNumber(searchKey);
-			BlockId childBlk;
-			dirsMayBeUpdated.add(parentBlk);
-
-			// if it's not the lowest directory block
-			while (getLevelFlag(currentPage) > 0) {
-				// read child block
-				childBlk = new BlockId(currentPage.currentBlk().fileName(), childBlkNum);
-				ccMgr.crabDownDirBlockForModification(childBlk);
-				BTreePage child = new BTreePage(childBlk, NUM_FLAGS, schema, tx);
-
-				// crabs back the parent if the child is not possible to split
-				if (!child.isGettingFull()) {
-					for (int i = dirsMayBeUpdated.size() - 1; i >= 0; i--)
-						ccMgr.crabBackDirBlockForModification(dirsMayBeUpdated.get(i));
-					dirsMayBeUpdated.clear();
-				}
-				dirsMayBeUpdated.add(childBlk);
-
-				// move current block to child block
-				currentPage.close();
-				currentPage = child;
-				childBlkNum = findChildBlockNumber(searchKey);
-				parentBlk = currentPage.currentBlk();
-			}
-
-			// get leaf block id
-			BlockId leafBlk = new BlockId(leafFileName, childBlkNum);
-			ccMgr.modifyLeafBlock(leafBlk); // exclusive lock
-			return leafBlk;
-		} catch (LockAbortException e) {
-			tx.rollback();
-			throw e;
+			return currentPage.getNumRecords();
+		} finally {
+			currentPage.unlatchShared();
 		}
 	}
 
-	private BlockId searchForDelete(Constant searchKey, String leafFileName) {
-		// search from root to level 0
-		BlockId parentBlk = currentPage.currentBlk();
+	/**
+	 * Moves down from the current block to the directory block at the
+	 * specified level whose key range covers the search key. The method
+	 * returns with that block latched in shared mode.
+	 */
+	private void descend(Constant searchKey, long level) {
+		currentPage.latchShared();
 		try {
-			ccMgr.crabDownDirBlockForRead(parentBlk);
-			long childBlkNum = findChildBlockNumber(searchKey);
-			BlockId childBlk;
-
-			// if it's not the lowest directory block
-			while (getLevelFlag(currentPage) > 0) {
-				// read child block
-				childBlk = new BlockId(currentPage.currentBlk().fileName(), childBlkNum);
-				ccMgr.crabDownDirBlockForRead(childBlk);
-				BTreePage child = new BTreePage(childBlk, NUM_FLAGS, schema, tx);
-
-				// release parent block
-				ccMgr.crabBackDirBlockForRead(parentBlk);
-				currentPage.close();
-
-				// move current block to child block
-				currentPage = child;
-				childBlkNum = findChildBlockNumber(searchKey);
-				parentBlk = currentPage.currentBlk();
+			moveRight(searchKey, false);
+			while (getLevelFlag(currentPage) > level) {
+				moveTo(findChildBlockNumber(searchKey), false);
+				moveRight(searchKey, false);
 			}
-
-			// get leaf block id
-			BlockId leafBlk = new BlockId(leafFileName, childBlkNum);
-			ccMgr.modifyLeafBlock(leafBlk); // exclusive lock
-			ccMgr.crabBackDirBlockForRead(currentPage.currentBlk());
-			return leafBlk;
-		} catch (LockAbortException e) {
-			tx.rollback();
+		} catch (RuntimeException e) {
+			currentPage.unlatchShared();
 			throw e;
 		}
 	}
 
-	private BlockId searchForRead(Constant searchKey, String leafFileName) {
-		// search from root to level 0
-		BlockId parentBlk = currentPage.currentBlk();
-		try {
-			ccMgr.crabDownDirBlockForRead(parentBlk);
-			long childBlkNum = findChildBlockNumber(searchKey);
-			BlockId childBlk;
-
-			// if it's not the lowest directory block
-			while (getLevelFlag(currentPage) > 0) {
-				// read child block
-				childBlk = new BlockId(currentPage.currentBlk().fileName(), childBlkNum);
-				ccMgr.crabDownDirBlockForRead(childBlk);
-				BTreePage child = new BTreePage(childBlk, NUM_FLAGS, schema, tx);
-
-				// release parent block
-				ccMgr.crabBackDirBlockForRead(parentBlk);
-				currentPage.close();
-
-				// move current block to child block
-				currentPage = child;
-				childBlkNum = findChildBlockNumber(searchKey);
-				parentBlk = currentPage.currentBlk();
-			}
+	/**
+	 * Moves right until reaching the block whose key range covers the search
+	 * key. The current block must be latched, and the block moved to is
+	 * latched in the same mode.
+	 */
+	private void moveRight(Constant searchKey, boolean exclusive) {
+		while (getSiblingFlag(currentPage) != -1 && currentPage.compareHighKey(SCH_KEY, searchKey) <= 0)
+			moveTo(getSiblingFlag(currentPage), exclusive);
+	}
 
-			// get leaf block id
-			BlockId leafBlk = new BlockId(leafFileName, childBlkNum);
-			ccMgr.readLeafBlock(leafBlk); // shared lock
-			ccMgr.crabBackDirBlockForRead(currentPage.currentBlk());
-			return leafBlk;
-		} catch (LockAbortException e) {
-			tx.rollback();
-			throw e;
-		}
+	/**
+	 * Moves from the current latched block to the specified block. Only one
+	 * block is latched at a time, since a block never moves to the left of
+	 * its old position.
+	 */
+	private void moveTo(long blkNum, boolean exclusive) {
+		BTreePage page = new BTreePage(new BlockId(currentPage.currentBlk().fileName(), blkNum), NUM_FLAGS,
+				schema, tx);
+		if (exclusive)
+			currentPage.unlatchExclusive();
+		else
+			currentPage.unlatchShared();
+		currentPage.close();
+		currentPage = page;
+		if (exclusive)
+			currentPage.latchExclusive();
+		else
+			currentPage.latchShared();
 	}
 
 	private long findChildBlockNumber(Constant searchKey) {
@@ -346,7 +368,7 @@ public class BTreeDir {
 
 		if (endSlot >= 0) {
 			while (middleSlot != startSlot) {
-				if (getKey(currentPage, middleSlot).compareTo(searchKey) < 0)
+				if (currentPage.compareVal(middleSlot, SCH_KEY, searchKey) < 0)
 					startSlot = middleSlot;
 				else
 					endSlot = middleSlot;
@@ -354,9 +376,9 @@ public class BTreeDir {
 				middleSlot = (startSlot + endSlot) / 2;
 			}
 
-			if (getKey(currentPage, endSlot).compareTo(searchKey) < 0)
+			if (currentPage.compareVal(endSlot, SCH_KEY, searchKey) < 0)
 				return endSlot;
-			else if (getKey(currentPage, startSlot).compareTo(searchKey) < 0)
+			else if (currentPage.compareVal(startSlot, SCH_KEY, searchKey) < 0)
 				return startSlot;
 			else
 				return startSlot - 1;
@@ -366,8 +388,13 @@ public class BTreeDir {
 
 	private void insert(int slot, Constant val, long blkNum) {
 		// Insert an entry to the page
-		tx.recoveryMgr().logIndexPageInsertion(currentPage.currentBlk(), false, keyType, slot);
-		currentPage.insert(slot);
+		currentPage.lockFlushing();
+		try {
+			tx.recoveryMgr().logIndexPageInsertion(currentPage.currentBlk(), false, keyType, slot);
+			currentPage.insert(slot);
+		} finally {
+			currentPage.unlockFlushing();
+		}
 
 		currentPage.setVal(slot, SCH_KEY, val);
 		currentPage.setVal(slot, SCH_CHILD, new BigIntConstant(blkNum));
@@ -15,8 +15,6 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.index.btree;
 
-import java.util.List;
-
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.ConstantRange;
@@ -33,10 +31,40 @@ import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
 
 /**
  * A B-tree implementation of {@link Index}.
+ * 
+ * <p>
+ * The physical structure of the tree is protected separately from the keys.
+ * The directory is a B-link tree protected by short-term latches (see
+ * {@link BTreeDir}), while the leaf blocks are locked by transactions to
+ * protect the keys they cover. A split of a leaf block is linked to the
+ * directory by a structure modification, which is done by one thread at a
+ * time for each index and never blocks the searches.
+ * </p>
+ * 
+ * <p>
+ * The entries are not versioned, so a transaction reading records as of a
+ * snapshot cannot search the index. Such a transaction takes no locks on the
+ * leaf blocks, which could be split under it.
+ * </p>
  */
 public class BTreeIndex extends Index {
 	protected static final int READ = 1, INSERT = 2, DELETE = 3;
 
+	// Optimization: Lock striping
+	private static final Object[] anchors = new Object[1009];
+
+	static {
+		for (int i = 0; i < anchors.length; ++i)
+			anchors[i] = new Object();
+	}
+
+	private static Object prepareAnchor(Object o) {
+		int code = o.hashCode() % anchors.length;
+		if (code < 0)
+			code += anchors.length;
+		return anchors[code];
+	}
+
 	private IndexInfo ii;
 	private Transaction tx;
 	private ConcurrencyMgr ccMgr;
@@ -46,8 +74,6 @@ public class BTreeIndex extends Index {
 	private String dataFileName;
 	private Type keyType;
 
-	private List<BlockId> dirsMayBeUpdated;
-
 	public static long searchCost(Type fldType, long totRecs, long matchRecs) {
 		int dirRpb = Buffer.BUFFER_SIZE / BTreePage.slotSize(BTreeDir.schema(fldType));
 		int leafRpb = Buffer.BUFFER_SIZE / BTreePage.slotSize(BTreeLeaf.schema(fldType));
@@ -84,7 +110,7 @@ public class BTreeIndex extends Index {
 		dirFileName = BTreeDir.getFileName(ii.indexName());
 		rootBlk = new BlockId(dirFileName, 0);
 		if (fileSize(dirFileName) == 0)
-			appendBlock(dirFileName, BTreeDir.schema(fldType), new long[] { 0 });
+			appendBlock(dirFileName, BTreeDir.schema(fldType), new long[] { 0, -1 });
 		
 		// Insert an initial directory entry (if it needed)
 		BTreeDir rootDir = new BTreeDir(rootBlk, fldType, tx);
@@ -125,6 +151,8 @@ public class BTreeIndex extends Index {
 	public void beforeFirst(ConstantRange searchRange) {
 		if (!searchRange.isValid())
 			return;
+		if (ccMgr.readsSnapshot())
+			throw new UnsupportedOperationException("a B-tree index cannot be read as of a snapshot");
 
 		search(searchRange, READ);
 	}
@@ -156,9 +184,10 @@ public class BTreeIndex extends Index {
 	 * Inserts the specified record into the index. The method first traverses
 	 * the directory to find the appropriate leaf page; then it inserts the
 	 * record into the leaf. If the insertion causes the leaf to split, then the
-	 * method calls insert on the root, passing it the directory entry of the
-	 * new leaf page. If the root node splits, then {@link BTreeDir#makeNewRoot}
-	 * is called.
+	 * method inserts the directory entry of the new leaf page to the lowest
+	 * level of the directory, and continues to the upper levels as long as
+	 * the directory blocks split. If the root node splits, then
+	 * {@link BTreeDir#makeNewRoot} is called.
 	 * 
 	 * @see Index#insert(Constant, RecordId, boolean)
 	 */
@@ -169,30 +198,25 @@ public class BTreeIndex extends Index {
 
 		// search leaf block for insertion
 		search(ConstantRange.newInstance(key), INSERT);
-		DirEntry newEntry = leaf.insert(dataRecordId);
-		leaf.close();
-		if (newEntry == null)
-			return;
-		
-		// log the logical operation starts
+
+		// log the logical operation starts, so a split done by the insertion
+		// is never undone physically after other transactions use the blocks
 		if (doLogicalLogging)
 			tx.recoveryMgr().logLogicalStart();
 
+		DirEntry newEntry = leaf.insert(dataRecordId);
+		leaf.close();
+
 		// insert the directory entry from the lowest directory
-		for (int i = dirsMayBeUpdated.size() - 1; i >= 0; i--) {
-			BlockId dirBlk = dirsMayBeUpdated.get(i);
-			BTreeDir dir = new BTreeDir(dirBlk, keyType, tx);
-			newEntry = dir.insert(newEntry);
-			dir.close();
-			if (newEntry == null)
-				break;
-		}
 		if (newEntry != null) {
-			BTreeDir root = new BTreeDir(rootBlk, keyType, tx);
-			root.makeNewRoot(newEntry);
-			root.close();
+			synchronized (prepareAnchor(dirFileName)) {
+				for (long level = 0; newEntry != null; level++) {
+					BTreeDir dir = new BTreeDir(rootBlk, keyType, tx);
+					newEntry = dir.insert(newEntry, level);
+					dir.close();
+				}
+			}
 		}
-		dirsMayBeUpdated = null;
 		
 		// log the logical operation ends
 		if (doLogicalLogging)
@@ -237,9 +261,8 @@ public class BTreeIndex extends Index {
 			leaf.close();
 			leaf = null;
 		}
-		// release all locks on index structure
+		// release all locks on the leaf blocks
 		ccMgr.releaseIndexLocks();
-		dirsMayBeUpdated = null;
 	}
 
 	private void search(ConstantRange searchRange, int purpose) {
@@ -247,15 +270,23 @@ public class BTreeIndex extends Index {
 		BlockId leafblk;
 		BTreeDir root = new BTreeDir(rootBlk, keyType, tx);
 		if (!searchRange.hasLowerBound())
-			leafblk = root.search(keyType.minValue(), leafFileName, purpose);
+			leafblk = root.search(keyType.minValue(), leafFileName);
 		else
-			leafblk = root.search(searchRange.low(), leafFileName, purpose);
-
-		// get the dir list for update
-		if (purpose == INSERT)
-			dirsMayBeUpdated = root.dirsMayBeUpdated();
+			leafblk = root.search(searchRange.low(), leafFileName);
 		root.close();
 
+		// lock the leaf block after leaving the directory, since no latch
+		// should be held while waiting for a lock
+		try {
+			if (purpose == READ)
+				ccMgr.readLeafBlock(leafblk);
+			else
+				ccMgr.modifyLeafBlock(leafblk);
+		} catch (LockAbortException e) {
+			tx.rollback();
+			throw e;
+		}
+
 		// read leaf block
 		leaf = new BTreeLeaf(dataFileName, leafblk, keyType, searchRange, tx);
 	}
@@ -38,7 +38,15 @@ import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
  * overflow page, this flag is set to -1. If the page is the last overflow
  * block, then this flag points circularly to the regular block. The second flag
  * is a pointer to the next sibling (regular) block. The value of this flag is
- * undefined if the block is an overflow page.
+ * undefined if the block is an overflow page. A regular block also keeps the
+ * lowest key of its sibling as its high key, so an insertion reaching a block
+ * which has split since the directory was searched moves right to the block
+ * covering the key.
+ * </p>
+ * <p>
+ * The leaf blocks are locked by the calling transaction, which protects the
+ * range of keys covered by each block until the index is closed. The overflow
+ * blocks are protected by the lock on their regular block.
  * </p>
  * <p>
  * Note that currently there will be some "dead blocks" in the file that are
@@ -116,13 +124,21 @@ public class BTreeLeaf {
 		p.setFlag(1, val);
 	}
 
+	static Constant getHighKey(BTreePage p) {
+		return p.getHighKey(SCH_KEY);
+	}
+
+	static void setHighKey(BTreePage p, Constant val) {
+		p.setHighKey(SCH_KEY, val);
+	}
+
 	static Constant getKey(BTreePage p, int slot) {
 		return p.getVal(slot, SCH_KEY);
 	}
 
 	static RecordId getDataRecordId(BTreePage p, int slot, String dataFileName) {
-		long blkNum = (Long) p.getVal(slot, SCH_RID_BLOCK).asJavaVal();
-		int id = (Integer) p.getVal(slot, SCH_RID_ID).asJavaVal();
+		long blkNum = p.getLong(slot, SCH_RID_BLOCK);
+		int id = p.getInt(slot, SCH_RID_ID);
 		return new RecordId(new BlockId(dataFileName, blkNum), id);
 	}
 
@@ -141,6 +157,8 @@ public class BTreeLeaf {
 
 	private long moveFrom = -1;
 
+	private boolean modifying;
+
 	/**
 	 * Opens a page to hold the specified B-tree leaf block. The page is
 	 * positioned immediately before the first B-tree leaf record matching the
@@ -206,7 +224,10 @@ public class BTreeLeaf {
 			// if it reached the end of the block
 			if (currentSlot >= currentPage.getNumRecords()) {
 				if (getSiblingFlag(currentPage) != -1) {
+					// the sibling may hold smaller keys if the block has
+					// split since the directory was read
 					moveTo(getSiblingFlag(currentPage), -1);
+					moveSlotBefore();
 					return next();
 				}
 				return false;
@@ -263,9 +284,14 @@ public class BTreeLeaf {
 			// search range must be a constant
 			if (!searchRange.isConstant())
 				throw new IllegalStateException();
-			// ccMgr.modifyLeafBlock(currentPage.currentBlk());
-			currentSlot++;
+			modifying = true;
 			Constant searchKey = searchRange.asConstant();
+			// move right if the block has split since the directory was read
+			while (getSiblingFlag(currentPage) != -1 && currentPage.compareHighKey(SCH_KEY, searchKey) <= 0) {
+				moveTo(getSiblingFlag(currentPage), -1);
+				moveSlotBefore();
+			}
+			currentSlot++;
 			insert(currentSlot, searchKey, dataRecordId);
 			/*
 			 * If the inserted key is less than the key stored in overflow
@@ -279,6 +305,7 @@ public class BTreeLeaf {
 						new long[] { getOverflowFlag(currentPage), getSiblingFlag(currentPage) });
 				setOverflowFlag(currentPage, -1);
 				setSiblingFlag(currentPage, newBlkNum);
+				setHighKey(currentPage, splitKey);
 				return new DirEntry(splitKey, newBlkNum);
 			}
 			if (!currentPage.isFull())
@@ -316,6 +343,7 @@ public class BTreeLeaf {
 				}
 				long newBlkNum = currentPage.split(splitPos, new long[] { -1, getSiblingFlag(currentPage) });
 				setSiblingFlag(currentPage, newBlkNum);
+				setHighKey(currentPage, splitKey);
 				return new DirEntry(splitKey, newBlkNum);
 			}
 		} catch (LockAbortException e) {
@@ -337,6 +365,7 @@ public class BTreeLeaf {
 			// search range must be a constant
 			if (!searchRange.isConstant())
 				throw new IllegalStateException();
+			modifying = true;
 
 			// delete all entry with the specific key
 			while (next())
@@ -433,13 +462,17 @@ public class BTreeLeaf {
 	
 	/**
 	 * Opens the page for the specified block and moves the current slot to the
-	 * specified position.
+	 * specified position. The block is locked exclusively if the leaf is
+	 * being modified.
 	 */
 	private void moveTo(long blkNum, int slot) {
 		moveFrom = currentPage.currentBlk().number(); // for deletion
 		BlockId blk = new BlockId(currentPage.currentBlk().fileName(), blkNum);
 		try {
-			ccMgr.readLeafBlock(blk);
+			if (modifying)
+				ccMgr.modifyLeafBlock(blk);
+			else
+				ccMgr.readLeafBlock(blk);
 		} catch (LockAbortException e) {
 			tx.rollback();
 			throw e;
@@ -451,8 +484,13 @@ public class BTreeLeaf {
 	
 	private void insert(int slot, Constant val, RecordId rid) {
 		// Insert an entry to the page
-		tx.recoveryMgr().logIndexPageInsertion(currentPage.currentBlk(), false, keyType, slot);
-		currentPage.insert(slot);
+		currentPage.lockFlushing();
+		try {
+			tx.recoveryMgr().logIndexPageInsertion(currentPage.currentBlk(), false, keyType, slot);
+			currentPage.insert(slot);
+		} finally {
+			currentPage.unlockFlushing();
+		}
 		
 		currentPage.setVal(slot, SCH_KEY, val);
 		currentPage.setVal(slot, SCH_RID_BLOCK, new BigIntConstant(rid.block().number()));
@@ -461,7 +499,12 @@ public class BTreeLeaf {
 	
 	private void delete(int slot) {
 		// Delete an entry of the page
-		tx.recoveryMgr().logIndexPageDeletion(currentPage.currentBlk(), false, keyType, slot);
-		currentPage.delete(slot);
+		currentPage.lockFlushing();
+		try {
+			tx.recoveryMgr().logIndexPageDeletion(currentPage.currentBlk(), false, keyType, slot);
+			currentPage.delete(slot);
+		} finally {
+			currentPage.unlockFlushing();
+		}
 	}
 }
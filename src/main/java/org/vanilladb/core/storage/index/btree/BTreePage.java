@@ -31,23 +31,29 @@ import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
-import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
 
 /**
  * A page corresponding to a single B-tree block in a file for {@link BTreeDir}
  * or {@link BTreeLeaf}.
  * <p>
  * The content of each B-tree block begins with an integer storing the number of
- * index records in that page, then a series of integer flags, followed by a
- * series of slots holding index records. Index records are sorted in ascending
- * order.
+ * index records in that page, then a series of integer flags and a record
+ * holding the high key of the page, followed by a series of slots holding
+ * index records. Index records are sorted in ascending order.
+ * </p>
+ * <p>
+ * The high key is the upper bound (exclusive) of the keys which can be stored
+ * in the page. It is meaningful only if the page has a right sibling, in which
+ * case it equals the lowest key of that sibling. A search reaching a page
+ * whose high key is not larger than the search key knows that the page has
+ * split since its parent was read, and moves right to the sibling.
  * </p>
  */
 public class BTreePage {
 	private BlockId blk;
 	private Schema schema;
 	private Transaction tx;
-	private int slotSize, headerSize;
+	private int slotSize, headerSize, highKeyPosition;
 	private Buffer currentBuff;
 	private Map<String, Integer> myOffsetMap;
 	// Optimization: Materialize the number of records of B-Tree Page.
@@ -106,8 +112,8 @@ public class BTreePage {
 	
 	public static int maxNumOfSlots(int numOfFlags, Schema sch) {
 		int slotSize = slotSize(sch);
-		int flagSize = numOfFlags * Type.BIGINT.maxSize();
-		return (Buffer.BUFFER_SIZE - flagSize) / slotSize;
+		int headerSize = Page.maxSize(INTEGER) + numOfFlags * Page.maxSize(BIGINT) + slotSize;
+		return (Buffer.BUFFER_SIZE - headerSize) / slotSize;
 	}
 
 	/**
@@ -129,7 +135,8 @@ public class BTreePage {
 		currentBuff = tx.bufferMgr().pin(blk);
 
 		slotSize = slotSize(schema);
-		headerSize = Page.maxSize(INTEGER) + Page.maxSize(BIGINT) * numFlags;
+		highKeyPosition = Page.maxSize(INTEGER) + Page.maxSize(BIGINT) * numFlags;
+		headerSize = highKeyPosition + slotSize;
 		myOffsetMap = offsetMap(schema);
 		numberOfRecords = -1;
 	}
@@ -154,7 +161,7 @@ public class BTreePage {
 	 * @return the i-th flag
 	 */
 	public long getFlag(int i) {
-		return (Long) getVal(Page.maxSize(INTEGER) + Page.maxSize(BIGINT) * i, BIGINT).asJavaVal();
+		return currentBuff.getLong(Page.maxSize(INTEGER) + Page.maxSize(BIGINT) * i);
 	}
 
 	/**
@@ -171,11 +178,96 @@ public class BTreePage {
 		setVal(offset, v);
 	}
 
+	/**
+	 * Returns the value of the specified field in the high key record.
+	 * 
+	 * @param fldName
+	 *            the name of the key field
+	 * @return the high key of the page
+	 */
+	public Constant getHighKey(String fldName) {
+		Type type = schema.type(fldName);
+		return getVal(highKeyPosition + myOffsetMap.get(fldName), type);
+	}
+
+	/**
+	 * Sets the value of the specified field in the high key record.
+	 * 
+	 * @param fldName
+	 *            the name of the key field
+	 * @param val
+	 *            the new high key
+	 */
+	public void setHighKey(String fldName, Constant val) {
+		Type type = schema.type(fldName);
+		setVal(highKeyPosition + myOffsetMap.get(fldName), val.castTo(type));
+	}
+
+	/**
+	 * Compares the high key of the page with the specified constant, without
+	 * creating a constant for the high key.
+	 * 
+	 * @param fldName
+	 *            the name of the key field
+	 * @param val
+	 *            the constant to be compared with
+	 * @return a negative integer, zero, or a positive integer as the high key
+	 *         is less than, equal to, or greater than the constant
+	 */
+	public int compareHighKey(String fldName, Constant val) {
+		Type type = schema.type(fldName);
+		return currentBuff.compareVal(highKeyPosition + myOffsetMap.get(fldName), type, val);
+	}
+
 	public Constant getVal(int slot, String fldName) {
 		Type type = schema.type(fldName);
 		return getVal(fieldPosition(slot, fldName), type);
 	}
 
+	/**
+	 * Compares the value of the specified field at the specified slot with
+	 * the specified constant, without creating a constant for the value.
+	 * 
+	 * @param slot
+	 *            the target slot
+	 * @param fldName
+	 *            the name of the field
+	 * @param val
+	 *            the constant to be compared with
+	 * @return a negative integer, zero, or a positive integer as the value is
+	 *         less than, equal to, or greater than the constant
+	 */
+	public int compareVal(int slot, String fldName, Constant val) {
+		Type type = schema.type(fldName);
+		return currentBuff.compareVal(fieldPosition(slot, fldName), type, val);
+	}
+
+	/**
+	 * Returns the integer of the specified field at the specified slot.
+	 * 
+	 * @param slot
+	 *            the target slot
+	 * @param fldName
+	 *            the name of the integer field
+	 * @return the integer value
+	 */
+	public int getInt(int slot, String fldName) {
+		return currentBuff.getInt(fieldPosition(slot, fldName));
+	}
+
+	/**
+	 * Returns the long integer of the specified field at the specified slot.
+	 * 
+	 * @param slot
+	 *            the target slot
+	 * @param fldName
+	 *            the name of the long integer field
+	 * @return the long integer value
+	 */
+	public long getLong(int slot, String fldName) {
+		return currentBuff.getLong(fieldPosition(slot, fldName));
+	}
+
 	/**
 	 * Set the value of the specified field at the specified slot.
 	 * 
@@ -211,6 +303,55 @@ public class BTreePage {
 		setValWithoutLogging(fieldPosition(slot, fldName), v);
 	}
 
+	/**
+	 * Locks the flushing mechanism of the current buffer, so that an operation
+	 * on the page and its log record are made as one step.
+	 * 
+	 * @see Buffer#lockFlushing()
+	 */
+	void lockFlushing() {
+		currentBuff.lockFlushing();
+	}
+
+	/**
+	 * Unlocks the flushing mechanism of the current buffer.
+	 * 
+	 * @see Buffer#unlockFlushing()
+	 */
+	void unlockFlushing() {
+		currentBuff.unlockFlushing();
+	}
+
+	/**
+	 * Latches the page in shared mode. The number of records is read again
+	 * after latching, since other transactions may have modified the page
+	 * since it was last latched.
+	 * 
+	 * @see Buffer#latchShared()
+	 */
+	void latchShared() {
+		currentBuff.latchShared();
+		numberOfRecords = -1;
+	}
+
+	void unlatchShared() {
+		currentBuff.unlatchShared();
+	}
+
+	/**
+	 * Latches the page in exclusive mode.
+	 * 
+	 * @see Buffer#latchExclusive()
+	 */
+	void latchExclusive() {
+		currentBuff.latchExclusive();
+		numberOfRecords = -1;
+	}
+
+	void unlatchExclusive() {
+		currentBuff.unlatchExclusive();
+	}
+
 	/**
 	 * Inserts a slot to the current BTreePage. Since this whole action must be
 	 * done atomically in a buffer, it will lock the flushing mechanism of the
@@ -270,7 +411,7 @@ public class BTreePage {
 	/**
 	 * Splits the page at the specified slot. A new page is created, and the
 	 * records of the page starting from the split slot are transferred to the
-	 * new page.
+	 * new page. The new page also takes over the high key of the page.
 	 * 
 	 * @param splitSlot
 	 *            the split position
@@ -282,6 +423,8 @@ public class BTreePage {
 		BlockId newBlk = appendBlock(flags);
 		BTreePage newPage = new BTreePage(newBlk, flags.length, schema, tx);
 		transferRecords(splitSlot, newPage, 0, getNumRecords() - splitSlot);
+		for (String fld : schema.fields())
+			newPage.setHighKey(fld, getHighKey(fld));
 		newPage.close();
 		return newBlk.number();
 	}
@@ -338,7 +481,7 @@ public class BTreePage {
 		// return (Integer) getVal(0, INTEGER).asJavaVal();
 		// Optimization:
 		if (numberOfRecords == -1)
-			numberOfRecords = (Integer) getVal(0, INTEGER).asJavaVal();
+			numberOfRecords = currentBuff.getInt(0);
 		return numberOfRecords;
 	}
 
@@ -375,22 +518,26 @@ public class BTreePage {
 		return headerSize + (slot * slotSize);
 	}
 
+	/*
+	 * No lock is taken on the file: appending blocks to a file is already
+	 * synchronized by the buffer pool, and the new block cannot be reached by
+	 * other transactions before it is linked to the tree.
+	 */
 	private BlockId appendBlock(long[] flags) {
-		try {
-			tx.concurrencyMgr().modifyFile(blk.fileName());
-			BTPageFormatter btpf = new BTPageFormatter(schema, flags);
-			Buffer buff = tx.bufferMgr().pinNew(blk.fileName(), btpf);
-			tx.bufferMgr().unpin(buff);
-			return buff.block();
-		} catch (LockAbortException e) {
-			tx.rollback();
-			throw e;
-		}
+		BTPageFormatter btpf = new BTPageFormatter(schema, flags);
+		Buffer buff = tx.bufferMgr().pinNew(blk.fileName(), btpf);
+		tx.bufferMgr().unpin(buff);
+		return buff.block();
 	}
 
 	private void setVal(int offset, Constant val) {
-		LogSeqNum lsn = tx.recoveryMgr().logSetVal(currentBuff, offset, val);
-		currentBuff.setVal(offset, val, tx.getTransactionNumber(), lsn);
+		currentBuff.lockFlushing();
+		try {
+			LogSeqNum lsn = tx.recoveryMgr().logSetVal(currentBuff, offset, val);
+			currentBuff.setVal(offset, val, tx.getTransactionNumber(), lsn);
+		} finally {
+			currentBuff.unlockFlushing();
+		}
 	}
 
 	private void setValWithoutLogging(int offset, Constant val) {
@@ -18,6 +18,7 @@ package org.vanilladb.core.storage.log;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.file.Page;
+import org.vanilladb.core.util.ByteHelper;
 
 /**
  * A log record located at a specified position of a specified page. The method
@@ -56,6 +57,33 @@ public class BasicLogRecord {
 		return val;
 	}
 	
+	/**
+	 * Returns the next value of this log record as an integer, without
+	 * creating a {@link Constant}.
+	 * 
+	 * @return the next integer
+	 */
+	public int nextInt() {
+		byte[] bytes = new byte[ByteHelper.INT_SIZE];
+		pg.getBytes(currentPos, bytes);
+		currentPos += bytes.length;
+		return ByteHelper.toInteger(bytes);
+	}
+
+	/**
+	 * Returns the next value of this log record as raw bytes. The value is
+	 * stored as its length followed by the bytes, the same as a variable-length
+	 * value.
+	 * 
+	 * @return the bytes of the next value
+	 */
+	public byte[] nextBytes() {
+		byte[] bytes = new byte[nextInt()];
+		pg.getBytes(currentPos, bytes);
+		currentPos += bytes.length;
+		return bytes;
+	}
+
 	/**
 	 * Returns the log sequence number of this log record.
 	 * 
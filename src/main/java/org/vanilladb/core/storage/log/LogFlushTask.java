@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.task.Task;
+
+/**
+ * The task writes the full pages of the log tail, and the log for groups of
+ * committing transactions. See {@link LogMgr#groupFlush(LogSeqNum)}.
+ */
+public class LogFlushTask extends Task {
+	private static Logger logger = Logger.getLogger(LogFlushTask.class.getName());
+
+	private LogMgr logMgr;
+
+	public LogFlushTask(LogMgr logMgr) {
+		this.logMgr = logMgr;
+		// Accept the requests before the task is actually scheduled
+		logMgr.setFlusherRunning(true);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true)
+				logMgr.flushNextGroup();
+		} catch (InterruptedException e) {
+			if (logger.isLoggable(Level.WARNING))
+				logger.warning("log flusher is interrupted");
+		} finally {
+			logMgr.setFlusherRunning(false);
+		}
+	}
+}
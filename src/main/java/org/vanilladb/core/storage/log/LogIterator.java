@@ -33,6 +33,8 @@ public class LogIterator implements ReversibleIterator<BasicLogRecord> {
 	private int currentRec;
 	private BlockId endBlk;
 	private boolean isForward = true;
+	private long checkedBlkNum = -1;
+	private boolean hasEarlierBlock;
 
 	/**
 	 * Creates an iterator for the records in the log file, positioned after the
@@ -57,7 +59,7 @@ public class LogIterator implements ReversibleIterator<BasicLogRecord> {
 			currentRec = currentRec - pointerSize;
 			isForward = true;
 		}
-		return currentRec > 0 || blk.number() > 0;
+		return currentRec > 0 || hasEarlierBlock();
 	}
 
 	/**
@@ -111,6 +113,25 @@ public class LogIterator implements ReversibleIterator<BasicLogRecord> {
 
 	}
 
+	/**
+	 * Checks if the block before the current one holds log records. A rebuilt
+	 * log does not start from block 0 and leaves empty blocks before its first
+	 * block.
+	 * 
+	 * @return true if there is an earlier block in the log
+	 */
+	private boolean hasEarlierBlock() {
+		if (blk.number() == 0)
+			return false;
+		if (checkedBlkNum != blk.number()) {
+			Page earlierPg = new Page();
+			earlierPg.read(new BlockId(blk.fileName(), blk.number() - 1));
+			hasEarlierBlock = (Integer) earlierPg.getVal(LogMgr.LAST_POS, INTEGER).asJavaVal() > 0;
+			checkedBlkNum = blk.number();
+		}
+		return hasEarlierBlock;
+	}
+
 	/**
 	 * Moves to the next log block in reverse order, and positions it after the
 	 * last record in that block.
@@ -18,7 +18,13 @@ package org.vanilladb.core.storage.log;
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.storage.file.Page.BLOCK_SIZE;
 
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.vanilladb.core.server.VanillaDb;
@@ -36,6 +42,30 @@ import org.vanilladb.core.util.CoreProperties;
  * string values. The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link org.vanilladb.core.storage.tx.recovery.RecoveryMgr recovery manager}.
+ * 
+ * <p>
+ * The tail of the log is kept in a ring of {@link #LOG_BUFFER_SIZE} in-memory
+ * pages. Appending a record takes no lock: the record is first serialized by
+ * the appending thread, then a range of the log is reserved for it by a CAS
+ * on the tail address, and finally the bytes are copied into the ring in
+ * parallel with the other appenders. Appenders only wait for each other to
+ * finish copying in LSN order, which takes a few instructions. When the tail
+ * moves to the next page, the full page is written later by a flushing
+ * thread, so appending never waits for any log I/O unless all pages in the
+ * ring are full.
+ * </p>
+ * 
+ * <p>
+ * All records whose LSNs are smaller than the {@link #durableLsn() durable
+ * LSN} are on disk, which is checked without locking. If group commit is
+ * enabled, a {@link LogFlushTask} writes the log on behalf of the committing
+ * transactions. A transaction calling {@link #groupFlush(LogSeqNum)} waits
+ * until the flusher has written its log records, so the records of many
+ * transactions reach the disk with a single write. The flusher waits for at
+ * most {@link #GROUP_COMMIT_MAX_DELAY} microseconds, or until
+ * {@link #GROUP_COMMIT_MAX_SIZE} transactions are waiting, before it writes
+ * the log.
+ * </p>
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
 	/**
@@ -44,20 +74,68 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	 */
 	public static final int LAST_POS = 0;
 	public static final String DEFAULT_LOG_FILE;
+	public static final int LOG_BUFFER_SIZE;
+	public static final boolean GROUP_COMMIT;
+	public static final long GROUP_COMMIT_MAX_DELAY;
+	public static final int GROUP_COMMIT_MAX_SIZE;
+
+	/**
+	 * A transaction waiting for its log records to be flushed.
+	 */
+	private static class FlushRequest implements Comparable<FlushRequest> {
+		final LogSeqNum lsn;
+		final Thread waiter = Thread.currentThread();
+		volatile boolean durable;
+
+		FlushRequest(LogSeqNum lsn) {
+			this.lsn = lsn;
+		}
+
+		@Override
+		public int compareTo(FlushRequest req) {
+			return lsn.compareTo(req.lsn);
+		}
+	}
 
 	// Optimization: store the size of pointer to other log record
 	private int pointerSize = Page.maxSize(INTEGER);
-	private Page myPage = new Page();
-	private BlockId currentBlk;
-	private int currentPos;
-	private LogSeqNum lastLsn = LogSeqNum.DEFAULT_VALUE;
-	private LogSeqNum lastFlushedLsn = LogSeqNum.DEFAULT_VALUE;
 
-	private final Lock logMgrLock = new ReentrantLock();
+	// The ring of log pages. Block b of the log file is kept in
+	// ringPages[b % LOG_BUFFER_SIZE], and the end of a full page is kept in
+	// pageEnds.
+	private byte[][] ringPages;
+	private int[] pageEnds;
+
+	// The addresses are the byte offsets in the log file. The records before
+	// the completed address have been copied into the ring.
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long completed;
+	// The blocks up to this one are on disk, and their pages can be reused
+	private volatile long writtenBlk;
+	private volatile LogSeqNum durableLsn = LogSeqNum.DEFAULT_VALUE;
+
+	// Held by the thread writing the log
+	private final Lock flushLock = new ReentrantLock();
+	private Page writePage = new Page();
+
+	// For the flusher and group commit
+	private final AtomicInteger runningFlushers = new AtomicInteger();
+	private final Lock groupLock = new ReentrantLock();
+	private final Condition flushRequested = groupLock.newCondition();
+	private final PriorityQueue<FlushRequest> flushRequests = new PriorityQueue<FlushRequest>();
+	private boolean fullPagesToWrite;
 
 	static {
 		DEFAULT_LOG_FILE = CoreProperties.getLoader().getPropertyAsString(LogMgr.class.getName() + ".LOG_FILE",
 				"vanilladb.log");
+		LOG_BUFFER_SIZE = Math.max(2, CoreProperties.getLoader()
+				.getPropertyAsInteger(LogMgr.class.getName() + ".LOG_BUFFER_SIZE", 8));
+		GROUP_COMMIT = CoreProperties.getLoader().getPropertyAsBoolean(LogMgr.class.getName() + ".GROUP_COMMIT",
+				false);
+		GROUP_COMMIT_MAX_DELAY = CoreProperties.getLoader()
+				.getPropertyAsLong(LogMgr.class.getName() + ".GROUP_COMMIT_MAX_DELAY", 1000);
+		GROUP_COMMIT_MAX_SIZE = CoreProperties.getLoader()
+				.getPropertyAsInteger(LogMgr.class.getName() + ".GROUP_COMMIT_MAX_SIZE", 64);
 	}
 	
 	private String logFile;
@@ -77,13 +155,18 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	
 	public LogMgr(String logFileName) {
 		logFile = logFileName;
+		ringPages = new byte[LOG_BUFFER_SIZE][BLOCK_SIZE];
+		pageEnds = new int[LOG_BUFFER_SIZE];
+
 		long logsize = VanillaDb.fileMgr().size(logFile);
 		if (logsize == 0)
 			appendNewBlock();
 		else {
-			currentBlk = new BlockId(logFile, logsize - 1);
-			myPage.read(currentBlk);
-			currentPos = getLastRecordPosition() + pointerSize * 2;
+			BlockId lastBlk = new BlockId(logFile, logsize - 1);
+			writePage.read(lastBlk);
+			writePage.getBytes(0, ringPages[slot(lastBlk.number())]);
+			int lastPos = (Integer) writePage.getVal(LAST_POS, INTEGER).asJavaVal();
+			resetTail(lastBlk.number(), lastPos + pointerSize * 2);
 		}
 	}
 
@@ -95,13 +178,120 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	 *            the LSN of a log record
 	 */
 	public void flush(LogSeqNum lsn) {
-		logMgrLock.lock();
+		if (lsn.compareTo(durableLsn) >= 0)
+			writeLog(lsn, true);
+	}
+
+	/**
+	 * Returns the LSN of the end of the log. Every log record appended after
+	 * this call has a larger LSN.
+	 * 
+	 * @return the LSN of the log tail
+	 */
+	public LogSeqNum tailLsn() {
+		long address = tail.get();
+		return new LogSeqNum(blockNumber(address), offset(address));
+	}
+
+	/**
+	 * Returns the durable LSN of the log. All log records whose LSNs are
+	 * smaller than it have been written to disk.
+	 * 
+	 * @return the durable LSN
+	 */
+	public LogSeqNum durableLsn() {
+		return durableLsn;
+	}
+
+	/**
+	 * Ensures that the log records corresponding to the specified LSN has been
+	 * written to disk, possibly together with the log records of other
+	 * transactions. This method is designed for committing transactions. If
+	 * group commit is disabled or no {@link LogFlushTask} is running, it
+	 * behaves the same as {@link #flush(LogSeqNum)}.
+	 * 
+	 * @param lsn
+	 *            the LSN of a log record
+	 */
+	public void groupFlush(LogSeqNum lsn) {
+		if (!GROUP_COMMIT || runningFlushers.get() == 0) {
+			flush(lsn);
+			return;
+		}
+
+		FlushRequest req = new FlushRequest(lsn);
+		groupLock.lock();
+		try {
+			// The record may have been flushed by others
+			if (lsn.compareTo(durableLsn) < 0)
+				return;
+
+			flushRequests.add(req);
+			if (flushRequests.size() == 1 || flushRequests.size() >= GROUP_COMMIT_MAX_SIZE)
+				flushRequested.signal();
+		} finally {
+			groupLock.unlock();
+		}
+
+		// Wait for the flusher. The log must be flushed even if the thread is
+		// interrupted, so keep the interruption for the caller.
+		boolean interrupted = false;
+		while (!req.durable) {
+			// The flusher has been stopped
+			if (runningFlushers.get() == 0) {
+				flush(lsn);
+				continue;
+			}
+			LockSupport.park(this);
+			if (Thread.interrupted())
+				interrupted = true;
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Waits until a group of transactions is ready to commit or some log pages
+	 * are full, and then writes the log. This method is called repeatedly by
+	 * the {@link LogFlushTask}.
+	 * 
+	 * @throws InterruptedException
+	 *             if the flusher is interrupted while waiting
+	 */
+	void flushNextGroup() throws InterruptedException {
+		boolean commitRequested;
+		groupLock.lock();
 		try {
-			if (lsn.compareTo(lastFlushedLsn) >= 0)
-				flush();
+			while (flushRequests.isEmpty() && !fullPagesToWrite)
+				flushRequested.await();
+			fullPagesToWrite = false;
+
+			// Give other transactions a chance to join this group
+			commitRequested = !flushRequests.isEmpty();
+			if (commitRequested) {
+				long remaining = TimeUnit.MICROSECONDS.toNanos(GROUP_COMMIT_MAX_DELAY);
+				while (flushRequests.size() < GROUP_COMMIT_MAX_SIZE && remaining > 0)
+					remaining = flushRequested.awaitNanos(remaining);
+			}
 		} finally {
-			logMgrLock.unlock();
+			groupLock.unlock();
 		}
+
+		writeLog(null, commitRequested);
+	}
+
+	/**
+	 * Sets whether a {@link LogFlushTask} is writing the log. When the last
+	 * flusher stops, the transactions waiting for it are flushed immediately.
+	 * 
+	 * @param running
+	 *            true if the flusher starts running, false if it stops
+	 */
+	void setFlusherRunning(boolean running) {
+		if (running)
+			runningFlushers.incrementAndGet();
+		else if (runningFlushers.decrementAndGet() == 0)
+			writeLog(null, true);
 	}
 
 	/**
@@ -112,13 +302,8 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	 */
 	@Override
 	public ReversibleIterator<BasicLogRecord> iterator() {
-		logMgrLock.lock();
-		try {
-			flush();
-			return new LogIterator(currentBlk);
-		} finally {
-			logMgrLock.unlock();
-		}
+		BlockId lastBlk = writeLog(null, true);
+		return new LogIterator(lastBlk);
 	}
 
 	/**
@@ -133,120 +318,264 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	 * @return the LSN of the log record
 	 */
 	public LogSeqNum append(Constant[] rec) {
-		logMgrLock.lock();
-		try {
-			// two integers that point to the previous and next log records
-			int recsize = pointerSize * 2;
-			for (Constant c : rec)
-				recsize += Page.size(c);
-
-			// if the log record doesn't fit, move to the next block
-			if (currentPos + recsize >= BLOCK_SIZE) {
-				flush();
-				appendNewBlock();
+		int dataSize = 0;
+		for (Constant c : rec)
+			dataSize += Page.size(c);
+		byte[] recBytes = new byte[dataSize];
+		int pos = 0;
+		for (Constant c : rec) {
+			byte[] valBytes = c.asBytes();
+			if (!c.getType().isFixedSize()) {
+				putInt(recBytes, pos, valBytes.length);
+				pos += pointerSize;
+			}
+			System.arraycopy(valBytes, 0, recBytes, pos, valBytes.length);
+			pos += valBytes.length;
+		}
+		return append(recBytes, dataSize);
+	}
+
+	/**
+	 * Appends a log record which has already been serialized. The bytes are
+	 * copied into the log before this method returns, so the caller can reuse
+	 * the array afterwards. A record must fit in an empty log page.
+	 * 
+	 * @param rec
+	 *            the array containing the serialized record
+	 * @param length
+	 *            the length of the record
+	 * @return the LSN of the log record
+	 * @throws IllegalArgumentException
+	 *             if the record is larger than a log page can hold
+	 */
+	public LogSeqNum append(byte[] rec, int length) {
+		// two integers that point to the previous and next log records
+		int recSize = length + pointerSize * 2;
+
+		// Reject the records that can never be reserved before touching the
+		// tail, so a bad record cannot stall the other appenders
+		if (length < 0 || length > rec.length || recSize >= BLOCK_SIZE - pointerSize * 2)
+			throw new IllegalArgumentException("bad log record size: " + length);
+
+		// Reserve the space of the record
+		long prevEnd, start;
+		while (true) {
+			long t = tail.get();
+			int offset = offset(t);
+			if (offset + recSize < BLOCK_SIZE) {
+				if (tail.compareAndSet(t, t + recSize)) {
+					prevEnd = start = t;
+					break;
+				}
+				continue;
+			}
+
+			// The record doesn't fit, move to the next page if it is free
+			long nextBlk = blockNumber(t) + 1;
+			if (nextBlk - LOG_BUFFER_SIZE > writtenBlk) {
+				waitForFreePage(nextBlk);
+				continue;
+			}
+			long nextStart = nextBlk * BLOCK_SIZE + pointerSize * 2;
+			if (tail.compareAndSet(t, nextStart + recSize)) {
+				pageEnds[slot(blockNumber(t))] = offset;
+				prevEnd = t;
+				start = nextStart;
+				break;
 			}
-			
-			// Get the current LSN
-			LogSeqNum lsn = currentLSN();
-			
-			// Append a record
-			for (Constant c : rec)
-				appendVal(c);
-			finalizeRecord();
-			
-			// Remember this LSN
-			lastLsn = lsn;
-			
-			return lsn;
+		}
+
+		// Copy the record into the page, followed by the pointer to the
+		// previous record. The pointer from the previous record to this one is
+		// written by this thread, too.
+		byte[] page = ringPages[slot(blockNumber(start))];
+		int recPos = offset(start);
+		try {
+			System.arraycopy(rec, 0, page, recPos, length);
+			putInt(page, recPos + length, recPos - pointerSize * 2);
+			putInt(page, recPos - pointerSize, recPos + length + pointerSize);
 		} finally {
-			logMgrLock.unlock();
+			// Complete the records in LSN order, so the log before the
+			// completed address has no holes. The reserved space is always
+			// completed, otherwise the following appenders would wait forever.
+			while (completed != prevEnd)
+				Thread.yield();
+			completed = start + recSize;
 		}
+
+		if (blockNumber(prevEnd) != blockNumber(start))
+			notifyFlusher();
+
+		return new LogSeqNum(blockNumber(start), recPos);
 	}
 
 	/**
-	 * Remove the old log file and create a new one.
+	 * Remove the old log file and create a new one. The new log continues the
+	 * LSNs of the old one by starting at the block after the old tail, so the
+	 * last LSNs kept in the data pages are always smaller than the LSNs of the
+	 * new log records.
+	 * 
+	 * <p>
+	 * The blocks before the first block of the new log are left as a hole in
+	 * the file. The hole is never written, so it takes no disk space on file
+	 * systems supporting sparse files, and its blocks read as empty log pages.
+	 * {@link LogIterator} stops at the first empty block before the current
+	 * one, and {@link org.vanilladb.core.storage.tx.recovery.LogReader
+	 * LogReader} skips the empty blocks at the front of the file.
+	 * </p>
 	 */
 	public void removeAndCreateNewLog() {
-		logMgrLock.lock();
+		flushLock.lock();
 		try {
+			long firstBlk = blockNumber(completed) + 1;
 			VanillaDb.fileMgr().rebuildLogFile();
-			appendNewBlock();
+			writePage.setVal(LAST_POS, new IntegerConstant(0));
+			writePage.write(new BlockId(logFile, firstBlk));
+			resetTail(firstBlk, pointerSize * 2);
 		} finally {
-			logMgrLock.unlock();
+			flushLock.unlock();
 		}
 	}
 
 	/**
-	 * Adds the specified value to the page at the position denoted by
-	 * currentPos. Then increments currentPos by the size of the value.
+	 * Writes the full pages and, if specified, the page being filled to the
+	 * log file.
 	 * 
-	 * @param val
-	 *            the value to be added to the page
+	 * @param lsn
+	 *            the LSN to be flushed, or null if the log should be written
+	 *            anyway
+	 * @param includeTail
+	 *            whether the page being filled should also be written
+	 * @return the block id of the last page of the log
 	 */
-	private void appendVal(Constant val) {
-		myPage.setVal(currentPos, val);
-		currentPos += Page.size(val);
+	private BlockId writeLog(LogSeqNum lsn, boolean includeTail) {
+		flushLock.lock();
+		try {
+			long end = completed;
+			long tailBlk = blockNumber(end);
+
+			// The record may have been flushed while waiting for the lock
+			if (lsn != null && lsn.compareTo(durableLsn) < 0)
+				return new BlockId(logFile, tailBlk);
+
+			// The records in a full page have all been completed
+			for (long blk = writtenBlk + 1; blk < tailBlk; blk++) {
+				writePage(blk, pageEnds[slot(blk)]);
+				writtenBlk = blk;
+			}
+			LogSeqNum written = new LogSeqNum(tailBlk, 0);
+			if (includeTail) {
+				writePage(tailBlk, offset(end));
+				written = new LogSeqNum(tailBlk, offset(end));
+			}
+
+			if (written.compareTo(durableLsn) > 0)
+				durableLsn = written;
+			releaseFlushRequests();
+
+			return new BlockId(logFile, tailBlk);
+		} finally {
+			flushLock.unlock();
+		}
 	}
 
 	/**
-	 * Returns the LSN of the most recent log record. As implemented, the LSN is
-	 * the block number and the offset in the block where the record is stored.
+	 * Writes a page of the ring to the specified block. The records after the
+	 * specified end of the page are excluded.
 	 * 
-	 * @return the LSN of the most recent log record
+	 * @param blkNum
+	 *            the block number
+	 * @param end
+	 *            the end offset of the last record in the page
 	 */
-	private LogSeqNum currentLSN() {
-		return new LogSeqNum(currentBlk.number(), currentPos);
+	private void writePage(long blkNum, int end) {
+		writePage.setBytes(0, ringPages[slot(blkNum)]);
+		writePage.setVal(LAST_POS, new IntegerConstant(end - pointerSize * 2));
+		// The last record points to the first one
+		if (end > pointerSize * 2)
+			writePage.setVal(end - pointerSize, new IntegerConstant(LAST_POS + pointerSize));
+		writePage.write(new BlockId(logFile, blkNum));
 	}
 
 	/**
-	 * Writes the current page to the log file.
+	 * Waits until the page for the specified block is free. Since the block
+	 * is not reserved yet, the calling thread writes the full pages itself.
+	 * 
+	 * @param blkNum
+	 *            the number of the block to be filled
 	 */
-	private void flush() {
-		myPage.write(currentBlk);
-		lastFlushedLsn = lastLsn;
+	private void waitForFreePage(long blkNum) {
+		writeLog(null, false);
+		if (blkNum - LOG_BUFFER_SIZE > writtenBlk)
+			// The records in the full pages are being copied
+			Thread.yield();
 	}
 
 	/**
-	 * Clear the current page, and append it to the log file.
+	 * Wakes up the flusher to write the full pages.
 	 */
-	private void appendNewBlock() {
-		setLastRecordPosition(0);
-		currentPos = pointerSize * 2;
-		currentBlk = myPage.append(logFile);
+	private void notifyFlusher() {
+		if (runningFlushers.get() == 0)
+			return;
+		groupLock.lock();
+		try {
+			fullPagesToWrite = true;
+			flushRequested.signal();
+		} finally {
+			groupLock.unlock();
+		}
 	}
 
 	/**
-	 * Sets up a circular chain of pointers to the records in the page. There is
-	 * an integer added to the end of each log record whose value is the offset
-	 * of the previous log record. The first four bytes of the page contain an
-	 * integer whose value is the offset of the integer for the last log record
-	 * in the page.
+	 * Wakes up the transactions whose log records have been flushed.
 	 */
-	private void finalizeRecord() {
-		myPage.setVal(currentPos, new IntegerConstant(getLastRecordPosition()));
-		setPreviousNextRecordPosition(currentPos + pointerSize);
-		setLastRecordPosition(currentPos);
-		currentPos += pointerSize;
-		setNextRecordPosition(currentPos);
+	private void releaseFlushRequests() {
+		groupLock.lock();
+		try {
+			FlushRequest req = flushRequests.peek();
+			while (req != null && req.lsn.compareTo(durableLsn) < 0) {
+				flushRequests.poll();
+				req.durable = true;
+				LockSupport.unpark(req.waiter);
+				req = flushRequests.peek();
+			}
+		} finally {
+			groupLock.unlock();
+		}
+	}
+
+	/**
+	 * Appends an empty block to the log file, and starts appending records
+	 * there.
+	 */
+	private void appendNewBlock() {
+		writePage.setVal(LAST_POS, new IntegerConstant(0));
+		BlockId blk = writePage.append(logFile);
+		resetTail(blk.number(), pointerSize * 2);
+	}
 
-		// leave for next pointer
-		currentPos += pointerSize;
+	private void resetTail(long blkNum, int end) {
+		long address = blkNum * BLOCK_SIZE + end;
+		tail.set(address);
+		completed = address;
+		writtenBlk = blkNum - 1;
+		durableLsn = new LogSeqNum(blkNum, end);
 	}
 
-	private int getLastRecordPosition() {
-		return (Integer) myPage.getVal(LAST_POS, INTEGER).asJavaVal();
+	private long blockNumber(long address) {
+		return address / BLOCK_SIZE;
 	}
 
-	private void setLastRecordPosition(int pos) {
-		myPage.setVal(LAST_POS, new IntegerConstant(pos));
+	private int offset(long address) {
+		return (int) (address % BLOCK_SIZE);
 	}
 
-	private void setNextRecordPosition(int pos) {
-		myPage.setVal(pos, new IntegerConstant(LAST_POS + pointerSize));
+	private int slot(long blkNum) {
+		return (int) (blkNum % LOG_BUFFER_SIZE);
 	}
 
-	private void setPreviousNextRecordPosition(int pos) {
-		int lastPos = (Integer) myPage.getVal(LAST_POS, INTEGER).asJavaVal();
-		myPage.setVal(lastPos + pointerSize, new IntegerConstant(pos));
+	private static void putInt(byte[] bytes, int offset, int val) {
+		for (int i = 0; i < INTEGER.maxSize(); i++)
+			bytes[offset + i] = (byte) (val >> (INTEGER.maxSize() - 1 - i) * 8);
 	}
 }
@@ -38,6 +38,10 @@ public class CatalogMgr {
 		tblMgr.createTable(tblName, sch, tx);
 	}
 
+	public void createTable(String tblName, Schema sch, int format, Transaction tx) {
+		tblMgr.createTable(tblName, sch, format, tx);
+	}
+
 	public void dropTable(String tblName, Transaction tx) {
 		tblMgr.dropTable(tblName, tx);
 	}
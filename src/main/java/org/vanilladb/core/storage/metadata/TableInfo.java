@@ -16,7 +16,10 @@
 package org.vanilladb.core.storage.metadata;
 
 import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.record.RecordFile;
+import org.vanilladb.core.storage.record.RecordPage;
+import org.vanilladb.core.storage.record.SlottedRecordPage;
 import org.vanilladb.core.storage.tx.Transaction;
 
 /**
@@ -25,6 +28,7 @@ import org.vanilladb.core.storage.tx.Transaction;
 public class TableInfo {
 	private Schema schema;
 	private String tblName;
+	private int format;
 
 	/**
 	 * Creates a TableInfo object, given a table name and schema. The
@@ -37,8 +41,25 @@ public class TableInfo {
 	 *            the schema of the table's records
 	 */
 	public TableInfo(String tblName, Schema schema) {
+		this(tblName, schema, RecordFile.FMT_FIXED);
+	}
+
+	/**
+	 * Creates a TableInfo object of a table whose records are in the
+	 * specified format.
+	 * 
+	 * @param tblName
+	 *            the name of the table
+	 * @param schema
+	 *            the schema of the table's records
+	 * @param format
+	 *            the record format of the table, as defined in
+	 *            {@link RecordFile}
+	 */
+	public TableInfo(String tblName, Schema schema, int format) {
 		this.schema = schema;
 		this.tblName = tblName;
+		this.format = format;
 	}
 
 	/**
@@ -69,6 +90,33 @@ public class TableInfo {
 		return schema;
 	}
 
+	/**
+	 * Returns the record format of the table.
+	 * 
+	 * @return the record format, as defined in {@link RecordFile}
+	 */
+	public int format() {
+		return format;
+	}
+
+	/**
+	 * Opens the {@link RecordPage} of the specified block of the table, in
+	 * the record format of the table.
+	 * 
+	 * @param blk
+	 *            a block of the table
+	 * @param tx
+	 *            the transaction
+	 * @param doLog
+	 *            true if the modifications should be logged
+	 * @return the {@link RecordPage} of the block
+	 */
+	public RecordPage openPage(BlockId blk, Transaction tx, boolean doLog) {
+		if (format == RecordFile.FMT_SLOTTED)
+			return new SlottedRecordPage(blk, this, tx, doLog);
+		return new RecordPage(blk, this, tx, doLog);
+	}
+
 	/**
 	 * Opens the {@link RecordFile} described by this object.
 	 * 
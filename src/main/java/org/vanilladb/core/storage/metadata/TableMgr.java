@@ -32,6 +32,13 @@ import org.vanilladb.core.util.CoreProperties;
 /**
  * The table manager. There are methods to create a table, save the metadata in
  * the catalog, and obtain the metadata of a previously-created table.
+ * 
+ * <p>
+ * The table catalog keeps the record format of each table. A catalog created
+ * before the formats were introduced has no such field, and is still read
+ * with its own layout, as found in the field catalog. All its tables are
+ * fixed-size, and no table of another format can be created in it.
+ * </p>
  */
 public class TableMgr {
 	/**
@@ -42,7 +49,7 @@ public class TableMgr {
 	/**
 	 * A field name of the table catalog.
 	 */
-	public static final String TCAT_TBLNAME = "tblname";
+	public static final String TCAT_TBLNAME = "tblname", TCAT_FORMAT = "format";
 
 	/**
 	 * Name of the field catalog.
@@ -84,6 +91,7 @@ public class TableMgr {
 		tiMap = new HashMap<String, TableInfo>();
 		Schema tcatSchema = new Schema();
 		tcatSchema.addField(TCAT_TBLNAME, VARCHAR(MAX_NAME));
+		tcatSchema.addField(TCAT_FORMAT, INTEGER);
 		tcatInfo = new TableInfo(TCAT, tcatSchema);
 
 		Schema fcatSchema = new Schema();
@@ -98,6 +106,11 @@ public class TableMgr {
 			formatFileHeader(FCAT, tx);
 			createTable(TCAT, tcatSchema, tx);
 			createTable(FCAT, fcatSchema, tx);
+		} else if (!hasCatalogField(TCAT, TCAT_FORMAT, tx)) {
+			// The table catalog was created before the record formats
+			tcatSchema = new Schema();
+			tcatSchema.addField(TCAT_TBLNAME, VARCHAR(MAX_NAME));
+			tcatInfo = new TableInfo(TCAT, tcatSchema);
 		}
 	}
 
@@ -112,15 +125,38 @@ public class TableMgr {
 	 *            the transaction creating the table
 	 */
 	public void createTable(String tblName, Schema sch, Transaction tx) {
+		createTable(tblName, sch, RecordFile.FMT_FIXED, tx);
+	}
+
+	/**
+	 * Creates a new table having the specified name, schema and record format.
+	 * 
+	 * @param tblName
+	 *            the name of the new table
+	 * @param sch
+	 *            the table's schema
+	 * @param format
+	 *            the record format of the table, as defined in
+	 *            {@link RecordFile}
+	 * @param tx
+	 *            the transaction creating the table
+	 */
+	public void createTable(String tblName, Schema sch, int format, Transaction tx) {
+		boolean keepsFormat = tcatInfo.schema().hasField(TCAT_FORMAT);
+		if (!keepsFormat && format != RecordFile.FMT_FIXED)
+			throw new UnsupportedOperationException(
+					"the catalog keeps no record format, so only fixed-size tables can be created");
 		if (tblName != TCAT_TBLNAME && tblName != FCAT_TBLNAME)
 			formatFileHeader(tblName, tx);
 		// Optimization: store the ti
-		tiMap.put(tblName, new TableInfo(tblName, sch));
+		tiMap.put(tblName, new TableInfo(tblName, sch, format));
 
 		// insert one record into tblcat
 		RecordFile tcatfile = tcatInfo.open(tx, true);
 		tcatfile.insert();
 		tcatfile.setVal(TCAT_TBLNAME, new VarcharConstant(tblName));
+		if (keepsFormat)
+			tcatfile.setVal(TCAT_FORMAT, new IntegerConstant(format));
 		tcatfile.close();
 
 		// insert a record into fldcat for each field
@@ -192,10 +228,13 @@ public class TableMgr {
 		RecordFile tcatfile = tcatInfo.open(tx, true);
 		tcatfile.beforeFirst();
 		boolean found = false;
+		int format = RecordFile.FMT_FIXED;
 		while (tcatfile.next()) {
 			String t = (String) tcatfile.getVal(TCAT_TBLNAME).asJavaVal();
 			if (t.equals(tblName)) {
 				found = true;
+				if (tcatInfo.schema().hasField(TCAT_FORMAT))
+					format = (Integer) tcatfile.getVal(TCAT_FORMAT).asJavaVal();
 				break;
 			}
 		}
@@ -219,11 +258,26 @@ public class TableMgr {
 			}
 		fcatfile.close();
 		// Optimization:
-		resultTi = new TableInfo(tblName, sch);
+		resultTi = new TableInfo(tblName, sch, format);
 		tiMap.put(tblName, resultTi);
 		return resultTi;
 	}
 
+	/*
+	 * Returns true if the field catalog records the specified field of a
+	 * table, which tells the layout the table was created with.
+	 */
+	private boolean hasCatalogField(String tblName, String fldName, Transaction tx) {
+		RecordFile fcatfile = fcatInfo.open(tx, true);
+		fcatfile.beforeFirst();
+		boolean found = false;
+		while (!found && fcatfile.next())
+			found = fcatfile.getVal(FCAT_TBLNAME).asJavaVal().equals(tblName)
+					&& fcatfile.getVal(FCAT_FLDNAME).asJavaVal().equals(fldName);
+		fcatfile.close();
+		return found;
+	}
+
 	private void formatFileHeader(String tblName, Transaction tx) {
 		String fileName = tblName + ".tbl";
 		RecordFile.formatFileHeader(fileName, tx);
@@ -166,8 +166,13 @@ public class FileHeaderPage {
 			tx.rollback();
 			throw e;
 		}
-		LogSeqNum lsn = tx.recoveryMgr().logSetVal(currentBuff, offset, val);
-		currentBuff.setVal(offset, val, tx.getTransactionNumber(), lsn);
+		currentBuff.lockFlushing();
+		try {
+			LogSeqNum lsn = tx.recoveryMgr().logSetVal(currentBuff, offset, val);
+			currentBuff.setVal(offset, val, tx.getTransactionNumber(), lsn);
+		} finally {
+			currentBuff.unlockFlushing();
+		}
 	}
 
 	private boolean isTempTable() {
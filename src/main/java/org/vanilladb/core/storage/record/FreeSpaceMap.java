@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.record;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The map of the free space in the blocks of a record file, which directs an
+ * insertion to a block having room for the record, instead of walking the
+ * blocks from the tail of the file.
+ * 
+ * <p>
+ * The free space of each block is kept as a category in one byte, which is
+ * the number of units of free space rounded up, so a block having room for
+ * the requested space is always found. The categories are the leaves of a
+ * tree whose nodes hold the largest category below them, so such a block is
+ * found in logarithmic time. The blocks not seen since the server starts are
+ * in the unknown category, and are tried by the insertions as if they had
+ * room. An insertion failing on a block puts it below the requested category,
+ * so it is not tried again for the same space.
+ * </p>
+ * 
+ * <p>
+ * The map is a hint kept in memory. It is updated under its own latch after
+ * each insertion or deletion, instead of under a lock of the file, so the
+ * transactions inserting into the same file run concurrently. A search
+ * starts from the block after the one last found, which spreads concurrent
+ * insertions over the blocks having room.
+ * </p>
+ */
+class FreeSpaceMap {
+	private static final int MAX_CATEGORY = 254, UNKNOWN = 255;
+
+	private static ConcurrentMap<String, FreeSpaceMap> maps = new ConcurrentHashMap<String, FreeSpaceMap>();
+
+	/**
+	 * Returns the free space map of the specified file, creating it if it
+	 * does not exist.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @param unit
+	 *            the size of the free space counted as one category, in bytes
+	 * @return the free space map of the file
+	 */
+	static FreeSpaceMap forFile(String fileName, int unit) {
+		FreeSpaceMap fsm = maps.get(fileName);
+		if (fsm == null) {
+			FreeSpaceMap newFsm = new FreeSpaceMap(unit);
+			fsm = maps.putIfAbsent(fileName, newFsm);
+			if (fsm == null)
+				fsm = newFsm;
+		}
+		return fsm;
+	}
+
+	/**
+	 * Returns the smallest unit mapping the specified space in the categories.
+	 * 
+	 * @param maxSpace
+	 *            the largest free space of a block, in bytes
+	 * @return the size of the free space counted as one category, in bytes
+	 */
+	static int unitOf(int maxSpace) {
+		return maxSpace / MAX_CATEGORY + 1;
+	}
+
+	/**
+	 * Removes the free space map of the specified file.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 */
+	static void remove(String fileName) {
+		maps.remove(fileName);
+	}
+
+	private final int unit;
+	// The tree of categories, where the node k has the children 2k and
+	// 2k + 1, and the block n is the leaf at leafCount + n
+	private byte[] tree = new byte[2];
+	private int leafCount = 1;
+	private long nextBlkNum = 1;
+
+	FreeSpaceMap(int unit) {
+		this.unit = unit;
+	}
+
+	/**
+	 * Returns the number of a data block which may have the specified free
+	 * space, or -1 if there is no such block.
+	 * 
+	 * @param space
+	 *            the free space required, in bytes
+	 * @param fileSize
+	 *            the number of blocks in the file
+	 * @return the number of a block, or -1 if no block has room
+	 */
+	synchronized long search(int space, long fileSize) {
+		int required = Math.max(category(space), 1);
+		// The first block is the header
+		if (fileSize <= 1)
+			return -1;
+		ensureCapacity(fileSize);
+		long start = nextBlkNum < fileSize ? nextBlkNum : 1;
+		long blkNum = searchFrom(start, required);
+		// Wrap around to the first data block
+		if (blkNum >= fileSize && start > 1)
+			blkNum = searchFrom(1, required);
+		if (blkNum >= fileSize)
+			return -1;
+		nextBlkNum = blkNum + 1;
+		return blkNum;
+	}
+
+	/**
+	 * Records the free space of the specified block.
+	 * 
+	 * @param blkNum
+	 *            the number of the block
+	 * @param freeSpace
+	 *            the free space of the block, in bytes
+	 */
+	synchronized void update(long blkNum, int freeSpace) {
+		ensureCapacity(blkNum + 1);
+		setCategory(blkNum, category(freeSpace));
+	}
+
+	/**
+	 * Records that the specified block has no room for the specified space.
+	 * 
+	 * @param blkNum
+	 *            the number of the block
+	 * @param space
+	 *            the free space required, in bytes
+	 */
+	synchronized void reject(long blkNum, int space) {
+		ensureCapacity(blkNum + 1);
+		int category = Math.min(nodeCategory(leafCount + (int) blkNum), category(space) - 1);
+		setCategory(blkNum, Math.max(category, 0));
+	}
+
+	/*
+	 * Returns the first block from the specified one which has the required
+	 * category, or a number beyond the leaves if there is none. The unknown
+	 * category is larger than the others, so the blocks not seen yet are
+	 * returned by any search.
+	 */
+	private long searchFrom(long blkNum, int required) {
+		int node = leafCount + (int) blkNum;
+		if (nodeCategory(node) < required) {
+			// Climb until the right sibling has the category
+			while (node > 1 && ((node & 1) == 1 || nodeCategory(node + 1) < required))
+				node >>= 1;
+			if (node == 1)
+				return Long.MAX_VALUE;
+			node++;
+			// Descend to the leftmost leaf having the category
+			while (node < leafCount)
+				node = nodeCategory(2 * node) >= required ? 2 * node : 2 * node + 1;
+		}
+		return node - leafCount;
+	}
+
+	private int category(int space) {
+		return Math.max(0, Math.min((space + unit - 1) / unit, MAX_CATEGORY));
+	}
+
+	private int nodeCategory(int node) {
+		return tree[node] & 0xff;
+	}
+
+	private void setCategory(long blkNum, int category) {
+		int node = leafCount + (int) blkNum;
+		tree[node] = (byte) category;
+		for (node >>= 1; node >= 1; node >>= 1)
+			tree[node] = (byte) Math.max(nodeCategory(2 * node), nodeCategory(2 * node + 1));
+	}
+
+	private void ensureCapacity(long blkCount) {
+		if (blkCount <= leafCount)
+			return;
+		int newLeafCount = leafCount;
+		while (newLeafCount < blkCount)
+			newLeafCount *= 2;
+		byte[] newTree = new byte[2 * newLeafCount];
+		System.arraycopy(tree, leafCount, newTree, newLeafCount, leafCount);
+		Arrays.fill(newTree, newLeafCount + leafCount, 2 * newLeafCount, (byte) UNKNOWN);
+		// The header block has no room for records
+		newTree[newLeafCount] = 0;
+		for (int node = newLeafCount - 1; node >= 1; node--)
+			newTree[node] = (byte) Math.max(newTree[2 * node] & 0xff, newTree[2 * node + 1] & 0xff);
+		tree = newTree;
+		leafCount = newLeafCount;
+	}
+}
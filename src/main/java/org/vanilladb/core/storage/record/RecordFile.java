@@ -21,11 +21,13 @@ import org.vanilladb.core.sql.Record;
 import org.vanilladb.core.sql.SchemaIncompatibleException;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.PageFormatter;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.metadata.TableInfo;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * Manages a file of records. There are methods for iterating through the
@@ -40,14 +42,51 @@ import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
  * <p>
  * The {@link #beforeFirst()} method must be called before {@link #next()}.
  * </p>
+ * 
+ * <p>
+ * The blocks of a file are in one of the record formats. A file in the fixed
+ * format gives every record a slot of the same size, while a file in the
+ * slotted format stores each record in its actual size.
+ * </p>
+ * 
+ * <p>
+ * An insertion goes to a block found in the {@link FreeSpaceMap free space
+ * map} of the file, and appends a block only if no block has room. It locks
+ * the slot it takes instead of the file, so the transactions inserting into
+ * the same file run concurrently.
+ * </p>
+ * 
+ * <p>
+ * The {@link #next()} method locks each block it moves to as a whole, if
+ * {@link #LOCK_SCANNED_BLOCKS} is set and the isolation level of the
+ * transaction allows it, and then reads the records of the block without
+ * locking each of them.
+ * </p>
  */
 public class RecordFile implements Record {
-	private BlockId headerBlk;
+	/**
+	 * The record formats of a file.
+	 * 
+	 * @see RecordPage
+	 * @see SlottedRecordPage
+	 */
+	public static final int FMT_FIXED = 0, FMT_SLOTTED = 1;
+
+	/**
+	 * Whether a sequential scan locks the blocks it reads instead of the
+	 * records in them, where the isolation level allows it.
+	 */
+	public static final boolean LOCK_SCANNED_BLOCKS;
+
+	static {
+		LOCK_SCANNED_BLOCKS = CoreProperties.getLoader().getPropertyAsBoolean(
+				RecordFile.class.getName() + ".LOCK_SCANNED_BLOCKS", true);
+	}
+
 	private TableInfo ti;
 	private Transaction tx;
 	private String fileName;
 	private RecordPage rp;
-	private FileHeaderPage fhp;
 	private long currentBlkNum;
 	private boolean doLog;
 
@@ -70,7 +109,6 @@ public class RecordFile implements Record {
 		this.tx = tx;
 		this.doLog = doLog;
 		fileName = ti.fileName();
-		headerBlk = new BlockId(fileName, 0);
 	}
 
 	/**
@@ -102,8 +140,6 @@ public class RecordFile implements Record {
 	public void close() {
 		if (rp != null)
 			rp.close();
-		if (fhp != null)
-			closeHeader();
 	}
 
 	/**
@@ -112,6 +148,10 @@ public class RecordFile implements Record {
 	 */
 	public void remove() {
 		close();
+		FreeSpaceMap.remove(fileName);
+		// The free space of a temporary file is never counted
+		if (!isTempTable())
+			RecordPage.removeEmptySlotCounts(fileName);
 		VanillaDb.fileMgr().delete(fileName);
 	}
 
@@ -130,12 +170,12 @@ public class RecordFile implements Record {
 	 * @return false if there is no next record.
 	 */
 	public boolean next() {
-		if (currentBlkNum == 0 && !moveTo(1))
+		if (currentBlkNum == 0 && !scanTo(1))
 			return false;
 		while (true) {
 			if (rp.next())
 				return true;
-			if (!moveTo(currentBlkNum + 1))
+			if (!scanTo(currentBlkNum + 1))
 				return false;
 		}
 	}
@@ -182,22 +222,17 @@ public class RecordFile implements Record {
 		if (tx.isReadOnly() && !isTempTable())
 			throw new UnsupportedOperationException();
 
-		if (fhp == null)
-			fhp = openHeaderForModification();
-
 		// Log that this logical operation starts
 		RecordId deletedRid = currentRecordId();
 		tx.recoveryMgr().logLogicalStart();
 
 		// Delete the current record
-		rp.delete(fhp.getLastDeletedSlot());
-		fhp.setLastDeletedSlot(currentRecordId());
+		rp.delete(null);
 
 		// Log that this logical operation ends
 		tx.recoveryMgr().logRecordFileDeletionEnd(ti.tableName(), deletedRid.block().number(), deletedRid.id());
 
-		// Close the header (release the header lock)
-		closeHeader();
+		updateFreeSpace();
 	}
 
 	/**
@@ -219,59 +254,76 @@ public class RecordFile implements Record {
 	 * then a new block is appended to the file.
 	 */
 	public void insert() {
+		insertRecord(null);
+	}
+
+	/**
+	 * Inserts a record moved from its slot in a slotted page, and returns the
+	 * ID of the slot it is moved to.
+	 * 
+	 * @param content
+	 *            the content of the record
+	 * @return the ID of the slot holding the record
+	 */
+	RecordId insertMovedRecord(byte[] content) {
+		insertRecord(content);
+		return currentRecordId();
+	}
+
+	private void insertRecord(byte[] movedContent) {
 		// Block read-only transaction
 		if (tx.isReadOnly() && !isTempTable())
 			throw new UnsupportedOperationException();
 
-		// Insertion may change the properties of this file,
-		// so that we need to lock the file.
-		try {
-			if (!isTempTable())
-				tx.concurrencyMgr().modifyFile(fileName);
-		} catch (LockAbortException e) {
-			tx.rollback();
-			throw e;
-		}
-
-		// Modify the free chain which is start from a pointer in
-		// the header of the file.
-		if (fhp == null)
-			fhp = openHeaderForModification();
-
 		// Log that this logical operation starts
 		tx.recoveryMgr().logLogicalStart();
 
-		if (fhp.hasDeletedSlots()) {
-			// Insert into a deleted slot
-			moveToRecordId(fhp.getLastDeletedSlot());
-			RecordId lds = rp.insertIntoDeletedSlot();
-			fhp.setLastDeletedSlot(lds);
-		} else {
-			// Insert into a empty slot
-			if (!fhp.hasDataRecords()) { // no record inserted before
-				// Create the first data block
-				appendBlock();
-				moveTo(1);
-				rp.insertIntoNextEmptySlot();
-			} else {
-				// Find the tail page
-				RecordId tailSlot = fhp.getTailSolt();
-				moveToRecordId(tailSlot);
-				while (!rp.insertIntoNextEmptySlot()) {
-					if (atLastBlock())
-						appendBlock();
-					moveTo(currentBlkNum + 1);
-				}
-			}
-			fhp.setTailSolt(currentRecordId());
-		}
+		if (isTempTable())
+			insertAtTail(movedContent);
+		else
+			insertIntoFreeSpace(movedContent);
 
 		// Log that this logical operation ends
 		RecordId insertedRid = currentRecordId();
 		tx.recoveryMgr().logRecordFileInsertionEnd(ti.tableName(), insertedRid.block().number(), insertedRid.id());
+	}
 
-		// Close the header (release the header lock)
-		closeHeader();
+	/*
+	 * Inserts into a block found in the free space map, or into a new block
+	 * if no block has room. A block failing the insertion is recorded as
+	 * having no room for the record, so it is not tried again.
+	 */
+	private void insertIntoFreeSpace(byte[] movedContent) {
+		FreeSpaceMap fsm = freeSpaceMap();
+		int space = isSlotted() ? SlottedRecordPage.slotSpace(movedContent == null
+				? SlottedRecordPage.blankRecordSize(ti.schema()) : movedContent.length)
+				: RecordPage.slotSize(ti.schema());
+		while (true) {
+			long blkNum = fsm.search(space, VanillaDb.fileMgr().size(fileName));
+			if (blkNum < 0)
+				blkNum = appendBlock();
+			openPage(blkNum);
+			if (insertIntoNextEmptySlot(movedContent)) {
+				fsm.update(blkNum, rp.freeSpace());
+				return;
+			}
+			fsm.reject(blkNum, space);
+		}
+	}
+
+	/*
+	 * Inserts into the last block of a temporary file, which is used by one
+	 * transaction only.
+	 */
+	private void insertAtTail(byte[] movedContent) {
+		long lastBlkNum = VanillaDb.fileMgr().size(fileName) - 1;
+		if (lastBlkNum > 0) {
+			openPage(lastBlkNum);
+			if (insertIntoNextEmptySlot(movedContent))
+				return;
+		}
+		openPage(appendBlock());
+		insertIntoNextEmptySlot(movedContent);
 	}
 
 	/**
@@ -285,20 +337,6 @@ public class RecordFile implements Record {
 		if (tx.isReadOnly() && !isTempTable())
 			throw new UnsupportedOperationException();
 
-		// Insertion may change the properties of this file,
-		// so that we need to lock the file.
-		try {
-			if (!isTempTable())
-				tx.concurrencyMgr().modifyFile(fileName);
-		} catch (LockAbortException e) {
-			tx.rollback();
-			throw e;
-		}
-
-		// Open the header
-		if (fhp == null)
-			fhp = openHeaderForModification();
-
 		// Log that this logical operation starts
 		tx.recoveryMgr().logLogicalStart();
 
@@ -307,34 +345,10 @@ public class RecordFile implements Record {
 		if (!rp.insertIntoTheCurrentSlot())
 			throw new RuntimeException("the specified slot: " + rid + " is in used");
 
-		// Traverse the free chain to find the specified slot
-		RecordId lastSlot = null;
-		RecordId currentSlot = fhp.getLastDeletedSlot();
-		while (!currentSlot.equals(rid) && currentSlot.block().number() != FileHeaderPage.NO_SLOT_BLOCKID) {
-			moveToRecordId(currentSlot);
-			lastSlot = currentSlot;
-			currentSlot = rp.getNextDeletedSlotId();
-		}
-
-		// Remove the specified slot from the chain
-		// If it is the first slot
-		if (lastSlot == null) {
-			moveToRecordId(currentSlot);
-			fhp.setLastDeletedSlot(rp.getNextDeletedSlotId());
-
-			// If it is in the middle
-		} else if (currentSlot.block().number() != FileHeaderPage.NO_SLOT_BLOCKID) {
-			moveToRecordId(currentSlot);
-			RecordId nextSlot = rp.getNextDeletedSlotId();
-			moveToRecordId(lastSlot);
-			rp.setNextDeletedSlotId(nextSlot);
-		}
-
 		// Log that this logical operation ends
 		tx.recoveryMgr().logRecordFileInsertionEnd(ti.tableName(), rid.block().number(), rid.id());
 
-		// Close the header (release the header lock)
-		closeHeader();
+		updateFreeSpace();
 	}
 
 	/**
@@ -376,59 +390,73 @@ public class RecordFile implements Record {
 		return VanillaDb.fileMgr().size(fileName);
 	}
 
+	private boolean insertIntoNextEmptySlot(byte[] movedContent) {
+		if (movedContent == null)
+			return rp.insertIntoNextEmptySlot();
+		return ((SlottedRecordPage) rp).insertMovedRecord(movedContent);
+	}
+
 	private boolean moveTo(long b) {
+		if (b >= fileSize()) { // block b not allocated yet
+			if (rp != null)
+				rp.close();
+			return false;
+		}
+		openPage(b);
+		return true;
+	}
+
+	private boolean scanTo(long b) {
+		if (!moveTo(b))
+			return false;
+		if (LOCK_SCANNED_BLOCKS)
+			rp.lockForScan();
+		return true;
+	}
+
+	private void openPage(long b) {
 		if (rp != null)
 			rp.close();
-		
-		if (b >= fileSize()) // block b not allocated yet
-			return false;
 		currentBlkNum = b;
 		BlockId blk = new BlockId(fileName, currentBlkNum);
-		rp = new RecordPage(blk, ti, tx, doLog);
-		return true;
+		rp = ti.openPage(blk, tx, doLog);
 	}
 
-	private void appendBlock() {
+	private long appendBlock() {
 		try {
 			if (!isTempTable())
 				tx.concurrencyMgr().modifyFile(fileName);
-			RecordFormatter fmtr = new RecordFormatter(ti);
+			PageFormatter fmtr = isSlotted() ? new SlottedRecordFormatter()
+					: new RecordFormatter(ti);
 			Buffer buff = tx.bufferMgr().pinNew(fileName, fmtr);
 			tx.bufferMgr().unpin(buff);
 			if (!isTempTable())
 				tx.concurrencyMgr().insertBlock(buff.block());
+			return buff.block().number();
 		} catch (LockAbortException e) {
 			tx.rollback();
 			throw e;
 		}
-
 	}
 
-	private FileHeaderPage openHeaderForModification() {
-		// acquires exclusive access to the header
-		try {
-			if (!isTempTable())
-				tx.concurrencyMgr().lockRecordFileHeader(headerBlk);
-		} catch (LockAbortException e) {
-			tx.rollback();
-			throw e;
-		}
-		return new FileHeaderPage(fileName, tx);
+	private FreeSpaceMap freeSpaceMap() {
+		// A fixed page is mapped by the number of its empty slots
+		int unit = isSlotted() ? FreeSpaceMap.unitOf(Buffer.BUFFER_SIZE)
+				: RecordPage.slotSize(ti.schema());
+		return FreeSpaceMap.forFile(fileName, unit);
 	}
 
-	private void closeHeader() {
-		// Release the lock of the header
-		if (fhp != null) {
-			tx.concurrencyMgr().releaseRecordFileHeader(headerBlk);
-			fhp = null;
-		}
+	private void updateFreeSpace() {
+		if (!isTempTable())
+			freeSpaceMap().update(currentBlkNum, rp.freeSpace());
 	}
 
 	private boolean isTempTable() {
 		return fileName.startsWith("_temp");
 	}
 
-	private boolean atLastBlock() {
-		return currentBlkNum == fileSize() - 1;
+	private boolean isSlotted() {
+		return ti.format() == FMT_SLOTTED;
 	}
+
 }
@@ -19,7 +19,11 @@ import static org.vanilladb.core.sql.Type.BIGINT;
 import static org.vanilladb.core.sql.Type.INTEGER;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.vanilladb.core.sql.BigIntConstant;
 import org.vanilladb.core.sql.Constant;
@@ -49,14 +53,23 @@ public class RecordPage implements Record {
 	private static final IntegerConstant INUSE_CONST = new IntegerConstant(
 			INUSE), EMPTY_CONST = new IntegerConstant(EMPTY);
 
-	private Transaction tx;
-	private BlockId blk;
-	private TableInfo ti;
-	private boolean doLog;
+	/*
+	 * The number of empty slots in each block, counted when the free space of
+	 * the block is first asked for, and then updated by the insertions and
+	 * deletions. Like the free space map it feeds, it is a hint kept in
+	 * memory.
+	 */
+	private static ConcurrentMap<BlockId, AtomicInteger> emptySlotCounts = new ConcurrentHashMap<BlockId, AtomicInteger>();
+
+	protected Transaction tx;
+	protected BlockId blk;
+	protected TableInfo ti;
+	protected boolean doLog;
 
-	private Buffer currentBuff;
+	protected Buffer currentBuff;
 	private int slotSize;
-	private int currentSlot = -1;
+	protected int currentSlot = -1;
+	protected boolean blockScanned;
 	private Map<String, Integer> myOffsetMap;
 
 	// Optimization: Materialize the offset map.
@@ -98,6 +111,20 @@ public class RecordPage implements Record {
 		return offsetMap;
 	}
 
+	/**
+	 * Removes the counts of the empty slots in the blocks of the specified
+	 * file.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 */
+	static void removeEmptySlotCounts(String fileName) {
+		Iterator<BlockId> iter = emptySlotCounts.keySet().iterator();
+		while (iter.hasNext())
+			if (iter.next().fileName().equals(fileName))
+				iter.remove();
+	}
+
 	/**
 	 * Returns the number of bytes required to store a record with the specified
 	 * schema in disk.
@@ -166,13 +193,28 @@ public class RecordPage implements Record {
 		}
 	}
 
+	/**
+	 * Locks the whole block for a sequential scan, if the isolation level of
+	 * the transaction allows it. The records of such a block are then read in
+	 * the buffer without locking each of them, and a value is not turned into
+	 * a constant until it is requested.
+	 */
+	public void lockForScan() {
+		try {
+			blockScanned = isTempTable() || tx.concurrencyMgr().scanBlock(blk);
+		} catch (LockAbortException e) {
+			tx.rollback();
+			throw e;
+		}
+	}
+
 	/**
 	 * Moves to the next record in the block.
 	 * 
 	 * @return false if there is no next record.
 	 */
 	public boolean next() {
-		return searchFor(INUSE);
+		return searchFor(INUSE, false);
 	}
 
 	/**
@@ -204,16 +246,19 @@ public class RecordPage implements Record {
 	/**
 	 * Deletes the current record. Deletion is performed by marking the record
 	 * as "deleted" and setting the content as a pointer points to next deleted
-	 * slot.
+	 * slot. If the pointer is null, the content is kept.
 	 * 
 	 * @param nextDeletedSlot
-	 *            the record is of next deleted slot
+	 *            the record is of next deleted slot, or null if the deleted
+	 *            slots are not chained
 	 * 
 	 */
 	public void delete(RecordId nextDeletedSlot) {
 		Constant flag = EMPTY_CONST;
 		setVal(currentPos(), flag);
-		setNextDeletedSlotId(nextDeletedSlot);
+		countEmptySlots(1);
+		if (nextDeletedSlot != null)
+			setNextDeletedSlotId(nextDeletedSlot);
 	}
 	
 	/**
@@ -222,10 +267,11 @@ public class RecordPage implements Record {
 	 * @return true, if it succeed. If the slot has been occupied, return false.
 	 */
 	public boolean insertIntoTheCurrentSlot() {
-		if (!getVal(currentPos(), INTEGER).equals(EMPTY_CONST))
+		if (!getCurrentVal(currentPos(), INTEGER).equals(EMPTY_CONST))
 			return false;
 		
 		setVal(currentPos(), INUSE_CONST);
+		countEmptySlots(-1);
 		return true;
 	}
 
@@ -236,30 +282,39 @@ public class RecordPage implements Record {
 	 * @return false if the insertion was not possible
 	 */
 	public boolean insertIntoNextEmptySlot() {
-		boolean found = searchFor(EMPTY);
-		if (found) {
-			Constant flag = INUSE_CONST;
-			setVal(currentPos(), flag);
+		while (searchFor(EMPTY, true)) {
+			// Another transaction may take the slot before it is locked
+			lockForModification();
+			if (currentBuff.getInt(currentPos()) == EMPTY) {
+				Constant flag = INUSE_CONST;
+				setVal(currentPos(), flag);
+				countEmptySlots(-1);
+				return true;
+			}
 		}
-		return found;
+		return false;
 	}
 
 	/**
-	 * Inserts a new, blank record into this deleted slot and return the record
-	 * id of the next one.
+	 * Returns the free space of the page, in bytes, which is the size of its
+	 * empty slots. The slots are counted only the first time the free space
+	 * of the block is asked for.
 	 * 
-	 * @return the record id of the next deleted slot
+	 * @return the free space of the page
 	 */
-	public RecordId insertIntoDeletedSlot() {
-		RecordId nds = getNextDeletedSlotId();
-		// Important: Erase the free chain information.
-		// If we didn't do this, it would crash when
-		// a tx try to set a VARCHAR at this position
-		// since the getVal would get negative size.
-		setNextDeletedSlotId(new RecordId(new BlockId("", 0), 0));
-		Constant flag = INUSE_CONST;
-		setVal(currentPos(), flag);
-		return nds;
+	public int freeSpace() {
+		AtomicInteger count = emptySlotCounts.get(blk);
+		if (count == null) {
+			int emptySlots = 0;
+			for (int pos = 0; pos + slotSize <= Buffer.BUFFER_SIZE; pos += slotSize)
+				if (currentBuff.getInt(pos) == EMPTY)
+					emptySlots++;
+			count = new AtomicInteger(emptySlots);
+			AtomicInteger old = emptySlotCounts.putIfAbsent(blk, count);
+			if (old != null)
+				count = old;
+		}
+		return Math.max(count.get(), 0) * slotSize;
 	}
 
 	/**
@@ -308,15 +363,11 @@ public class RecordPage implements Record {
 		System.out.println("== runAllSlot end at " + currentSlot + " ==");
 	}
 
-	public RecordId getNextDeletedSlotId() {
-		int position = currentPos() + FLAG_SIZE;
-		long blkNum = (Long) getVal(position, BIGINT).asJavaVal();
-		int id = (Integer) getVal(position + Page.maxSize(BIGINT), INTEGER)
-				.asJavaVal();
-		return new RecordId(new BlockId(blk.fileName(), blkNum), id);
-	}
-
-	public void setNextDeletedSlotId(RecordId rid) {
+	/*
+	 * Sets the content of a deleted slot as a pointer to the next deleted
+	 * slot. The slotted pages never chain the deleted slots.
+	 */
+	private void setNextDeletedSlotId(RecordId rid) {
 		Constant val = new BigIntConstant(rid.block().number());
 		int position = currentPos() + FLAG_SIZE;
 		setVal(position, val);
@@ -325,6 +376,16 @@ public class RecordPage implements Record {
 		setVal(position, val);
 	}
 
+	/*
+	 * Updates the count of the empty slots in the block, if it has been
+	 * counted.
+	 */
+	private void countEmptySlots(int delta) {
+		AtomicInteger count = emptySlotCounts.get(blk);
+		if (count != null)
+			count.addAndGet(delta);
+	}
+
 	private int currentPos() {
 		return currentSlot * slotSize;
 	}
@@ -338,18 +399,45 @@ public class RecordPage implements Record {
 		return currentPos() + slotSize <= Buffer.BUFFER_SIZE;
 	}
 
-	private boolean searchFor(int flag) {
+	/*
+	 * Searching for an empty slot to insert into reads the current flags
+	 * without locking the slots, so it passes the slots being inserted by the
+	 * other transactions, while searching for a record reads the flags
+	 * visible to the transaction. The flags of a block locked for a scan are
+	 * the visible ones.
+	 */
+	private boolean searchFor(int flag, boolean current) {
 		currentSlot++;
 		while (isValidSlot()) {
-			if ((Integer) getVal(currentPos(), INTEGER).asJavaVal() == flag) {
+			int val;
+			if (current || blockScanned)
+				val = currentBuff.getInt(currentPos());
+			else
+				val = (Integer) getVal(currentPos(), INTEGER).asJavaVal();
+			if (val == flag)
 				return true;
-			}
 			currentSlot++;
 		}
 		return false;
 	}
 
 	private Constant getVal(int offset, Type type) {
+		if (isTempTable() || blockScanned)
+			return currentBuff.getVal(offset, type);
+		try {
+			tx.concurrencyMgr().readRecord(new RecordId(blk, currentSlot));
+		} catch (LockAbortException e) {
+			tx.rollback();
+			throw e;
+		}
+		return tx.concurrencyMgr().readValue(currentBuff, currentPos(), slotSize, offset, type);
+	}
+
+	/*
+	 * Reads the value in the buffer, no matter which version the transaction
+	 * sees. It is used to maintain the structure of the page.
+	 */
+	private Constant getCurrentVal(int offset, Type type) {
 		try {
 			if (!isTempTable())
 				tx.concurrencyMgr().readRecord(new RecordId(blk, currentSlot));
@@ -360,7 +448,7 @@ public class RecordPage implements Record {
 		return currentBuff.getVal(offset, type);
 	}
 
-	private void setVal(int offset, Constant val) {
+	private void lockForModification() {
 		if (tx.isReadOnly() && !isTempTable())
 			throw new UnsupportedOperationException();
 		try {
@@ -370,9 +458,30 @@ public class RecordPage implements Record {
 			tx.rollback();
 			throw e;
 		}
-		LogSeqNum lsn = doLog ? tx.recoveryMgr().logSetVal(currentBuff, offset, val)
-				: null;
-		currentBuff.setVal(offset, val, tx.getTransactionNumber(), lsn);
+	}
+
+	private void setVal(int offset, Constant val) {
+		if (tx.isReadOnly() && !isTempTable())
+			throw new UnsupportedOperationException();
+		try {
+			if (!isTempTable()) {
+				tx.concurrencyMgr().modifyRecord(new RecordId(blk, currentSlot));
+				tx.concurrencyMgr().beforeModifySlot(currentBuff, currentPos(), slotSize);
+			}
+		} catch (LockAbortException e) {
+			tx.rollback();
+			throw e;
+		}
+		// Log and apply the modification as one step, so the page is never
+		// flushed with a last LSN covering a modification not yet applied
+		currentBuff.lockFlushing();
+		try {
+			LogSeqNum lsn = doLog ? tx.recoveryMgr().logSetVal(currentBuff, offset, val)
+					: null;
+			currentBuff.setVal(offset, val, tx.getTransactionNumber(), lsn);
+		} finally {
+			currentBuff.unlockFlushing();
+		}
 	}
 
 	private boolean isTempTable() {
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.record;
+
+import static org.vanilladb.core.storage.record.SlottedRecordPage.DATA_START_OFFSET;
+import static org.vanilladb.core.storage.record.SlottedRecordPage.FREE_SPACE_OFFSET;
+import static org.vanilladb.core.storage.record.SlottedRecordPage.HEADER_SIZE;
+import static org.vanilladb.core.storage.record.SlottedRecordPage.SLOT_COUNT_OFFSET;
+
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.PageFormatter;
+
+/**
+ * An object that can format a page to look like an empty slotted page.
+ */
+public class SlottedRecordFormatter extends PageFormatter {
+
+	/**
+	 * Formats the page by writing a header with no slot, so the whole page
+	 * after the header is free.
+	 * 
+	 * @see org.vanilladb.core.storage.buffer.PageFormatter#format(org.vanilladb.core.storage.buffer.Buffer)
+	 */
+	@Override
+	public void format(Buffer buf) {
+		setVal(buf, SLOT_COUNT_OFFSET, new IntegerConstant(0));
+		setVal(buf, DATA_START_OFFSET, new IntegerConstant(Buffer.BUFFER_SIZE));
+		setVal(buf, FREE_SPACE_OFFSET, new IntegerConstant(Buffer.BUFFER_SIZE - HEADER_SIZE));
+	}
+}
@@ -0,0 +1,717 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.record;
+
+import static org.vanilladb.core.sql.Type.BIGINT;
+import static org.vanilladb.core.sql.Type.INTEGER;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.file.Page;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.metadata.TableInfo;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
+import org.vanilladb.core.util.ByteHelper;
+
+/**
+ * Manages the records in a block of a table in the slotted-page format.
+ * Unlike {@link RecordPage}, which gives every record a slot of the maximum
+ * record size, a slotted page stores each record in its actual size, so more
+ * records fit in a block.
+ * 
+ * <p>
+ * The page begins with a header holding the number of slots, the start of
+ * the tuple area and the free space of the page. The header is followed by
+ * the slot directory, which grows toward the end of the page, while the
+ * tuples are allocated from the end of the page toward the directory. Each
+ * directory entry holds the flag of a slot and the offset and capacity of its
+ * tuple:
+ * </p>
+ * 
+ * <pre>
+ * [slot count][data start][free space][flag][offset][capacity]...   ...[tuple][tuple]
+ * </pre>
+ * 
+ * <p>
+ * The ID of a record is the index of its directory entry, so a tuple can be
+ * moved inside the page without changing the ID. A tuple growing beyond its
+ * capacity is moved to the free space, and the page is compacted if the free
+ * space is fragmented. Neither the capacity of a tuple nor the directory
+ * ever shrinks, so undoing a modification always fits in place. If the page
+ * cannot hold a grown record, the record is moved to another page and its
+ * slot keeps a pointer to it, so the ID of a record never changes.
+ * </p>
+ * 
+ * <p>
+ * A modification of a slot is logged as the images of the slot before and
+ * after it, and is redone or undone by the slot instead of by the offset, so
+ * moving the tuples needs no log. The deleted slots are not chained in the
+ * file header; they are reused by the insertions searching the page, keeping
+ * their contents.
+ * </p>
+ */
+public class SlottedRecordPage extends RecordPage {
+	/**
+	 * The flags of a slot besides {@link RecordPage#INUSE}. A forwarded slot
+	 * holds a pointer to the slot its record is moved to, which is flagged as
+	 * moved here and is skipped by the scans.
+	 */
+	public static final int FORWARDED = 2, MOVED_HERE = 4;
+
+	private static final int INT_SIZE = Page.maxSize(INTEGER);
+	static final int SLOT_COUNT_OFFSET = 0, DATA_START_OFFSET = INT_SIZE,
+			FREE_SPACE_OFFSET = 2 * INT_SIZE, HEADER_SIZE = 3 * INT_SIZE;
+	private static final int ENTRY_FLAG = 0, ENTRY_OFFSET = INT_SIZE,
+			ENTRY_CAPACITY = 2 * INT_SIZE, ENTRY_SIZE = 3 * INT_SIZE;
+	// A tuple is never smaller than the pointer to a moved record
+	private static final int POINTER_SIZE = Page.maxSize(BIGINT) + INT_SIZE;
+
+	private Type[] fldTypes;
+	private Map<String, Integer> fldIds;
+	private byte[] blankContent;
+
+	/**
+	 * Writes the specified flag and content to a slot of the page, appending
+	 * the slot to the directory if it does not exist. The caller should make
+	 * sure the page has room for the content; undoing or redoing a logged
+	 * modification always has room.
+	 * 
+	 * @param buff
+	 *            the buffer of the page
+	 * @param slot
+	 *            the ID of the slot
+	 * @param flag
+	 *            the new flag of the slot
+	 * @param content
+	 *            the new content of the slot
+	 * @param txNum
+	 *            the id of the transaction performing the modification
+	 * @param lsn
+	 *            the LSN of the corresponding log record
+	 */
+	public static void setSlot(Buffer buff, int slot, int flag, byte[] content,
+			long txNum, LogSeqNum lsn) {
+		buff.latchExclusive();
+		buff.lockFlushing();
+		try {
+			writeSlot(buff, slot, flag, content, txNum, lsn);
+		} finally {
+			buff.unlockFlushing();
+			buff.unlatchExclusive();
+		}
+	}
+
+	/**
+	 * Returns the flag of a slot of the page.
+	 * 
+	 * @param buff
+	 *            the buffer of the page
+	 * @param slot
+	 *            the ID of the slot
+	 * @return the flag of the slot
+	 */
+	public static int slotFlag(Buffer buff, int slot) {
+		if (slot >= getInt(buff, SLOT_COUNT_OFFSET))
+			return EMPTY;
+		return getInt(buff, entryOffset(slot) + ENTRY_FLAG);
+	}
+
+	/**
+	 * Returns the content of a slot of the page, including the unused bytes
+	 * at the end of the tuple.
+	 * 
+	 * @param buff
+	 *            the buffer of the page
+	 * @param slot
+	 *            the ID of the slot
+	 * @return the content of the slot
+	 */
+	public static byte[] slotContent(Buffer buff, int slot) {
+		buff.latchShared();
+		try {
+			return readContent(buff, slot);
+		} finally {
+			buff.unlatchShared();
+		}
+	}
+
+	/**
+	 * Returns the space a new slot holding a record of the specified size
+	 * takes in a page, including its directory entry.
+	 * 
+	 * @param recordSize
+	 *            the size of the record, in bytes
+	 * @return the space taken by the slot, in bytes
+	 */
+	public static int slotSpace(int recordSize) {
+		return ENTRY_SIZE + Math.max(recordSize, POINTER_SIZE);
+	}
+
+	/**
+	 * Returns the size of a new, blank record with the specified schema.
+	 * 
+	 * @param sch
+	 *            the table's schema
+	 * @return the size of a blank record, in bytes
+	 */
+	public static int blankRecordSize(Schema sch) {
+		int size = 0;
+		for (String fldname : sch.fields())
+			size += Page.size(Constant.defaultInstance(sch.type(fldname)));
+		return Math.max(size, POINTER_SIZE);
+	}
+
+	/**
+	 * Creates the record manager for the specified block. The current record
+	 * is set to be prior to the first one.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @param ti
+	 *            the table's metadata
+	 * @param tx
+	 *            the transaction
+	 * @param doLog
+	 *            true if the modifications should be logged
+	 */
+	public SlottedRecordPage(BlockId blk, TableInfo ti, Transaction tx, boolean doLog) {
+		super(blk, ti, tx, doLog);
+
+		Schema sch = ti.schema();
+		fldTypes = new Type[sch.fields().size()];
+		fldIds = new HashMap<String, Integer>();
+		for (String fldname : sch.fields()) {
+			fldTypes[fldIds.size()] = sch.type(fldname);
+			fldIds.put(fldname, fldIds.size());
+		}
+		// The default values are all zeros in bytes
+		blankContent = new byte[blankRecordSize(sch)];
+	}
+
+	/**
+	 * Moves to the next record in the block.
+	 * 
+	 * @return false if there is no next record.
+	 */
+	@Override
+	public boolean next() {
+		while (true) {
+			int slotCount = getInt(currentBuff, SLOT_COUNT_OFFSET);
+			for (currentSlot++; currentSlot < slotCount; currentSlot++) {
+				lockForRead(currentSlot);
+				int flag = getInt(currentBuff, entryOffset(currentSlot) + ENTRY_FLAG);
+				byte[] image = readVersion();
+				if (image != null)
+					flag = ByteHelper.toInteger(image);
+				if ((flag & INUSE) != 0)
+					return true;
+			}
+			// Lock the slot a new record would take, so no record is inserted
+			// into the scanned page as a phantom
+			lockForRead(slotCount);
+			if (getInt(currentBuff, SLOT_COUNT_OFFSET) == slotCount)
+				return false;
+			currentSlot = slotCount - 1;
+		}
+	}
+
+	@Override
+	public Constant getVal(String fldName) {
+		lockForRead(currentSlot);
+		int flag;
+		byte[] content;
+		currentBuff.latchShared();
+		try {
+			flag = getInt(currentBuff, entryOffset(currentSlot) + ENTRY_FLAG);
+			content = readContent(currentBuff, currentSlot);
+		} finally {
+			currentBuff.unlatchShared();
+		}
+		if ((flag & FORWARDED) != 0)
+			content = readMoved(content);
+
+		// Read the versions after the contents of the buffer
+		byte[] image = readVersion();
+		if (image != null)
+			return decode(image, INT_SIZE, fldIds.get(fldName));
+		return decode(content, 0, fldIds.get(fldName));
+	}
+
+	@Override
+	public void setVal(String fldName, Constant val) {
+		lockForModification(currentSlot);
+		int flag = slotFlag(currentBuff, currentSlot);
+		byte[] content = slotContent(currentBuff, currentSlot);
+		byte[] recContent = (flag & FORWARDED) != 0 ? readMoved(content) : content;
+		saveVersion(flag, recContent);
+
+		byte[] newContent = replace(recContent, fldIds.get(fldName), val);
+		if ((flag & FORWARDED) == 0) {
+			if (!trySetSlot(currentBuff, currentSlot, flag, newContent))
+				moveRecord(flag, newContent, null);
+		} else {
+			RecordId moved = pointer(content);
+			Buffer buff = tx.bufferMgr().pin(moved.block());
+			try {
+				if (!trySetSlot(buff, moved.id(), MOVED_HERE, newContent))
+					moveRecord(flag, newContent, moved);
+			} finally {
+				tx.bufferMgr().unpin(buff);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the current record by clearing its in-use flag. The content of
+	 * the slot is kept, and the slotted page does not chain the deleted
+	 * slots, so the argument is ignored. A slot holding a moved record is
+	 * freed.
+	 * 
+	 * @param nextDeletedSlot
+	 *            ignored
+	 */
+	@Override
+	public void delete(RecordId nextDeletedSlot) {
+		lockForModification(currentSlot);
+		int flag = slotFlag(currentBuff, currentSlot);
+		byte[] content = slotContent(currentBuff, currentSlot);
+		saveVersion(flag, (flag & FORWARDED) != 0 ? readMoved(content) : content);
+		int newFlag = (flag & MOVED_HERE) != 0 ? EMPTY : flag & ~INUSE;
+		trySetSlot(currentBuff, currentSlot, newFlag, null);
+	}
+
+	@Override
+	public boolean insertIntoTheCurrentSlot() {
+		lockForModification(currentSlot);
+		int flag = slotFlag(currentBuff, currentSlot);
+		if ((flag & (INUSE | MOVED_HERE)) != 0
+				|| currentSlot >= getInt(currentBuff, SLOT_COUNT_OFFSET))
+			return false;
+		saveVersion(flag, slotContent(currentBuff, currentSlot));
+		trySetSlot(currentBuff, currentSlot, flag | INUSE, null);
+		return true;
+	}
+
+	/**
+	 * Inserts a new, blank record into a free slot after the current one, or
+	 * into a new slot if there is room. Return false if the page has no room.
+	 * 
+	 * @return false if the insertion was not possible
+	 */
+	@Override
+	public boolean insertIntoNextEmptySlot() {
+		return insert(INUSE, blankContent);
+	}
+
+	/**
+	 * Inserts a record moved from another slot into a free slot after the
+	 * current one, or into a new slot if there is room.
+	 * 
+	 * @param content
+	 *            the content of the record
+	 * @return false if the page has no room for the record
+	 */
+	public boolean insertMovedRecord(byte[] content) {
+		return insert(MOVED_HERE, content);
+	}
+
+	/**
+	 * Print the flags of all slots, for debugging
+	 */
+	@Override
+	public void runAllSlot() {
+		int slotCount = getInt(currentBuff, SLOT_COUNT_OFFSET);
+		System.out.println("== runAllSlot start, free space: "
+				+ getInt(currentBuff, FREE_SPACE_OFFSET) + " ==");
+		for (int slot = 0; slot < slotCount; slot++) {
+			if (slot % 10 == 0)
+				System.out.print(slot + ": ");
+			System.out.print(slotFlag(currentBuff, slot) + " ");
+			if ((slot + 1) % 10 == 0)
+				System.out.println();
+		}
+		System.out.println("== runAllSlot end at " + slotCount + " ==");
+	}
+
+	/**
+	 * Returns the free space of the page, in bytes. If a deleted slot can be
+	 * reused, it is at least the space of a new, blank record.
+	 * 
+	 * @return the free space of the page
+	 */
+	@Override
+	public int freeSpace() {
+		currentBuff.latchShared();
+		try {
+			int freeSpace = getInt(currentBuff, FREE_SPACE_OFFSET);
+			int slotCount = getInt(currentBuff, SLOT_COUNT_OFFSET);
+			for (int slot = 0; slot < slotCount; slot++)
+				if ((slotFlag(currentBuff, slot) & (INUSE | MOVED_HERE)) == 0)
+					return Math.max(freeSpace, slotSpace(blankContent.length));
+			return freeSpace;
+		} finally {
+			currentBuff.unlatchShared();
+		}
+	}
+
+	/*
+	 * Inserts into a deleted slot after the current one, or into a new slot.
+	 * A deleted slot is reused by setting its in-use flag only, as the fixed
+	 * format does, so undoing the deletion later restores the record. A moved
+	 * record is only inserted into a new slot, since its content would
+	 * overwrite the record.
+	 */
+	private boolean insert(int flag, byte[] content) {
+		boolean reuse = flag == INUSE;
+		for (currentSlot++;; currentSlot++) {
+			int slotCount;
+			boolean isCandidate;
+			currentBuff.latchShared();
+			try {
+				slotCount = getInt(currentBuff, SLOT_COUNT_OFFSET);
+				if (currentSlot > slotCount || !reuse)
+					currentSlot = slotCount;
+				isCandidate = currentSlot < slotCount
+						? (slotFlag(currentBuff, currentSlot) & (INUSE | MOVED_HERE)) == 0
+						: hasRoom(currentBuff, currentSlot, content.length);
+			} finally {
+				currentBuff.unlatchShared();
+			}
+			if (!isCandidate) {
+				if (currentSlot >= slotCount)
+					return false;
+				continue;
+			}
+			if (currentSlot < slotCount) {
+				// Wait for the transaction deleting the record
+				lockForRead(currentSlot);
+				if ((slotFlag(currentBuff, currentSlot) & (INUSE | MOVED_HERE)) != 0)
+					continue;
+			}
+
+			lockForModification(currentSlot);
+			int oldFlag = slotFlag(currentBuff, currentSlot);
+			if ((oldFlag & (INUSE | MOVED_HERE)) != 0)
+				continue;
+			saveVersion(oldFlag, slotContent(currentBuff, currentSlot));
+			if (currentSlot < getInt(currentBuff, SLOT_COUNT_OFFSET)) {
+				trySetSlot(currentBuff, currentSlot, oldFlag | INUSE, null);
+				return true;
+			}
+			if (trySetSlot(currentBuff, currentSlot, flag, content))
+				return true;
+			// The room is taken by another transaction
+			return false;
+		}
+	}
+
+	/*
+	 * Moves the record of the current slot to another page, and frees the
+	 * slot it is moved from.
+	 */
+	private void moveRecord(int flag, byte[] content, RecordId oldMoved) {
+		RecordFile rf = ti.open(tx, doLog);
+		RecordId moved = rf.insertMovedRecord(content);
+		rf.close();
+		if (!trySetSlot(currentBuff, currentSlot, (flag & INUSE) | FORWARDED, pointer(moved)))
+			throw new IllegalStateException("no room for a pointer in " + blk);
+		if (oldMoved != null)
+			freeMoved(oldMoved);
+	}
+
+	private void freeMoved(RecordId moved) {
+		// Keep the slot from being reused until the transaction ends
+		try {
+			if (!isTempTable())
+				tx.concurrencyMgr().modifyRecord(moved);
+		} catch (LockAbortException e) {
+			tx.rollback();
+			throw e;
+		}
+		Buffer buff = tx.bufferMgr().pin(moved.block());
+		try {
+			trySetSlot(buff, moved.id(), EMPTY, null);
+		} finally {
+			tx.bufferMgr().unpin(buff);
+		}
+	}
+
+	private byte[] readMoved(byte[] pointerContent) {
+		RecordId moved = pointer(pointerContent);
+		Buffer buff = tx.bufferMgr().pin(moved.block());
+		try {
+			return slotContent(buff, moved.id());
+		} finally {
+			tx.bufferMgr().unpin(buff);
+		}
+	}
+
+	/*
+	 * Logs and writes a slot of the page as one step, if the page has room
+	 * for the content. The content of the slot is kept if the specified one
+	 * is null.
+	 */
+	private boolean trySetSlot(Buffer buff, int slot, int flag, byte[] content) {
+		buff.latchExclusive();
+		try {
+			if (content != null && !hasRoom(buff, slot, content.length))
+				return false;
+			buff.lockFlushing();
+			try {
+				LogSeqNum lsn = null;
+				if (doLog) {
+					byte[] oldContent = readContent(buff, slot);
+					lsn = tx.recoveryMgr().logSetSlot(buff, slot, slotFlag(buff, slot),
+							oldContent, flag, content == null ? oldContent : content);
+				}
+				writeSlot(buff, slot, flag, content, tx.getTransactionNumber(), lsn);
+			} finally {
+				buff.unlockFlushing();
+			}
+			return true;
+		} finally {
+			buff.unlatchExclusive();
+		}
+	}
+
+	private byte[] readVersion() {
+		if (isTempTable() || blockScanned)
+			return null;
+		return tx.concurrencyMgr().readSlotImage(currentBuff, entryOffset(currentSlot));
+	}
+
+	/*
+	 * Saves the image of the slot seen by the other transactions. The image
+	 * of a moved record holds its content instead of the pointer.
+	 */
+	private void saveVersion(int flag, byte[] content) {
+		if (isTempTable())
+			return;
+		byte[] image = new byte[INT_SIZE + content.length];
+		System.arraycopy(ByteHelper.toBytes(flag & INUSE), 0, image, 0, INT_SIZE);
+		System.arraycopy(content, 0, image, INT_SIZE, content.length);
+		try {
+			tx.concurrencyMgr().beforeModifySlot(currentBuff, entryOffset(currentSlot), image);
+		} catch (LockAbortException e) {
+			tx.rollback();
+			throw e;
+		}
+	}
+
+	private void lockForRead(int slot) {
+		try {
+			if (!isTempTable() && !blockScanned)
+				tx.concurrencyMgr().readRecord(new RecordId(blk, slot));
+		} catch (LockAbortException e) {
+			tx.rollback();
+			throw e;
+		}
+	}
+
+	private void lockForModification(int slot) {
+		if (tx.isReadOnly() && !isTempTable())
+			throw new UnsupportedOperationException();
+		try {
+			if (!isTempTable())
+				tx.concurrencyMgr().modifyRecord(new RecordId(blk, slot));
+		} catch (LockAbortException e) {
+			tx.rollback();
+			throw e;
+		}
+	}
+
+	private RecordId pointer(byte[] content) {
+		long blkNum = ByteHelper.toLong(content, 0);
+		int id = ByteHelper.toInteger(content, Page.maxSize(BIGINT));
+		return new RecordId(new BlockId(blk.fileName(), blkNum), id);
+	}
+
+	private static byte[] pointer(RecordId rid) {
+		byte[] content = new byte[POINTER_SIZE];
+		System.arraycopy(ByteHelper.toBytes(rid.block().number()), 0, content, 0,
+				Page.maxSize(BIGINT));
+		System.arraycopy(ByteHelper.toBytes(rid.id()), 0, content, Page.maxSize(BIGINT),
+				INT_SIZE);
+		return content;
+	}
+
+	/*
+	 * Returns the position right after the field starting at the specified
+	 * position of the content.
+	 */
+	private int fieldEnd(byte[] content, int pos, int fldId) {
+		Type type = fldTypes[fldId];
+		if (type.isFixedSize())
+			return pos + type.maxSize();
+		return pos + INT_SIZE + ByteHelper.toInteger(content, pos);
+	}
+
+	private Constant decode(byte[] content, int pos, int fldId) {
+		for (int i = 0; i < fldId; i++)
+			pos = fieldEnd(content, pos, i);
+		int end = fieldEnd(content, pos, fldId);
+		Type type = fldTypes[fldId];
+		if (!type.isFixedSize())
+			pos += INT_SIZE;
+		return Constant.newInstance(type, Arrays.copyOfRange(content, pos, end));
+	}
+
+	/*
+	 * Returns a copy of the content with the specified field replaced.
+	 */
+	private byte[] replace(byte[] content, int fldId, Constant val) {
+		int start = 0;
+		for (int i = 0; i < fldId; i++)
+			start = fieldEnd(content, start, i);
+		int end = fieldEnd(content, start, fldId);
+		int length = end;
+		for (int i = fldId + 1; i < fldTypes.length; i++)
+			length = fieldEnd(content, length, i);
+
+		byte[] valBytes = val.asBytes();
+		int valSize = Page.size(val);
+		byte[] newContent = new byte[Math.max(length - (end - start) + valSize, POINTER_SIZE)];
+		System.arraycopy(content, 0, newContent, 0, start);
+		int pos = start;
+		if (!val.getType().isFixedSize()) {
+			System.arraycopy(ByteHelper.toBytes(valBytes.length), 0, newContent, pos, INT_SIZE);
+			pos += INT_SIZE;
+		}
+		System.arraycopy(valBytes, 0, newContent, pos, valBytes.length);
+		System.arraycopy(content, end, newContent, start + valSize, length - end);
+		return newContent;
+	}
+
+	private boolean isTempTable() {
+		return blk.fileName().startsWith("_temp");
+	}
+
+	private static int entryOffset(int slot) {
+		return HEADER_SIZE + slot * ENTRY_SIZE;
+	}
+
+	private static int getInt(Buffer buff, int offset) {
+		return buff.getInt(offset);
+	}
+
+	private static void setInt(Buffer buff, int offset, int val, long txNum, LogSeqNum lsn) {
+		buff.setVal(offset, new IntegerConstant(val), txNum, lsn);
+	}
+
+	private static byte[] readContent(Buffer buff, int slot) {
+		if (slot >= getInt(buff, SLOT_COUNT_OFFSET))
+			return new byte[0];
+		int entry = entryOffset(slot);
+		return buff.getBytes(getInt(buff, entry + ENTRY_OFFSET),
+				getInt(buff, entry + ENTRY_CAPACITY));
+	}
+
+	/*
+	 * Returns true if the content fits in the slot, or the slot can grow to
+	 * hold it.
+	 */
+	private static boolean hasRoom(Buffer buff, int slot, int length) {
+		int slotCount = getInt(buff, SLOT_COUNT_OFFSET);
+		int freeSpace = getInt(buff, FREE_SPACE_OFFSET);
+		if (slot < slotCount) {
+			int capacity = getInt(buff, entryOffset(slot) + ENTRY_CAPACITY);
+			return length <= capacity || length - capacity <= freeSpace;
+		}
+		return (slot - slotCount + 1) * ENTRY_SIZE + length <= freeSpace;
+	}
+
+	private static void writeSlot(Buffer buff, int slot, int flag, byte[] content,
+			long txNum, LogSeqNum lsn) {
+		int slotCount = getInt(buff, SLOT_COUNT_OFFSET);
+		int entry = entryOffset(slot);
+		int capacity = slot < slotCount ? getInt(buff, entry + ENTRY_CAPACITY) : 0;
+		int newCapacity = content != null && content.length > capacity ? content.length : 0;
+
+		if (slot >= slotCount || newCapacity > 0) {
+			int newSlotCount = Math.max(slotCount, slot + 1);
+			int freeSpace = getInt(buff, FREE_SPACE_OFFSET);
+			int dataStart = getInt(buff, DATA_START_OFFSET);
+
+			// The old tuple of a growing slot becomes garbage
+			if (newCapacity > 0 && capacity > 0)
+				setInt(buff, entry + ENTRY_CAPACITY, 0, txNum, lsn);
+			if (dataStart - entryOffset(newSlotCount) < newCapacity)
+				dataStart = compact(buff, slotCount, txNum, lsn);
+			for (int s = slotCount; s < newSlotCount; s++) {
+				setInt(buff, entryOffset(s) + ENTRY_FLAG, EMPTY, txNum, lsn);
+				setInt(buff, entryOffset(s) + ENTRY_OFFSET, 0, txNum, lsn);
+				setInt(buff, entryOffset(s) + ENTRY_CAPACITY, 0, txNum, lsn);
+			}
+			freeSpace -= (newSlotCount - slotCount) * ENTRY_SIZE;
+			if (newCapacity > 0) {
+				dataStart -= newCapacity;
+				freeSpace -= newCapacity - capacity;
+				setInt(buff, entry + ENTRY_OFFSET, dataStart, txNum, lsn);
+				setInt(buff, entry + ENTRY_CAPACITY, newCapacity, txNum, lsn);
+			}
+			setInt(buff, SLOT_COUNT_OFFSET, newSlotCount, txNum, lsn);
+			setInt(buff, DATA_START_OFFSET, dataStart, txNum, lsn);
+			setInt(buff, FREE_SPACE_OFFSET, freeSpace, txNum, lsn);
+		}
+
+		setInt(buff, entry + ENTRY_FLAG, flag, txNum, lsn);
+		if (content != null && content.length > 0)
+			buff.setBytes(getInt(buff, entry + ENTRY_OFFSET), content, txNum, lsn);
+	}
+
+	/*
+	 * Moves all tuples to the end of the page, so the free space is
+	 * contiguous, and returns the new start of the tuples.
+	 */
+	private static int compact(Buffer buff, int slotCount, long txNum, LogSeqNum lsn) {
+		List<int[]> tuples = new ArrayList<int[]>();
+		for (int slot = 0; slot < slotCount; slot++) {
+			int entry = entryOffset(slot);
+			int capacity = getInt(buff, entry + ENTRY_CAPACITY);
+			if (capacity > 0)
+				tuples.add(new int[] { slot, getInt(buff, entry + ENTRY_OFFSET), capacity });
+		}
+		// Move the tuples at the end first, so no tuple is overwritten
+		Collections.sort(tuples, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] t1, int[] t2) {
+				return Integer.compare(t2[1], t1[1]);
+			}
+		});
+		int pos = Buffer.BUFFER_SIZE;
+		for (int[] t : tuples) {
+			pos -= t[2];
+			if (pos != t[1]) {
+				buff.setBytes(pos, buff.getBytes(t[1], t[2]), txNum, lsn);
+				setInt(buff, entryOffset(t[0]) + ENTRY_OFFSET, pos, txNum, lsn);
+			}
+		}
+		return pos;
+	}
+}
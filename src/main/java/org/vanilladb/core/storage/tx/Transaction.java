@@ -23,6 +23,7 @@ import java.util.logging.Logger;
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.storage.buffer.BufferMgr;
 import org.vanilladb.core.storage.tx.concurrency.ConcurrencyMgr;
+import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
 import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
 
 /**
@@ -77,6 +78,35 @@ public class Transaction {
 		addLifecycleListener(bufferMgr);
 	}
 
+	/**
+	 * Creates a read-only transaction which neither writes log records nor
+	 * registers itself to the transaction manager, so only its concurrency
+	 * manager and buffer manager need to be notified when it ends. The
+	 * recovery manager is kept for the transaction's temporary files.
+	 */
+	public Transaction(TransactionLifecycleListener concurMgr, TransactionLifecycleListener recoveryMgr,
+			TransactionLifecycleListener bufferMgr, long txNum) {
+		this(concurMgr, recoveryMgr, bufferMgr, true, txNum);
+	}
+
+	/**
+	 * Creates a transaction which neither writes log records nor registers
+	 * itself to the transaction manager, such as a worker replaying the log
+	 * during recovery, which is not read-only since it modifies pages.
+	 */
+	public Transaction(TransactionLifecycleListener concurMgr, TransactionLifecycleListener recoveryMgr,
+			TransactionLifecycleListener bufferMgr, boolean readOnly, long txNum) {
+		this.concurMgr = (ConcurrencyMgr) concurMgr;
+		this.recoveryMgr = (RecoveryMgr) recoveryMgr;
+		this.bufferMgr = (BufferMgr) bufferMgr;
+		this.txNum = txNum;
+		this.readOnly = readOnly;
+
+		lifecycleListeners = new LinkedList<TransactionLifecycleListener>();
+		addLifecycleListener(concurMgr);
+		addLifecycleListener(bufferMgr);
+	}
+
 	public void addLifecycleListener(TransactionLifecycleListener listener) {
 		lifecycleListeners.add(listener);
 	}
@@ -87,6 +117,14 @@ public class Transaction {
 	 * locks, and unpins any pinned blocks.
 	 */
 	public void commit() {
+		// Validate the transaction before its commit record is written
+		try {
+			concurMgr.validateCommit();
+		} catch (LockAbortException e) {
+			rollback();
+			throw e;
+		}
+
 		for (TransactionLifecycleListener l : lifecycleListeners)
 			l.onTxCommit(this);
 
@@ -17,20 +17,27 @@ package org.vanilladb.core.storage.tx;
 
 import java.lang.reflect.Constructor;
 import java.sql.Connection;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.storage.buffer.BufferMgr;
+import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.concurrency.ConcurrencyMgr;
+import org.vanilladb.core.storage.tx.concurrency.OptimisticConcurrencyMgr;
 import org.vanilladb.core.storage.tx.concurrency.ReadCommittedConcurrencyMgr;
+import org.vanilladb.core.storage.tx.concurrency.ReadOnlyConcurrencyMgr;
 import org.vanilladb.core.storage.tx.concurrency.RepeatableReadConcurrencyMgr;
 import org.vanilladb.core.storage.tx.concurrency.SerializableConcurrencyMgr;
+import org.vanilladb.core.storage.tx.concurrency.SnapshotIsolationConcurrencyMgr;
 import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
 import org.vanilladb.core.util.CoreProperties;
 
@@ -38,10 +45,25 @@ import org.vanilladb.core.util.CoreProperties;
  * The publicly-accessible transaction manager in VanillaDb. This transaction
  * manager is responsible for creating new transaction and maintaining the
  * active transaction list.
+ * 
+ * <p>
+ * Transaction numbers are allocated by an atomic counter, and the active
+ * transactions are kept in a concurrent set, so beginning and ending
+ * transactions never contend on a monitor.
+ * </p>
  */
 public class TransactionMgr implements TransactionLifecycleListener {
 	private static Logger logger = Logger.getLogger(TransactionMgr.class.getName());
-	public static Class<?> serialConcurMgrCls, rrConcurMgrCls, rcConcurMgrCls, recoveryMgrCls, bufferMgrCls;
+
+	/**
+	 * The isolation level running serializable transactions with optimistic
+	 * concurrency control. It does not collide with the levels defined in
+	 * {@link Connection}.
+	 */
+	public static final int TRANSACTION_OPTIMISTIC = 16;
+
+	public static Class<?> serialConcurMgrCls, rrConcurMgrCls, rcConcurMgrCls, optimisticConcurMgrCls,
+			recoveryMgrCls, bufferMgrCls;
 	static {
 		serialConcurMgrCls = CoreProperties.getLoader().getPropertyAsClass(
 				TransactionMgr.class.getName() + ".SERIALIZABLE_CONCUR_MGR", SerializableConcurrencyMgr.class,
@@ -52,63 +74,45 @@ public class TransactionMgr implements TransactionLifecycleListener {
 		rcConcurMgrCls = CoreProperties.getLoader().getPropertyAsClass(
 				TransactionMgr.class.getName() + ".READ_COMMITTED_CONCUR_MGR", ReadCommittedConcurrencyMgr.class,
 				ConcurrencyMgr.class);
+		optimisticConcurMgrCls = CoreProperties.getLoader().getPropertyAsClass(
+				TransactionMgr.class.getName() + ".OPTIMISTIC_CONCUR_MGR", OptimisticConcurrencyMgr.class,
+				ConcurrencyMgr.class);
 		recoveryMgrCls = CoreProperties.getLoader().getPropertyAsClass(TransactionMgr.class.getName() + ".RECOVERY_MGR",
 				RecoveryMgr.class, RecoveryMgr.class);
 	}
 
-	// Optimization for preventing becoming bottleneck when creating a
-	// transaction
-	// XXX: There is a potential risk for overflowing here
-	// private Long[] threadTxNums = new Long[TaskMgr.THREAD_POOL_SIZE * 10];
-	// private ReentrantReadWriteLock activeTxsLock = new
-	// ReentrantReadWriteLock();
-
-	// Old method for maintaining active transaction list
-	// When the above optimization ready, switch to that one
-	private Set<Long> activeTxs = new HashSet<Long>();
-
-	private long nextTxNum = 0;
-	// Optimization: Use separate lock for nextTxNum
-	private Object txNumLock = new Object();
-
-	public TransactionMgr() {
-		// for (int i = 0; i < threadTxNums.length; i++)
-		// threadTxNums[i] = -1L;
+	/**
+	 * Returns true if the transactions keep the old versions of the records,
+	 * which happens if snapshot isolation is configured for an isolation
+	 * level or the lock-free read-only transactions are enabled.
+	 * 
+	 * @return true if the old versions of the records are kept
+	 */
+	public static boolean keepsVersions() {
+		if (ConcurrencyMgr.LOCK_FREE_READ_ONLY)
+			return true;
+		Class<?>[] concurMgrClses = { serialConcurMgrCls, rrConcurMgrCls, rcConcurMgrCls,
+				optimisticConcurMgrCls };
+		for (Class<?> cls : concurMgrClses)
+			if (SnapshotIsolationConcurrencyMgr.class.isAssignableFrom(cls))
+				return true;
+		return false;
 	}
 
-	// public synchronized ArrayList<Transaction> getActiveTransactions() {
-	// return activeTxs;
-	// }
+	// Optimization: Use a concurrent set and an atomic counter instead of
+	// monitors
+	private Set<Long> activeTxs = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+	private AtomicLong nextTxNum = new AtomicLong(0);
 
 	@Override
 	public void onTxCommit(Transaction tx) {
-
-		// activeTxsLock.readLock().lock();
-		// try {
-		// threadTxNums[(int) Thread.currentThread().getId()] = -1L;
-		// } finally {
-		// activeTxsLock.readLock().unlock();
-		// }
-
-		synchronized (this) {
-			activeTxs.remove(tx.getTransactionNumber());
-		}
+		activeTxs.remove(tx.getTransactionNumber());
 	}
 
 	@Override
 	public void onTxRollback(Transaction tx) {
-
-		// activeTxsLock.readLock().lock();
-		// try {
-		// threadTxNums[(int) Thread.currentThread().getId()] = -1L;
-		// } finally {
-		// activeTxsLock.readLock().unlock();
-		// }
-
-		synchronized (this) {
-			activeTxs.remove(tx.getTransactionNumber());
-
-		}
+		activeTxs.remove(tx.getTransactionNumber());
 	}
 
 	@Override
@@ -117,78 +121,94 @@ public class TransactionMgr implements TransactionLifecycleListener {
 	}
 
 	/**
-	 * Creates non-quiescent checkpoint record.
+	 * Creates a fuzzy checkpoint. It writes a begin checkpoint record, takes a
+	 * snapshot of the active transactions and the dirty page table, and then
+	 * writes an end checkpoint record holding them. Transactions keep running
+	 * during the checkpoint. Afterwards, the pages dirtied before the begin
+	 * record are written back, so that the redo point of the next checkpoint
+	 * moves forward.
 	 * 
 	 * @param checkpointTx
 	 *            the transaction that performs checkpointing
 	 */
 	public void createCheckpoint(Transaction checkpointTx) {
-		// stop access new tx request and find out active txs by using a write
-		// lock on threadTxNums
-		List<Long> txNums;
-		// for (Transaction tx : activeTxs)
-		// if (tx.getTransactionNumber() != checkpointTx
-		// .getTransactionNumber())
-		// txNums.add(tx.getTransactionNumber());
+		LogSeqNum beginLsn = checkpointTx.recoveryMgr().beginCheckpoint();
 
-		// activeTxsLock.writeLock().lock();
-		// try {
-		// for (Long l : threadTxNums) {
-		// if (l >= 0) {
-		// txNums.add(l);
-		// }
-		// }
-		//
-		// // flush all buffers
-		// // CT : Pick a tx and call its bufferMgr flushAll, or get
-		// // bufferPoolMgr (init it at VanillaDb)
-		// checkpointTx.bufferMgr().flushAll();
-		// // wrtie a checkpoint record and flush to disk
-		// LogSeqNum lsn = checkpointTx.recoveryMgr().checkpoint(txNums);
-		// VanillaDb.logMgr().flush(lsn);
-		// System.out.println("Chkpnt :" + txNums);
-		// } finally {
-		// activeTxsLock.writeLock().unlock();
-		// }
+		List<Long> txNums = activeTxNums();
+		Map<BlockId, LogSeqNum> dirtyPages = checkpointTx.bufferMgr().dirtyPages();
 
-		// Old method
-		synchronized (this) {
-			txNums = new LinkedList<Long>(activeTxs);
-			checkpointTx.bufferMgr().flushAll();
-			LogSeqNum lsn = checkpointTx.recoveryMgr().checkpoint(txNums);
-			VanillaDb.logMgr().flush(lsn);
-		}
+		LogSeqNum lsn = checkpointTx.recoveryMgr().checkpoint(beginLsn, txNums, dirtyPages);
+		VanillaDb.logMgr().flush(lsn);
+
+		// Flush the pages incrementally, without blocking other transactions
+		checkpointTx.bufferMgr().flushDirtiedBefore(beginLsn);
+	}
+
+	/**
+	 * Returns a snapshot of the numbers of the active transactions, which are
+	 * the transactions not yet committed or rolled back, excluding the
+	 * lock-free read-only ones.
+	 * 
+	 * <p>
+	 * The snapshot is taken without blocking other transactions. It contains
+	 * every transaction registered before the call and not ended during it,
+	 * while the ones beginning or ending during the call may or may not be
+	 * included. Since a transaction is registered before it writes its start
+	 * record, a snapshot taken after a log record is written never misses a
+	 * transaction started before that record.
+	 * </p>
+	 * 
+	 * @return the numbers of the active transactions
+	 */
+	public List<Long> activeTxNums() {
+		return new ArrayList<Long>(activeTxs);
 	}
 
 	public Transaction newTransaction(int isolationLevel, boolean readOnly) {
 		// Dispatch new transaction number
-		long txNum = -1;
-		synchronized (txNumLock) {
-			txNum = nextTxNum;
-			nextTxNum++;
-		}
-		return newTransaction(isolationLevel, readOnly, txNum);
+		long txNum = nextTxNum.getAndIncrement();
+		return createTransaction(isolationLevel, readOnly, txNum);
 	}
 
 	public Transaction newTransaction(int isolationLevel, boolean readOnly, long txNum) {
 		// Update next transaction number
-		synchronized (txNumLock) {
-			if (txNum >= nextTxNum)
-				nextTxNum = txNum + 1;
-		}
+		long next = nextTxNum.get();
+		while (txNum >= next && !nextTxNum.compareAndSet(next, txNum + 1))
+			next = nextTxNum.get();
 		return createTransaction(isolationLevel, readOnly, txNum);
 	}
 
+	/**
+	 * Creates a serializable transaction for a worker replaying the log
+	 * during recovery. Unlike a read-only transaction, it can modify pages,
+	 * but it writes no log record and is not registered as active, since the
+	 * history it repeats is already in the log. It locks as a
+	 * {@link SerializableConcurrencyMgr} does, whichever manager is configured
+	 * for serializable transactions, since it reads no snapshot.
+	 * 
+	 * @return the transaction
+	 */
+	public Transaction newRedoTransaction() {
+		long txNum = nextTxNum.getAndIncrement();
+		return new Transaction(new SerializableConcurrencyMgr(txNum), new RecoveryMgr(txNum, true),
+				new BufferMgr(txNum), false, txNum);
+	}
+
 	public long getNextTxNum() {
-		synchronized (txNumLock) {
-			return nextTxNum;
-		}
+		return nextTxNum.get();
 	}
 
 	private Transaction createTransaction(int isolationLevel, boolean readOnly, long txNum) {
 		if (logger.isLoggable(Level.FINE))
 			logger.fine("new transaction: " + txNum);
 
+		if (readOnly && ConcurrencyMgr.LOCK_FREE_READ_ONLY)
+			return createReadOnlyTransaction(txNum);
+
+		// Register the transaction before its start record is written, so a
+		// checkpoint never misses it
+		activeTxs.add(txNum);
+
 		// Create a recovery manager
 		RecoveryMgr recoveryMgr = null;
 		try {
@@ -238,22 +258,37 @@ public class TransactionMgr implements TransactionLifecycleListener {
 				e.printStackTrace();
 			}
 			break;
+		case TRANSACTION_OPTIMISTIC:
+			concurMgr = newConcurrencyMgr(optimisticConcurMgrCls, txNum);
+			break;
 		default:
 			throw new UnsupportedOperationException("unsupported isolation level");
 		}
 
-		Transaction tx = new Transaction(this, concurMgr, recoveryMgr, bufferMgr, readOnly, txNum);
-
-		// activeTxsLock.readLock().lock();
-		// try {
-		// threadTxNums[(int) Thread.currentThread().getId()] = txNum;
-		// } finally {
-		// activeTxsLock.readLock().unlock();
-		// }
+		return new Transaction(this, concurMgr, recoveryMgr, bufferMgr, readOnly, txNum);
+	}
 
-		synchronized (this) {
-			activeTxs.add(tx.getTransactionNumber());
+	/*
+	 * Creates a concurrency manager of the configured class. A class which
+	 * cannot be instantiated is a configuration error, so the transaction is
+	 * not created.
+	 */
+	private static ConcurrencyMgr newConcurrencyMgr(Class<?> concurMgrCls, long txNum) {
+		try {
+			return (ConcurrencyMgr) concurMgrCls.getConstructor(Long.TYPE).newInstance(txNum);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("cannot create the concurrency manager "
+					+ concurMgrCls.getName(), e);
 		}
-		return tx;
+	}
+
+	/*
+	 * A read-only transaction reads from a snapshot, and writes no log
+	 * record. It is not in the active transaction list since checkpoints
+	 * never need to roll it back.
+	 */
+	private Transaction createReadOnlyTransaction(long txNum) {
+		return new Transaction(new ReadOnlyConcurrencyMgr(txNum), new RecoveryMgr(txNum, true),
+				new BufferMgr(txNum), txNum);
 	}
 }
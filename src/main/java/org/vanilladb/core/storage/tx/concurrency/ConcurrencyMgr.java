@@ -16,12 +16,20 @@
 package org.vanilladb.core.storage.tx.concurrency;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.storage.buffer.Buffer;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * A locking-based concurrency manager that controls when a {@link Transaction}
@@ -30,10 +38,66 @@ import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
  * class is intended to be extended to provide different isolation levels.
  */
 public abstract class ConcurrencyMgr implements TransactionLifecycleListener {
+	/**
+	 * Whether read-only transactions read from snapshots without taking any
+	 * lock. If it is enabled, every writer keeps the before-images of the
+	 * records it modifies in the version store until no snapshot needs them,
+	 * so it is disabled by default.
+	 */
+	public static final boolean LOCK_FREE_READ_ONLY;
+
+	static {
+		LOCK_FREE_READ_ONLY = CoreProperties.getLoader().getPropertyAsBoolean(
+				ConcurrencyMgr.class.getName() + ".LOCK_FREE_READ_ONLY", false);
+	}
+
 	protected long txNum;
 
 	protected static LockTable lockTbl = new LockTable();
 
+	static final VersionStore versionStore = new VersionStore();
+
+	private VersionStore.Writer versionWriter;
+
+	/**
+	 * Returns the number of transactions wounded by older ones for preventing
+	 * deadlocks.
+	 * 
+	 * @return the number of wounds
+	 */
+	public static long totalWoundCount() {
+		return lockTbl.woundCount();
+	}
+
+	/**
+	 * Returns the number of times a transaction had to wait for a lock.
+	 * 
+	 * @return the number of lock waits
+	 */
+	public static long totalLockWaitCount() {
+		return lockTbl.waitCount();
+	}
+
+	/**
+	 * Returns the total time (in microseconds) all transactions have spent
+	 * waiting for locks.
+	 * 
+	 * @return the total lock waiting time
+	 */
+	public static long totalLockWaitTime() {
+		return TimeUnit.NANOSECONDS.toMicros(lockTbl.waitTime());
+	}
+
+	/**
+	 * Returns the number of transactions aborted for waiting for a lock too
+	 * long.
+	 * 
+	 * @return the number of lock timeouts
+	 */
+	public static long totalLockTimeoutCount() {
+		return lockTbl.timeoutCount();
+	}
+
 	/**
 	 * Sets lock according to the transaction's isolation level on the specified
 	 * file for changing its properties.
@@ -97,8 +161,112 @@ public abstract class ConcurrencyMgr implements TransactionLifecycleListener {
 	 */
 	public abstract void readRecord(RecordId recId);
 
+	/**
+	 * Sets lock according to the transaction's isolation level for reading
+	 * all the records in the specified block during a sequential scan. If it
+	 * returns true, the lock protects all the records in the block, including
+	 * the ones to be inserted, and the values in the buffer are the ones the
+	 * transaction should see, so the records can be read without calling
+	 * {@link #readRecord(RecordId)} and
+	 * {@link #readValue(Buffer, int, int, int, Type)}. Otherwise, nothing is
+	 * locked and each record should be read as usual.
+	 * 
+	 * @param blk
+	 *            the block id
+	 * @return true if the records in the block can be read without locking
+	 *         each of them
+	 */
+	public boolean scanBlock(BlockId blk) {
+		return false;
+	}
+
+	/**
+	 * Returns the value of a record field that the transaction should see.
+	 * The locking-based managers return the value in the buffer, which is
+	 * protected by the lock on the record.
+	 * 
+	 * @param buff
+	 *            the buffer holding the record
+	 * @param slotOffset
+	 *            the offset of the record slot in the buffer
+	 * @param slotSize
+	 *            the size of the record slot
+	 * @param offset
+	 *            the offset of the field in the buffer
+	 * @param type
+	 *            the type of the field
+	 * @return the value of the field
+	 */
+	public Constant readValue(Buffer buff, int slotOffset, int slotSize, int offset, Type type) {
+		return buff.getVal(offset, type);
+	}
+
+	/**
+	 * Called after {@link #modifyRecord(RecordId)} and before any field of the
+	 * record slot in the buffer is modified. The locking-based managers save
+	 * the before-image of the slot for the lock-free read-only transactions,
+	 * if they are enabled.
+	 * 
+	 * @param buff
+	 *            the buffer holding the record
+	 * @param slotOffset
+	 *            the offset of the record slot in the buffer
+	 * @param slotSize
+	 *            the size of the record slot
+	 */
+	public void beforeModifySlot(Buffer buff, int slotOffset, int slotSize) {
+		if (LOCK_FREE_READ_ONLY)
+			versionStore.beforeModify(buff, slotOffset, slotSize, versionWriter(), VersionStore.UNCOMMITTED);
+	}
+
+	/**
+	 * Returns the image of a record slot that the transaction should see, or
+	 * null if it should see the current contents of the slot. It is used by
+	 * the slots whose image is not a range of bytes in the page, and the
+	 * caller should read the current contents before calling this method. The
+	 * locking-based managers always return null.
+	 * 
+	 * @param buff
+	 *            the buffer holding the record
+	 * @param slotOffset
+	 *            the offset identifying the slot in the buffer
+	 * @return the image of the slot, or null
+	 */
+	public byte[] readSlotImage(Buffer buff, int slotOffset) {
+		return null;
+	}
+
+	/**
+	 * Called after {@link #modifyRecord(RecordId)} and before a record slot,
+	 * whose image is not a range of bytes in the page, is modified.
+	 * 
+	 * @param buff
+	 *            the buffer holding the record
+	 * @param slotOffset
+	 *            the offset identifying the slot in the buffer
+	 * @param image
+	 *            the current image of the slot
+	 * @see #beforeModifySlot(Buffer, int, int)
+	 */
+	public void beforeModifySlot(Buffer buff, int slotOffset, byte[] image) {
+		if (LOCK_FREE_READ_ONLY)
+			versionStore.beforeModify(buff.block(), slotOffset, image, versionWriter(), VersionStore.UNCOMMITTED);
+	}
+
+	/**
+	 * Returns true if the transaction reads records as of a snapshot. The
+	 * indexes are not versioned and return the latest committed entries, so
+	 * such a transaction does not look records up by the indexes.
+	 * 
+	 * @return true if the records are read as of a snapshot
+	 */
+	public boolean readsSnapshot() {
+		return false;
+	}
+
 	/*
-	 * Methods for B-Tree index locking
+	 * Methods for B-Tree index locking. Only the leaf blocks are locked, which
+	 * protects the keys they cover; the directory is protected by latches.
 	 */
 	private List<BlockId> readIndexBlks = new ArrayList<BlockId>();
 	private List<BlockId> writenIndexBlks = new ArrayList<BlockId>();
@@ -141,56 +309,105 @@ public abstract class ConcurrencyMgr implements TransactionLifecycleListener {
 		readIndexBlks.add(blk);
 	}
 
+	public void releaseIndexLocks() {
+		for (BlockId blk : readIndexBlks)
+			lockTbl.release(blk, txNum, LockTable.S_LOCK);
+		for (BlockId blk : writenIndexBlks)
+			lockTbl.release(blk, txNum, LockTable.X_LOCK);
+		readIndexBlks.clear();
+		writenIndexBlks.clear();
+	}
+
 	/**
-	 * Sets exclusive lock on the directory block when crabbing down for
-	 * modification.
+	 * Locks all the items a transaction declares to read and write before it
+	 * executes, such as the keys a stored procedure knows from its
+	 * parameters. The items are locked in a global order, so transactions
+	 * declaring their items never deadlock or abort each other. The file and
+	 * block of a declared record or block are intention-locked as well, as
+	 * they are when the item is locked during the execution. An item can
+	 * be a file name, {@link BlockId} or {@link RecordId} locked during the
+	 * execution, or any other {@link Comparable} object whose
+	 * {@code compareTo()} is consistent with its {@code equals()} and
+	 * {@code hashCode()}. The locks are held until the transaction ends.
 	 * 
-	 * @param blk
-	 *            the block id
+	 * @param readSet
+	 *            the items to be read
+	 * @param writeSet
+	 *            the items to be written
 	 */
-	public void crabDownDirBlockForModification(BlockId blk) {
-		lockTbl.xLock(blk, txNum);
-		writenIndexBlks.add(blk);
+	public void lockDeclared(Set<?> readSet, Set<?> writeSet) {
+		Map<Object, Integer> locks = new HashMap<Object, Integer>();
+		for (Object obj : writeSet)
+			declareLock(locks, obj, LockTable.X_LOCK, LockTable.IX_LOCK);
+		for (Object obj : readSet)
+			declareLock(locks, obj, LockTable.S_LOCK, LockTable.IS_LOCK);
+
+		Object[] objs = new Object[locks.size()];
+		int[] lockTypes = new int[objs.length];
+		int count = 0;
+		for (Map.Entry<Object, Integer> entry : locks.entrySet()) {
+			objs[count] = entry.getKey();
+			lockTypes[count++] = entry.getValue();
+		}
+		lockTbl.lockInOrder(objs, lockTypes, txNum);
+	}
+
+	/*
+	 * Adds the lock of an item, and the intention locks on the file and block
+	 * containing it, which are taken before the item is locked during the
+	 * execution.
+	 */
+	private static void declareLock(Map<Object, Integer> locks, Object obj, int lockType,
+			int intentionType) {
+		if (obj instanceof RecordId) {
+			BlockId blk = ((RecordId) obj).block();
+			addLock(locks, blk.fileName(), intentionType);
+			addLock(locks, blk, intentionType);
+		} else if (obj instanceof BlockId)
+			addLock(locks, ((BlockId) obj).fileName(), intentionType);
+		addLock(locks, obj, lockType);
+	}
+
+	private static void addLock(Map<Object, Integer> locks, Object obj, int lockType) {
+		Integer declared = locks.get(obj);
+		locks.put(obj, declared == null ? lockType : LockTable.combine(declared, lockType));
 	}
 
 	/**
-	 * Sets shared lock on the directory block when crabbing down for read.
+	 * Called when the transaction is about to commit, before any of its
+	 * lifecycle listeners is notified. The locking-based managers do nothing
+	 * here.
 	 * 
-	 * @param blk
-	 *            the block id
+	 * @throws LockAbortException
+	 *             if the transaction cannot commit
 	 */
-	public void crabDownDirBlockForRead(BlockId blk) {
-		lockTbl.sLock(blk, txNum);
-		readIndexBlks.add(blk);
+	public void validateCommit() {
+		// do nothing
 	}
 
 	/**
-	 * Releases exclusive locks on the directory block for crabbing back.
-	 * 
-	 * @param blk
-	 *            the block id
+	 * Makes the versions written by this transaction visible to the
+	 * snapshots taken afterwards. It must be called on commit before the
+	 * locks are released.
 	 */
-	public void crabBackDirBlockForModification(BlockId blk) {
-		lockTbl.release(blk, txNum, LockTable.X_LOCK);
+	protected void commitVersions() {
+		if (versionWriter != null)
+			versionStore.commit(versionWriter);
 	}
 
 	/**
-	 * Releases shared locks on the directory block for crabbing back.
-	 * 
-	 * @param blk
-	 *            the block id
+	 * Discards the versions written by this transaction. It must be called on
+	 * rollback before the locks are released.
 	 */
-	public void crabBackDirBlockForRead(BlockId blk) {
-		lockTbl.release(blk, txNum, LockTable.S_LOCK);
+	protected void abortVersions() {
+		if (versionWriter != null)
+			versionStore.abort(versionWriter);
 	}
 
-	public void releaseIndexLocks() {
-		for (BlockId blk : readIndexBlks)
-			lockTbl.release(blk, txNum, LockTable.S_LOCK);
-		for (BlockId blk : writenIndexBlks)
-			lockTbl.release(blk, txNum, LockTable.X_LOCK);
-		readIndexBlks.clear();
-		writenIndexBlks.clear();
+	VersionStore.Writer versionWriter() {
+		if (versionWriter == null)
+			versionWriter = new VersionStore.Writer(txNum);
+		return versionWriter;
 	}
 
 	public void lockRecordFileHeader(BlockId blk) {
@@ -15,17 +15,18 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.concurrency;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.concurrent.ConcurrentHashMap;
-
-import org.vanilladb.core.server.VanillaDb;
-import org.vanilladb.core.server.task.Task;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.util.CoreProperties;
 
 /**
@@ -35,15 +36,36 @@ import org.vanilladb.core.util.CoreProperties;
  * granularity.
  * 
  * <p>
+ * The items are spread over a number of partitions, each of which has its own
+ * concurrent map of lockers. The lockers of an item are guarded by their own
+ * monitor, so requests on different items never block each other.
+ * </p>
+ * 
+ * <p>
  * If a transaction requests to lock an item that causes a conflict with an
- * existing lock on that item, then the transaction is placed into a wait list
- * and will be notified (awaked) to compete for the lock whenever the conflict
- * is resolved. Currently, there is only one wait list for all items.
+ * existing lock on that item, or other requests are already waiting for that
+ * item, then the request is appended to the FIFO wait queue of that item.
+ * Whenever a lock is released, the requests at the head of the queue are
+ * granted in order, until one of them conflicts with the locks at that time,
+ * so a stream of compatible requests never starves a waiting one. Only the
+ * transactions of the granted requests are woken up. A transaction already
+ * holding a lock on the item does not wait for the queued requests, which
+ * would wait for it, and its request is put at the head of the queue.
+ * </p>
+ * 
+ * <p>
+ * The table also keeps a version for each item, which is increased whenever
+ * an xlock on the item is released, so the optimistic transactions can
+ * validate the items they read without locking them. The versions are
+ * striped by the hash codes of the items, so two items may share a version.
  * </p>
  */
 class LockTable {
 	private static final long MAX_TIME;
 	private static final long EPSILON;
+	private static final int PARTITION_COUNT;
+	private static final int VERSION_STRIPES = 1 << 16;
+	private static final int TX_STRIPES = 64;
 	final static int IS_LOCK = 0, IX_LOCK = 1, S_LOCK = 2, SIX_LOCK = 3,
 			X_LOCK = 4;
 
@@ -52,123 +74,415 @@ class LockTable {
 				LockTable.class.getName() + ".MAX_TIME", 10000);
 		EPSILON = CoreProperties.getLoader().getPropertyAsLong(LockTable.class.getName()
 				+ ".EPSILON", 50);
+		PARTITION_COUNT = CoreProperties.getLoader().getPropertyAsInteger(
+				LockTable.class.getName() + ".PARTITION_COUNT", 64);
+	}
+
+	/**
+	 * A set of transaction numbers. The first number is kept in a field and an
+	 * array is allocated only when there is more than one, so neither the
+	 * common case of a single holder nor adding and removing a number
+	 * allocates memory.
+	 */
+	static class TxNumSet {
+		private int size;
+		private long first;
+		private long[] others;
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		long get(int index) {
+			return index == 0 ? first : others[index - 1];
+		}
+
+		boolean contains(long txNum) {
+			if (size == 0)
+				return false;
+			if (first == txNum)
+				return true;
+			for (int i = 0; i < size - 1; i++)
+				if (others[i] == txNum)
+					return true;
+			return false;
+		}
+
+		void add(long txNum) {
+			if (contains(txNum))
+				return;
+			if (size == 0)
+				first = txNum;
+			else {
+				if (others == null)
+					others = new long[4];
+				else if (size - 1 == others.length)
+					others = Arrays.copyOf(others, others.length * 2);
+				others[size - 1] = txNum;
+			}
+			size++;
+		}
+
+		void remove(long txNum) {
+			if (size == 0)
+				return;
+			// Move the last number to the removed slot
+			int last = size - 2;
+			if (first == txNum) {
+				if (last >= 0)
+					first = others[last];
+				size--;
+				return;
+			}
+			for (int i = 0; i <= last; i++) {
+				if (others[i] == txNum) {
+					others[i] = others[last];
+					size--;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("[");
+			for (int i = 0; i < size; i++) {
+				if (i > 0)
+					sb.append(", ");
+				sb.append(get(i));
+			}
+			return sb.append("]").toString();
+		}
 	}
 
 	class Lockers {
-		Set<Long> sLockers, ixLockers, isLockers, requestSet;
+		TxNumSet sLockers, ixLockers, isLockers;
 		// only one tx can hold xLock(sixLock) on single item
 		long sixLocker, xLocker;
 		static final long NONE = -1; // for sixLocker, xLocker
+		// created when the first request has to wait
+		LinkedList<LockRequest> requestQueue;
+		// set when the lockers are removed from the lock table
+		boolean removed;
 
 		Lockers() {
-			sLockers = new HashSet<Long>();
-			ixLockers = new HashSet<Long>();
-			isLockers = new HashSet<Long>();
+			sLockers = new TxNumSet();
+			ixLockers = new TxNumSet();
+			isLockers = new TxNumSet();
 			sixLocker = NONE;
 			xLocker = NONE;
-			requestSet = new HashSet<Long>();
+		}
+
+		boolean hasWaiters() {
+			return requestQueue != null && !requestQueue.isEmpty();
 		}
 		
 		@Override
 		public String toString() {
 			return "S: " + sLockers + ",IX: " + ixLockers + ",IS: " + isLockers
-					+ ",SIX: " + sixLocker + ",X: " + xLocker + ", request set: " + requestSet;
+					+ ",SIX: " + sixLocker + ",X: " + xLocker + ", request queue: " + requestQueue;
 		}
 	}
 
-	class LocktableNotifier extends Task {
+	/**
+	 * A pending request in the wait queue of an item.
+	 */
+	class LockRequest {
+		final long txNum;
+		final int lockType;
+		final Thread thread;
+		// true if the request is locked in the global order, so it spares the
+		// transactions locking in order
+		final boolean ordered;
+		boolean granted;
+
+		LockRequest(long txNum, int lockType, boolean ordered) {
+			this.txNum = txNum;
+			this.lockType = lockType;
+			this.thread = Thread.currentThread();
+			this.ordered = ordered;
+		}
 
 		@Override
-		public void run() {
-			while (true) {
-				try {
-					Long txNum = toBeNotified.take();
-					Object anchor = txWaitMap.get(txNum);
+		public String toString() {
+			return "tx." + txNum + ":" + lockType;
+		}
+	}
 
-					if (anchor != null) {
-						synchronized (anchor) {
-							anchor.notifyAll();
-						}
+	/**
+	 * The items locked by a transaction. The items are only accessed by the
+	 * thread running the transaction, while other transactions may wound it
+	 * and wake it up from the request it is waiting for.
+	 */
+	static class TxLocks {
+		final long txNum;
+		private Object[] objs = new Object[16];
+		private int size;
+		// set when the transaction releases all its locks
+		volatile boolean released;
+		// set when the transaction is marked to be aborted by wound-wait
+		private volatile boolean wounded;
+		// the request the transaction is waiting for, if any
+		volatile LockRequest waiting;
+		// set while all the locks of the transaction are locked in the global
+		// order
+		volatile boolean ordered;
+
+		TxLocks(long txNum) {
+			this.txNum = txNum;
+		}
 
-					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+		boolean isWounded() {
+			return wounded;
+		}
+
+		/*
+		 * Returns false if the transaction has been wounded already.
+		 */
+		synchronized boolean wound() {
+			if (wounded)
+				return false;
+			wounded = true;
+			return true;
+		}
+
+		void clearWound() {
+			wounded = false;
+		}
+
+		int size() {
+			return size;
+		}
+
+		Object get(int index) {
+			return objs[index];
+		}
+
+		void add(Object obj) {
+			if (size == objs.length)
+				objs = Arrays.copyOf(objs, size * 2);
+			objs[size++] = obj;
+		}
+
+		void remove(Object obj) {
+			// The item released is usually the one locked recently
+			for (int i = size - 1; i >= 0; i--) {
+				if (objs[i].equals(obj)) {
+					removeAt(i);
+					return;
 				}
 			}
 		}
+
+		void removeAt(int index) {
+			size--;
+			objs[index] = objs[size];
+			objs[size] = null;
+		}
 	}
 
-	private Map<Object, Lockers> lockerMap = new HashMap<Object, Lockers>();
-	private Map<Long, Set<Object>> lockByMap = new ConcurrentHashMap<Long, Set<Object>>();
-	private Set<Long> txnsToBeAborted = Collections
-			.synchronizedSet(new HashSet<Long>());
-	private Map<Long, Object> txWaitMap = new ConcurrentHashMap<Long, Object>();
-	private BlockingQueue<Long> toBeNotified = new ArrayBlockingQueue<Long>(
-			1000);
-	private final Object anchors[] = new Object[1009];
+	/**
+	 * A stripe of the {@link TxLocks} of the transactions holding or waiting
+	 * for locks, in an open-addressing table keyed by the transaction numbers,
+	 * so looking up a transaction never boxes its number.
+	 */
+	static class TxStripe {
+		private TxLocks[] slots = new TxLocks[16];
+		private int size;
+
+		synchronized TxLocks get(long txNum) {
+			int mask = slots.length - 1;
+			for (int i = slot(txNum, mask); slots[i] != null; i = (i + 1) & mask)
+				if (slots[i].txNum == txNum)
+					return slots[i];
+			return null;
+		}
+
+		synchronized TxLocks getOrCreate(long txNum) {
+			TxLocks txLocks = get(txNum);
+			if (txLocks == null) {
+				if ((size + 1) * 2 > slots.length)
+					resize();
+				txLocks = new TxLocks(txNum);
+				insert(txLocks);
+				size++;
+			}
+			return txLocks;
+		}
+
+		synchronized void remove(long txNum) {
+			int mask = slots.length - 1;
+			int i = slot(txNum, mask);
+			while (slots[i] != null && slots[i].txNum != txNum)
+				i = (i + 1) & mask;
+			if (slots[i] == null)
+				return;
+			slots[i] = null;
+			size--;
+			// Put back the following entries, which may have probed past i
+			for (i = (i + 1) & mask; slots[i] != null; i = (i + 1) & mask) {
+				TxLocks txLocks = slots[i];
+				slots[i] = null;
+				insert(txLocks);
+			}
+		}
+
+		private void insert(TxLocks txLocks) {
+			int mask = slots.length - 1;
+			int i = slot(txLocks.txNum, mask);
+			while (slots[i] != null)
+				i = (i + 1) & mask;
+			slots[i] = txLocks;
+		}
+
+		private void resize() {
+			TxLocks[] old = slots;
+			slots = new TxLocks[old.length * 2];
+			for (TxLocks txLocks : old)
+				if (txLocks != null)
+					insert(txLocks);
+		}
+
+		private static int slot(long txNum, int mask) {
+			// The low bits select the stripe
+			return (int) (txNum / TX_STRIPES) & mask;
+		}
+	}
+
+	/**
+	 * A partition of the lock table.
+	 */
+	class Partition {
+		ConcurrentMap<Object, Lockers> lockerMap = new ConcurrentHashMap<Object, Lockers>();
+	}
+
+	private final Partition partitions[] = new Partition[PARTITION_COUNT];
+	private final TxStripe txStripes[] = new TxStripe[TX_STRIPES];
+	// Most requests come from the thread running the same transaction as the
+	// last one, so this saves looking up the transaction number
+	private ThreadLocal<TxLocks> lastTxLocks = new ThreadLocal<TxLocks>();
+
+	private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+	// Statistics
+	private AtomicLong woundCount = new AtomicLong(), waitCount = new AtomicLong(),
+			waitTime = new AtomicLong(), timeoutCount = new AtomicLong();
 
 	public LockTable() {
-		for (int i = 0; i < anchors.length; ++i) {
-			anchors[i] = new Object();
+		for (int i = 0; i < partitions.length; ++i) {
+			partitions[i] = new Partition();
 		}
-		VanillaDb.taskMgr().runTask(new LocktableNotifier());
+		for (int i = 0; i < txStripes.length; ++i)
+			txStripes[i] = new TxStripe();
+	}
+
+	private TxStripe getTxStripe(long txNum) {
+		return txStripes[(int) (txNum & (TX_STRIPES - 1))];
 	}
 
-	private Object getAnchor(Object o) {
-		int code = o.hashCode() % anchors.length;
+	private Partition getPartition(Object o) {
+		int code = o.hashCode() % partitions.length;
 		if (code < 0) {
-			code += anchors.length;
+			code += partitions.length;
 		}
-		return anchors[code];
+		return partitions[code];
 	}
 
-	private void avoidDeadlock(Lockers lks, long txNum, int lockType)
-			throws LockAbortException {
-		// IS_LOCK = 0, IX_LOCK = 1, S_LOCK = 2, SIX_LOCK = 3, X_LOCK = 4
-
-		if (txnsToBeAborted.contains(txNum))
+	private void avoidDeadlock(Lockers lks, TxLocks txLocks, int lockType, boolean ordered,
+			boolean queued) throws LockAbortException {
+		long txNum = txLocks.txNum;
+		if (txLocks.isWounded())
 			throw new LockAbortException("abort tx." + txNum + " for preventing deadlock");
 
+		woundYoungerLockers(lks, txNum, lockType, ordered);
+		if (queued)
+			woundYoungerWaiters(lks, txNum, ordered);
+	}
+
+	/*
+	 * A request appended to the queue waits for all the requests ahead of it,
+	 * so the younger transactions waiting there are wounded, too.
+	 */
+	private void woundYoungerWaiters(Lockers lks, long txNum, boolean ordered) {
+		if (!lks.hasWaiters())
+			return;
+		for (LockRequest req : lks.requestQueue)
+			if (req.txNum > txNum)
+				wound(req.txNum, ordered);
+	}
+
+	/*
+	 * Wound-wait: marks the younger transactions holding a conflicting lock to
+	 * be aborted. A request locked in the global order spares the
+	 * transactions locking in order.
+	 */
+	private void woundYoungerLockers(Lockers lks, long txNum, int lockType, boolean ordered) {
+		// IS_LOCK = 0, IX_LOCK = 1, S_LOCK = 2, SIX_LOCK = 3, X_LOCK = 4
+
 		if (lockType == IX_LOCK || lockType == SIX_LOCK || lockType == X_LOCK) {
-			for (Long tx : lks.sLockers) {
-				if (tx > txNum) {
-					txnsToBeAborted.add(tx);
-					if (!toBeNotified.contains(tx))
-						toBeNotified.add(tx);
-				}
+			for (int i = 0; i < lks.sLockers.size(); i++) {
+				if (lks.sLockers.get(i) > txNum)
+					wound(lks.sLockers.get(i), ordered);
 			}
 		}
 		if (lockType == S_LOCK || lockType == SIX_LOCK || lockType == X_LOCK) {
-			for (Long tx : lks.ixLockers) {
-				if (tx > txNum) {
-					txnsToBeAborted.add(tx);
-					if (!toBeNotified.contains(tx))
-						toBeNotified.add(tx);
-				}
+			for (int i = 0; i < lks.ixLockers.size(); i++) {
+				if (lks.ixLockers.get(i) > txNum)
+					wound(lks.ixLockers.get(i), ordered);
 			}
 		}
 		if (lockType == X_LOCK) {
-			for (Long tx : lks.isLockers) {
-				if (tx > txNum) {
-					txnsToBeAborted.add(tx);
-					if (!toBeNotified.contains(tx))
-						toBeNotified.add(tx);
-				}
+			for (int i = 0; i < lks.isLockers.size(); i++) {
+				if (lks.isLockers.get(i) > txNum)
+					wound(lks.isLockers.get(i), ordered);
 			}
 		}
 		if (lockType == IX_LOCK || lockType == S_LOCK || lockType == SIX_LOCK
 				|| lockType == X_LOCK) {
-			if (lks.sixLocker > txNum) {
-				txnsToBeAborted.add(lks.sixLocker);
-				if (!toBeNotified.contains(lks.sixLocker))
-					toBeNotified.add(lks.sixLocker);
-			}
-		}
-		if (lks.xLocker > txNum) {
-			txnsToBeAborted.add(lks.xLocker);
-			if (!toBeNotified.contains(lks.xLocker))
-				toBeNotified.add(lks.xLocker);
+			if (lks.sixLocker > txNum)
+				wound(lks.sixLocker, ordered);
 		}
+		if (lks.xLocker > txNum)
+			wound(lks.xLocker, ordered);
+	}
+
+	/*
+	 * The waiting requests may conflict with the locks just granted.
+	 */
+	private void woundForWaiters(Lockers lks) {
+		if (!lks.hasWaiters())
+			return;
+		for (LockRequest req : lks.requestQueue)
+			woundYoungerLockers(lks, req.txNum, req.lockType, req.ordered);
+	}
+
+	/*
+	 * Marks the transaction to be aborted. If it is waiting for a lock, its
+	 * thread is woken up to abort itself. Otherwise, it aborts when it
+	 * requests a lock next time. The waiting request is checked after marking,
+	 * while a waiter checks the mark after registering its request, so a
+	 * waiter never misses it. The locks of a transaction are recorded before
+	 * it holds or waits for any item, so it can always be found here.
+	 * 
+	 * The transactions locking in order never wait for each other in a cycle,
+	 * so a request locked in order may spare them. The mark of a transaction
+	 * leaving the order is set before it checks the requests waiting for its
+	 * items, while a waiter checks the mark after queuing its request, so
+	 * one of them always sees the other.
+	 */
+	private void wound(long txNum, boolean spareOrdered) {
+		TxLocks txLocks = getTxStripe(txNum).get(txNum);
+		if (txLocks == null || (spareOrdered && txLocks.ordered) || !txLocks.wound())
+			return;
+		woundCount.incrementAndGet();
+
+		LockRequest req = txLocks.waiting;
+		if (req != null)
+			LockSupport.unpark(req.thread);
 	}
 
 	/**
@@ -184,32 +498,7 @@ class LockTable {
 	 * 
 	 */
 	void sLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
-
-			if (hasSLock(lks, txNum))
-				return;
-
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!sLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, S_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
-				}
-				if (!sLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.sLockers.add(txNum);
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException("abort tx." + txNum + " by interrupted");
-			}
-		}
-		txWaitMap.remove(txNum);
+		lock(obj, txNum, S_LOCK);
 	}
 
 	/**
@@ -225,32 +514,7 @@ class LockTable {
 	 * 
 	 */
 	void xLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
-
-			if (hasXLock(lks, txNum))
-				return;
-
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!xLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, X_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
-				}
-				if (!xLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.xLocker = txNum;
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException();
-			}
-		}
-		txWaitMap.remove(txNum);
+		lock(obj, txNum, X_LOCK);
 	}
 
 	/**
@@ -266,32 +530,7 @@ class LockTable {
 	 * 
 	 */
 	void sixLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
-
-			if (hasSixLock(lks, txNum))
-				return;
-
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!sixLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, SIX_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
-				}
-				if (!sixLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.sixLocker = txNum;
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException();
-			}
-		}
-		txWaitMap.remove(txNum);
+		lock(obj, txNum, SIX_LOCK);
 	}
 
 	/**
@@ -306,30 +545,7 @@ class LockTable {
 	 *            a transaction number
 	 */
 	void isLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
-			if (hasIsLock(lks, txNum))
-				return;
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!isLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, IS_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
-				}
-				if (!isLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.isLockers.add(txNum);
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException();
-			}
-		}
-		txWaitMap.remove(txNum);
+		lock(obj, txNum, IS_LOCK);
 	}
 
 	/**
@@ -344,38 +560,280 @@ class LockTable {
 	 *            a transaction number
 	 */
 	void ixLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
+		lock(obj, txNum, IX_LOCK);
+	}
 
-			if (hasIxLock(lks, txNum))
-				return;
+	/**
+	 * Grants the specified locks on the items in a global order of the items.
+	 * Since the transactions locking all their items in this way follow the
+	 * same order, they never deadlock with each other, so their requests wait
+	 * for each other without wounding. A transaction leaves the order once it
+	 * locks any other item, and from then on it is wounded and wounds as
+	 * usual. The transaction can still be aborted if it is wounded or waits
+	 * too long.
+	 * 
+	 * @param objs
+	 *            the lockable items
+	 * @param lockTypes
+	 *            the type of lock on each item
+	 * @param txNum
+	 *            a transaction number
+	 */
+	void lockInOrder(Object[] objs, int[] lockTypes, long txNum) {
+		if (objs.length == 0)
+			return;
+		TxLocks txLocks = getTxLocks(txNum);
+		// Only the items locked from scratch follow the order
+		if (txLocks.size() == 0)
+			txLocks.ordered = true;
+		else if (txLocks.ordered)
+			leaveOrder(txLocks);
+
+		Integer[] order = new Integer[objs.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		final Object[] items = objs;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return compareItems(items[i1], items[i2]);
+			}
+		});
+		for (Integer i : order)
+			lock(objs[i], txNum, lockTypes[i], true);
+	}
+
+	/*
+	 * Called when a transaction locking in order is about to lock an item out
+	 * of the order. The older transactions waiting in order for its items have
+	 * spared it, so it is wounded if there is any of them.
+	 */
+	private void leaveOrder(TxLocks txLocks) {
+		txLocks.ordered = false;
+		long txNum = txLocks.txNum;
+		for (int i = 0; i < txLocks.size(); i++) {
+			Object obj = txLocks.get(i);
+			Lockers lks = getPartition(obj).lockerMap.get(obj);
+			if (lks == null)
+				continue;
+			synchronized (lks) {
+				if (!lks.hasWaiters())
+					continue;
+				for (LockRequest req : lks.requestQueue) {
+					if (req.ordered && req.txNum < txNum) {
+						wound(txNum, false);
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * A total order of the items which does not depend on the transactions:
+	 * the file names come first, then the blocks and the records, each in the
+	 * order of their files and positions. Any other item must be comparable
+	 * to the items of its own class, and is ordered by its class name first.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static int compareItems(Object o1, Object o2) {
+		int k1 = itemKind(o1), k2 = itemKind(o2);
+		if (k1 != k2)
+			return k1 < k2 ? -1 : 1;
+		switch (k1) {
+		case 0:
+			return ((String) o1).compareTo((String) o2);
+		case 1:
+			return compareBlocks((BlockId) o1, (BlockId) o2);
+		case 2:
+			RecordId r1 = (RecordId) o1, r2 = (RecordId) o2;
+			int c = compareBlocks(r1.block(), r2.block());
+			if (c != 0)
+				return c;
+			return r1.id() < r2.id() ? -1 : (r1.id() == r2.id() ? 0 : 1);
+		default:
+			if (o1.getClass() != o2.getClass()) {
+				c = o1.getClass().getName().compareTo(o2.getClass().getName());
+				if (c != 0)
+					return c;
+			}
+			if (!(o1 instanceof Comparable))
+				throw new IllegalArgumentException("cannot order the items of "
+						+ o1.getClass().getName());
+			return ((Comparable) o1).compareTo(o2);
+		}
+	}
+
+	/*
+	 * Returns the weakest lock type covering both of the specified ones.
+	 */
+	static int combine(int lockType1, int lockType2) {
+		if (lockType1 == lockType2)
+			return lockType1;
+		if (lockType1 == X_LOCK || lockType2 == X_LOCK)
+			return X_LOCK;
+		if (lockType1 == IS_LOCK)
+			return lockType2;
+		if (lockType2 == IS_LOCK)
+			return lockType1;
+		// Any two of IX, S and SIX
+		return SIX_LOCK;
+	}
+
+		private static int itemKind(Object obj) {
+		if (obj instanceof String)
+			return 0;
+		if (obj instanceof BlockId)
+			return 1;
+		if (obj instanceof RecordId)
+			return 2;
+		return 3;
+	}
+
+	private static int compareBlocks(BlockId b1, BlockId b2) {
+		int c = b1.fileName().compareTo(b2.fileName());
+		if (c != 0)
+			return c;
+		return b1.number() < b2.number() ? -1 : (b1.number() == b2.number() ? 0 : 1);
+	}
+
+	private void lock(Object obj, long txNum, int lockType) {
+		lock(obj, txNum, lockType, false);
+	}
+
+	private void lock(Object obj, long txNum, int lockType, boolean inOrder) {
+		// Recorded before holding or waiting, so the tx can be wounded
+		TxLocks txLocks = getTxLocks(txNum);
+		Lockers lks;
+		LockRequest req;
+		boolean holding = false;
+		while (true) {
+			lks = prepareLockers(obj);
+			boolean ordered = txLocks.ordered;
+			synchronized (lks) {
+				// The lockers may be removed before we get the monitor
+				if (lks.removed)
+					continue;
+
+				if (hasLock(lks, txNum, lockType))
+					return;
+
+				// Leave the order outside the monitor, since it takes the
+				// monitors of the other items
+				if (ordered && !inOrder)
+					req = null;
+				else {
+
+					// The item has been recorded if the tx holds it
+					holding = holdsAnyLock(lks, txNum);
+
+					// Do not overtake the waiting requests, unless the tx holds
+					// the item and the waiting requests are waiting for it
+					if ((holding || !lks.hasWaiters()) && lockable(lks, txNum, lockType)) {
+						grant(lks, txNum, lockType);
+						woundForWaiters(lks);
+						break;
+					}
+
+					avoidDeadlock(lks, txLocks, lockType, ordered, !holding);
+					req = new LockRequest(txNum, lockType, ordered);
+					if (lks.requestQueue == null)
+						lks.requestQueue = new LinkedList<LockRequest>();
+					if (holding)
+						lks.requestQueue.addFirst(req);
+					else
+						lks.requestQueue.addLast(req);
+				}
+			}
+			if (req == null) {
+				leaveOrder(txLocks);
+				continue;
+			}
+			awaitGrant(obj, lks, req, txLocks);
+			break;
+		}
+		if (!holding)
+			txLocks.add(obj);
+	}
+
+	private void awaitGrant(Object obj, Lockers lks, LockRequest req, TxLocks txLocks) {
+		long txNum = req.txNum;
+		txLocks.waiting = req;
+		long startTime = System.nanoTime();
+		try {
+			long timestamp = System.currentTimeMillis();
+			while (true) {
+				synchronized (lks) {
+					if (req.granted)
+						return;
+
+					LockAbortException abort = null;
+					if (txLocks.isWounded())
+						abort = new LockAbortException("abort tx." + txNum + " for preventing deadlock");
+					else if (Thread.interrupted())
+						abort = new LockAbortException("abort tx." + txNum + " by interrupted");
+					else if (waitingTooLong(timestamp)) {
+						timeoutCount.incrementAndGet();
+						abort = new LockAbortException();
+					}
 
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!ixLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, IX_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
+					if (abort != null) {
+						lks.requestQueue.remove(req);
+						grantWaiters(lks);
+						removeIfUnused(obj, lks);
+						throw abort;
+					}
 				}
-				if (!ixLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.ixLockers.add(txNum);
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException();
+				long waitTime = MAX_TIME - (System.currentTimeMillis() - timestamp);
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(waitTime, 1)));
 			}
+		} finally {
+			txLocks.waiting = null;
+			waitCount.incrementAndGet();
+			waitTime.addAndGet(System.nanoTime() - startTime);
 		}
-		txWaitMap.remove(txNum);
+	}
+
+	/**
+	 * Returns the number of transactions marked to be aborted by wound-wait.
+	 * 
+	 * @return the number of wounds
+	 */
+	long woundCount() {
+		return woundCount.get();
+	}
+
+	/**
+	 * Returns the number of lock requests which had to wait.
+	 * 
+	 * @return the number of lock waits
+	 */
+	long waitCount() {
+		return waitCount.get();
+	}
+
+	/**
+	 * Returns the total time (in nanoseconds) spent waiting for locks.
+	 * 
+	 * @return the total lock waiting time
+	 */
+	long waitTime() {
+		return waitTime.get();
+	}
+
+	/**
+	 * Returns the number of lock requests aborted for waiting too long.
+	 * 
+	 * @return the number of lock timeouts
+	 */
+	long timeoutCount() {
+		return timeoutCount.get();
 	}
 
 	/**
 	 * Releases the specified type of lock on an item holding by a transaction.
-	 * If a lock is the last lock on that block, then the waiting transactions
-	 * are notified.
+	 * The waiting requests which become compatible with the remaining locks are
+	 * granted.
 	 * 
 	 * @param obj
 	 *            a lockable item
@@ -385,36 +843,33 @@ class LockTable {
 	 *            the type of lock
 	 */
 	void release(Object obj, long txNum, int lockType) {
-		Object anchor = getAnchor(obj);
-		synchronized (anchor) {
-			Lockers lks = lockerMap.get(obj);
-			/*
-			 * In some situation, tx will release the lock of the object that
-			 * have been released.
-			 */
-			if (lks != null) {
-				releaseLock(lks, anchor, txNum, lockType);
-
-				// Check if this transaction have any other lock on this object
-				if (!hasSLock(lks, txNum) && !hasXLock(lks, txNum)
-						&& !hasSixLock(lks, txNum) && !hasIsLock(lks, txNum)
-						&& !hasIxLock(lks, txNum)) {
-					getObjectSet(txNum).remove(obj);
-
-					// Remove the locker, if there is no other transaction
-					// having it
-					if (!sLocked(lks) && !xLocked(lks) && !sixLocked(lks)
-							&& !isLocked(lks) && !ixLocked(lks)
-							&& lks.requestSet.isEmpty())
-						lockerMap.remove(obj);
-				}
-			}
+		Lockers lks = getPartition(obj).lockerMap.get(obj);
+		/*
+		 * In some situation, tx will release the lock of the object that
+		 * have been released.
+		 */
+		if (lks == null)
+			return;
+		synchronized (lks) {
+			if (lks.removed)
+				return;
+
+			if (lockType == X_LOCK && hasXLock(lks, txNum))
+				versions.incrementAndGet(versionStripe(obj));
+			releaseLock(lks, txNum, lockType);
+
+			// Check if this transaction have any other lock on this object
+			if (!holdsAnyLock(lks, txNum))
+				getTxLocks(txNum).remove(obj);
+
+			grantWaiters(lks);
+			removeIfUnused(obj, lks);
 		}
 	}
 
 	/**
-	 * Releases all locks held by a transaction. If a lock is the last lock on
-	 * that block, then the waiting transactions are notified.
+	 * Releases all locks held by a transaction. The waiting requests which
+	 * become compatible with the remaining locks are granted.
 	 * 
 	 * @param txNum
 	 *            a transaction number
@@ -423,86 +878,158 @@ class LockTable {
 	 *            release slocks only
 	 */
 	void releaseAll(long txNum, boolean sLockOnly) {
-		Set<Object> objectsToRelease = getObjectSet(txNum);
-		for (Object obj : objectsToRelease) {
-			Object anchor = getAnchor(obj);
-			synchronized (anchor) {
-				Lockers lks = lockerMap.get(obj);
+		TxLocks txLocks = getTxStripe(txNum).get(txNum);
+		if (txLocks != null) {
+			releaseAll(txLocks, sLockOnly);
+			txLocks.waiting = null;
+			txLocks.clearWound();
+		}
+	}
 
-				if (lks != null) {
+	private void releaseAll(TxLocks txLocks, boolean sLockOnly) {
+		long txNum = txLocks.txNum;
+		// Iterate backward, so removing an item does not skip others
+		for (int i = txLocks.size() - 1; i >= 0; i--) {
+			Object obj = txLocks.get(i);
+			Lockers lks = getPartition(obj).lockerMap.get(obj);
+			if (lks == null) {
+				txLocks.removeAt(i);
+				continue;
+			}
 
-					if (hasSLock(lks, txNum))
-						releaseLock(lks, anchor, txNum, S_LOCK);
+			synchronized (lks) {
+				if (lks.removed) {
+					txLocks.removeAt(i);
+					continue;
+				}
 
-					if (hasXLock(lks, txNum) && !sLockOnly)
-						releaseLock(lks, anchor, txNum, X_LOCK);
+				if (hasSLock(lks, txNum))
+					releaseLock(lks, txNum, S_LOCK);
 
-					if (hasSixLock(lks, txNum))
-						releaseLock(lks, anchor, txNum, SIX_LOCK);
+				if (hasXLock(lks, txNum) && !sLockOnly) {
+					versions.incrementAndGet(versionStripe(obj));
+					releaseLock(lks, txNum, X_LOCK);
+				}
 
-					while (hasIsLock(lks, txNum))
-						releaseLock(lks, anchor, txNum, IS_LOCK);
+				if (hasSixLock(lks, txNum))
+					releaseLock(lks, txNum, SIX_LOCK);
 
-					while (hasIxLock(lks, txNum) && !sLockOnly)
-						releaseLock(lks, anchor, txNum, IX_LOCK);
+				while (hasIsLock(lks, txNum))
+					releaseLock(lks, txNum, IS_LOCK);
 
-					// Remove the locker, if there is no other transaction
-					// having it
-					if (!sLocked(lks) && !xLocked(lks) && !sixLocked(lks)
-							&& !isLocked(lks) && !ixLocked(lks)
-							&& lks.requestSet.isEmpty())
-						lockerMap.remove(obj);
-				}
+				while (hasIxLock(lks, txNum) && !sLockOnly)
+					releaseLock(lks, txNum, IX_LOCK);
+
+				// Keep the items still locked after releasing slocks only
+				if (!holdsAnyLock(lks, txNum))
+					txLocks.removeAt(i);
+
+				grantWaiters(lks);
+				removeIfUnused(obj, lks);
 			}
 		}
-		txWaitMap.remove(txNum);
-		txnsToBeAborted.remove(txNum);
-		lockByMap.remove(txNum);
+		if (!sLockOnly) {
+			getTxStripe(txNum).remove(txNum);
+			txLocks.released = true;
+		}
+	}
+
+	/**
+	 * Returns the version of the specified item. The version is increased
+	 * before an xlock on the item is released.
+	 * 
+	 * @param obj
+	 *            a lockable item
+	 * @return the version of the item
+	 */
+	long version(Object obj) {
+		return versions.get(versionStripe(obj));
 	}
 
-	private void releaseLock(Lockers lks, Object anchor, long txNum,
-			int lockType) {
+	/**
+	 * Returns true if the specified item is xlocked by a transaction other than
+	 * the specified one.
+	 * 
+	 * @param obj
+	 *            a lockable item
+	 * @param txNum
+	 *            a transaction number
+	 * @return true if another transaction holds the xlock of the item
+	 */
+	boolean xLockedByOthers(Object obj, long txNum) {
+		Lockers lks = getPartition(obj).lockerMap.get(obj);
 		if (lks == null)
+			return false;
+		synchronized (lks) {
+			return !lks.removed && xLocked(lks) && !hasXLock(lks, txNum);
+		}
+	}
+
+	private int versionStripe(Object obj) {
+		int h = obj.hashCode();
+		return (h ^ (h >>> 16)) & (VERSION_STRIPES - 1);
+	}
+
+	private void releaseLock(Lockers lks, long txNum, int lockType) {
+		switch (lockType) {
+		case X_LOCK:
+			if (lks.xLocker == txNum)
+				lks.xLocker = Lockers.NONE;
+			return;
+		case SIX_LOCK:
+			if (lks.sixLocker == txNum)
+				lks.sixLocker = Lockers.NONE;
+			return;
+		case S_LOCK:
+			lks.sLockers.remove(txNum);
+			return;
+		case IS_LOCK:
+			lks.isLockers.remove(txNum);
 			return;
-		anchor.notifyAll();
+		case IX_LOCK:
+			lks.ixLockers.remove(txNum);
+			return;
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/*
+	 * Grants the waiting requests in FIFO order, until a request conflicts
+	 * with the current locks. Only the transactions granted are woken up.
+	 */
+	private void grantWaiters(Lockers lks) {
+		boolean granted = false;
+		while (lks.hasWaiters()) {
+			LockRequest req = lks.requestQueue.peek();
+			if (!lockable(lks, req.txNum, req.lockType))
+				break;
+			lks.requestQueue.poll();
+			grant(lks, req.txNum, req.lockType);
+			req.granted = true;
+			LockSupport.unpark(req.thread);
+			granted = true;
+		}
+		if (granted)
+			woundForWaiters(lks);
+	}
+
+	private void grant(Lockers lks, long txNum, int lockType) {
 		switch (lockType) {
 		case X_LOCK:
-			if (lks.xLocker == txNum) {
-				lks.xLocker = -1;
-				
-				anchor.notifyAll();
-			}
+			lks.xLocker = txNum;
 			return;
 		case SIX_LOCK:
-			if (lks.sixLocker == txNum) {
-				lks.sixLocker = -1;
-				
-				anchor.notifyAll();
-			}
+			lks.sixLocker = txNum;
 			return;
 		case S_LOCK:
-			Set<Long> sl = lks.sLockers;
-			if (sl != null && sl.contains(txNum)) {
-				sl.remove((Long) txNum);
-				if (sl.isEmpty())
-					anchor.notifyAll();
-			}
+			lks.sLockers.add(txNum);
 			return;
 		case IS_LOCK:
-			Set<Long> isl = lks.isLockers;
-			if (isl != null && isl.contains(txNum)) {
-				isl.remove((Long) txNum);
-				if (isl.isEmpty())
-					anchor.notifyAll();
-			}
+			lks.isLockers.add(txNum);
 			return;
 		case IX_LOCK:
-			Set<Long> ixl = lks.ixLockers;
-			if (ixl != null && ixl.contains(txNum)) {
-				ixl.remove((Long) txNum);
-				if (ixl.isEmpty())
-					anchor.notifyAll();
-			}
+			lks.ixLockers.add(txNum);
 			return;
 		default:
 			throw new IllegalArgumentException();
@@ -510,21 +1037,38 @@ class LockTable {
 	}
 
 	private Lockers prepareLockers(Object obj) {
-		Lockers lockers = lockerMap.get(obj);
+		Partition partition = getPartition(obj);
+		Lockers lockers = partition.lockerMap.get(obj);
 		if (lockers == null) {
-			lockers = new Lockers();
-			lockerMap.put(obj, lockers);
+			Lockers newLockers = new Lockers();
+			lockers = partition.lockerMap.putIfAbsent(obj, newLockers);
+			if (lockers == null)
+				lockers = newLockers;
 		}
 		return lockers;
 	}
 
-	private Set<Object> getObjectSet(long txNum) {
-		Set<Object> objectSet = lockByMap.get(txNum);
-		if (objectSet == null) {
-			objectSet = new HashSet<Object>();
-			lockByMap.put(txNum, objectSet);
+	/*
+	 * Removes the lockers, if there is no other transaction having or
+	 * requesting it. The caller must hold the monitor of the lockers.
+	 */
+	private void removeIfUnused(Object obj, Lockers lks) {
+		if (!sLocked(lks) && !xLocked(lks) && !sixLocked(lks)
+				&& !isLocked(lks) && !ixLocked(lks)
+				&& !lks.hasWaiters()) {
+			lks.removed = true;
+			getPartition(obj).lockerMap.remove(obj, lks);
 		}
-		return objectSet;
+	}
+
+	private TxLocks getTxLocks(long txNum) {
+		TxLocks txLocks = lastTxLocks.get();
+		if (txLocks != null && txLocks.txNum == txNum && !txLocks.released)
+			return txLocks;
+
+		txLocks = getTxStripe(txNum).getOrCreate(txNum);
+		lastTxLocks.set(txLocks);
+		return txLocks;
 	}
 
 	private boolean waitingTooLong(long starttime) {
@@ -559,6 +1103,29 @@ class LockTable {
 	 * Verify if an item is held by a tx.
 	 */
 
+	private boolean hasLock(Lockers lks, long txNum, int lockType) {
+		switch (lockType) {
+		case X_LOCK:
+			return hasXLock(lks, txNum);
+		case SIX_LOCK:
+			return hasSixLock(lks, txNum);
+		case S_LOCK:
+			return hasSLock(lks, txNum);
+		case IS_LOCK:
+			return hasIsLock(lks, txNum);
+		case IX_LOCK:
+			return hasIxLock(lks, txNum);
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private boolean holdsAnyLock(Lockers lks, long txNum) {
+		return hasSLock(lks, txNum) || hasXLock(lks, txNum)
+				|| hasSixLock(lks, txNum) || hasIsLock(lks, txNum)
+				|| hasIxLock(lks, txNum);
+	}
+
 	private boolean hasSLock(Lockers lks, long txNum) {
 		return lks != null && lks.sLockers.contains(txNum);
 	}
@@ -581,23 +1148,40 @@ class LockTable {
 
 	private boolean isTheOnlySLocker(Lockers lks, long txNum) {
 		return lks != null && lks.sLockers.size() == 1
-				&& lks.sLockers.contains(txNum);
+				&& lks.sLockers.get(0) == txNum;
 	}
 
 	private boolean isTheOnlyIsLocker(Lockers lks, long txNum) {
 		return lks != null && lks.isLockers.size() == 1
-				&& lks.isLockers.contains(txNum);
+				&& lks.isLockers.get(0) == txNum;
 	}
 
 	private boolean isTheOnlyIxLocker(Lockers lks, long txNum) {
 		return lks != null && lks.ixLockers.size() == 1
-				&& lks.ixLockers.contains(txNum);
+				&& lks.ixLockers.get(0) == txNum;
 	}
 
 	/*
 	 * Verify if an item is lockable to a tx.
 	 */
 
+	private boolean lockable(Lockers lks, long txNum, int lockType) {
+		switch (lockType) {
+		case X_LOCK:
+			return xLockable(lks, txNum);
+		case SIX_LOCK:
+			return sixLockable(lks, txNum);
+		case S_LOCK:
+			return sLockable(lks, txNum);
+		case IS_LOCK:
+			return isLockable(lks, txNum);
+		case IX_LOCK:
+			return ixLockable(lks, txNum);
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
 	private boolean sLockable(Lockers lks, long txNum) {
 		return (!xLocked(lks) || hasXLock(lks, txNum))
 				&& (!sixLocked(lks) || hasSixLock(lks, txNum))
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * The concurrency manager for optimistic transactions. Reads take no locks.
+ * Instead, the version of each item read is recorded in the read set, and
+ * the read set is validated against the versions kept by the lock table
+ * before the transaction commits. The validation fails if an item read has
+ * been xlocked by another transaction since it was read, or is still
+ * xlocked by one, and the transaction is then rolled back.
+ * 
+ * <p>
+ * Writes still xlock the records as serializable transactions do, since the
+ * modifications are applied to the pages in place. The locks are held
+ * through the validation, so the transaction is serialized at the point it
+ * is validated. It is selected with the
+ * {@link org.vanilladb.core.storage.tx.TransactionMgr#TRANSACTION_OPTIMISTIC}
+ * isolation level, and suits short transactions rarely conflicting with
+ * each other.
+ * </p>
+ * 
+ * <p>
+ * The file and block of a record read are validated as well, since a
+ * serializable transaction escalated to a block or file lock modifies the
+ * records under the coarser lock without locking each of them.
+ * </p>
+ */
+public class OptimisticConcurrencyMgr extends ConcurrencyMgr {
+	private Map<Object, Long> readSet = new HashMap<Object, Long>();
+
+	public OptimisticConcurrencyMgr(long txNumber) {
+		txNum = txNumber;
+	}
+
+	@Override
+	public void validateCommit() {
+		for (Map.Entry<Object, Long> entry : readSet.entrySet()) {
+			Object obj = entry.getKey();
+			// Check the lock before the version, since the version is
+			// increased before the lock is released
+			if (lockTbl.xLockedByOthers(obj, txNum) || lockTbl.version(obj) != entry.getValue())
+				throw new LockAbortException("abort tx." + txNum + " for failing the validation");
+		}
+	}
+
+	@Override
+	public void onTxCommit(Transaction tx) {
+		commitVersions();
+		lockTbl.releaseAll(txNum, false);
+		readSet.clear();
+	}
+
+	@Override
+	public void onTxRollback(Transaction tx) {
+		abortVersions();
+		lockTbl.releaseAll(txNum, false);
+		readSet.clear();
+	}
+
+	@Override
+	public void onTxEndStatement(Transaction tx) {
+		// do nothing
+	}
+
+	@Override
+	public void modifyFile(String fileName) {
+		lockTbl.xLock(fileName, txNum);
+	}
+
+	@Override
+	public void readFile(String fileName) {
+		observe(fileName);
+	}
+
+	@Override
+	public void insertBlock(BlockId blk) {
+		lockTbl.xLock(blk.fileName(), txNum);
+		lockTbl.xLock(blk, txNum);
+	}
+
+	@Override
+	public void modifyBlock(BlockId blk) {
+		lockTbl.ixLock(blk.fileName(), txNum);
+		lockTbl.xLock(blk, txNum);
+	}
+
+	@Override
+	public void readBlock(BlockId blk) {
+		observe(blk.fileName());
+		observe(blk);
+	}
+
+	@Override
+	public void modifyRecord(RecordId recId) {
+		lockTbl.ixLock(recId.block().fileName(), txNum);
+		lockTbl.ixLock(recId.block(), txNum);
+		lockTbl.xLock(recId, txNum);
+	}
+
+	@Override
+	public void readRecord(RecordId recId) {
+		observe(recId.block().fileName());
+		observe(recId.block());
+		observe(recId);
+	}
+
+	@Override
+	public void modifyIndex(String dataFileName) {
+		lockTbl.ixLock(dataFileName, txNum);
+	}
+
+	@Override
+	public void readIndex(String dataFileName) {
+		observe(dataFileName);
+	}
+
+	/*
+	 * Records the version of an item when it is read for the first time. The
+	 * version must be read before the item itself.
+	 */
+	private void observe(Object obj) {
+		if (!readSet.containsKey(obj))
+			readSet.put(obj, lockTbl.version(obj));
+	}
+}
@@ -27,11 +27,13 @@ public class ReadCommittedConcurrencyMgr extends ConcurrencyMgr {
 
 	@Override
 	public void onTxCommit(Transaction tx) {
+		commitVersions();
 		lockTbl.releaseAll(txNum, false);
 	}
 
 	@Override
 	public void onTxRollback(Transaction tx) {
+		abortVersions();
 		lockTbl.releaseAll(txNum, false);
 	}
 
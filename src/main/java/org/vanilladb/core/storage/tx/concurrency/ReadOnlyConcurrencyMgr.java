@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.util.Set;
+
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * The concurrency manager for read-only transactions when
+ * {@link ConcurrencyMgr#LOCK_FREE_READ_ONLY} is enabled. A transaction takes
+ * its snapshot when it is created, and reads records as of the snapshot
+ * from the before-images kept by the writers, so it never takes file, block
+ * or record locks.
+ * 
+ * <p>
+ * Only records are versioned, so the records are never read through the
+ * indexes, which return the latest committed entries. The planners scan the
+ * tables instead, and no index block is locked.
+ * </p>
+ */
+public class ReadOnlyConcurrencyMgr extends ConcurrencyMgr {
+	private long snapshotTs;
+
+	public ReadOnlyConcurrencyMgr(long txNumber) {
+		txNum = txNumber;
+		snapshotTs = versionStore.beginSnapshot(txNum);
+	}
+
+	@Override
+	public void onTxCommit(Transaction tx) {
+		versionStore.endSnapshot(txNum);
+	}
+
+	@Override
+	public void onTxRollback(Transaction tx) {
+		versionStore.endSnapshot(txNum);
+	}
+
+	@Override
+	public void onTxEndStatement(Transaction tx) {
+		// do nothing
+	}
+
+	/*
+	 * A read-only transaction only modifies its temporary files, which need
+	 * no locks.
+	 */
+
+	@Override
+	public void modifyFile(String fileName) {
+		// do nothing
+	}
+
+	@Override
+	public void readFile(String fileName) {
+		// do nothing
+	}
+
+	@Override
+	public void insertBlock(BlockId blk) {
+		// do nothing
+	}
+
+	@Override
+	public void modifyBlock(BlockId blk) {
+		// do nothing
+	}
+
+	@Override
+	public void readBlock(BlockId blk) {
+		// do nothing
+	}
+
+	@Override
+	public void modifyRecord(RecordId recId) {
+		// do nothing
+	}
+
+	@Override
+	public void readRecord(RecordId recId) {
+		// do nothing
+	}
+
+	@Override
+	public Constant readValue(Buffer buff, int slotOffset, int slotSize, int offset, Type type) {
+		return versionStore.read(buff, slotOffset, offset, type, txNum, snapshotTs);
+	}
+
+	@Override
+	public void beforeModifySlot(Buffer buff, int slotOffset, int slotSize) {
+		// do nothing
+	}
+
+	@Override
+	public byte[] readSlotImage(Buffer buff, int slotOffset) {
+		return versionStore.readImage(buff.block(), slotOffset, txNum, snapshotTs);
+	}
+
+	@Override
+	public void beforeModifySlot(Buffer buff, int slotOffset, byte[] image) {
+		// do nothing
+	}
+
+	@Override
+	public boolean readsSnapshot() {
+		return true;
+	}
+
+	@Override
+	public void modifyIndex(String dataFileName) {
+		// do nothing
+	}
+
+	@Override
+	public void readIndex(String dataFileName) {
+		// do nothing
+	}
+
+	@Override
+	public void modifyLeafBlock(BlockId blk) {
+		// do nothing
+	}
+
+	@Override
+	public void readLeafBlock(BlockId blk) {
+		// do nothing
+	}
+
+	@Override
+	public void lockDeclared(Set<?> readSet, Set<?> writeSet) {
+		// do nothing
+	}
+
+	@Override
+	public void lockRecordFileHeader(BlockId blk) {
+		// do nothing
+	}
+
+	@Override
+	public void releaseRecordFileHeader(BlockId blk) {
+		// do nothing
+	}
+}
@@ -15,11 +15,74 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.concurrency;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.util.CoreProperties;
 
+/**
+ * The concurrency manager for serializable transactions.
+ * 
+ * <p>
+ * Record locks are escalated to coarser locks when a transaction accesses
+ * many records. Once a transaction holds more than
+ * {@link #BLOCK_ESCALATION_THRESHOLD} record locks in a block, they are
+ * replaced by a slock on the block, or an xlock if any of the records is
+ * modified. Likewise, once it holds more than
+ * {@link #FILE_ESCALATION_THRESHOLD} record and block locks in a file, they
+ * are replaced by an slock or an xlock on the file. The coarser lock is
+ * acquired before the finer ones are released, and the intention locks on
+ * the ancestors are kept, so the multi-granularity protocol still holds. A
+ * non-positive threshold disables that level of escalation.
+ * </p>
+ * 
+ * <p>
+ * A sequential scan slocks each block it reads at once instead of escalating
+ * the record locks one by one. The block lock also keeps other transactions
+ * from inserting into the block, so the scan sees no phantoms.
+ * </p>
+ */
 public class SerializableConcurrencyMgr extends ConcurrencyMgr {
+	public static final int BLOCK_ESCALATION_THRESHOLD, FILE_ESCALATION_THRESHOLD;
+	private static final int NONE = -1;
+
+	static {
+		BLOCK_ESCALATION_THRESHOLD = CoreProperties.getLoader().getPropertyAsInteger(
+				SerializableConcurrencyMgr.class.getName() + ".BLOCK_ESCALATION_THRESHOLD", 64);
+		FILE_ESCALATION_THRESHOLD = CoreProperties.getLoader().getPropertyAsInteger(
+				SerializableConcurrencyMgr.class.getName() + ".FILE_ESCALATION_THRESHOLD", 1024);
+	}
+
+	/*
+	 * The record locks held in a block, until they are escalated.
+	 */
+	private static class BlockLocks {
+		Set<RecordId> sLocked = new HashSet<RecordId>(), xLocked = new HashSet<RecordId>();
+		int escalated = NONE;
+
+		int lockCount() {
+			return escalated == NONE ? sLocked.size() + xLocked.size() : 1;
+		}
+	}
+
+	/*
+	 * The number of record and block locks held in a file, until they are
+	 * escalated.
+	 */
+	private static class FileLocks {
+		int lockCount;
+		boolean modified;
+		int escalated = NONE;
+	}
+
+	private Map<BlockId, BlockLocks> blockLocks = new HashMap<BlockId, BlockLocks>();
+	private Map<String, FileLocks> fileLocks = new HashMap<String, FileLocks>();
 
 	public SerializableConcurrencyMgr(long txNumber) {
 		txNum = txNumber;
@@ -27,12 +90,16 @@ public class SerializableConcurrencyMgr extends ConcurrencyMgr {
 
 	@Override
 	public void onTxCommit(Transaction tx) {
+		commitVersions();
 		lockTbl.releaseAll(txNum, false);
+		clearEscalationStates();
 	}
 
 	@Override
 	public void onTxRollback(Transaction tx) {
+		abortVersions();
 		lockTbl.releaseAll(txNum, false);
+		clearEscalationStates();
 	}
 
 	@Override
@@ -70,16 +137,70 @@ public class SerializableConcurrencyMgr extends ConcurrencyMgr {
 	
 	@Override
 	public void modifyRecord(RecordId recId) {
-		lockTbl.ixLock(recId.block().fileName(), txNum);
-		lockTbl.ixLock(recId.block(), txNum);
+		BlockId blk = recId.block();
+		String fileName = blk.fileName();
+		FileLocks fl = getFileLocks(fileName);
+		if (fl.escalated == LockTable.X_LOCK)
+			return;
+		if (fl.escalated == LockTable.S_LOCK) {
+			lockTbl.xLock(fileName, txNum);
+			fl.escalated = LockTable.X_LOCK;
+			return;
+		}
+
+		fl.modified = true;
+		lockTbl.ixLock(fileName, txNum);
+		BlockLocks bl = getBlockLocks(blk);
+		if (bl.escalated == LockTable.X_LOCK)
+			return;
+		if (bl.escalated == LockTable.S_LOCK) {
+			lockTbl.xLock(blk, txNum);
+			bl.escalated = LockTable.X_LOCK;
+			return;
+		}
+
+		lockTbl.ixLock(blk, txNum);
 		lockTbl.xLock(recId, txNum);
+		if (bl.xLocked.add(recId) && !bl.sLocked.contains(recId))
+			recordLocked(fl, blk, bl);
 	}
 
 	@Override
 	public void readRecord(RecordId recId) {
-		lockTbl.isLock(recId.block().fileName(), txNum);
-		lockTbl.isLock(recId.block(), txNum);
+		BlockId blk = recId.block();
+		String fileName = blk.fileName();
+		FileLocks fl = getFileLocks(fileName);
+		if (fl.escalated != NONE)
+			return;
+
+		lockTbl.isLock(fileName, txNum);
+		BlockLocks bl = getBlockLocks(blk);
+		if (bl.escalated != NONE)
+			return;
+
+		lockTbl.isLock(blk, txNum);
 		lockTbl.sLock(recId, txNum);
+		if (bl.sLocked.add(recId) && !bl.xLocked.contains(recId))
+			recordLocked(fl, blk, bl);
+	}
+
+	@Override
+	public boolean scanBlock(BlockId blk) {
+		String fileName = blk.fileName();
+		FileLocks fl = getFileLocks(fileName);
+		if (fl.escalated != NONE)
+			return true;
+
+		lockTbl.isLock(fileName, txNum);
+		BlockLocks bl = getBlockLocks(blk);
+		if (bl.escalated == NONE) {
+			fl.lockCount -= bl.lockCount();
+			escalateToBlock(blk, bl);
+			fl.lockCount += bl.lockCount();
+			if (FILE_ESCALATION_THRESHOLD > 0 && fl.lockCount > FILE_ESCALATION_THRESHOLD)
+				escalateToFile(fileName, fl);
+		}
+		return true;
 	}
 
 	@Override
@@ -91,4 +212,90 @@ public class SerializableConcurrencyMgr extends ConcurrencyMgr {
 	public void readIndex(String dataFileName) {
 		lockTbl.isLock(dataFileName, txNum);
 	}
+
+	private FileLocks getFileLocks(String fileName) {
+		FileLocks fl = fileLocks.get(fileName);
+		if (fl == null) {
+			fl = new FileLocks();
+			fileLocks.put(fileName, fl);
+		}
+		return fl;
+	}
+
+	private BlockLocks getBlockLocks(BlockId blk) {
+		BlockLocks bl = blockLocks.get(blk);
+		if (bl == null) {
+			bl = new BlockLocks();
+			blockLocks.put(blk, bl);
+		}
+		return bl;
+	}
+
+	/*
+	 * Counts a new record lock, and escalates the locks if there are too many
+	 * in the block or in the file.
+	 */
+	private void recordLocked(FileLocks fl, BlockId blk, BlockLocks bl) {
+		fl.lockCount++;
+		if (BLOCK_ESCALATION_THRESHOLD > 0 && bl.lockCount() > BLOCK_ESCALATION_THRESHOLD) {
+			fl.lockCount -= bl.lockCount();
+			escalateToBlock(blk, bl);
+			fl.lockCount += bl.lockCount();
+		}
+		if (FILE_ESCALATION_THRESHOLD > 0 && fl.lockCount > FILE_ESCALATION_THRESHOLD)
+			escalateToFile(blk.fileName(), fl);
+	}
+
+	private void escalateToBlock(BlockId blk, BlockLocks bl) {
+		if (bl.xLocked.isEmpty()) {
+			lockTbl.sLock(blk, txNum);
+			bl.escalated = LockTable.S_LOCK;
+		} else {
+			lockTbl.xLock(blk, txNum);
+			bl.escalated = LockTable.X_LOCK;
+		}
+		releaseRecordLocks(bl);
+	}
+
+	private void escalateToFile(String fileName, FileLocks fl) {
+		if (fl.modified) {
+			lockTbl.xLock(fileName, txNum);
+			fl.escalated = LockTable.X_LOCK;
+		} else {
+			lockTbl.sLock(fileName, txNum);
+			fl.escalated = LockTable.S_LOCK;
+		}
+
+		// Release the locks of the blocks in the file, but keep the ones not
+		// acquired for records
+		Iterator<Map.Entry<BlockId, BlockLocks>> iter = blockLocks.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<BlockId, BlockLocks> entry = iter.next();
+			BlockId blk = entry.getKey();
+			if (!blk.fileName().equals(fileName))
+				continue;
+			BlockLocks bl = entry.getValue();
+			releaseRecordLocks(bl);
+			if (bl.escalated != NONE)
+				lockTbl.release(blk, txNum, bl.escalated);
+			lockTbl.release(blk, txNum, LockTable.IS_LOCK);
+			lockTbl.release(blk, txNum, LockTable.IX_LOCK);
+			iter.remove();
+		}
+		fl.lockCount = 1;
+	}
+
+	private void releaseRecordLocks(BlockLocks bl) {
+		for (RecordId recId : bl.sLocked)
+			lockTbl.release(recId, txNum, LockTable.S_LOCK);
+		for (RecordId recId : bl.xLocked)
+			lockTbl.release(recId, txNum, LockTable.X_LOCK);
+		bl.sLocked.clear();
+		bl.xLocked.clear();
+	}
+
+	private void clearEscalationStates() {
+		blockLocks.clear();
+		fileLocks.clear();
+	}
 }
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * The concurrency manager for snapshot isolation. It can be plugged in for
+ * any isolation level through the {@code *_CONCUR_MGR} properties of
+ * {@link org.vanilladb.core.storage.tx.TransactionMgr}.
+ * 
+ * <p>
+ * A transaction takes its snapshot when it is created, and reads records as
+ * of the snapshot from the {@link VersionStore}, so reading records never
+ * takes locks and never waits for writers. Writers still lock the records
+ * they modify, and a writer modifying a record already modified by a
+ * transaction committed after its snapshot is aborted. The old versions are
+ * removed in the background by {@link VersionGcTask}.
+ * </p>
+ * 
+ * <p>
+ * Only records are versioned. An index returns the latest committed
+ * entries, which may point to a slot that is empty in the snapshot or miss a
+ * record the snapshot sees, so the planners never read records through the
+ * indexes under snapshot isolation and scan the tables instead. A writer
+ * still maintains the indexes under their locks. The scans of a file do not
+ * block the transactions inserting into it.
+ * </p>
+ */
+public class SnapshotIsolationConcurrencyMgr extends ConcurrencyMgr {
+	private long snapshotTs;
+
+	public SnapshotIsolationConcurrencyMgr(long txNumber) {
+		txNum = txNumber;
+		snapshotTs = versionStore.beginSnapshot(txNum);
+	}
+
+	@Override
+	public void onTxCommit(Transaction tx) {
+		// Make the changes visible before other writers can lock the records
+		commitVersions();
+		versionStore.endSnapshot(txNum);
+		lockTbl.releaseAll(txNum, false);
+	}
+
+	@Override
+	public void onTxRollback(Transaction tx) {
+		abortVersions();
+		versionStore.endSnapshot(txNum);
+		lockTbl.releaseAll(txNum, false);
+	}
+
+	@Override
+	public void onTxEndStatement(Transaction tx) {
+		// do nothing
+	}
+
+	@Override
+	public void modifyFile(String fileName) {
+		lockTbl.xLock(fileName, txNum);
+	}
+
+	@Override
+	public void readFile(String fileName) {
+		// do nothing
+	}
+
+	@Override
+	public void insertBlock(BlockId blk) {
+		lockTbl.xLock(blk.fileName(), txNum);
+		lockTbl.xLock(blk, txNum);
+	}
+
+	@Override
+	public void modifyBlock(BlockId blk) {
+		lockTbl.ixLock(blk.fileName(), txNum);
+		lockTbl.xLock(blk, txNum);
+	}
+
+	@Override
+	public void readBlock(BlockId blk) {
+		// do nothing
+	}
+
+	@Override
+	public void modifyRecord(RecordId recId) {
+		lockTbl.ixLock(recId.block().fileName(), txNum);
+		lockTbl.ixLock(recId.block(), txNum);
+		lockTbl.xLock(recId, txNum);
+	}
+
+	@Override
+	public void readRecord(RecordId recId) {
+		// do nothing
+	}
+
+	@Override
+	public Constant readValue(Buffer buff, int slotOffset, int slotSize, int offset, Type type) {
+		return versionStore.read(buff, slotOffset, offset, type, txNum, snapshotTs);
+	}
+
+	@Override
+	public void beforeModifySlot(Buffer buff, int slotOffset, int slotSize) {
+		versionStore.beforeModify(buff, slotOffset, slotSize, versionWriter(), snapshotTs);
+	}
+
+	@Override
+	public byte[] readSlotImage(Buffer buff, int slotOffset) {
+		return versionStore.readImage(buff.block(), slotOffset, txNum, snapshotTs);
+	}
+
+	@Override
+	public void beforeModifySlot(Buffer buff, int slotOffset, byte[] image) {
+		versionStore.beforeModify(buff.block(), slotOffset, image, versionWriter(), snapshotTs);
+	}
+
+	@Override
+	public boolean readsSnapshot() {
+		return true;
+	}
+
+	@Override
+	public void modifyIndex(String dataFileName) {
+		lockTbl.ixLock(dataFileName, txNum);
+	}
+
+	@Override
+	public void readIndex(String dataFileName) {
+		lockTbl.isLock(dataFileName, txNum);
+	}
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The task periodically removes the record versions which no active snapshot
+ * can see from the version store shared by the concurrency managers.
+ */
+public class VersionGcTask extends Task {
+	private static Logger logger = Logger.getLogger(VersionGcTask.class.getName());
+
+	private static final long PERIOD;
+
+	static {
+		PERIOD = CoreProperties.getLoader().getPropertyAsLong(
+				VersionGcTask.class.getName() + ".PERIOD", 1000);
+	}
+
+	private VersionStore versionStore;
+
+	public VersionGcTask() {
+		this(ConcurrencyMgr.versionStore);
+	}
+
+	VersionGcTask(VersionStore versionStore) {
+		this.versionStore = versionStore;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(PERIOD);
+				int removed = versionStore.collectGarbage();
+				if (removed > 0 && logger.isLoggable(Level.FINE))
+					logger.fine("version gc removed " + removed + " versions");
+			} catch (InterruptedException e) {
+				if (logger.isLoggable(Level.WARNING))
+					logger.warning("version gc is interrupted");
+				return;
+			} catch (RuntimeException e) {
+				// Keep collecting even if a round fails
+				if (logger.isLoggable(Level.WARNING))
+					logger.log(Level.WARNING, "version gc failed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.file.Page;
+import org.vanilladb.core.util.ByteHelper;
+
+/**
+ * The store of the old versions of record slots, used by snapshot isolation.
+ * 
+ * <p>
+ * Before a transaction modifies a record slot for the first time, the bytes
+ * of the slot are saved as a version. The versions of a slot are chained
+ * from the newest to the oldest, so a transaction reads a slot as of its
+ * snapshot by skipping the versions written by the transactions it cannot
+ * see and taking the before-image of the oldest one skipped. The versions no
+ * active snapshot needs are removed by {@link #collectGarbage()}.
+ * </p>
+ */
+class VersionStore {
+	static final long UNCOMMITTED = Long.MAX_VALUE;
+
+	/*
+	 * A transaction writing versions. The commit timestamp is assigned when
+	 * it commits.
+	 */
+	static class Writer {
+		final long txNum;
+		volatile long commitTs = UNCOMMITTED;
+		volatile boolean aborted;
+
+		Writer(long txNum) {
+			this.txNum = txNum;
+		}
+	}
+
+	private static class Version {
+		final Writer writer;
+		final byte[] image;
+		Version older;
+
+		Version(Writer writer, byte[] image, Version older) {
+			this.writer = writer;
+			this.image = image;
+			this.older = older;
+		}
+	}
+
+	/*
+	 * The version chains of the slots in a block, keyed by the offsets of the
+	 * slots. A removed object is no longer in the store and should not be
+	 * used to add versions.
+	 */
+	private static class BlockVersions {
+		Map<Integer, Version> chains = new HashMap<Integer, Version>();
+		boolean removed;
+	}
+
+	private final ConcurrentMap<BlockId, BlockVersions> blockVersions = new ConcurrentHashMap<BlockId, BlockVersions>();
+	private final Map<Long, Long> activeSnapshots = new HashMap<Long, Long>();
+	private final Object clockLock = new Object();
+	private long clock;
+
+	/**
+	 * Takes a snapshot for the specified transaction. The snapshot includes
+	 * the changes of all transactions committed so far.
+	 * 
+	 * @param txNum
+	 *            the number of the transaction
+	 * @return the timestamp of the snapshot
+	 */
+	long beginSnapshot(long txNum) {
+		synchronized (clockLock) {
+			activeSnapshots.put(txNum, clock);
+			return clock;
+		}
+	}
+
+	/**
+	 * Ends the snapshot of the specified transaction, so the versions it
+	 * needs can be removed.
+	 * 
+	 * @param txNum
+	 *            the number of the transaction
+	 */
+	void endSnapshot(long txNum) {
+		synchronized (clockLock) {
+			activeSnapshots.remove(txNum);
+		}
+	}
+
+	/**
+	 * Assigns a commit timestamp to the writer, which makes its versions
+	 * visible to the snapshots taken afterwards. It must be called before the
+	 * writer releases its locks.
+	 * 
+	 * @param writer
+	 *            the committing writer
+	 */
+	void commit(Writer writer) {
+		synchronized (clockLock) {
+			writer.commitTs = ++clock;
+		}
+	}
+
+	/**
+	 * Marks the writer as aborted. It must be called after the modifications
+	 * of the writer are undone.
+	 * 
+	 * @param writer
+	 *            the aborted writer
+	 */
+	void abort(Writer writer) {
+		writer.aborted = true;
+	}
+
+	/**
+	 * Saves the current bytes of the specified slot as a version before the
+	 * writer modifies the slot, unless the writer has done so. The writer
+	 * must hold the exclusive lock of the record. If the slot has been
+	 * modified by a transaction committed after the writer's snapshot, the
+	 * writer is aborted, so the first updater wins. A writer without a
+	 * snapshot passes {@link #UNCOMMITTED} as its snapshot timestamp.
+	 * 
+	 * @param buff
+	 *            the buffer holding the slot
+	 * @param slotOffset
+	 *            the offset of the slot
+	 * @param slotSize
+	 *            the size of the slot
+	 * @param writer
+	 *            the modifying writer
+	 * @param snapshotTs
+	 *            the snapshot timestamp of the writer
+	 */
+	void beforeModify(Buffer buff, int slotOffset, int slotSize, Writer writer, long snapshotTs) {
+		beforeModify(buff.block(), slotOffset, buff, slotSize, null, writer, snapshotTs);
+	}
+
+	/**
+	 * Saves the specified image as a version of the slot before the writer
+	 * modifies the slot, unless the writer has done so. It is used by the
+	 * slots whose image is not a range of bytes in the page, and works like
+	 * {@link #beforeModify(Buffer, int, int, Writer, long)} otherwise.
+	 * 
+	 * @param blk
+	 *            the block holding the slot
+	 * @param slotOffset
+	 *            the offset of the slot
+	 * @param image
+	 *            the current image of the slot
+	 * @param writer
+	 *            the modifying writer
+	 * @param snapshotTs
+	 *            the snapshot timestamp of the writer
+	 */
+	void beforeModify(BlockId blk, int slotOffset, byte[] image, Writer writer, long snapshotTs) {
+		beforeModify(blk, slotOffset, null, 0, image, writer, snapshotTs);
+	}
+
+	/**
+	 * Returns the image of the specified slot as of the snapshot of the
+	 * reader, or null if the reader sees the current contents of the slot.
+	 * The caller should read the current contents before calling this
+	 * method.
+	 * 
+	 * @param blk
+	 *            the block holding the slot
+	 * @param slotOffset
+	 *            the offset of the slot
+	 * @param txNum
+	 *            the number of the reading transaction
+	 * @param snapshotTs
+	 *            the snapshot timestamp of the reader
+	 * @return the image of the slot, or null
+	 */
+	byte[] readImage(BlockId blk, int slotOffset, long txNum, long snapshotTs) {
+		Version invisible = oldestInvisible(blk, slotOffset, txNum, snapshotTs);
+		return invisible == null ? null : invisible.image;
+	}
+
+	/*
+	 * The image of the slot is copied from the buffer if it is not given, so
+	 * it is copied only when a version is added.
+	 */
+	private void beforeModify(BlockId blk, int slotOffset, Buffer buff, int slotSize, byte[] image,
+			Writer writer, long snapshotTs) {
+		while (true) {
+			BlockVersions bv = blockVersions.get(blk);
+			if (bv == null) {
+				bv = new BlockVersions();
+				BlockVersions old = blockVersions.putIfAbsent(blk, bv);
+				if (old != null)
+					bv = old;
+			}
+			synchronized (bv) {
+				// Retry if the object is removed by the garbage collector
+				if (bv.removed)
+					continue;
+
+				Version head = bv.chains.get(slotOffset);
+				Version last = head;
+				while (last != null && last.writer.aborted)
+					last = last.older;
+				if (last != null) {
+					if (last.writer == writer)
+						return;
+					if (last.writer.commitTs > snapshotTs)
+						throw new LockAbortException();
+				}
+				if (image == null)
+					image = buff.getBytes(slotOffset, slotSize);
+				bv.chains.put(slotOffset, new Version(writer, image, head));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of a field in the specified slot as of the snapshot
+	 * of the reader.
+	 * 
+	 * @param buff
+	 *            the buffer holding the slot
+	 * @param slotOffset
+	 *            the offset of the slot
+	 * @param offset
+	 *            the offset of the field
+	 * @param type
+	 *            the type of the field
+	 * @param txNum
+	 *            the number of the reading transaction
+	 * @param snapshotTs
+	 *            the snapshot timestamp of the reader
+	 * @return the value of the field
+	 */
+	Constant read(Buffer buff, int slotOffset, int offset, Type type, long txNum, long snapshotTs) {
+		// Read the buffer before the versions, so a modification made in
+		// between always leaves its before-image in the chain. The bytes are
+		// decoded later since they are meaningless if the record is invisible.
+		byte[] current = buff.getBytes(offset, Page.maxSize(type));
+		Version invisible = oldestInvisible(buff.block(), slotOffset, txNum, snapshotTs);
+		if (invisible == null)
+			return decode(current, 0, type);
+		return decode(invisible.image, offset - slotOffset, type);
+	}
+
+	/*
+	 * Returns the oldest version of the slot written by the transactions the
+	 * reader cannot see, whose image is what the reader should see.
+	 */
+	private Version oldestInvisible(BlockId blk, int slotOffset, long txNum, long snapshotTs) {
+		BlockVersions bv = blockVersions.get(blk);
+		if (bv == null)
+			return null;
+
+		Version invisible = null;
+		synchronized (bv) {
+			for (Version v = bv.chains.get(slotOffset); v != null; v = v.older) {
+				if (isVisible(v.writer, txNum, snapshotTs))
+					break;
+				invisible = v;
+			}
+		}
+		return invisible;
+	}
+
+	/**
+	 * Removes the versions that no active snapshot needs, including the ones
+	 * written by aborted transactions.
+	 * 
+	 * @return the number of versions removed
+	 */
+	int collectGarbage() {
+		long minTs;
+		synchronized (clockLock) {
+			minTs = clock;
+			for (Long ts : activeSnapshots.values())
+				minTs = Math.min(minTs, ts);
+		}
+
+		int removedCount = 0;
+		for (Map.Entry<BlockId, BlockVersions> entry : blockVersions.entrySet()) {
+			BlockVersions bv = entry.getValue();
+			synchronized (bv) {
+				Iterator<Map.Entry<Integer, Version>> iter = bv.chains.entrySet().iterator();
+				while (iter.hasNext()) {
+					Map.Entry<Integer, Version> chain = iter.next();
+					Version newer = null;
+					Version v = chain.getValue();
+					while (v != null) {
+						Writer w = v.writer;
+						// Every snapshot sees a version committed before the
+						// oldest snapshot, so the older ones are never read
+						if (w.aborted || w.commitTs <= minTs) {
+							Version next = w.aborted ? v.older : null;
+							removedCount += w.aborted ? 1 : chainLength(v);
+							if (newer == null)
+								chain.setValue(next);
+							else
+								newer.older = next;
+							v = next;
+						} else {
+							newer = v;
+							v = v.older;
+						}
+					}
+					if (chain.getValue() == null)
+						iter.remove();
+				}
+				if (bv.chains.isEmpty()) {
+					bv.removed = true;
+					blockVersions.remove(entry.getKey(), bv);
+				}
+			}
+		}
+		return removedCount;
+	}
+
+	/**
+	 * Returns the number of versions in the store.
+	 * 
+	 * @return the number of versions
+	 */
+	int versionCount() {
+		int count = 0;
+		for (BlockVersions bv : blockVersions.values()) {
+			synchronized (bv) {
+				for (Version v : bv.chains.values())
+					count += chainLength(v);
+			}
+		}
+		return count;
+	}
+
+	private static boolean isVisible(Writer writer, long txNum, long snapshotTs) {
+		if (writer.txNum == txNum)
+			return true;
+		return !writer.aborted && writer.commitTs <= snapshotTs;
+	}
+
+	private static int chainLength(Version v) {
+		int length = 0;
+		for (; v != null; v = v.older)
+			length++;
+		return length;
+	}
+
+	/*
+	 * Decodes a value in the same format as the page stores it.
+	 */
+	private static Constant decode(byte[] image, int pos, Type type) {
+		int size;
+		if (type.isFixedSize()) {
+			size = type.maxSize();
+		} else {
+			size = ByteHelper.toInteger(Arrays.copyOfRange(image, pos, pos + ByteHelper.INT_SIZE));
+			pos += ByteHelper.INT_SIZE;
+		}
+		return Constant.newInstance(type, Arrays.copyOfRange(image, pos, pos + size));
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import org.vanilladb.core.storage.log.BasicLogRecord;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * The log record marking the beginning of a fuzzy checkpoint. The tables of
+ * the checkpoint are written later in a {@link CheckpointRecord}, which
+ * refers back to this record.
+ */
+class CheckpointBeginRecord implements LogRecord {
+	private LogSeqNum lsn;
+
+	/**
+	 * Creates a new begin checkpoint record.
+	 */
+	public CheckpointBeginRecord() {
+		this.lsn = null;
+	}
+
+	/**
+	 * Creates a log record by reading no other values from the basic log
+	 * record.
+	 * 
+	 * @param rec
+	 *            the basic log record
+	 */
+	public CheckpointBeginRecord(BasicLogRecord rec) {
+		LogRecordDecoder dec = new LogRecordDecoder(rec);
+		lsn = dec.lsn();
+	}
+
+	/**
+	 * Writes a begin checkpoint record to the log. This log record contains
+	 * only the {@link LogRecord#OP_CHECKPOINT_BEGIN} operator ID.
+	 * 
+	 * @return the LSN of the log record
+	 */
+	@Override
+	public LogSeqNum writeToLog() {
+		return LogRecordEncoder.begin(op()).append();
+	}
+
+	@Override
+	public int op() {
+		return OP_CHECKPOINT_BEGIN;
+	}
+
+	/**
+	 * Checkpoint records have no associated transaction, and so the method
+	 * returns a "dummy", negative txid.
+	 */
+	@Override
+	public long txNumber() {
+		return -1; // dummy value
+	}
+
+	/**
+	 * Does nothing, because a checkpoint record contains no undo information.
+	 */
+	@Override
+	public void undo(Transaction tx) {
+		// do nothing
+	}
+
+	/**
+	 * Does nothing, because a checkpoint record contains no redo information.
+	 */
+	@Override
+	public void redo(Transaction tx) {
+		// do nothing
+	}
+
+	@Override
+	public String toString() {
+		return "<BEGIN CKPT>";
+	}
+
+	@Override
+	public LogSeqNum getLSN() {
+		return lsn;
+	}
+}
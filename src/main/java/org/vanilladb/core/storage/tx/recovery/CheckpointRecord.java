@@ -15,68 +15,98 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-import static org.vanilladb.core.sql.Type.INTEGER;
-
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
-import org.vanilladb.core.sql.BigIntConstant;
-import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 
 /**
- * The checkpoint log record.
+ * The checkpoint log record. A fuzzy checkpoint record ends the checkpoint
+ * started by a {@link CheckpointBeginRecord}, and holds the transactions which
+ * were active and the pages which were dirty during the checkpoint, together
+ * with the LSNs from which the pages must be redone.
  */
 class CheckpointRecord implements LogRecord {
+	private LogSeqNum beginLsn;
 	private List<Long> txNums;
+	private Map<BlockId, LogSeqNum> dirtyPages;
 	private LogSeqNum lsn;
+
 	/**
-	 * Creates a quiescent checkpoint record.
+	 * Creates a quiescent checkpoint record. All the modified pages must have
+	 * been flushed, and no transaction may be running.
 	 */
 	public CheckpointRecord() {
 		this.txNums = new ArrayList<Long>();
+		this.dirtyPages = new HashMap<BlockId, LogSeqNum>();
 	}
 
 	/**
-	 * Creates a non-quiescent checkpoint record.
+	 * Creates a fuzzy checkpoint record.
+	 * 
+	 * @param beginLsn
+	 *            the LSN of the begin record of the checkpoint
+	 * @param txNums
+	 *            the transactions which were active during the checkpoint
+	 * @param dirtyPages
+	 *            the dirty pages and their recovery LSNs
 	 */
-	public CheckpointRecord(List<Long> txNums) {
+	public CheckpointRecord(LogSeqNum beginLsn, List<Long> txNums, Map<BlockId, LogSeqNum> dirtyPages) {
+		this.beginLsn = beginLsn;
 		this.txNums = txNums;
-		
+		this.dirtyPages = dirtyPages;
 	}
 
 	/**
-	 * Creates a log record by reading no other values from the basic log
-	 * record.
+	 * Creates a log record by reading the tables of the checkpoint from the
+	 * basic log record.
 	 * 
 	 * @param rec
 	 *            the basic log record
 	 */
 	public CheckpointRecord(BasicLogRecord rec) {
-		int txCount = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		this.lsn = rec.getLSN();
-		this.txNums = new ArrayList<Long>();
-		for (int i = 0; i < txCount; i++) {
-			txNums.add((Long) rec.nextVal(BIGINT).asJavaVal());
+		LogRecordDecoder dec = new LogRecordDecoder(rec);
+		this.lsn = dec.lsn();
+		if (dec.readBoolean())
+			this.beginLsn = dec.readLsn();
+		int txCount = dec.readInt();
+		this.txNums = new ArrayList<Long>(txCount);
+		for (int i = 0; i < txCount; i++)
+			txNums.add(dec.readLong());
+		int pageCount = dec.readInt();
+		this.dirtyPages = new LinkedHashMap<BlockId, LogSeqNum>();
+		for (int i = 0; i < pageCount; i++) {
+			BlockId blk = dec.readBlockId();
+			dirtyPages.put(blk, dec.readLsn());
 		}
 	}
 
 	/**
 	 * Writes a checkpoint record to the log. This log record contains the
-	 * {@link LogRecord#OP_CHECKPOINT} operator ID, number of active transctions
-	 * during checkpointing and a list of active transaction ids.
+	 * {@link LogRecord#OP_CHECKPOINT} operator ID, the LSN of the begin record
+	 * (if any), the active transaction ids, and the dirty page table.
 	 * 
 	 * @return the LSN of the log record
 	 */
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		LogRecordEncoder enc = LogRecordEncoder.begin(op()).writeBoolean(beginLsn != null);
+		if (beginLsn != null)
+			enc.writeLsn(beginLsn);
+		enc.writeInt(txNums.size());
+		for (Long txNum : txNums)
+			enc.writeLong(txNum);
+		enc.writeInt(dirtyPages.size());
+		for (Entry<BlockId, LogSeqNum> page : dirtyPages.entrySet())
+			enc.writeBlockId(page.getKey()).writeLsn(page.getValue());
+		return enc.append();
 	}
 
 	@Override
@@ -113,14 +143,10 @@ class CheckpointRecord implements LogRecord {
 	@Override
 	public String toString() {
 		StringBuffer strbuf = new StringBuffer("<NQCKPT ");
-		
-		for (Long l : txNums) {
-			strbuf.append(l + ",");
-		}
-		
-		if (txNums.size() > 0)
-			strbuf.delete(strbuf.length() - 1, strbuf.length());
-		
+		if (beginLsn != null)
+			strbuf.append(beginLsn + " ");
+		strbuf.append(txNums + " ");
+		strbuf.append(dirtyPages);
 		return strbuf.toString() + ">";
 	}
 
@@ -132,15 +158,21 @@ class CheckpointRecord implements LogRecord {
 		return this.txNums.contains(txNum);
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new IntegerConstant(txNums.size()));
-		int recLength = txNums.size();
-		for (int i = 0; i < recLength; i++)
-			rec.add(new BigIntConstant(txNums.get(i)));
-		return rec;
+	/**
+	 * Returns the LSN from which the history should be repeated after a
+	 * crash, which is the smallest recovery LSN of the dirty pages or the
+	 * beginning of the checkpoint. A quiescent checkpoint returns its own LSN.
+	 * 
+	 * @return the LSN to start redo from
+	 */
+	public LogSeqNum redoLsn() {
+		if (beginLsn == null)
+			return lsn;
+		LogSeqNum redoLsn = beginLsn;
+		for (LogSeqNum recLsn : dirtyPages.values())
+			if (recLsn.compareTo(redoLsn) < 0)
+				redoLsn = recLsn;
+		return redoLsn;
 	}
 
 	@Override
@@ -25,7 +25,9 @@ import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.util.CoreProperties;
 
 /**
- * The task performs non-quiescent checkpointing.
+ * The task performs fuzzy checkpointing. Other transactions keep running
+ * while a checkpoint is taken, and the pages dirtied before the checkpoint
+ * are written back incrementally afterwards.
  */
 public class CheckpointTask extends Task {
 	private static Logger logger = Logger.getLogger(CheckpointTask.class
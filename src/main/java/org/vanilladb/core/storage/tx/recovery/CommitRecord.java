@@ -15,14 +15,6 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-
-import java.util.LinkedList;
-import java.util.List;
-
-import org.vanilladb.core.sql.BigIntConstant;
-import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
@@ -51,8 +43,9 @@ class CommitRecord implements LogRecord {
 	 *            the basic log record
 	 */
 	public CommitRecord(BasicLogRecord rec) {
-		txNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		lsn = rec.getLSN();
+		LogRecordDecoder dec = new LogRecordDecoder(rec);
+		txNum = dec.readLong();
+		lsn = dec.lsn();
 	}
 
 	/**
@@ -63,8 +56,7 @@ class CommitRecord implements LogRecord {
 	 */
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return LogRecordEncoder.begin(op()).writeLong(txNum).append();
 	}
 
 	@Override
@@ -98,13 +90,6 @@ class CommitRecord implements LogRecord {
 		return "<COMMIT " + txNum + ">";
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new BigIntConstant(txNum));
-		return rec;
-	}
 	@Override
 	public LogSeqNum getLSN() {
 		return lsn;
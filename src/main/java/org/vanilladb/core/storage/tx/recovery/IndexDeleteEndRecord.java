@@ -15,20 +15,11 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-import static org.vanilladb.core.sql.Type.INTEGER;
-import static org.vanilladb.core.sql.Type.VARCHAR;
-
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import org.vanilladb.core.server.VanillaDb;
-import org.vanilladb.core.sql.BigIntConstant;
 import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.Type;
-import org.vanilladb.core.sql.VarcharConstant;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.index.Index;
 import org.vanilladb.core.storage.log.BasicLogRecord;
@@ -41,6 +32,9 @@ public class IndexDeleteEndRecord extends LogicalEndRecord implements LogRecord
 	private long txNum, recordBlockNum;
 	private String tblName, fldName;
 	private Constant searchKey;
+	// The search key read from the log is created when it is needed
+	private int keyType;
+	private byte[] keyBytes;
 	private int recordSlotId;
 	private LogSeqNum lsn;
 
@@ -50,6 +44,7 @@ public class IndexDeleteEndRecord extends LogicalEndRecord implements LogRecord
 		this.tblName = tblName;
 		this.fldName = fldName;
 		this.searchKey = searchKey;
+		this.keyType = searchKey.getType().getSqlType();
 		this.recordBlockNum = recordBlockNum;
 		this.recordSlotId = recordSlotId;
 		super.logicalStartLSN = logicalStartLSN;
@@ -58,22 +53,23 @@ public class IndexDeleteEndRecord extends LogicalEndRecord implements LogRecord
 	}
 
 	public IndexDeleteEndRecord(BasicLogRecord rec) {
-		txNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		tblName = (String) rec.nextVal(VARCHAR).asJavaVal();
-		fldName = (String) rec.nextVal(VARCHAR).asJavaVal();
-		int keyType = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		searchKey = rec.nextVal(Type.newInstance(keyType));
-		recordBlockNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		recordSlotId = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		super.logicalStartLSN = new LogSeqNum((Long) rec.nextVal(BIGINT).asJavaVal(),
-				(Long) rec.nextVal(BIGINT).asJavaVal());
-		lsn = rec.getLSN();
+		LogRecordDecoder dec = new LogRecordDecoder(rec);
+		txNum = dec.readLong();
+		tblName = dec.readString();
+		fldName = dec.readString();
+		keyType = dec.readInt();
+		keyBytes = dec.readBytes();
+		recordBlockNum = dec.readLong();
+		recordSlotId = dec.readInt();
+		super.logicalStartLSN = dec.readLsn();
+		lsn = dec.lsn();
 	}
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return LogRecordEncoder.begin(op()).writeLong(txNum).writeString(tblName).writeString(fldName)
+				.writeInt(keyType).writeBytes(searchKey.asBytes()).writeLong(recordBlockNum)
+				.writeInt(recordSlotId).writeLsn(logicalStartLSN).append();
 	}
 
 	@Override
@@ -95,7 +91,7 @@ public class IndexDeleteEndRecord extends LogicalEndRecord implements LogRecord
 		IndexInfo ii = iiMap.get(fldName);
 		if (ii != null) {
 			Index idx = ii.open(tx);
-			idx.insert(searchKey, rid, false);
+			idx.insert(searchKey(), rid, false);
 			idx.close();
 		}
 		// Append a Logical Abort log at the end of the LogRecords
@@ -118,24 +114,14 @@ public class IndexDeleteEndRecord extends LogicalEndRecord implements LogRecord
 
 	@Override
 	public String toString() {
-		return "<INDEX DELETE END " + txNum + " " + tblName + " " + fldName + " " + searchKey.getType().getSqlType()
+		return "<INDEX DELETE END " + txNum + " " + tblName + " " + fldName + " " + keyType
 				+ " " + recordBlockNum + " " + recordSlotId + " " + super.logicalStartLSN + ">";
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new BigIntConstant(txNum));
-		rec.add(new VarcharConstant(tblName));
-		rec.add(new VarcharConstant(fldName));
-		rec.add(new IntegerConstant(searchKey.getType().getSqlType()));
-		rec.add(searchKey);
-		rec.add(new BigIntConstant(recordBlockNum));
-		rec.add(new IntegerConstant(recordSlotId));
-		rec.add(new BigIntConstant(super.logicalStartLSN.blkNum()));
-		rec.add(new BigIntConstant(super.logicalStartLSN.offset()));
-		return rec;
+	private Constant searchKey() {
+		if (searchKey == null)
+			searchKey = Constant.newInstance(Type.newInstance(keyType), keyBytes);
+		return searchKey;
 	}
 
 	@Override
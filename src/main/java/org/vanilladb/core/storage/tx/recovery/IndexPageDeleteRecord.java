@@ -15,19 +15,8 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-import static org.vanilladb.core.sql.Type.INTEGER;
-import static org.vanilladb.core.sql.Type.VARCHAR;
-
-import java.util.LinkedList;
-import java.util.List;
-
 import org.vanilladb.core.server.VanillaDb;
-import org.vanilladb.core.sql.BigIntConstant;
-import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.Type;
-import org.vanilladb.core.sql.VarcharConstant;
 import org.vanilladb.core.storage.buffer.Buffer;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.index.btree.BTreeDir;
@@ -36,7 +25,7 @@ import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 
-public class IndexPageDeleteRecord implements LogRecord {
+public class IndexPageDeleteRecord implements LogRecord, PageLogRecord {
 	private long txNum;
 	private BlockId indexBlkId;
 	private int slotId;
@@ -54,21 +43,23 @@ public class IndexPageDeleteRecord implements LogRecord {
 	}
 
 	public IndexPageDeleteRecord(BasicLogRecord rec) {
-		txNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		isDirPage = (Integer) rec.nextVal(INTEGER).asJavaVal() == 1;
-		keyType = Type.newInstance((Integer) rec.nextVal(INTEGER).asJavaVal());
-		String fileName = (String) rec.nextVal(VARCHAR).asJavaVal();
-		long blkNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		indexBlkId = new BlockId(fileName, blkNum);
-		slotId = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		lsn = rec.getLSN();
+		this(new LogRecordDecoder(rec));
+	}
+
+	IndexPageDeleteRecord(LogRecordDecoder dec) {
+		txNum = dec.readLong();
+		isDirPage = dec.readBoolean();
+		keyType = Type.newInstance(dec.readInt());
+		indexBlkId = dec.readBlockId();
+		slotId = dec.readInt();
+		lsn = dec.lsn();
 	}
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
-
+		LogRecordEncoder enc = LogRecordEncoder.begin(op());
+		encode(enc);
+		return enc.append();
 	}
 
 	@Override
@@ -137,18 +128,15 @@ public class IndexPageDeleteRecord implements LogRecord {
 				+ slotId + ">";
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new BigIntConstant(txNum));
-		// Covert Boolean into int
-		rec.add(new IntegerConstant(isDirPage ? 1 : 0));
-		rec.add(new IntegerConstant(keyType.getSqlType()));
-		rec.add(new VarcharConstant(indexBlkId.fileName()));
-		rec.add(new BigIntConstant(indexBlkId.number()));
-		rec.add(new IntegerConstant(slotId));
-		return rec;
+	/**
+	 * Writes the fields of this record.
+	 * 
+	 * @param enc
+	 *            the encoder of the record
+	 */
+	void encode(LogRecordEncoder enc) {
+		enc.writeLong(txNum).writeBoolean(isDirPage).writeInt(keyType.getSqlType()).writeBlockId(indexBlkId)
+				.writeInt(slotId);
 	}
 
 	@Override
@@ -157,4 +145,9 @@ public class IndexPageDeleteRecord implements LogRecord {
 		return lsn;
 	}
 
+	@Override
+	public BlockId getBlockId() {
+		return indexBlkId;
+	}
+
 }
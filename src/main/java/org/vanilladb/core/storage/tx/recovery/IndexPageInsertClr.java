@@ -15,13 +15,6 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-
-import java.util.List;
-
-import org.vanilladb.core.sql.BigIntConstant;
-import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.log.BasicLogRecord;
@@ -39,8 +32,12 @@ public class IndexPageInsertClr extends IndexPageInsertRecord implements Compesa
 	}
 
 	public IndexPageInsertClr(BasicLogRecord rec) {
-		super(rec);
-		undoNextLSN = new LogSeqNum((Long) rec.nextVal(BIGINT).asJavaVal(), (Long) rec.nextVal(BIGINT).asJavaVal());
+		this(new LogRecordDecoder(rec));
+	}
+
+	IndexPageInsertClr(LogRecordDecoder dec) {
+		super(dec);
+		undoNextLSN = dec.readLsn();
 	}
 
 	@Override
@@ -69,12 +66,9 @@ public class IndexPageInsertClr extends IndexPageInsertRecord implements Compesa
 	}
 
 	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = super.buildRecord();
-		rec.set(0, new IntegerConstant(op()));
-		rec.add(new BigIntConstant(undoNextLSN.blkNum()));
-		rec.add(new BigIntConstant(undoNextLSN.offset()));
-		return rec;
+	void encode(LogRecordEncoder enc) {
+		super.encode(enc);
+		enc.writeLsn(undoNextLSN);
 	}
 
 }
@@ -17,6 +17,7 @@ package org.vanilladb.core.storage.tx.recovery;
 
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_CHECKPOINT;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_CHECKPOINT_BEGIN;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_COMMIT;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_FILE_DELETE_END;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_FILE_INSERT_END;
@@ -30,6 +31,8 @@ import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_RECORD_FILE_DE
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_RECORD_FILE_INSERT_END;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_ROLLBACK;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_VALUE;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_SLOT;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_SLOT_CLR;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_VALUE_CLR;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_START;
 
@@ -69,6 +72,10 @@ public class LogReader {
 			if (hasNextBlock()) {
 				moveToNextBlock();
 
+				// Skip the empty blocks before the first block of a rebuilt log
+				while (!hasRecordInCurrentBlock() && hasNextBlock())
+					moveToNextBlock();
+
 				if (hasRecordInCurrentBlock())
 					return nextRecord();
 				else
@@ -93,8 +100,10 @@ public class LogReader {
 	}
 
 	private LogRecord readRecord(BasicLogRecord rec) {
-		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
+		int op = rec.nextInt();
 		switch (op) {
+		case OP_CHECKPOINT_BEGIN:
+			return new CheckpointBeginRecord(rec);
 		case OP_CHECKPOINT:
 			return new CheckpointRecord(rec);
 		case OP_START:
@@ -127,6 +136,10 @@ public class LogReader {
 			return new IndexPageInsertClr(rec);
 		case OP_INDEX_PAGE_DELETE_CLR:
 			return new IndexPageDeleteClr(rec);
+		case OP_SET_SLOT:
+			return new SetSlotRecord(rec);
+		case OP_SET_SLOT_CLR:
+			return new SetSlotClr(rec);
 		default:
 			return null;
 		}
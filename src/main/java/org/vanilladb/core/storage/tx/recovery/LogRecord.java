@@ -15,37 +15,29 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import java.util.List;
-
 import org.vanilladb.core.server.VanillaDb;
-import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.storage.log.LogMgr;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 
 /**
- * The interface to be implemented by each type of log record.
+ * The interface to be implemented by each type of log record. A log record
+ * is written in the binary format of {@link LogRecordEncoder}, and read back
+ * through {@link LogRecordDecoder}.
  */
 public interface LogRecord {
 	/**
 	 * @see LogRecord#op()
 	 */
-	static final int OP_CHECKPOINT = -41, OP_START = -42, OP_COMMIT = -43, OP_ROLLBACK = -44, OP_INDEX_INSERT = -45,
+	static final int OP_CHECKPOINT_BEGIN = -40, OP_CHECKPOINT = -41, OP_START = -42, OP_COMMIT = -43, OP_ROLLBACK = -44, OP_INDEX_INSERT = -45,
 			OP_INDEX_DELETE = -46, OP_LOGICAL_START = -61, OP_SET_VALUE = -62, OP_LOGICAL_ABORT = -77,
 			OP_RECORD_FILE_INSERT_END = -71, OP_RECORD_FILE_DELETE_END = -72, OP_INDEX_FILE_INSERT_END = -73,
 			OP_INDEX_FILE_DELETE_END = -74, OP_INDEX_PAGE_INSERT = -75, OP_INDEX_PAGE_DELETE = -76,
-			OP_SET_VALUE_CLR = -78, OP_INDEX_PAGE_INSERT_CLR = -79, OP_INDEX_PAGE_DELETE_CLR = -80;
+			OP_SET_VALUE_CLR = -78, OP_INDEX_PAGE_INSERT_CLR = -79, OP_INDEX_PAGE_DELETE_CLR = -80,
+			OP_SET_SLOT = -81, OP_SET_SLOT_CLR = -82;
 
 	static LogMgr logMgr = VanillaDb.logMgr();
 
-	/**
-	 * Build the constants for the physical log record and return them as a
-	 * list.
-	 * 
-	 * @return a list containing the constants for a log record
-	 */
-	List<Constant> buildRecord();
-
 	/**
 	 * Writes the record to the log and returns its LSN.
 	 * 
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.BasicLogRecord;
+import org.vanilladb.core.storage.log.LogSeqNum;
+
+/**
+ * Reads the fields of a log record written by {@link LogRecordEncoder}. The
+ * payload of the record is copied out of the log page at once, and the
+ * fields are decoded from it in the order they were written. The values
+ * kept as raw bytes are turned into constants only when a record needs them.
+ */
+class LogRecordDecoder {
+	private byte[] payload;
+	private int pos;
+	private LogSeqNum lsn;
+
+	/**
+	 * Creates a decoder for the specified record, whose operation ID has
+	 * already been read.
+	 * 
+	 * @param rec
+	 *            the basic log record
+	 */
+	LogRecordDecoder(BasicLogRecord rec) {
+		payload = rec.nextBytes();
+		lsn = rec.getLSN();
+	}
+
+	LogSeqNum lsn() {
+		return lsn;
+	}
+
+	long readLong() {
+		long zigzag = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = payload[pos++];
+			zigzag |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	int readInt() {
+		return (int) readLong();
+	}
+
+	boolean readBoolean() {
+		return payload[pos++] != 0;
+	}
+
+	byte[] readBytes() {
+		int length = readInt();
+		byte[] bytes = new byte[length];
+		System.arraycopy(payload, pos, bytes, 0, length);
+		pos += length;
+		return bytes;
+	}
+
+	String readString() {
+		int length = readInt();
+		String val = new String(payload, pos, length, LogRecordEncoder.CHAR_SET);
+		pos += length;
+		return val;
+	}
+
+	BlockId readBlockId() {
+		String fileName = readString();
+		return new BlockId(fileName, readLong());
+	}
+
+	LogSeqNum readLsn() {
+		long blkNum = readLong();
+		return new LogSeqNum(blkNum, readLong());
+	}
+}
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import static java.sql.Types.BIGINT;
+import static java.sql.Types.DOUBLE;
+import static java.sql.Types.INTEGER;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VarcharType;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.util.ByteHelper;
+
+/**
+ * Serializes a log record into the binary log record format and appends it to
+ * the log. A record consists of a fixed header, which is the operation ID and
+ * the length of the payload as two 4-byte integers, followed by the payload.
+ * In the payload, integers are written as variable-length zig-zag integers,
+ * and strings and values as their lengths followed by the raw bytes. See
+ * {@link LogRecordDecoder} for reading a record back.
+ * 
+ * <p>
+ * Each thread reuses its own encoder, so writing a log record creates no
+ * {@link Constant}s and no buffers. Values are copied straight from the pages
+ * or constants into the encoder, and the encoded names of the files are
+ * cached.
+ * </p>
+ */
+class LogRecordEncoder {
+	static final int HEADER_SIZE = ByteHelper.INT_SIZE * 2;
+	static final Charset CHAR_SET = Charset.forName(VarcharType.CHAR_SET);
+
+	// Varchars in UTF-8 are encoded by the encoder itself
+	private static final boolean UTF8_VARCHAR = CHAR_SET.equals(StandardCharsets.UTF_8);
+	private static final int MAX_CACHED_FILE_NAMES = 1024;
+
+	private static final ThreadLocal<LogRecordEncoder> encoders = new ThreadLocal<LogRecordEncoder>() {
+		@Override
+		protected LogRecordEncoder initialValue() {
+			return new LogRecordEncoder();
+		}
+	};
+
+	/**
+	 * Returns the encoder of the calling thread, which starts a new record
+	 * with the specified operation ID.
+	 * 
+	 * @param op
+	 *            the operation ID of the record
+	 * @return the encoder
+	 */
+	static LogRecordEncoder begin(int op) {
+		LogRecordEncoder encoder = encoders.get();
+		encoder.pos = 0;
+		encoder.putInt(op);
+		encoder.pos = HEADER_SIZE;
+		return encoder;
+	}
+
+	private byte[] buf = new byte[256];
+	private int pos;
+	private Map<String, byte[]> fileNames = new HashMap<String, byte[]>();
+
+	private LogRecordEncoder() {
+	}
+
+	LogRecordEncoder writeLong(long val) {
+		ensureCapacity(10);
+		long zigzag = (val << 1) ^ (val >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		buf[pos++] = (byte) zigzag;
+		return this;
+	}
+
+	LogRecordEncoder writeInt(int val) {
+		return writeLong(val);
+	}
+
+	LogRecordEncoder writeBoolean(boolean val) {
+		ensureCapacity(1);
+		buf[pos++] = (byte) (val ? 1 : 0);
+		return this;
+	}
+
+	LogRecordEncoder writeBytes(byte[] bytes) {
+		writeInt(bytes.length);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buf, pos, bytes.length);
+		pos += bytes.length;
+		return this;
+	}
+
+	LogRecordEncoder writeString(String val) {
+		return writeBytes(val.getBytes(CHAR_SET));
+	}
+
+	/**
+	 * Writes the serialized bytes of the value at the specified offset of the
+	 * page in the buffer, copying them from the page directly.
+	 * 
+	 * @param buff
+	 *            the buffer
+	 * @param offset
+	 *            the offset of the value in the page
+	 * @param type
+	 *            the type of the value
+	 * @return this encoder
+	 */
+	LogRecordEncoder writeVal(Buffer buff, int offset, Type type) {
+		int size = buff.getValSize(offset, type);
+		writeInt(size);
+		ensureCapacity(size);
+		pos += buff.getValBytes(offset, type, buf, pos);
+		return this;
+	}
+
+	/**
+	 * Writes the serialized bytes of the specified constant, which are the
+	 * same as {@link Constant#asBytes()}.
+	 * 
+	 * @param val
+	 *            the constant
+	 * @return this encoder
+	 */
+	LogRecordEncoder writeVal(Constant val) {
+		switch (val.getType().getSqlType()) {
+		case INTEGER:
+			writeInt(ByteHelper.INT_SIZE);
+			ensureCapacity(ByteHelper.INT_SIZE);
+			putInt((Integer) val.asJavaVal());
+			return this;
+		case BIGINT:
+			writeInt(ByteHelper.LONG_SIZE);
+			ensureCapacity(ByteHelper.LONG_SIZE);
+			putLong((Long) val.asJavaVal());
+			return this;
+		case DOUBLE:
+			writeInt(ByteHelper.LONG_SIZE);
+			ensureCapacity(ByteHelper.LONG_SIZE);
+			putLong(Double.doubleToRawLongBits((Double) val.asJavaVal()));
+			return this;
+		default:
+			if (UTF8_VARCHAR && val.asJavaVal() instanceof String)
+				return writeUtf8((String) val.asJavaVal());
+			return writeBytes(val.asBytes());
+		}
+	}
+
+	LogRecordEncoder writeBlockId(BlockId blk) {
+		byte[] name = fileNames.get(blk.fileName());
+		if (name == null) {
+			if (fileNames.size() >= MAX_CACHED_FILE_NAMES)
+				fileNames.clear();
+			name = blk.fileName().getBytes(CHAR_SET);
+			fileNames.put(blk.fileName(), name);
+		}
+		return writeBytes(name).writeLong(blk.number());
+	}
+
+	LogRecordEncoder writeLsn(LogSeqNum lsn) {
+		return writeLong(lsn.blkNum()).writeLong(lsn.offset());
+	}
+
+	/**
+	 * Fills in the header of the record, and appends the record to the log.
+	 * 
+	 * @return the LSN of the record
+	 */
+	LogSeqNum append() {
+		int end = pos;
+		pos = ByteHelper.INT_SIZE;
+		putInt(end - HEADER_SIZE);
+		return VanillaDb.logMgr().append(buf, end);
+	}
+
+	private void putInt(int val) {
+		for (int i = 0; i < ByteHelper.INT_SIZE; i++)
+			buf[pos++] = (byte) (val >> (ByteHelper.INT_SIZE - 1 - i) * 8);
+	}
+
+	private void putLong(long val) {
+		for (int i = 0; i < ByteHelper.LONG_SIZE; i++)
+			buf[pos++] = (byte) (val >> (ByteHelper.LONG_SIZE - 1 - i) * 8);
+	}
+
+	/**
+	 * Writes the string in UTF-8, producing the same bytes as
+	 * {@link String#getBytes(Charset)}, which replaces an unpaired surrogate
+	 * with '?'.
+	 */
+	private LogRecordEncoder writeUtf8(String val) {
+		int len = val.length(), size = 0;
+		for (int i = 0; i < len; i++) {
+			char c = val.charAt(i);
+			if (c < 0x80)
+				size += 1;
+			else if (c < 0x800)
+				size += 2;
+			else if (Character.isHighSurrogate(c) && i + 1 < len
+					&& Character.isLowSurrogate(val.charAt(i + 1))) {
+				size += 4;
+				i++;
+			} else if (Character.isSurrogate(c))
+				size += 1;
+			else
+				size += 3;
+		}
+
+		writeInt(size);
+		ensureCapacity(size);
+		for (int i = 0; i < len; i++) {
+			char c = val.charAt(i);
+			if (c < 0x80) {
+				buf[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len
+					&& Character.isLowSurrogate(val.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, val.charAt(++i));
+				buf[pos++] = (byte) (0xF0 | (cp >> 18));
+				buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buf[pos++] = (byte) '?';
+			} else {
+				buf[pos++] = (byte) (0xE0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return this;
+	}
+
+	private void ensureCapacity(int size) {
+		if (pos + size > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + size));
+	}
+}
@@ -15,8 +15,8 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_CHECKPOINT;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_CHECKPOINT_BEGIN;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_COMMIT;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_FILE_DELETE_END;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_FILE_INSERT_END;
@@ -30,6 +30,8 @@ import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_RECORD_FILE_DE
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_RECORD_FILE_INSERT_END;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_ROLLBACK;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_VALUE;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_SLOT;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_SLOT_CLR;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_VALUE_CLR;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_START;
 
@@ -62,8 +64,10 @@ class LogRecordIterator implements ReversibleIterator<LogRecord> {
 	@Override
 	public LogRecord next() {
 		BasicLogRecord rec = iter.next();
-		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
+		int op = rec.nextInt();
 		switch (op) {
+		case OP_CHECKPOINT_BEGIN:
+			return new CheckpointBeginRecord(rec);
 		case OP_CHECKPOINT:
 			return new CheckpointRecord(rec);
 		case OP_START:
@@ -96,6 +100,10 @@ class LogRecordIterator implements ReversibleIterator<LogRecord> {
 			return new IndexPageInsertClr(rec);
 		case OP_INDEX_PAGE_DELETE_CLR:
 			return new IndexPageDeleteClr(rec);
+		case OP_SET_SLOT:
+			return new SetSlotRecord(rec);
+		case OP_SET_SLOT_CLR:
+			return new SetSlotClr(rec);
 		default:
 			throw new UnsupportedOperationException();
 		}
@@ -114,8 +122,10 @@ class LogRecordIterator implements ReversibleIterator<LogRecord> {
 	@Override
 	public LogRecord previous() {
 		BasicLogRecord rec = iter.previous();
-		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
+		int op = rec.nextInt();
 		switch (op) {
+		case OP_CHECKPOINT_BEGIN:
+			return new CheckpointBeginRecord(rec);
 		case OP_CHECKPOINT:
 			return new CheckpointRecord(rec);
 		case OP_START:
@@ -148,6 +158,10 @@ class LogRecordIterator implements ReversibleIterator<LogRecord> {
 			return new IndexPageInsertClr(rec);
 		case OP_INDEX_PAGE_DELETE_CLR:
 			return new IndexPageDeleteClr(rec);
+		case OP_SET_SLOT:
+			return new SetSlotRecord(rec);
+		case OP_SET_SLOT_CLR:
+			return new SetSlotClr(rec);
 		default:
 			throw new UnsupportedOperationException();
 		}
@@ -15,14 +15,6 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-
-import java.util.LinkedList;
-import java.util.List;
-
-import org.vanilladb.core.sql.BigIntConstant;
-import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
@@ -38,16 +30,15 @@ public class LogicalAbortRecord extends LogicalEndRecord implements LogRecord {
 	}
 
 	public LogicalAbortRecord(BasicLogRecord rec) {
-		txNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		super.logicalStartLSN = new LogSeqNum((Long) rec.nextVal(BIGINT).asJavaVal(),
-				(Long) rec.nextVal(BIGINT).asJavaVal());
-		lsn = rec.getLSN();
+		LogRecordDecoder dec = new LogRecordDecoder(rec);
+		txNum = dec.readLong();
+		super.logicalStartLSN = dec.readLsn();
+		lsn = dec.lsn();
 	}
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return LogRecordEncoder.begin(op()).writeLong(txNum).writeLsn(logicalStartLSN).append();
 	}
 
 	@Override
@@ -85,16 +76,6 @@ public class LogicalAbortRecord extends LogicalEndRecord implements LogRecord {
 		return "<LOGICAL ABORT " + txNum + " " + logicalStartLSN + ">";
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new BigIntConstant(txNum));
-		rec.add(new BigIntConstant(super.logicalStartLSN.blkNum()));
-		rec.add(new BigIntConstant(super.logicalStartLSN.offset()));
-		return rec;
-	}
-
 	@Override
 	public LogSeqNum getLSN() {
 
@@ -15,15 +15,7 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-
-import java.util.LinkedList;
-import java.util.List;
-
 import org.vanilladb.core.server.VanillaDb;
-import org.vanilladb.core.sql.BigIntConstant;
-import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
@@ -38,8 +30,9 @@ public class LogicalStartRecord implements LogRecord {
 	}
 
 	public LogicalStartRecord(BasicLogRecord rec) {
-		this.txNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		lsn = rec.getLSN();
+		LogRecordDecoder dec = new LogRecordDecoder(rec);
+		txNum = dec.readLong();
+		lsn = dec.lsn();
 	}
 
 	/**
@@ -53,8 +46,7 @@ public class LogicalStartRecord implements LogRecord {
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return LogRecordEncoder.begin(op()).writeLong(txNum).append();
 	}
 
 	@Override
@@ -94,11 +86,4 @@ public class LogicalStartRecord implements LogRecord {
 		return "<LOGICAL START " + txNum + ">";
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new BigIntConstant(txNum));
-		return rec;
-	}
 }
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import org.vanilladb.core.storage.file.BlockId;
+
+/**
+ * A log record describing a modification to a single page. The records of
+ * different pages can be redone independently of each other.
+ */
+interface PageLogRecord {
+
+	/**
+	 * Returns the block modified by this log record.
+	 * 
+	 * @return the id of the modified block
+	 */
+	BlockId getBlockId();
+}
@@ -15,18 +15,7 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-import static org.vanilladb.core.sql.Type.INTEGER;
-import static org.vanilladb.core.sql.Type.VARCHAR;
-
-import java.util.LinkedList;
-import java.util.List;
-
 import org.vanilladb.core.server.VanillaDb;
-import org.vanilladb.core.sql.BigIntConstant;
-import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
-import org.vanilladb.core.sql.VarcharConstant;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
@@ -51,19 +40,19 @@ public class RecordFileDeleteEndRecord extends LogicalEndRecord implements LogRe
 	}
 
 	public RecordFileDeleteEndRecord(BasicLogRecord rec) {
-		txNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		tblName = (String) rec.nextVal(VARCHAR).asJavaVal();
-		blkNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		slotId = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		super.logicalStartLSN = new LogSeqNum((Long) rec.nextVal(BIGINT).asJavaVal(),
-				(Long) rec.nextVal(BIGINT).asJavaVal());
-		lsn = rec.getLSN();
+		LogRecordDecoder dec = new LogRecordDecoder(rec);
+		txNum = dec.readLong();
+		tblName = dec.readString();
+		blkNum = dec.readLong();
+		slotId = dec.readInt();
+		super.logicalStartLSN = dec.readLsn();
+		lsn = dec.lsn();
 	}
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return LogRecordEncoder.begin(op()).writeLong(txNum).writeString(tblName).writeLong(blkNum)
+				.writeInt(slotId).writeLsn(logicalStartLSN).append();
 	}
 
 	@Override
@@ -109,19 +98,6 @@ public class RecordFileDeleteEndRecord extends LogicalEndRecord implements LogRe
 		return "<RECORD FILE DELETE END " + txNum + " " + tblName + " " + blkNum + " " + slotId + " " + lsn + ">";
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new BigIntConstant(txNum));
-		rec.add(new VarcharConstant(tblName));
-		rec.add(new BigIntConstant(blkNum));
-		rec.add(new IntegerConstant(slotId));
-		rec.add(new BigIntConstant(super.logicalStartLSN.blkNum()));
-		rec.add(new BigIntConstant(super.logicalStartLSN.offset()));
-		return rec;
-	}
-
 	@Override
 	public LogSeqNum getLSN() {
 
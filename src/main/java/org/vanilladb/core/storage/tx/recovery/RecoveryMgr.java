@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
@@ -32,14 +33,27 @@ import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.buffer.Buffer;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.record.SlottedRecordPage;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * The recovery manager. Each transaction has its own recovery manager.
  */
 public class RecoveryMgr implements TransactionLifecycleListener {
 
+	/**
+	 * The number of threads replaying the log records in the redo phase. The
+	 * records are redone sequentially by the recovering thread if it is 1.
+	 */
+	public static final int REDO_THREADS;
+
+	static {
+		REDO_THREADS = CoreProperties.getLoader().getPropertyAsInteger(
+				RecoveryMgr.class.getName() + ".REDO_THREADS", 4);
+	}
+
 	private static boolean enableLogging = true;
 
 	public static void enableLogging(boolean log) {
@@ -91,7 +105,7 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	public void onTxCommit(Transaction tx) {
 		if (!tx.isReadOnly() && enableLogging) {
 			LogSeqNum lsn = new CommitRecord(txNum).writeToLog();
-			VanillaDb.logMgr().flush(lsn);
+			VanillaDb.logMgr().groupFlush(lsn);
 		}
 	}
 
@@ -104,7 +118,7 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 		if (!tx.isReadOnly() && enableLogging) {
 			doRollback(tx);
 			LogSeqNum lsn = new RollbackRecord(txNum).writeToLog();
-			VanillaDb.logMgr().flush(lsn);
+			VanillaDb.logMgr().groupFlush(lsn);
 		}
 	}
 
@@ -114,15 +128,29 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	}
 
 	/**
-	 * Writes a checkpoint record to the log.
+	 * Writes the begin record of a fuzzy checkpoint to the log.
 	 * 
+	 * @return the LSN of the log record
+	 */
+	public LogSeqNum beginCheckpoint() {
+		return new CheckpointBeginRecord().writeToLog();
+	}
+
+	/**
+	 * Writes a checkpoint record, which ends the checkpoint started at the
+	 * specified LSN, to the log.
+	 * 
+	 * @param beginLsn
+	 *            the LSN of the begin record of the checkpoint
 	 * @param txNums
 	 *            the transactions that are being executed when writing the
 	 *            checkpoint.
+	 * @param dirtyPages
+	 *            the dirty pages and the LSNs from which they must be redone
 	 * @return the LSN of the log record.
 	 */
-	public LogSeqNum checkpoint(List<Long> txNums) {
-		return new CheckpointRecord(txNums).writeToLog();
+	public LogSeqNum checkpoint(LogSeqNum beginLsn, List<Long> txNums, Map<BlockId, LogSeqNum> dirtyPages) {
+		return new CheckpointRecord(beginLsn, txNums, dirtyPages).writeToLog();
 	}
 
 	/**
@@ -141,8 +169,36 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 			BlockId blk = buff.block();
 			if (isTempBlock(blk))
 				return null;
-			return new SetValueRecord(txNum, blk, offset, buff.getVal(offset,
-					newVal.getType()), newVal).writeToLog();
+			return SetValueRecord.writeToLog(txNum, buff, offset, newVal);
+		} else
+			return null;
+	}
+
+	/**
+	 * Writes a set slot record to the log.
+	 * 
+	 * @param buff
+	 *            the buffer containing the slotted page
+	 * @param slot
+	 *            the ID of the slot
+	 * @param oldFlag
+	 *            the flag of the slot before the modification
+	 * @param oldContent
+	 *            the content of the slot before the modification
+	 * @param newFlag
+	 *            the flag of the slot after the modification
+	 * @param newContent
+	 *            the content of the slot after the modification
+	 * @return the LSN of the log record, or null if updates to temporary files
+	 */
+	public LogSeqNum logSetSlot(Buffer buff, int slot, int oldFlag, byte[] oldContent,
+			int newFlag, byte[] newContent) {
+		if (enableLogging) {
+			BlockId blk = buff.block();
+			if (isTempBlock(blk))
+				return null;
+			return new SetSlotRecord(txNum, blk, slot, oldFlag, oldContent, newFlag,
+					newContent).writeToLog();
 		} else
 			return null;
 	}
@@ -272,8 +328,20 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 			BlockId blk = buff.block();
 			if (isTempBlock(blk))
 				return null;
-			return new SetValueClr(compTxNum, blk, offset, buff.getVal(offset,
-					newVal.getType()), newVal, undoNextLSN).writeToLog();
+			return SetValueClr.writeToLog(compTxNum, buff, offset, newVal, undoNextLSN);
+		} else
+			return null;
+	}
+
+	public LogSeqNum logSetSlotClr(long compTxNum, Buffer buff, int slot, int newFlag,
+			byte[] newContent, LogSeqNum undoNextLSN) {
+		if (enableLogging) {
+			BlockId blk = buff.block();
+			if (isTempBlock(blk))
+				return null;
+			return new SetSlotClr(compTxNum, blk, slot, SlottedRecordPage.slotFlag(buff, slot),
+					SlottedRecordPage.slotContent(buff, slot), newFlag, newContent,
+					undoNextLSN).writeToLog();
 		} else
 			return null;
 	}
@@ -348,64 +416,21 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	}
 
 	/**
-	 * Does a complete database recovery. The method iterates through the log
-	 * records. Whenever it finds a log record for an unfinished transaction, it
-	 * calls {@link LogRecord#undo(Transaction)} on that record. The method
-	 * stops iterating forward when it encounters a CHECKPOINT record and finds
-	 * all the transactions which were executing when the checkpoint took place,
-	 * or when the end of the log is reached. The method then iterates backward
-	 * and redoes all finished transactions. TODO fix comments...
+	 * Does a complete database recovery. The method first analyzes the log
+	 * backward to the redo point of the latest checkpoint, finding the
+	 * transactions which did not finish. It then repeats the history from the
+	 * redo point to the end of the log, and finally calls
+	 * {@link LogRecord#undo(Transaction)} on the log records of the unfinished
+	 * transactions.
 	 */
 	private void doRecover(Transaction tx) {
-		Set<Long> finishedTxs = new HashSet<Long>();
-		Set<Long> unCompletedTxs = new HashSet<Long>();
-
-		List<Long> txsOnCheckpointing = null;
 		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
-		/*
-		 * analyze phase: Find the earliest unfinished txNum
-		 */
-		// analyze phase
-		while (iter.hasNext()) {
-			LogRecord rec = iter.next();
+		Set<Long> unCompletedTxs = analyze(iter);
 
-			int op = rec.op();
-			if (op == OP_CHECKPOINT) {
-				// Since we flush all dirtyPage at checkpoint, therefore no need
-				// to find the start record of active txNum
-				txsOnCheckpointing = ((CheckpointRecord) rec).activeTxNums();
-				for (long acTxn : txsOnCheckpointing) {
-					// txNum give us info of possible unFinshedTxs,
-					// Check if those weren't in finishedTxs, and add it to the
-					// uncompletedTxs
-					if (!finishedTxs.contains(acTxn))
-						unCompletedTxs.add(acTxn);
-				}
-				// Start Redo From checkpoint
-				break;
-			}
-
-			if (op == OP_COMMIT) {
-				finishedTxs.add(rec.txNumber());
-			} else if (op == OP_ROLLBACK) {
-				finishedTxs.add(rec.txNumber());
-			} else if (op == OP_START && !finishedTxs.contains(rec.txNumber())) {
-				unCompletedTxs.add(rec.txNumber());
-			}
-
-		}
-
-		finishedTxs = null;
 		/*
 		 * redo phase: Repeating History
 		 */
-
-		while (iter.hasPrevious()) {
-			LogRecord rec = iter.previous();
-
-			rec.redo(tx);
-
-		}
+		redo(iter, tx);
 
 		// remove the recovery tx from unCompletedTxs set
 		unCompletedTxs.remove(tx.getTransactionNumber());
@@ -420,9 +445,13 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 			LogRecord rec = iter.next();
 
 			int op = rec.op();
-			if (!unCompletedTxs.contains(rec.txNumber()) || op == OP_COMMIT
-					|| op == OP_ROLLBACK)
+			if (!unCompletedTxs.contains(rec.txNumber()))
+				continue;
+			// A fuzzy checkpoint may list a transaction finishing during it
+			if (op == OP_COMMIT || op == OP_ROLLBACK) {
+				unCompletedTxs.remove(rec.txNumber());
 				continue;
+			}
 			/*
 			 * Use UnDoNextLSN to skip unnecessary physical record which have
 			 * been redo its undo by CLR or records have been rolled back
@@ -472,27 +501,34 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 		}
 	}
 
-	private void doPartialRecover(Transaction tx, int stepsInUndo) {
+	/**
+	 * The analysis phase. It iterates backward through the log records until
+	 * it reaches the redo point of the latest checkpoint, which is the smallest
+	 * recovery LSN in its dirty page table, or the beginning of the log if
+	 * there is no checkpoint. The iterator is left at the redo point.
+	 * 
+	 * @param iter
+	 *            the iterator positioned at the end of the log
+	 * @return the transactions which were not finished
+	 */
+	private Set<Long> analyze(ReversibleIterator<LogRecord> iter) {
 		Set<Long> finishedTxs = new HashSet<Long>();
 		Set<Long> unCompletedTxs = new HashSet<Long>();
+		LogSeqNum redoLsn = null;
 
-		List<Long> txsOnCheckpointing = null;
-		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
-		/*
-		 * analyze phase: Find the earliest unfinished txNum
-		 */
 		while (iter.hasNext()) {
 			LogRecord rec = iter.next();
 
 			int op = rec.op();
-			if (op == OP_CHECKPOINT) {
-				txsOnCheckpointing = ((CheckpointRecord) rec).activeTxNums();
-				for (long acTxn : txsOnCheckpointing) {
-
+			if (op == OP_CHECKPOINT && redoLsn == null) {
+				CheckpointRecord ckpt = (CheckpointRecord) rec;
+				for (long acTxn : ckpt.activeTxNums()) {
+					// Check if those weren't in finishedTxs, and add it to the
+					// uncompletedTxs
 					if (!finishedTxs.contains(acTxn))
 						unCompletedTxs.add(acTxn);
 				}
-				break;
+				redoLsn = ckpt.redoLsn();
 			}
 
 			if (op == OP_COMMIT) {
@@ -503,19 +539,66 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 				unCompletedTxs.add(rec.txNumber());
 			}
 
+			// Start redo from the redo point
+			if (redoLsn != null && rec.getLSN().compareTo(redoLsn) <= 0)
+				break;
 		}
+		return unCompletedTxs;
+	}
 
-		finishedTxs = null;
-		/*
-		 * redo phase: Repeating History
-		 */
+	/**
+	 * Repeats the history from the current position of the iterator to the
+	 * end of the log. The records modifying pages are partitioned by their
+	 * blocks and handed to {@link #REDO_THREADS} workers, so the records of
+	 * different pages are replayed in parallel while the records of a page
+	 * are still replayed in the order of their LSNs.
+	 */
+	private void redo(ReversibleIterator<LogRecord> iter, Transaction tx) {
+		if (REDO_THREADS <= 1) {
+			while (iter.hasPrevious())
+				iter.previous().redo(tx);
+			return;
+		}
 
-		while (iter.hasPrevious()) {
-			LogRecord rec = iter.previous();
+		CountDownLatch doneLatch = new CountDownLatch(REDO_THREADS);
+		RedoTask[] workers = new RedoTask[REDO_THREADS];
+		for (int i = 0; i < REDO_THREADS; i++) {
+			workers[i] = new RedoTask(doneLatch);
+			VanillaDb.taskMgr().runTask(workers[i]);
+		}
 
-			rec.redo(tx);
+		try {
+			while (iter.hasPrevious()) {
+				LogRecord rec = iter.previous();
+				if (rec instanceof PageLogRecord) {
+					BlockId blk = ((PageLogRecord) rec).getBlockId();
+					workers[(blk.hashCode() & Integer.MAX_VALUE) % REDO_THREADS].add(rec);
+				} else
+					rec.redo(tx);
+			}
+		} finally {
+			for (RedoTask worker : workers)
+				worker.finish();
+		}
 
+		try {
+			doneLatch.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("interrupted while waiting for redo");
 		}
+		for (RedoTask worker : workers)
+			if (worker.failure() != null)
+				throw worker.failure();
+	}
+
+	private void doPartialRecover(Transaction tx, int stepsInUndo) {
+		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
+		Set<Long> unCompletedTxs = analyze(iter);
+
+		/*
+		 * redo phase: Repeating History
+		 */
+		redo(iter, tx);
 
 		unCompletedTxs.remove(tx.getTransactionNumber());
 
@@ -530,9 +613,13 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 			// System.out.println(rec.getLSN() + rec.toString());
 			stepsInUndo--;
 			int op = rec.op();
-			if (!unCompletedTxs.contains(rec.txNumber()) || op == OP_COMMIT
-					|| op == OP_ROLLBACK)
+			if (!unCompletedTxs.contains(rec.txNumber()))
 				continue;
+			// A fuzzy checkpoint may list a transaction finishing during it
+			if (op == OP_COMMIT || op == OP_ROLLBACK) {
+				unCompletedTxs.remove(rec.txNumber());
+				continue;
+			}
 
 			if (txUnDoNextLSN.containsKey(rec.txNumber())) {
 				if (txUnDoNextLSN.get(rec.txNumber()).compareTo(rec.getLSN()) != 1)
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * A worker of the redo phase. It replays the log records of the pages
+ * assigned to it in the order they are given, using a transaction of its
+ * own, which modifies the pages without logging.
+ */
+class RedoTask extends Task {
+	private static final int QUEUE_SIZE = 1024;
+	private static final LogRecord NO_MORE_RECORDS = new CommitRecord(-1);
+
+	private BlockingQueue<LogRecord> records = new ArrayBlockingQueue<LogRecord>(QUEUE_SIZE);
+	private CountDownLatch doneLatch;
+	private volatile RuntimeException failure;
+
+	RedoTask(CountDownLatch doneLatch) {
+		this.doneLatch = doneLatch;
+	}
+
+	/**
+	 * Hands a log record to this worker. The method blocks if the worker falls
+	 * too far behind.
+	 * 
+	 * @param rec
+	 *            the log record to be redone
+	 */
+	void add(LogRecord rec) {
+		try {
+			records.put(rec);
+		} catch (InterruptedException e) {
+			throw new RuntimeException("interrupted while dispatching log records");
+		}
+	}
+
+	/**
+	 * Tells this worker that all the log records have been handed to it.
+	 */
+	void finish() {
+		add(NO_MORE_RECORDS);
+	}
+
+	/**
+	 * Returns the exception stopping this worker, or null if it succeeded.
+	 * 
+	 * @return the failure of this worker
+	 */
+	RuntimeException failure() {
+		return failure;
+	}
+
+	@Override
+	public void run() {
+		Transaction tx = VanillaDb.txMgr().newRedoTransaction();
+		try {
+			LogRecord rec = records.take();
+			while (rec != NO_MORE_RECORDS) {
+				// Keep draining the queue after a failure, so the dispatcher
+				// never blocks
+				if (failure == null) {
+					try {
+						rec.redo(tx);
+					} catch (RuntimeException e) {
+						failure = e;
+					}
+				}
+				rec = records.take();
+			}
+		} catch (InterruptedException e) {
+			failure = new RuntimeException("redo worker is interrupted");
+		} finally {
+			tx.commit();
+			doneLatch.countDown();
+		}
+	}
+}
@@ -15,14 +15,6 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-
-import java.util.LinkedList;
-import java.util.List;
-
-import org.vanilladb.core.sql.BigIntConstant;
-import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
@@ -52,8 +44,9 @@ class RollbackRecord implements LogRecord {
 	 *            the basic log record
 	 */
 	public RollbackRecord(BasicLogRecord rec) {
-		this.txNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		lsn = rec.getLSN();
+		LogRecordDecoder dec = new LogRecordDecoder(rec);
+		txNum = dec.readLong();
+		lsn = dec.lsn();
 	}
 
 	/**
@@ -65,8 +58,7 @@ class RollbackRecord implements LogRecord {
 	 */
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return LogRecordEncoder.begin(op()).writeLong(txNum).append();
 	}
 
 	@Override
@@ -100,14 +92,6 @@ class RollbackRecord implements LogRecord {
 		return "<ROLLBACK " + txNum + ">";
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new BigIntConstant(txNum));
-		return rec;
-	}
-
 	@Override
 	public LogSeqNum getLSN() {
 
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.BasicLogRecord;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.tx.Transaction;
+
+public class SetSlotClr extends SetSlotRecord implements CompesationLogRecord {
+
+	private LogSeqNum undoNextLSN;
+
+	public SetSlotClr(long compTxNum, BlockId blk, int slot, int oldFlag, byte[] oldContent,
+			int newFlag, byte[] newContent, LogSeqNum undoNextLSN) {
+		super(compTxNum, blk, slot, oldFlag, oldContent, newFlag, newContent);
+		this.undoNextLSN = undoNextLSN;
+	}
+
+	public SetSlotClr(BasicLogRecord rec) {
+		this(new LogRecordDecoder(rec));
+	}
+
+	SetSlotClr(LogRecordDecoder dec) {
+		super(dec);
+		undoNextLSN = dec.readLsn();
+	}
+
+	@Override
+	public int op() {
+		return OP_SET_SLOT_CLR;
+	}
+
+	/**
+	 * Does nothing, because compensation log record is redo-Only
+	 */
+	@Override
+	public void undo(Transaction tx) {
+		// do nothing
+	}
+
+	@Override
+	public LogSeqNum getUndoNextLSN() {
+		return undoNextLSN;
+	}
+
+	@Override
+	public String toString() {
+		String str = super.toString();
+		return str.substring(0, str.length() - 1) + " " + undoNextLSN + ">";
+	}
+
+	@Override
+	void encode(LogRecordEncoder enc) {
+		super.encode(enc);
+		enc.writeLsn(undoNextLSN);
+	}
+}
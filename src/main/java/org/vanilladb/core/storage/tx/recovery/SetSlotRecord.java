@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.BasicLogRecord;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.record.SlottedRecordPage;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * The log record of a modification of a slot in a slotted page. It keeps the
+ * flag and content of the slot before and after the modification, and is
+ * redone and undone by the slot, so the tuples may be at different offsets
+ * from the time it was written.
+ * 
+ * @see SlottedRecordPage
+ */
+public class SetSlotRecord implements LogRecord, PageLogRecord {
+	private long txNum;
+	private BlockId blk;
+	private int slot;
+	private int oldFlag, newFlag;
+	private byte[] oldContent, newContent;
+	private LogSeqNum lsn;
+
+	/**
+	 * Creates a new set slot log record.
+	 * 
+	 * @param txNum
+	 *            the ID of the specified transaction
+	 * @param blk
+	 *            the block containing the slot
+	 * @param slot
+	 *            the ID of the slot
+	 * @param oldFlag
+	 *            the flag of the slot before the modification
+	 * @param oldContent
+	 *            the content of the slot before the modification
+	 * @param newFlag
+	 *            the flag of the slot after the modification
+	 * @param newContent
+	 *            the content of the slot after the modification
+	 */
+	public SetSlotRecord(long txNum, BlockId blk, int slot, int oldFlag, byte[] oldContent,
+			int newFlag, byte[] newContent) {
+		this.txNum = txNum;
+		this.blk = blk;
+		this.slot = slot;
+		this.oldFlag = oldFlag;
+		this.oldContent = oldContent;
+		this.newFlag = newFlag;
+		this.newContent = newContent;
+		this.lsn = null;
+	}
+
+	public SetSlotRecord(BasicLogRecord rec) {
+		this(new LogRecordDecoder(rec));
+	}
+
+	SetSlotRecord(LogRecordDecoder dec) {
+		txNum = dec.readLong();
+		blk = dec.readBlockId();
+		slot = dec.readInt();
+		oldFlag = dec.readInt();
+		oldContent = dec.readBytes();
+		newFlag = dec.readInt();
+		newContent = dec.readBytes();
+		lsn = dec.lsn();
+	}
+
+	@Override
+	public LogSeqNum writeToLog() {
+		LogRecordEncoder enc = LogRecordEncoder.begin(op());
+		encode(enc);
+		return enc.append();
+	}
+
+	@Override
+	public int op() {
+		return OP_SET_SLOT;
+	}
+
+	@Override
+	public long txNumber() {
+		return txNum;
+	}
+
+	/**
+	 * Restores the old flag and content of the slot, and logs a compensation
+	 * log record for it. The old content always fits in the slot, since the
+	 * capacity of a slot never shrinks. The record is logged and applied as
+	 * one step, so the image it logs is the one it replaces, and the page is
+	 * never flushed between the two.
+	 * 
+	 * @see LogRecord#undo(Transaction)
+	 */
+	@Override
+	public void undo(Transaction tx) {
+		Buffer buff = tx.bufferMgr().pin(blk);
+		LogSeqNum lsn;
+		buff.latchExclusive();
+		buff.lockFlushing();
+		try {
+			lsn = tx.recoveryMgr().logSetSlotClr(this.txNum, buff, slot, oldFlag, oldContent,
+					this.lsn);
+			SlottedRecordPage.setSlot(buff, slot, oldFlag, oldContent, tx.getTransactionNumber(),
+					lsn);
+		} finally {
+			buff.unlockFlushing();
+			buff.unlatchExclusive();
+		}
+		if (lsn != null)
+			VanillaDb.logMgr().flush(lsn);
+		tx.bufferMgr().unpin(buff);
+	}
+
+	/**
+	 * Writes the new flag and content to the slot, unless the last LSN of the
+	 * page shows that the page already contains the modification.
+	 * 
+	 * @see LogRecord#redo(Transaction)
+	 */
+	@Override
+	public void redo(Transaction tx) {
+		Buffer buff = tx.bufferMgr().pin(blk);
+		if (lsn.compareTo(buff.lastLsn()) > 0)
+			SlottedRecordPage.setSlot(buff, slot, newFlag, newContent, tx.getTransactionNumber(),
+					null);
+		tx.bufferMgr().unpin(buff);
+	}
+
+	@Override
+	public String toString() {
+		return "<SETSLOT " + op() + " " + txNum + " " + blk + " " + slot + " " + oldFlag + " "
+				+ oldContent.length + " " + newFlag + " " + newContent.length + ">";
+	}
+
+	/**
+	 * Writes the fields of this record.
+	 * 
+	 * @param enc
+	 *            the encoder of the record
+	 */
+	void encode(LogRecordEncoder enc) {
+		enc.writeLong(txNum).writeBlockId(blk).writeInt(slot).writeInt(oldFlag)
+				.writeBytes(oldContent).writeInt(newFlag).writeBytes(newContent);
+	}
+
+	@Override
+	public LogSeqNum getLSN() {
+		return lsn;
+	}
+
+	@Override
+	public BlockId getBlockId() {
+		return blk;
+	}
+}
@@ -15,13 +15,8 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-
-import java.util.List;
-
-import org.vanilladb.core.sql.BigIntConstant;
 import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.storage.buffer.Buffer;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
@@ -31,14 +26,42 @@ public class SetValueClr extends SetValueRecord implements CompesationLogRecord
 
 	private LogSeqNum undoNextLSN;
 
-	public SetValueClr(long compTxNum, BlockId blk, int offset, Constant val, Constant newVal, LogSeqNum undoNextLSN) {
-		super(compTxNum, blk, offset, val, newVal);
+	public SetValueClr(long compTxNum, BlockId blk, int offset, byte[] oldImage, Constant newVal,
+			LogSeqNum undoNextLSN) {
+		super(compTxNum, blk, offset, oldImage, newVal);
 		this.undoNextLSN = undoNextLSN;
 	}
 
 	public SetValueClr(BasicLogRecord rec) {
-		super(rec);
-		undoNextLSN = new LogSeqNum((Long) rec.nextVal(BIGINT).asJavaVal(), (Long) rec.nextVal(BIGINT).asJavaVal());
+		this(new LogRecordDecoder(rec));
+	}
+
+	SetValueClr(LogRecordDecoder dec) {
+		super(dec);
+		undoNextLSN = dec.readLsn();
+	}
+
+	/**
+	 * Writes a setval CLR for a compensation about to be made to the page in
+	 * the specified buffer, copying the old value from the page like
+	 * {@link SetValueRecord#writeToLog(long, Buffer, int, Constant)}.
+	 * 
+	 * @param compTxNum
+	 *            the ID of the transaction being rolled back
+	 * @param buff
+	 *            the buffer containing the value
+	 * @param offset
+	 *            the offset of the value in the page
+	 * @param newVal
+	 *            the value to be restored
+	 * @param undoNextLSN
+	 *            the LSN of the next record to be undone
+	 * @return the LSN of the log record
+	 */
+	static LogSeqNum writeToLog(long compTxNum, Buffer buff, int offset, Constant newVal,
+			LogSeqNum undoNextLSN) {
+		LogRecordEncoder enc = LogRecordEncoder.begin(OP_SET_VALUE_CLR);
+		return encode(enc, compTxNum, buff, offset, newVal).writeLsn(undoNextLSN).append();
 	}
 
 	@Override
@@ -67,11 +90,8 @@ public class SetValueClr extends SetValueRecord implements CompesationLogRecord
 	}
 
 	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = super.buildRecord();
-		rec.set(0, new IntegerConstant(op()));
-		rec.add(new BigIntConstant(undoNextLSN.blkNum()));
-		rec.add(new BigIntConstant(undoNextLSN.offset()));
-		return rec;
+	void encode(LogRecordEncoder enc) {
+		super.encode(enc);
+		enc.writeLsn(undoNextLSN);
 	}
 }
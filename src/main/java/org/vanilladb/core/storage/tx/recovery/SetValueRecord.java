@@ -15,32 +15,22 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.BIGINT;
-import static org.vanilladb.core.sql.Type.INTEGER;
-import static org.vanilladb.core.sql.Type.VARCHAR;
-
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-
 import org.vanilladb.core.server.VanillaDb;
-import org.vanilladb.core.sql.BigIntConstant;
 import org.vanilladb.core.sql.Constant;
-import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.Type;
-import org.vanilladb.core.sql.VarcharConstant;
 import org.vanilladb.core.storage.buffer.Buffer;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 
-class SetValueRecord implements LogRecord {
+class SetValueRecord implements LogRecord, PageLogRecord {
 	private long txNum;
 	private int offset;
 	private int type;
-	private Constant val;
-	private Constant newVal;
+	private byte[] oldImage, newImage;
+	// The values read from the log are created when they are needed
+	private Constant val, newVal;
 	private BlockId blk;
 	private LogSeqNum lsn;
 
@@ -53,17 +43,17 @@ class SetValueRecord implements LogRecord {
 	 *            the block containing the value
 	 * @param offset
 	 *            the offset of the value in the block
-	 * @param val
-	 *            the old value
+	 * @param oldImage
+	 *            the bytes of the old value, copied from the page
 	 * @param newVal
 	 *            the new value
 	 */
-	public SetValueRecord(long txNum, BlockId blk, int offset, Constant val, Constant newVal) {
+	public SetValueRecord(long txNum, BlockId blk, int offset, byte[] oldImage, Constant newVal) {
 		this.txNum = txNum;
 		this.blk = blk;
 		this.offset = offset;
-		this.type = val.getType().getSqlType();
-		this.val = val;
+		this.type = newVal.getType().getSqlType();
+		this.oldImage = oldImage;
 		this.newVal = newVal;
 		this.lsn = null;
 	}
@@ -73,17 +63,19 @@ class SetValueRecord implements LogRecord {
 	 * 
 	 * @param rec
 	 *            the basic log record
-	 * @param op
-	 *            the operation ID
 	 */
 	public SetValueRecord(BasicLogRecord rec) {
-		txNum = (Long) rec.nextVal(BIGINT).asJavaVal();
-		blk = new BlockId((String) rec.nextVal(VARCHAR).asJavaVal(), (Long) rec.nextVal(BIGINT).asJavaVal());
-		offset = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		type = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		val = rec.nextVal(Type.newInstance(type));
-		newVal = rec.nextVal(Type.newInstance(type));
-		lsn = rec.getLSN();
+		this(new LogRecordDecoder(rec));
+	}
+
+	SetValueRecord(LogRecordDecoder dec) {
+		txNum = dec.readLong();
+		blk = dec.readBlockId();
+		offset = dec.readInt();
+		type = dec.readInt();
+		oldImage = dec.readBytes();
+		newImage = dec.readBytes();
+		lsn = dec.lsn();
 	}
 
 	/**
@@ -96,10 +88,35 @@ class SetValueRecord implements LogRecord {
 	 */
 	@Override
 	public LogSeqNum writeToLog() {
+		LogRecordEncoder enc = LogRecordEncoder.begin(op());
+		encode(enc);
+		return enc.append();
+	}
 
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+	/**
+	 * Writes a setval record for a modification about to be made to the page
+	 * in the specified buffer. The old value is copied from the page straight
+	 * into the log, so neither a record nor an image of the value is created.
+	 * 
+	 * @param txNum
+	 *            the ID of the specified transaction
+	 * @param buff
+	 *            the buffer containing the value
+	 * @param offset
+	 *            the offset of the value in the page
+	 * @param newVal
+	 *            the new value
+	 * @return the LSN of the log record
+	 */
+	static LogSeqNum writeToLog(long txNum, Buffer buff, int offset, Constant newVal) {
+		return encode(LogRecordEncoder.begin(OP_SET_VALUE), txNum, buff, offset, newVal).append();
+	}
 
+	static LogRecordEncoder encode(LogRecordEncoder enc, long txNum, Buffer buff, int offset,
+			Constant newVal) {
+		Type type = newVal.getType();
+		return enc.writeLong(txNum).writeBlockId(buff.block()).writeInt(offset).writeInt(type.getSqlType())
+				.writeVal(buff, offset, type).writeVal(newVal);
 	}
 
 	@Override
@@ -114,13 +131,17 @@ class SetValueRecord implements LogRecord {
 
 	@Override
 	public String toString() {
-		return "<SETVAL " + op() + " " + txNum + " " + blk + " " + offset + " " + type + " " + val + " " + newVal + ">";
+		return "<SETVAL " + op() + " " + txNum + " " + blk + " " + offset + " " + type + " " + oldVal() + " "
+				+ newVal() + ">";
 	}
 
 	/**
 	 * Replaces the specified data value with the value saved in the log record.
-	 * The method pins a buffer to the specified block, calls setInt to restore
-	 * the saved value (using a dummy LSN), and unpins the buffer.
+	 * The method pins a buffer to the specified block, logs a CLR and restores
+	 * the saved value as one step, and unpins the buffer. The page is stamped
+	 * with the LSN of the CLR, so it is never flushed with a last LSN newer
+	 * than the CLR before the value is restored, which would make the redo
+	 * skip the CLR.
 	 * 
 	 * @see LogRecord#undo(Transaction)
 	 */
@@ -128,10 +149,17 @@ class SetValueRecord implements LogRecord {
 	public void undo(Transaction tx) {
 		Buffer buff = tx.bufferMgr().pin(blk);
 		
-		LogSeqNum lsn = tx.recoveryMgr().logSetValClr(this.txNum, buff, offset, val, this.lsn);
-		VanillaDb.logMgr().flush(lsn);
-		
-		buff.setVal(offset, val, tx.getTransactionNumber(), null);
+		Constant val = oldVal();
+		LogSeqNum lsn;
+		buff.lockFlushing();
+		try {
+			lsn = tx.recoveryMgr().logSetValClr(this.txNum, buff, offset, val, this.lsn);
+			buff.setVal(offset, val, tx.getTransactionNumber(), lsn);
+		} finally {
+			buff.unlockFlushing();
+		}
+		if (lsn != null)
+			VanillaDb.logMgr().flush(lsn);
 		tx.bufferMgr().unpin(buff);
 		// Note that UndoNextLSN should be set to this log record's lsn in order
 		// to let RecoveryMgr to skip this log record. Since this record should
@@ -145,29 +173,45 @@ class SetValueRecord implements LogRecord {
 	/**
 	 * Replaces the specified data value with the new value saved in the log
 	 * record. The method pins a buffer to the specified block, calls setInt to
-	 * restore the saved value (using a dummy LSN), and unpins the buffer.
+	 * restore the saved value (using a dummy LSN), and unpins the buffer. The
+	 * value is not written if the last LSN of the page shows that the page
+	 * already contains the modification.
 	 * 
 	 * @see LogRecord#redo(Transaction)
 	 */
 	@Override
 	public void redo(Transaction tx) {
 		Buffer buff = tx.bufferMgr().pin(blk);
-		buff.setVal(offset, newVal, tx.getTransactionNumber(), null);
+		if (lsn.compareTo(buff.lastLsn()) > 0)
+			buff.setVal(offset, newVal(), tx.getTransactionNumber(), null);
 		tx.bufferMgr().unpin(buff);
 	}
 
-	@Override
-	public List<Constant> buildRecord() {
-		List<Constant> rec = new LinkedList<Constant>();
-		rec.add(new IntegerConstant(op()));
-		rec.add(new BigIntConstant(txNum));
-		rec.add(new VarcharConstant(blk.fileName()));
-		rec.add(new BigIntConstant(blk.number()));
-		rec.add(new IntegerConstant(offset));
-		rec.add(new IntegerConstant(type));
-		rec.add(val);
-		rec.add(newVal);
-		return rec;
+	/**
+	 * Writes the fields of this record. The old and new values are written as
+	 * raw bytes.
+	 * 
+	 * @param enc
+	 *            the encoder of the record
+	 */
+	void encode(LogRecordEncoder enc) {
+		enc.writeLong(txNum).writeBlockId(blk).writeInt(offset).writeInt(type).writeBytes(oldImage);
+		if (newImage != null)
+			enc.writeBytes(newImage);
+		else
+			enc.writeVal(newVal);
+	}
+
+	private Constant oldVal() {
+		if (val == null)
+			val = Constant.newInstance(Type.newInstance(type), oldImage);
+		return val;
+	}
+
+	private Constant newVal() {
+		if (newVal == null)
+			newVal = Constant.newInstance(Type.newInstance(type), newImage);
+		return newVal;
 	}
 
 	@Override
@@ -175,4 +219,9 @@ class SetValueRecord implements LogRecord {
 		return lsn;
 	}
 
+	@Override
+	public BlockId getBlockId() {
+		return blk;
+	}
+
 }
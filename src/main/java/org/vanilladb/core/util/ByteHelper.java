@@ -42,19 +42,27 @@ public class ByteHelper {
 	}
 
 	public static int toInteger(byte[] b) {
+		return toInteger(b, 0);
+	}
+
+	public static int toInteger(byte[] b, int offset) {
 		int ret = 0;
 		for (int i = 0; i < INT_SIZE; i++) {
 			ret <<= 8;
-			ret |= (int) b[i] & 0xFF;
+			ret |= (int) b[offset + i] & 0xFF;
 		}
 		return ret;
 	}
 
 	public static long toLong(byte[] b) {
+		return toLong(b, 0);
+	}
+
+	public static long toLong(byte[] b, int offset) {
 		long ret = 0;
 		for (int i = 0; i < LONG_SIZE; i++) {
 			ret <<= 8;
-			ret |= (long) b[i] & 0xFF;
+			ret |= (long) b[offset + i] & 0xFF;
 		}
 		return ret;
 	}
@@ -28,6 +28,7 @@ import org.vanilladb.core.storage.buffer.BufferMgrConcurrencyTest;
 import org.vanilladb.core.storage.buffer.BufferPoolConcurrencyTest;
 import org.vanilladb.core.storage.buffer.BufferTest;
 import org.vanilladb.core.storage.buffer.LastLSNTest;
+import org.vanilladb.core.storage.buffer.ReplacementPolicyTest;
 import org.vanilladb.core.storage.file.FileMgr;
 import org.vanilladb.core.storage.file.FileTest;
 import org.vanilladb.core.storage.file.PageConcurrencyTest;
@@ -35,12 +36,16 @@ import org.vanilladb.core.storage.index.btree.BTreeIndexTest;
 import org.vanilladb.core.storage.index.btree.BTreeLeafTest;
 import org.vanilladb.core.storage.index.btree.BTreePageTest;
 import org.vanilladb.core.storage.index.hash.HashIndexTest;
+import org.vanilladb.core.storage.log.LogMgrTest;
 import org.vanilladb.core.storage.metadata.CatalogTest;
 import org.vanilladb.core.storage.metadata.statistics.HistogramTest;
 import org.vanilladb.core.storage.record.RecordTest;
 import org.vanilladb.core.storage.tx.TxTest;
 import org.vanilladb.core.storage.tx.concurrency.ConcurrencyTest;
 import org.vanilladb.core.storage.tx.concurrency.LockTableTest;
+import org.vanilladb.core.storage.tx.concurrency.OptimisticConcurrencyTest;
+import org.vanilladb.core.storage.tx.concurrency.SnapshotIsolationTest;
+import org.vanilladb.core.storage.tx.recovery.LogRecordTest;
 import org.vanilladb.core.storage.tx.recovery.RecoveryBasicTest;
 
 @RunWith(IsolatedClassLoaderSuite.class)
@@ -51,7 +56,10 @@ import org.vanilladb.core.storage.tx.recovery.RecoveryBasicTest;
 	// storage.buffer
 	BufferTest.class, BufferConcurrencyTest.class,
 	BufferMgrConcurrencyTest.class, BufferPoolConcurrencyTest.class,
-	LastLSNTest.class,
+	LastLSNTest.class, ReplacementPolicyTest.class,
+	
+	// storage.log
+	LogMgrTest.class,
 	
 	// storage.record
 	RecordTest.class,
@@ -73,10 +81,11 @@ import org.vanilladb.core.storage.tx.recovery.RecoveryBasicTest;
 	TxTest.class,
 	
 	// storage.tx.concurrency
-	ConcurrencyTest.class, LockTableTest.class,
+	ConcurrencyTest.class, LockTableTest.class, SnapshotIsolationTest.class,
+	OptimisticConcurrencyTest.class,
 	
 	// storage.tx.recovery
-	RecoveryBasicTest.class,
+	LogRecordTest.class, RecoveryBasicTest.class,
 })
 @IsolationRoot(VanillaDb.class)
 public class StorageEngineTestSuite {
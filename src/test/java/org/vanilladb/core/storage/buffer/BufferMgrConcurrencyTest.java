@@ -104,6 +104,47 @@ public class BufferMgrConcurrencyTest {
 		}
 	}
 
+	@Test
+	public void testWaitingForBuffer() throws InterruptedException {
+		Transaction initTx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		
+		// use up all buffers in buffer pool
+		int avail = initTx.bufferMgr().available();
+		Buffer lastBuff = null;
+		for (int i = 0; i < avail; i++) {
+			BlockId blk = new BlockId(TEST_FILE1_NAME, i);
+			lastBuff = initTx.bufferMgr().pin(blk);
+		}
+		
+		try {
+			final Transaction waitingTx = VanillaDb.txMgr().newTransaction(
+					Connection.TRANSACTION_SERIALIZABLE, false);
+			long waitCount = BufferMgr.totalWaitCount();
+			Thread waiter = new Thread() {
+				@Override
+				public void run() {
+					waitingTx.bufferMgr().pin(new BlockId(TEST_FILE2_NAME, 0));
+				}
+			};
+			waiter.start();
+			
+			// release a buffer after the waiter joins the queue
+			while (!BufferMgr.waitQueue.hasWaiters())
+				Thread.sleep(10);
+			initTx.bufferMgr().unpin(lastBuff);
+			waiter.join();
+			
+			assertEquals("*****BufferMgrConcurrencyTest: the waiter did not get a buffer",
+					0, initTx.bufferMgr().available());
+			assertEquals("*****BufferMgrConcurrencyTest: bad wait count",
+					waitCount + 1, BufferMgr.totalWaitCount());
+			waitingTx.rollback();
+		} finally {
+			initTx.rollback();
+		}
+	}
+
 	synchronized static void appendToResult(String s) {
 		result += s + "\n";
 	}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.BlockId;
+
+/**
+ * A micro-benchmark of pinning and unpinning blocks which are already in the
+ * buffer pool, run with an increasing number of threads. It is not a part of
+ * the test suite; run it with
+ * {@code mvn test -Dtest=BufferPinBenchmark}.
+ */
+public class BufferPinBenchmark {
+	private static Logger logger = Logger.getLogger(BufferPinBenchmark.class.getName());
+
+	private static final String FILE_NAME = "_tempbufferpinbench";
+	private static final int POOL_SIZE = 256;
+	private static final int HOT_BLOCK_COUNT = 8;
+	private static final long DURATION = 1000;
+	private static final int MAX_THREAD_COUNT = Math.max(8, Runtime.getRuntime().availableProcessors());
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(BufferPinBenchmark.class);
+	}
+
+	@Test
+	public void benchmarkHotPins() throws InterruptedException {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(POOL_SIZE);
+		final BlockId[] blks = new BlockId[HOT_BLOCK_COUNT];
+		for (int i = 0; i < HOT_BLOCK_COUNT; i++) {
+			blks[i] = new BlockId(FILE_NAME, i);
+			bufferPool.unpin(bufferPool.pin(blks[i]));
+		}
+
+		// Warm up
+		run(bufferPool, blks, MAX_THREAD_COUNT);
+
+		double baseline = 0;
+		for (int threadCount = 1; threadCount <= MAX_THREAD_COUNT; threadCount *= 2) {
+			double throughput = run(bufferPool, blks, threadCount);
+			if (threadCount == 1)
+				baseline = throughput;
+			if (logger.isLoggable(Level.INFO))
+				logger.info(String.format("%d threads: %.0f pins/s (%.2fx)", threadCount, throughput,
+						throughput / baseline));
+		}
+
+		Assert.assertEquals("some buffers are still pinned", POOL_SIZE, bufferPool.available());
+	}
+
+	private double run(final BufferPoolMgr bufferPool, final BlockId[] blks, int threadCount)
+			throws InterruptedException {
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final long[] opCounts = new long[threadCount];
+		final long[] endTime = new long[1];
+		Thread[] threads = new Thread[threadCount];
+
+		for (int t = 0; t < threadCount; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long count = 0;
+					int idx = id;
+					while (System.currentTimeMillis() < endTime[0]) {
+						// Check the clock every 1024 pins
+						for (int i = 0; i < 1024; i++) {
+							Buffer buff = bufferPool.pin(blks[idx]);
+							bufferPool.unpin(buff);
+							idx = (idx + 1) % blks.length;
+						}
+						count += 1024;
+					}
+					opCounts[id] = count;
+				}
+			};
+			threads[t].start();
+		}
+
+		long startTime = System.currentTimeMillis();
+		endTime[0] = startTime + DURATION;
+		startLatch.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		long total = 0;
+		for (long count : opCounts)
+			total += count;
+		return total * 1000.0 / DURATION;
+	}
+}
@@ -16,6 +16,8 @@
 package org.vanilladb.core.storage.buffer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.sql.Type.VARCHAR;
@@ -145,6 +147,35 @@ public class BufferTest {
 		assertEquals("*****BufferTest: bad available", avail7, avail1);
 	}
 
+	@Test
+	public void testPageCleaning() {
+		Transaction tx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		BufferMgr bm = tx.bufferMgr();
+		
+		BlockId blk = new BlockId(fileName, 5);
+		Buffer buff = bm.pin(blk);
+		buff.setVal(0, new IntegerConstant(5), tx.getTransactionNumber(), null);
+		assertTrue("*****BufferTest: buffer is not dirty", buff.isDirty());
+		
+		// A pinned buffer should be left untouched
+		BufferMgr.bufferPool.flushDirtyBuffers(BufferMgr.BUFFER_POOL_SIZE);
+		assertTrue("*****BufferTest: a pinned buffer is flushed", buff.isDirty());
+		
+		bm.unpin(buff);
+		BufferMgr.bufferPool.flushDirtyBuffers(BufferMgr.BUFFER_POOL_SIZE);
+		assertFalse("*****BufferTest: bad page cleaning", buff.isDirty());
+		
+		// A buffer dirtied again after it is cleaned should be found again
+		buff = bm.pin(blk);
+		buff.setVal(0, new IntegerConstant(6), tx.getTransactionNumber(), null);
+		bm.unpin(buff);
+		BufferMgr.bufferPool.flushDirtyBuffers(BufferMgr.BUFFER_POOL_SIZE);
+		assertFalse("*****BufferTest: bad page cleaning", buff.isDirty());
+		
+		tx.commit();
+	}
+
 	/**
 	 * Tests the buffer manager when a transaction requires buffers more than
 	 * the buffer pool size.
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.buffer.ReplacementPolicy.FrameReserver;
+import org.vanilladb.core.storage.file.BlockId;
+
+public class ReplacementPolicyTest {
+	private static Logger logger = Logger.getLogger(ReplacementPolicyTest.class.getName());
+
+	private static final int POOL_SIZE = 20;
+	private static final int HOT_BLOCK_COUNT = 5;
+	private static final int SCAN_BLOCK_COUNT = 200;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(ReplacementPolicyTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN REPLACEMENT POLICY TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH REPLACEMENT POLICY TEST");
+	}
+
+	@Test
+	public void testTwoQueueIsScanResistant() {
+		SimulatedPool pool = new SimulatedPool(new TwoQueueReplacementPolicy(POOL_SIZE));
+
+		// Make some blocks hot
+		for (int round = 0; round < 3; round++)
+			for (int i = 0; i < HOT_BLOCK_COUNT; i++)
+				pool.access(new BlockId("hot", i));
+
+		// A large scan touches every block once
+		for (int i = 0; i < SCAN_BLOCK_COUNT; i++)
+			pool.access(new BlockId("scan", i));
+
+		for (int i = 0; i < HOT_BLOCK_COUNT; i++)
+			assertTrue("hot block " + i + " has been evicted by the scan",
+					pool.contains(new BlockId("hot", i)));
+	}
+
+	@Test
+	public void testPinnedFramesAreNotReplaced() {
+		ReplacementPolicy[] policies = new ReplacementPolicy[] { new ClockReplacementPolicy(POOL_SIZE),
+				new TwoQueueReplacementPolicy(POOL_SIZE) };
+
+		for (ReplacementPolicy policy : policies) {
+			SimulatedPool pool = new SimulatedPool(policy);
+			for (int i = 0; i < POOL_SIZE; i++)
+				pool.access(new BlockId("blk", i));
+
+			// Pin all but one frame
+			for (int i = 0; i < POOL_SIZE - 1; i++)
+				pool.pinned[i] = true;
+
+			int victim = policy.chooseVictim(pool);
+			assertEquals(policy.getClass().getSimpleName() + " chooses a wrong frame", POOL_SIZE - 1, victim);
+
+			// No frame can be replaced
+			pool.pinned[POOL_SIZE - 1] = true;
+			assertEquals(-1, policy.chooseVictim(pool));
+		}
+	}
+
+	/**
+	 * Emulates the bookkeeping of {@link BufferPoolMgr} without doing any I/O.
+	 */
+	class SimulatedPool implements FrameReserver {
+		ReplacementPolicy policy;
+		BlockId[] frames = new BlockId[POOL_SIZE];
+		boolean[] pinned = new boolean[POOL_SIZE];
+		Map<BlockId, Integer> blockMap = new HashMap<BlockId, Integer>();
+
+		SimulatedPool(ReplacementPolicy policy) {
+			this.policy = policy;
+		}
+
+		void access(BlockId blk) {
+			Integer frameIdx = blockMap.get(blk);
+			if (frameIdx != null) {
+				policy.onHit(frameIdx);
+				return;
+			}
+
+			int victim = policy.chooseVictim(this);
+			if (frames[victim] != null)
+				blockMap.remove(frames[victim]);
+			frames[victim] = blk;
+			blockMap.put(blk, victim);
+			policy.onLoad(victim, blk);
+		}
+
+		boolean contains(BlockId blk) {
+			return blockMap.containsKey(blk);
+		}
+
+		@Override
+		public boolean tryReserve(int frameIdx) {
+			return !pinned[frameIdx];
+		}
+	}
+}
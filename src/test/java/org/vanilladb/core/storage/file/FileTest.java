@@ -18,6 +18,8 @@ package org.vanilladb.core.storage.file;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.vanilladb.core.sql.Type.BIGINT;
+import static org.vanilladb.core.sql.Type.DOUBLE;
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.sql.Type.VARCHAR;
 import static org.vanilladb.core.storage.file.Page.BLOCK_SIZE;
@@ -33,6 +35,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.vanilladb.core.server.ServerInit;
 import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.BigIntConstant;
+import org.vanilladb.core.sql.DoubleConstant;
 import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.VarcharConstant;
 
@@ -110,6 +114,38 @@ public class FileTest {
 						&& p2.getVal(INT_SIZE, INTEGER).equals(TEST_INT_456));
 	}
 
+	@Test
+	public void testMappedFile() {
+		// The file is mapped in regions of 4 blocks in the test settings
+		String filename = FileMgr.TMP_FILE_NAME_PREFIX + "_test_mmap";
+		for (int i = 0; i < 10; i++) {
+			p1.setVal(0, new IntegerConstant(i));
+			p1.setVal(BLOCK_SIZE - INT_SIZE, new IntegerConstant(-i));
+			BlockId blk = p1.append(filename);
+			assertEquals("*****FileTest: bad mapped append", i, blk.number());
+
+			// The region at the end of the file is remapped
+			p2.read(blk);
+			assertTrue("*****FileTest: bad mapped read",
+					p2.getInt(0) == i && p2.getInt(BLOCK_SIZE - INT_SIZE) == -i);
+		}
+
+		BlockId blk = new BlockId(filename, 5);
+		p1.setVal(0, TEST_INT_789);
+		p1.write(blk);
+		p2.read(blk);
+		p3.read(new BlockId(filename, 4));
+		assertTrue("*****FileTest: bad mapped write",
+				p2.getInt(0) == 789 && p3.getInt(0) == 4 && p3.getInt(BLOCK_SIZE - INT_SIZE) == -4);
+
+		// Writing beyond the end grows the file
+		p1.write(new BlockId(filename, 12));
+		p2.read(new BlockId(filename, 12));
+		assertEquals("*****FileTest: bad mapped file size", 13, fm.size(filename));
+		assertEquals("*****FileTest: bad mapped read", 789, p2.getInt(0));
+		fm.delete(filename);
+	}
+
 	@Test
 	/**
 	 * Test if FileMgr could automatically extend files to the writing position
@@ -169,6 +205,37 @@ public class FileTest {
 								TEST_VARCHAR));
 	}
 
+	@Test
+	public void testPrimitiveGet() {
+		p1.setVal(0, TEST_INT_123);
+		p1.setVal(INT_SIZE, new BigIntConstant(-5000000000L));
+		p1.setVal(3 * INT_SIZE, new DoubleConstant(2.5));
+		assertEquals("*****FileTest: bad getInt", 123, p1.getInt(0));
+		assertEquals("*****FileTest: bad getLong", -5000000000L, p1.getLong(INT_SIZE));
+		assertEquals("*****FileTest: bad getDouble", 2.5, p1.getDouble(3 * INT_SIZE), 0);
+		assertTrue("*****FileTest: bad constant from primitives",
+				p1.getVal(INT_SIZE, BIGINT).equals(new BigIntConstant(-5000000000L))
+						&& p1.getVal(3 * INT_SIZE, DOUBLE).equals(new DoubleConstant(2.5)));
+
+		// Numbers of different types are compared as the constants do
+		assertTrue("*****FileTest: bad compareVal",
+				p1.compareVal(0, INTEGER, new DoubleConstant(123.5)) < 0
+						&& p1.compareVal(0, INTEGER, new BigIntConstant(123)) == 0
+						&& p1.compareVal(INT_SIZE, BIGINT, TEST_INT_123) < 0
+						&& p1.compareVal(3 * INT_SIZE, DOUBLE, new IntegerConstant(2)) > 0);
+
+		String[] strs = { "", "abc", "abd", "ab", "caf\u00e9", "\u4e2d\u6587",
+				"\ud83d\ude00", "\uffff", "abc\ud83d\ude00" };
+		for (String str : strs) {
+			p2.setVal(0, new VarcharConstant(str));
+			assertEquals("*****FileTest: bad hashVarchar", str.hashCode(), p2.hashVarchar(0));
+			for (String other : strs)
+				assertEquals("*****FileTest: bad compareVarchar",
+						Integer.signum(str.compareTo(other)),
+						Integer.signum(p2.compareVarchar(0, other)));
+		}
+	}
+
 	@Test
 	public void testBoundaries() {
 		try {
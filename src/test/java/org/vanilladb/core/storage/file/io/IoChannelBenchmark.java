@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.file.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.storage.file.Page;
+import org.vanilladb.core.storage.file.io.javanio.JavaNioByteBuffer;
+import org.vanilladb.core.storage.file.io.javanio.JavaNioFileChannel;
+import org.vanilladb.core.storage.file.io.javanio.JavaNioMappedFileChannel;
+import org.vanilladb.core.storage.file.io.jaydio.JaydioDirectByteBuffer;
+import org.vanilladb.core.storage.file.io.jaydio.JaydioDirectIoChannel;
+
+/**
+ * A micro-benchmark of reading and writing blocks through each kind of
+ * {@link IoChannel}. The file is cached by the OS after it is created, except
+ * for the O_DIRECT channel, which bypasses the cache. It is not a part of the
+ * test suite; run it with {@code mvn test -Dtest=IoChannelBenchmark}.
+ */
+public class IoChannelBenchmark {
+	private static Logger logger = Logger.getLogger(IoChannelBenchmark.class.getName());
+
+	private static final String FILE_NAME = "_tempiochannelbench";
+	private static final int BLOCK_COUNT = 4096;
+	private static final int READ_COUNT = 100000;
+	private static final int WRITE_COUNT = 1000;
+
+	private static abstract class Backend {
+		String name;
+
+		Backend(String name) {
+			this.name = name;
+		}
+
+		abstract IoChannel newChannel(File file) throws IOException;
+
+		abstract IoBuffer newBuffer();
+	}
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(IoChannelBenchmark.class);
+	}
+
+	@Test
+	public void benchmarkChannels() throws IOException {
+		run(new Backend("java nio") {
+			@Override
+			IoChannel newChannel(File file) throws IOException {
+				return new JavaNioFileChannel(file);
+			}
+
+			@Override
+			IoBuffer newBuffer() {
+				return new JavaNioByteBuffer(Page.BLOCK_SIZE);
+			}
+		});
+		run(new Backend("memory-mapped") {
+			@Override
+			IoChannel newChannel(File file) throws IOException {
+				return new JavaNioMappedFileChannel(file);
+			}
+
+			@Override
+			IoBuffer newBuffer() {
+				return new JavaNioByteBuffer(Page.BLOCK_SIZE);
+			}
+		});
+		run(new Backend("jaydio o_direct") {
+			@Override
+			IoChannel newChannel(File file) throws IOException {
+				return new JaydioDirectIoChannel(file);
+			}
+
+			@Override
+			IoBuffer newBuffer() {
+				return new JaydioDirectByteBuffer(Page.BLOCK_SIZE);
+			}
+		});
+	}
+
+	private void run(Backend backend) throws IOException {
+		File file = new File(new File(FileMgr.DB_FILES_DIR, ServerInit.DB_MAIN_DIR), FILE_NAME);
+		file.delete();
+		IoChannel channel;
+		IoBuffer buffer;
+		try {
+			channel = backend.newChannel(file);
+			buffer = backend.newBuffer();
+		} catch (IOException | RuntimeException | LinkageError e) {
+			// O_DIRECT is not supported by every platform and file system
+			if (logger.isLoggable(Level.WARNING))
+				logger.warning(backend.name + " is not available: " + e);
+			return;
+		}
+
+		try {
+			for (int i = 0; i < BLOCK_COUNT; i++) {
+				buffer.putInt(0, i);
+				buffer.rewind();
+				channel.append(buffer);
+			}
+			Assert.assertEquals("bad file size", (long) BLOCK_COUNT * Page.BLOCK_SIZE, channel.size());
+
+			// Warm up
+			sequentialReads(channel, buffer);
+
+			long start = System.nanoTime();
+			sequentialReads(channel, buffer);
+			double seqRate = BLOCK_COUNT * 1e9 / (System.nanoTime() - start);
+
+			Random random = new Random(0);
+			start = System.nanoTime();
+			for (int i = 0; i < READ_COUNT; i++) {
+				int blkNum = random.nextInt(BLOCK_COUNT);
+				buffer.clear();
+				channel.read(buffer, (long) blkNum * Page.BLOCK_SIZE);
+				Assert.assertEquals("bad block read", blkNum, buffer.getInt(0));
+			}
+			double randRate = READ_COUNT * 1e9 / (System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int i = 0; i < WRITE_COUNT; i++) {
+				int blkNum = random.nextInt(BLOCK_COUNT);
+				buffer.putInt(0, blkNum);
+				buffer.rewind();
+				channel.write(buffer, (long) blkNum * Page.BLOCK_SIZE);
+			}
+			double writeRate = WRITE_COUNT * 1e9 / (System.nanoTime() - start);
+
+			if (logger.isLoggable(Level.INFO))
+				logger.info(String.format("%s: %.0f sequential reads/s, %.0f random reads/s, %.0f writes/s",
+						backend.name, seqRate, randRate, writeRate));
+		} finally {
+			channel.close();
+			buffer.close();
+			file.delete();
+		}
+	}
+
+	private void sequentialReads(IoChannel channel, IoBuffer buffer) throws IOException {
+		for (int i = 0; i < BLOCK_COUNT; i++) {
+			buffer.clear();
+			channel.read(buffer, (long) i * Page.BLOCK_SIZE);
+			Assert.assertEquals("bad block read", i, buffer.getInt(0));
+		}
+	}
+}
@@ -23,6 +23,8 @@ import static org.vanilladb.core.storage.index.Index.IDX_BTREE;
 
 import java.sql.Connection;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +47,7 @@ import org.vanilladb.core.storage.metadata.CatalogMgr;
 import org.vanilladb.core.storage.metadata.index.IndexInfo;
 import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
 import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
 
 import junit.framework.Assert;
@@ -76,11 +79,13 @@ public class BTreeIndexTest {
 		schema.addField("title", VARCHAR(20));
 		schema.addField("deptid", INTEGER);
 		schema.addField("majorid", BIGINT);
+		schema.addField("note", VARCHAR(100));
 		catMgr.createTable(DATA_TABLE_NAME, schema, tx);
 		catMgr.createIndex("_tempI1", DATA_TABLE_NAME, "cid", IDX_BTREE, tx);
 		catMgr.createIndex("_tempI2", DATA_TABLE_NAME, "title", IDX_BTREE, tx);
 		catMgr.createIndex("_tempI3", DATA_TABLE_NAME, "deptid", IDX_BTREE, tx);
 		catMgr.createIndex("_tempI4", DATA_TABLE_NAME, "majorid", IDX_BTREE, tx);
+		catMgr.createIndex("_tempI5", DATA_TABLE_NAME, "note", IDX_BTREE, tx);
 		tx.commit();
 	}
 	
@@ -279,4 +284,73 @@ public class BTreeIndexTest {
 
 		cidIndex.close();
 	}
+
+	@Test
+	public void testConcurrentSplits() throws InterruptedException {
+		final IndexInfo ii = catMgr.getIndexInfo(DATA_TABLE_NAME, tx).get("note");
+		final BlockId blk = new BlockId(DATA_TABLE_NAME + ".tbl", 0);
+		final int numOfKeys = 2000;
+		final AtomicInteger inserted = new AtomicInteger(0);
+		final AtomicInteger errors = new AtomicInteger(0);
+
+		// The readers search the inserted keys while the directory splits. They
+		// are not read-only, since the read-only transactions read snapshots
+		// and cannot search a B-tree index.
+		Thread[] readers = new Thread[2];
+		for (int t = 0; t < readers.length; t++) {
+			final Random random = new Random(t);
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					while (inserted.get() < numOfKeys) {
+						int count = inserted.get();
+						if (count == 0) {
+							Thread.yield();
+							continue;
+						}
+						int i = spread(random.nextInt(count), numOfKeys);
+						Transaction readTx = VanillaDb.txMgr().newTransaction(
+								Connection.TRANSACTION_SERIALIZABLE, false);
+						try {
+							Index idx = ii.open(readTx);
+							idx.beforeFirst(ConstantRange.newInstance(noteKey(i)));
+							if (!idx.next() || !idx.getDataRecordId().equals(new RecordId(blk, i)))
+								errors.incrementAndGet();
+							idx.close();
+							readTx.commit();
+						} catch (LockAbortException e) {
+							// wounded by the writer, which has rolled back the tx
+						}
+					}
+				}
+			};
+			readers[t].start();
+		}
+
+		Index noteIndex = ii.open(tx);
+		for (int k = 0; k < numOfKeys; k++) {
+			int i = spread(k, numOfKeys);
+			noteIndex.insert(noteKey(i), new RecordId(blk, i), false);
+			inserted.incrementAndGet();
+		}
+		noteIndex.close();
+		for (Thread reader : readers)
+			reader.join();
+		Assert.assertEquals("*****BTreeIndexTest: key not found during splits", 0, errors.get());
+
+		for (int i = 0; i < numOfKeys; i++) {
+			noteIndex.beforeFirst(ConstantRange.newInstance(noteKey(i)));
+			assertTrue("*****BTreeIndexTest: key not found after splits", noteIndex.next());
+			Assert.assertEquals(new RecordId(blk, i), noteIndex.getDataRecordId());
+		}
+		noteIndex.close();
+	}
+
+	private static int spread(int k, int numOfKeys) {
+		return (int) ((k * 7919L) % numOfKeys);
+	}
+
+	private static Constant noteKey(int i) {
+		return new VarcharConstant(String.format("note%05d", i), VARCHAR(100));
+	}
 }
@@ -46,7 +46,7 @@ public class BTreeLeafTest {
 	private static final BlockId DATA_BLOCK = new BlockId("_tempBtreeLeaf.tbl", 0);
 	private static final Type KEY_TYPE = Type.INTEGER;
 	private static final int MAX_NUM_OF_RECORDS;
-	private static final int PRE_FORMATED_PAGE_COUNT = 4;
+	private static final int PRE_FORMATED_PAGE_COUNT = 5;
 	
 	static {
 		int slotSize = BTreePage.slotSize(BTreeLeaf.schema(KEY_TYPE));
@@ -215,4 +215,43 @@ public class BTreeLeafTest {
 		
 		Assert.assertEquals(numOfRecords, count);
 	}
+	
+	@Test
+	public void testMoveRightAfterSplit() {
+		BlockId blk = new BlockId(INDEX_FILE_NAME, 4);
+		BTreeLeaf leaf;
+		DirEntry dirEntry = null;
+		ConstantRange insertKey;
+		
+		// Insert records with increasing keys until the block splits
+		int numOfRecords = 0;
+		while (dirEntry == null) {
+			insertKey = ConstantRange.newInstance(new IntegerConstant(numOfRecords));
+			leaf = new BTreeLeaf(DATA_BLOCK.fileName(), blk, KEY_TYPE, insertKey, tx);
+			dirEntry = leaf.insert(new RecordId(DATA_BLOCK, numOfRecords));
+			leaf.close();
+			numOfRecords++;
+		}
+		
+		// Insert a larger key through the old block, as an insertion which
+		// read the directory before the split does
+		insertKey = ConstantRange.newInstance(new IntegerConstant(numOfRecords));
+		leaf = new BTreeLeaf(DATA_BLOCK.fileName(), blk, KEY_TYPE, insertKey, tx);
+		int numInOldBlock = leaf.getNumRecords();
+		leaf.close();
+		leaf = new BTreeLeaf(DATA_BLOCK.fileName(), blk, KEY_TYPE, insertKey, tx);
+		leaf.insert(new RecordId(DATA_BLOCK, numOfRecords));
+		leaf.close();
+		
+		// The record should be moved right to the new block
+		leaf = new BTreeLeaf(DATA_BLOCK.fileName(), blk, KEY_TYPE, insertKey, tx);
+		Assert.assertEquals(numInOldBlock, leaf.getNumRecords());
+		leaf.close();
+		BlockId newBlk = new BlockId(INDEX_FILE_NAME, dirEntry.blockNumber());
+		leaf = new BTreeLeaf(DATA_BLOCK.fileName(), newBlk, KEY_TYPE, insertKey, tx);
+		if (!leaf.next())
+			Assert.fail("BTreeLeafTest: record not moved right");
+		Assert.assertEquals(new RecordId(DATA_BLOCK, numOfRecords), leaf.getDataRecordId());
+		leaf.close();
+	}
 }
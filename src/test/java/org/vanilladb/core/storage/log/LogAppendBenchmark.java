@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.sql.BigIntConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.VarcharConstant;
+
+/**
+ * A micro-benchmark of appending log records, run with an increasing number
+ * of threads. The records look like the ones of setting a value, and the full
+ * log pages are written by a {@link LogFlushTask}. It is not a part of the
+ * test suite; run it with {@code mvn test -Dtest=LogAppendBenchmark}.
+ */
+public class LogAppendBenchmark {
+	private static Logger logger = Logger.getLogger(LogAppendBenchmark.class.getName());
+
+	private static final String LOG_FILE = "_templogappendbench.log";
+	private static final long DURATION = 1000;
+	private static final int MAX_THREAD_COUNT = Math.max(8, Runtime.getRuntime().availableProcessors());
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(LogAppendBenchmark.class);
+	}
+
+	@Test
+	public void benchmarkAppends() throws InterruptedException {
+		LogMgr logMgr = new LogMgr(LOG_FILE);
+		Thread flusher = new Thread(new LogFlushTask(logMgr));
+		flusher.start();
+
+		try {
+			// Warm up
+			run(logMgr, MAX_THREAD_COUNT);
+
+			double baseline = 0;
+			for (int threadCount = 1; threadCount <= MAX_THREAD_COUNT; threadCount *= 2) {
+				double throughput = run(logMgr, threadCount);
+				if (threadCount == 1)
+					baseline = throughput;
+				if (logger.isLoggable(Level.INFO))
+					logger.info(String.format("%d threads: %.0f appends/s (%.2fx)", threadCount, throughput,
+							throughput / baseline));
+			}
+		} finally {
+			flusher.interrupt();
+			flusher.join();
+		}
+
+		Assert.assertTrue("the log is not flushed", logMgr.iterator().hasNext());
+	}
+
+	private double run(final LogMgr logMgr, int threadCount) throws InterruptedException {
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final long[] opCounts = new long[threadCount];
+		final long[] endTime = new long[1];
+		Thread[] threads = new Thread[threadCount];
+
+		for (int t = 0; t < threadCount; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					Constant[] rec = new Constant[] { new IntegerConstant(0), new BigIntConstant(id),
+							new VarcharConstant("benchmark"), new BigIntConstant(0), new IntegerConstant(0),
+							new IntegerConstant(0), new VarcharConstant("some value") };
+					try {
+						startLatch.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long count = 0;
+					while (System.currentTimeMillis() < endTime[0]) {
+						// Check the clock every 1024 appends
+						for (int i = 0; i < 1024; i++)
+							logMgr.append(rec);
+						count += 1024;
+					}
+					opCounts[id] = count;
+				}
+			};
+			threads[t].start();
+		}
+
+		long startTime = System.currentTimeMillis();
+		endTime[0] = startTime + DURATION;
+		startLatch.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		long total = 0;
+		for (long count : opCounts)
+			total += count;
+		return total * 1000.0 / DURATION;
+	}
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VarcharConstant;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.file.Page;
+import org.vanilladb.core.storage.tx.recovery.LogReader;
+
+public class LogMgrTest {
+	private static Logger logger = Logger.getLogger(LogMgrTest.class.getName());
+
+	private static final int CLIENT_COUNT = 20;
+	private static final int RECORDS_PER_CLIENT = 50;
+	private static final String LOG_FILE = "_templogmgrtest.log";
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(LogMgrTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN LOG MGR TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH LOG MGR TEST");
+	}
+
+	@Test
+	public void testGroupFlush() throws InterruptedException {
+		final LogMgr logMgr = VanillaDb.logMgr();
+		Thread flusher = new Thread(new LogFlushTask(logMgr));
+		flusher.start();
+
+		try {
+			Thread[] clients = new Thread[CLIENT_COUNT];
+			for (int c = 0; c < CLIENT_COUNT; c++) {
+				final int clientId = c;
+				clients[c] = new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i < RECORDS_PER_CLIENT; i++) {
+							int val = clientId * RECORDS_PER_CLIENT + i;
+							LogSeqNum lsn = logMgr.append(new Constant[] { new IntegerConstant(val) });
+							logMgr.groupFlush(lsn);
+						}
+					}
+				};
+				clients[c].start();
+			}
+
+			for (Thread client : clients) {
+				client.join(10000);
+				assertFalse("*****LogMgrTest: a committing thread is blocked", client.isAlive());
+			}
+		} finally {
+			flusher.interrupt();
+			flusher.join();
+		}
+
+		// Every record should be in the log
+		Set<Integer> vals = new HashSet<Integer>();
+		Iterator<BasicLogRecord> iter = logMgr.iterator();
+		while (iter.hasNext() && vals.size() < CLIENT_COUNT * RECORDS_PER_CLIENT) {
+			BasicLogRecord rec = iter.next();
+			vals.add((Integer) rec.nextVal(Type.INTEGER).asJavaVal());
+		}
+		for (int val = 0; val < CLIENT_COUNT * RECORDS_PER_CLIENT; val++)
+			assertTrue("*****LogMgrTest: missing log record " + val, vals.contains(val));
+	}
+
+	@Test
+	public void testLogTailAcrossPages() {
+		LogMgr logMgr = new LogMgr(LOG_FILE);
+
+		// Fill several times more pages than the ring holds
+		String padding = String.format("%0100d", 0);
+		int recordsPerPage = Page.BLOCK_SIZE / 120;
+		int recordCount = recordsPerPage * LogMgr.LOG_BUFFER_SIZE * 3;
+		LogSeqNum lastLsn = null;
+		for (int i = 0; i < recordCount; i++)
+			lastLsn = logMgr.append(new Constant[] { new IntegerConstant(i), new VarcharConstant(padding) });
+		assertTrue("*****LogMgrTest: the log is not spread over pages",
+				lastLsn.blkNum() >= LogMgr.LOG_BUFFER_SIZE * 2);
+
+		logMgr.flush(lastLsn);
+		assertTrue("*****LogMgrTest: bad durable LSN", lastLsn.compareTo(logMgr.durableLsn()) < 0);
+
+		// The records should be read back in reverse order
+		Iterator<BasicLogRecord> iter = logMgr.iterator();
+		for (int i = recordCount - 1; i >= 0; i--) {
+			assertTrue("*****LogMgrTest: missing log record " + i, iter.hasNext());
+			BasicLogRecord rec = iter.next();
+			assertEquals("*****LogMgrTest: bad log record", i, rec.nextVal(Type.INTEGER).asJavaVal());
+			assertEquals("*****LogMgrTest: bad log record", padding, rec.nextVal(Type.VARCHAR).asJavaVal());
+		}
+		assertFalse("*****LogMgrTest: unexpected log record", iter.hasNext());
+	}
+
+	@Test
+	public void testLogAfterHole() {
+		// A rebuilt log starts after the blocks of the old one, leaving empty
+		// blocks at the front of the file
+		String fileName = "_templogmgrtest_hole.log";
+		Page page = new Page();
+		page.setVal(LogMgr.LAST_POS, new IntegerConstant(0));
+		page.write(new BlockId(fileName, 5));
+		LogMgr logMgr = new LogMgr(fileName);
+
+		// The records are given operation IDs that no log record uses
+		int recordCount = 3;
+		LogSeqNum lsn = null;
+		for (int i = 0; i < recordCount; i++)
+			lsn = logMgr.append(new Constant[] { new IntegerConstant(-1 - i) });
+		logMgr.flush(lsn);
+		assertEquals("*****LogMgrTest: bad LSN", 5, lsn.blkNum());
+
+		// Both readers should skip the empty blocks
+		Iterator<BasicLogRecord> iter = logMgr.iterator();
+		for (int i = recordCount - 1; i >= 0; i--)
+			assertEquals("*****LogMgrTest: bad log record", -1 - i, iter.next().nextVal(Type.INTEGER).asJavaVal());
+		assertFalse("*****LogMgrTest: unexpected log record", iter.hasNext());
+
+		LogReader reader = new LogReader(fileName);
+		int count = 0;
+		while (reader.nextRecord())
+			count++;
+		assertEquals("*****LogMgrTest: bad number of log records", recordCount, count);
+	}
+
+	@Test
+	public void testOversizedRecord() {
+		LogMgr logMgr = new LogMgr(LOG_FILE);
+
+		byte[] rec = new byte[Page.BLOCK_SIZE];
+		try {
+			logMgr.append(rec, rec.length);
+			fail("*****LogMgrTest: an oversized log record is appended");
+		} catch (IllegalArgumentException e) {
+		}
+
+		// The log should still accept records afterwards
+		LogSeqNum lsn = logMgr.append(new Constant[] { new IntegerConstant(1) });
+		logMgr.flush(lsn);
+		BasicLogRecord last = logMgr.iterator().next();
+		assertEquals("*****LogMgrTest: bad log record", 1, last.nextVal(Type.INTEGER).asJavaVal());
+	}
+}
@@ -37,6 +37,7 @@ import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.storage.index.Index;
 import org.vanilladb.core.storage.metadata.index.IndexInfo;
+import org.vanilladb.core.storage.record.RecordFile;
 import org.vanilladb.core.storage.tx.Transaction;
 
 public class CatalogTest {
@@ -88,7 +89,7 @@ public class CatalogTest {
 		String t1 = FILE_PREFIX + "T1";
 		String t2 = FILE_PREFIX + "T2";
 		catMgr.createTable(t1, sch1, tx);
-		catMgr.createTable(t2, sch2, tx);
+		catMgr.createTable(t2, sch2, RecordFile.FMT_SLOTTED, tx);
 		
 		// Get table infos
 		TableInfo ti1 = catMgr.getTableInfo(t1, tx);
@@ -106,6 +107,9 @@ public class CatalogTest {
 				&& ti2.schema().hasField("A")
 				&& ti2.schema().hasField("C")
 				&& !ti2.schema().hasField("B"));
+		assertTrue("*****CatalogTest: bad table format",
+				ti1.format() == RecordFile.FMT_FIXED
+						&& ti2.format() == RecordFile.FMT_SLOTTED);
 		assertTrue("*****CatalogTest: bad table info", ti3 == null);
 	}
 
@@ -108,6 +108,34 @@ public class RecordTest {
 		rp.close();
 	}
 
+	@Test
+	public void testFreeSpace() {
+		tx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+
+		RecordFormatter fmtr = new RecordFormatter(ti2);
+		Buffer buff = tx.bufferMgr().pinNew(ti2.fileName(), fmtr);
+		BlockId blk = buff.block();
+		tx.bufferMgr().unpin(buff);
+
+		int slotSize = RecordPage.slotSize(schema);
+		RecordPage rp = new RecordPage(blk, ti2, tx, true);
+		int freeSpace = rp.freeSpace();
+		assertTrue("*****RecordTest: bad free space", freeSpace >= slotSize);
+		rp.insertIntoNextEmptySlot();
+		RecordId rid = new RecordId(blk, rp.currentId());
+		assertEquals("*****RecordTest: bad free space", freeSpace - slotSize, rp.freeSpace());
+		rp.close();
+
+		// The count is kept for the pages opened later
+		rp = new RecordPage(blk, ti2, tx, true);
+		assertEquals("*****RecordTest: bad free space", freeSpace - slotSize, rp.freeSpace());
+		rp.moveToId(rid.id());
+		rp.delete(null);
+		assertEquals("*****RecordTest: bad free space", freeSpace, rp.freeSpace());
+		rp.close();
+	}
+
 	@Test
 	public void testRecordPage() {
 		tx = VanillaDb.txMgr().newTransaction(
@@ -251,6 +279,180 @@ public class RecordTest {
 		}
 		rf.close();
 	}
+
+
+	@Test
+	public void testSlottedRecordFile() {
+		tx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+
+		Schema sch = new Schema();
+		sch.addField("cid", INTEGER);
+		sch.addField("title", VARCHAR(200));
+		TableInfo ti = new TableInfo(FILE_PREFIX + "slotted", sch,
+				RecordFile.FMT_SLOTTED);
+		RecordFile.formatFileHeader(ti.fileName(), tx);
+		int max = 300;
+
+		// Part 1: Fill the file with short records
+		RecordFile rf = ti.open(tx, true);
+		for (int id = 0; id < max; id++) {
+			rf.insert();
+			rf.setVal("cid", new IntegerConstant(id));
+			rf.setVal("title", new VarcharConstant("course" + id));
+		}
+		// short records should be packed tighter than fixed-size slots
+		int fixedSlotsPerBlock = Buffer.BUFFER_SIZE / RecordPage.slotSize(sch);
+		assertTrue("RecordTest: slotted file is not compact",
+				rf.fileSize() - 1 < (max + fixedSlotsPerBlock - 1) / fixedSlotsPerBlock);
+		rf.close();
+
+		// Part 2: Grow every third record, causing compactions and moves
+		String longTitle = "course";
+		while (longTitle.length() < 180)
+			longTitle += "-course";
+		rf = ti.open(tx, true);
+		rf.beforeFirst();
+		while (rf.next()) {
+			int cid = (Integer) rf.getVal("cid").asJavaVal();
+			if (cid % 3 == 0)
+				rf.setVal("title", new VarcharConstant(longTitle + cid));
+		}
+		rf.close();
+		checkSlottedRecords(ti, max, longTitle, -1);
+
+		// Part 3: Delete some records and insert again
+		rf = ti.open(tx, true);
+		rf.beforeFirst();
+		while (rf.next()) {
+			int cid = (Integer) rf.getVal("cid").asJavaVal();
+			if (cid % 3 == 1)
+				rf.delete();
+		}
+		for (int id = max; id < max + max / 3; id++) {
+			rf.insert();
+			rf.setVal("cid", new IntegerConstant(id));
+			rf.setVal("title", new VarcharConstant("course" + id));
+		}
+		rf.close();
+		checkSlottedRecords(ti, max + max / 3, longTitle, 1);
+	}
+
+	@Test
+	public void testFreeSpaceReuse() {
+		tx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		checkFreeSpaceReuse(new TableInfo(FILE_PREFIX + "reuse_fixed", schema));
+		checkFreeSpaceReuse(new TableInfo(FILE_PREFIX + "reuse_slotted", schema,
+				RecordFile.FMT_SLOTTED));
+	}
+
+	private void checkFreeSpaceReuse(TableInfo ti) {
+		RecordFile.formatFileHeader(ti.fileName(), tx);
+		RecordFile rf = ti.open(tx, true);
+		for (int id = 0; id < 300; id++) {
+			rf.insert();
+			rf.setVal("cid", new IntegerConstant(id));
+			rf.setVal("title", new VarcharConstant("course" + id));
+		}
+
+		// Delete the records spread over the blocks
+		rf.beforeFirst();
+		while (rf.next())
+			if ((Integer) rf.getVal("cid").asJavaVal() % 2 == 0)
+				rf.delete();
+		long fileSize = rf.fileSize();
+
+		// The new records, no larger than the deleted ones, should go to the
+		// freed slots
+		for (int id = 300; id < 450; id++) {
+			rf.insert();
+			rf.setVal("cid", new IntegerConstant(id));
+			rf.setVal("title", new VarcharConstant("new" + id));
+		}
+		assertEquals("RecordTest: free space is not reused", fileSize,
+				rf.fileSize());
+
+		int count = 0;
+		rf.beforeFirst();
+		while (rf.next()) {
+			int cid = (Integer) rf.getVal("cid").asJavaVal();
+			assertTrue("RecordTest: bad file read", cid >= 300 || cid % 2 == 1);
+			count++;
+		}
+		rf.close();
+		assertEquals("RecordTest: wrong number of records", 300, count);
+	}
+
+	@Test
+	public void testConcurrentInsertions() {
+		TableInfo ti = new TableInfo(FILE_PREFIX + "concurrent", schema);
+
+		// Prepare some blocks with free slots
+		Transaction setupTx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		RecordFile.formatFileHeader(ti.fileName(), setupTx);
+		RecordFile rf = ti.open(setupTx, true);
+		for (int id = 0; id < 300; id++)
+			rf.insert();
+		rf.beforeFirst();
+		while (rf.next())
+			rf.delete();
+		rf.close();
+		setupTx.commit();
+
+		// The insertions of two transactions should not block each other
+		Transaction tx1 = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		Transaction tx2 = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		RecordFile rf1 = ti.open(tx1, true);
+		RecordFile rf2 = ti.open(tx2, true);
+		for (int id = 0; id < 10; id++) {
+			rf1.insert();
+			rf1.setVal("cid", new IntegerConstant(id));
+			rf2.insert();
+			rf2.setVal("cid", new IntegerConstant(100 + id));
+		}
+		rf1.close();
+		rf2.close();
+		tx1.commit();
+		tx2.commit();
+
+		tx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, true);
+		rf = ti.open(tx, true);
+		rf.beforeFirst();
+		int count = 0;
+		while (rf.next()) {
+			int cid = (Integer) rf.getVal("cid").asJavaVal();
+			assertTrue("RecordTest: bad concurrent insertion",
+					cid < 10 || (cid >= 100 && cid < 110));
+			count++;
+		}
+		rf.close();
+		assertEquals("RecordTest: wrong number of records", 20, count);
+	}
+
+	private void checkSlottedRecords(TableInfo ti, int max, String longTitle,
+			int deletedMod) {
+		RecordFile rf = ti.open(tx, true);
+		rf.beforeFirst();
+		boolean[] seen = new boolean[max];
+		while (rf.next()) {
+			int cid = (Integer) rf.getVal("cid").asJavaVal();
+			String title = (String) rf.getVal("title").asJavaVal();
+			String expected = (cid < 300 && cid % 3 == 0) ? longTitle + cid
+					: "course" + cid;
+			assertEquals("RecordTest: bad slotted file read", expected, title);
+			assertTrue("RecordTest: bad slotted file read", !seen[cid]);
+			seen[cid] = true;
+		}
+		rf.close();
+		for (int cid = 0; cid < max; cid++)
+			assertEquals("RecordTest: wrong slotted records",
+					cid >= 300 || cid % 3 != deletedMod, seen[cid]);
+	}
 	
 	
 	/**
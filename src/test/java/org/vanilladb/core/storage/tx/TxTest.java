@@ -21,6 +21,10 @@ import static org.junit.Assert.fail;
 import static org.vanilladb.core.sql.Type.INTEGER;
 
 import java.sql.Connection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -158,7 +162,7 @@ public class TxTest {
 	public void testConcurrency() {
 		TxClientA thA = new TxClientA(0, 600);
 		thA.start();
-		TxClientD thD = new TxClientD(200, 800);
+		TxClientD thD = new TxClientD(200, 200);
 		thD.start();
 		TxClientC thC = new TxClientC(400, 400);
 		thC.start();
@@ -168,12 +172,14 @@ public class TxTest {
 			thC.join();
 		} catch (InterruptedException e) {
 		}
+		// Tx C queues up behind the waiting Tx D instead of sharing the slock
+		// with Tx A
 		String expected = "Tx A: read 1 start\n" + "Tx A: read 1 end\n"
 				+ "Tx D: write 1 start\n" + "Tx C: read 1 start\n"
-				+ "Tx C: read 1 end\n" + "Tx A: read 2 start\n"
-				+ "Tx A: read 2 end\n" + "Tx C: write 2 start\n"
-				+ "Tx C: write 2 end\n" + "Tx D: write 1 end\n"
-				+ "Tx D: read 2 start\n" + "Tx D: read 2 end\n";
+				+ "Tx A: read 2 start\n" + "Tx A: read 2 end\n"
+				+ "Tx D: write 1 end\n" + "Tx D: read 2 start\n"
+				+ "Tx D: read 2 end\n" + "Tx C: read 1 end\n"
+				+ "Tx C: write 2 start\n" + "Tx C: write 2 end\n";
 		assertEquals("TxTest: bad tx history", expected, result);
 	}
 
@@ -197,6 +203,42 @@ public class TxTest {
 		assertTrue("TxTest: bad tx history", thC.isDeadlockAborted());
 	}
 
+	@Test
+	public void testActiveTransactions() throws InterruptedException {
+		final int threadCount = 4, txCount = 100;
+		final long[][] txNums = new long[threadCount][txCount];
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < txCount; i++) {
+						Transaction tx = VanillaDb.txMgr().newTransaction(
+								Connection.TRANSACTION_SERIALIZABLE, false);
+						txNums[id][i] = tx.getTransactionNumber();
+						if (!VanillaDb.txMgr().activeTxNums().contains(txNums[id][i]))
+							txNums[id][i] = -1;
+						tx.commit();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		Set<Long> allTxNums = new HashSet<Long>();
+		List<Long> activeTxNums = VanillaDb.txMgr().activeTxNums();
+		for (long[] nums : txNums)
+			for (long txNum : nums) {
+				assertTrue("TxTest: bad active tx list", txNum >= 0 && !activeTxNums.contains(txNum));
+				assertTrue("TxTest: duplicated tx number", allTxNums.add(txNum));
+			}
+		assertTrue("TxTest: bad next tx number",
+				VanillaDb.txMgr().getNextTxNum() > Collections.max(allTxNums));
+	}
+
 	synchronized static void appendToResult(String s) {
 		result += s + "\n";
 	}
@@ -32,6 +32,7 @@ import org.vanilladb.core.query.algebra.UpdateScan;
 import org.vanilladb.core.server.ServerInit;
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.storage.tx.Transaction;
 
 public class ConcurrencyTest {
@@ -197,6 +198,19 @@ public class ConcurrencyTest {
 
 		}
 
+		tx1.rollback();
+		tx2.rollback();
+
+		// Leave some free slots in the file
+		Transaction tx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		UpdateScan s = (UpdateScan) new TablePlan("student", tx).open();
+		s.insert();
+		s.insert();
+		s.close();
+		tx.rollback();
+
+		// Insertions into different free slots do not block each other
 		try {
 			Plan p1 = new TablePlan("student", tx1);
 			UpdateScan s1 = (UpdateScan) p1.open();
@@ -204,9 +218,8 @@ public class ConcurrencyTest {
 			Plan p2 = new TablePlan("student", tx2);
 			UpdateScan s2 = (UpdateScan) p2.open();
 			s2.insert();
-			fail("*****ConcurrencyTest: bad repeatable read concurrency");
 		} catch (LockAbortException e) {
-
+			fail("*****ConcurrencyTest: bad serializable concurrency");
 		}
 		tx1.rollback();
 		tx2.rollback();
@@ -243,7 +256,8 @@ public class ConcurrencyTest {
 			Scan s2 = p2.open();
 			s2.beforeFirst();
 			s1.next();
-			s2.next();
+			while (s2.next())
+				; // tx2 slocks all the slots
 			s1.insert();
 			fail("*****ConcurrencyTest: bad repeatable read concurrency");
 		} catch (LockAbortException e) {
@@ -273,4 +287,66 @@ public class ConcurrencyTest {
 		tx5.rollback();
 		tx2.rollback();
 	}
+
+	@Test
+	public void testScanBlock() {
+		// A serializable scan slocks the whole block
+		if (!scm1.scanBlock(blocks[5]))
+			fail("*****ConcurrencyTest: bad serializable block scan");
+		try {
+			scm2.readRecord(new RecordId(blocks[5], 0));
+		} catch (LockAbortException e) {
+			fail("*****ConcurrencyTest: bad serializable block scan");
+		}
+		try {
+			scm2.modifyRecord(new RecordId(blocks[5], 1));
+			fail("*****ConcurrencyTest: bad serializable block scan");
+		} catch (LockAbortException e) {
+		}
+		scm1.onTxRollback(tx1);
+		scm2.onTxRollback(tx2);
+
+		// The scans allowing phantoms still lock the records one by one
+		if (rrcm1.scanBlock(blocks[5]) || rccm1.scanBlock(blocks[5]))
+			fail("*****ConcurrencyTest: bad block scan");
+		try {
+			scm2.modifyRecord(new RecordId(blocks[5], 1));
+		} catch (LockAbortException e) {
+			fail("*****ConcurrencyTest: bad block scan");
+		}
+	}
+
+	@Test
+	public void testLockEscalation() {
+		// Reading many records in a block slocks the block
+		for (int i = 0; i <= SerializableConcurrencyMgr.BLOCK_ESCALATION_THRESHOLD; i++)
+			scm1.readRecord(new RecordId(blocks[3], i));
+		try {
+			scm2.readRecord(new RecordId(blocks[3], 1000));
+		} catch (LockAbortException e) {
+			fail("*****ConcurrencyTest: bad block lock escalation");
+		}
+		try {
+			scm2.modifyRecord(new RecordId(blocks[3], 1001));
+			fail("*****ConcurrencyTest: bad block lock escalation");
+		} catch (LockAbortException e) {
+		}
+		scm2.onTxRollback(tx2);
+
+		// Reading records in many blocks slocks the file
+		for (int i = 0; i <= SerializableConcurrencyMgr.FILE_ESCALATION_THRESHOLD; i++)
+			scm1.readRecord(new RecordId(new BlockId(fileName, max + i), 0));
+		try {
+			scm2.readBlock(blocks[4]);
+		} catch (LockAbortException e) {
+			fail("*****ConcurrencyTest: bad file lock escalation");
+		}
+		try {
+			scm2.modifyBlock(blocks[4]);
+			fail("*****ConcurrencyTest: bad file lock escalation");
+		} catch (LockAbortException e) {
+		}
+		scm1.onTxRollback(tx1);
+		scm2.onTxRollback(tx2);
+	}
 }
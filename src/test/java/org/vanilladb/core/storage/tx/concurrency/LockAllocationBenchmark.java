@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+
+/**
+ * A micro-benchmark of the memory allocated by the lock table. A transaction
+ * locks records like a scan does, taking an islock on the file, an islock on
+ * each block and an slock on each record, and then releases all of them. The
+ * records are either locked by this transaction only, or also by another
+ * transaction holding slocks on them. It is not a part of the test suite; run
+ * it with {@code mvn test -Dtest=LockAllocationBenchmark}.
+ */
+public class LockAllocationBenchmark {
+	private static Logger logger = Logger.getLogger(LockAllocationBenchmark.class.getName());
+
+	private static final String FILE_NAME = "_templockallocbench";
+	private static final int BLOCK_COUNT = 10;
+	private static final int RECORDS_PER_BLOCK = 100;
+	private static final int TX_COUNT = 2000;
+
+	private static BlockId[] blocks;
+	private static RecordId[] records;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(LockAllocationBenchmark.class);
+
+		blocks = new BlockId[BLOCK_COUNT];
+		records = new RecordId[BLOCK_COUNT * RECORDS_PER_BLOCK];
+		for (int i = 0; i < BLOCK_COUNT; i++) {
+			blocks[i] = new BlockId(FILE_NAME, i);
+			for (int j = 0; j < RECORDS_PER_BLOCK; j++)
+				records[i * RECORDS_PER_BLOCK + j] = new RecordId(blocks[i], j);
+		}
+	}
+
+	@Test
+	public void benchmarkPrivateLocks() {
+		LockTable lockTbl = new LockTable();
+		// Warm up
+		run(lockTbl, 1, TX_COUNT);
+		report("private", run(lockTbl, TX_COUNT + 1, TX_COUNT));
+	}
+
+	@Test
+	public void benchmarkSharedLocks() {
+		LockTable lockTbl = new LockTable();
+		long sharer = 0;
+		lockTbl.isLock(FILE_NAME, sharer);
+		for (int i = 0; i < BLOCK_COUNT; i++) {
+			lockTbl.isLock(blocks[i], sharer);
+			for (int j = 0; j < RECORDS_PER_BLOCK; j++)
+				lockTbl.sLock(records[i * RECORDS_PER_BLOCK + j], sharer);
+		}
+		// Warm up
+		run(lockTbl, 1, TX_COUNT);
+		report("shared", run(lockTbl, TX_COUNT + 1, TX_COUNT));
+		lockTbl.releaseAll(sharer, false);
+	}
+
+	private long[] run(LockTable lockTbl, long firstTxNum, int txCount) {
+		long startBytes = allocatedBytes();
+		long startTime = System.nanoTime();
+		for (long txNum = firstTxNum; txNum < firstTxNum + txCount; txNum++) {
+			lockTbl.isLock(FILE_NAME, txNum);
+			for (int i = 0; i < BLOCK_COUNT; i++) {
+				lockTbl.isLock(blocks[i], txNum);
+				for (int j = 0; j < RECORDS_PER_BLOCK; j++)
+					lockTbl.sLock(records[i * RECORDS_PER_BLOCK + j], txNum);
+			}
+			lockTbl.releaseAll(txNum, false);
+		}
+		return new long[] { allocatedBytes() - startBytes, System.nanoTime() - startTime };
+	}
+
+	private void report(String name, long[] result) {
+		long lockCount = (long) TX_COUNT * (1 + BLOCK_COUNT * (1 + RECORDS_PER_BLOCK));
+		if (logger.isLoggable(Level.INFO))
+			logger.info(String.format("%s: %.1f bytes/lock, %.0f ns/lock", name, (double) result[0] / lockCount,
+					(double) result[1] / lockCount));
+	}
+
+	@SuppressWarnings("restriction")
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
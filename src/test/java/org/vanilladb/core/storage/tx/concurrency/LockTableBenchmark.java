@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+
+/**
+ * A micro-benchmark of the lock table under contention. Each thread runs
+ * transactions which lock a few records in order, 80% shared and 20%
+ * exclusive, and then release all of them. The records are either picked
+ * from a small set of hot records or uniformly from a large one. It is not a
+ * part of the test suite; run it with
+ * {@code mvn test -Dtest=LockTableBenchmark}.
+ */
+public class LockTableBenchmark {
+	private static Logger logger = Logger.getLogger(LockTableBenchmark.class.getName());
+
+	private static final String FILE_NAME = "_templocktablebench";
+	private static final int HOT_RECORD_COUNT = 16;
+	private static final int UNIFORM_RECORD_COUNT = 100000;
+	private static final int LOCKS_PER_TX = 4;
+	private static final long DURATION = 1000;
+	private static final int MAX_THREAD_COUNT = Math.max(8, Runtime.getRuntime().availableProcessors());
+
+	private static RecordId[] records;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(LockTableBenchmark.class);
+
+		records = new RecordId[UNIFORM_RECORD_COUNT];
+		for (int i = 0; i < UNIFORM_RECORD_COUNT; i++)
+			records[i] = new RecordId(new BlockId(FILE_NAME, i / 100), i % 100);
+	}
+
+	@Test
+	public void benchmarkHotRecords() throws InterruptedException {
+		benchmark("hot", HOT_RECORD_COUNT);
+	}
+
+	@Test
+	public void benchmarkUniformRecords() throws InterruptedException {
+		benchmark("uniform", UNIFORM_RECORD_COUNT);
+	}
+
+	private void benchmark(String name, int recordCount) throws InterruptedException {
+		LockTable lockTbl = new LockTable();
+		AtomicLong nextTxNum = new AtomicLong();
+
+		// Warm up
+		run(lockTbl, nextTxNum, recordCount, MAX_THREAD_COUNT);
+
+		for (int threadCount = 1; threadCount <= MAX_THREAD_COUNT; threadCount *= 2) {
+			long[] result = run(lockTbl, nextTxNum, recordCount, threadCount);
+			if (logger.isLoggable(Level.INFO))
+				logger.info(String.format("%s, %d threads: %.0f txs/s, %d aborts", name, threadCount,
+						result[0] * 1000.0 / DURATION, result[1]));
+		}
+	}
+
+	private long[] run(final LockTable lockTbl, final AtomicLong nextTxNum, final int recordCount,
+			int threadCount) throws InterruptedException {
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final long[] commitCounts = new long[threadCount];
+		final long[] abortCounts = new long[threadCount];
+		final long[] endTime = new long[1];
+		Thread[] threads = new Thread[threadCount];
+
+		for (int t = 0; t < threadCount; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(id);
+					int[] keys = new int[LOCKS_PER_TX];
+					try {
+						startLatch.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					while (System.currentTimeMillis() < endTime[0]) {
+						long txNum = nextTxNum.getAndIncrement();
+						pickKeys(random, keys, recordCount);
+						try {
+							// Lock in order, so only wounds abort transactions
+							for (int key : keys) {
+								if (random.nextInt(10) < 2)
+									lockTbl.xLock(records[key], txNum);
+								else
+									lockTbl.sLock(records[key], txNum);
+							}
+							commitCounts[id]++;
+						} catch (LockAbortException e) {
+							abortCounts[id]++;
+						} finally {
+							lockTbl.releaseAll(txNum, false);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		endTime[0] = System.currentTimeMillis() + DURATION;
+		startLatch.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		long[] result = new long[2];
+		for (int t = 0; t < threadCount; t++) {
+			result[0] += commitCounts[t];
+			result[1] += abortCounts[t];
+		}
+		return result;
+	}
+
+	private static void pickKeys(Random random, int[] keys, int recordCount) {
+		// Pick distinct keys and sort them
+		for (int i = 0; i < keys.length; i++) {
+			boolean duplicated;
+			do {
+				keys[i] = random.nextInt(recordCount);
+				duplicated = false;
+				for (int j = 0; j < i; j++)
+					if (keys[j] == keys[i])
+						duplicated = true;
+			} while (duplicated);
+		}
+		Arrays.sort(keys);
+	}
+}
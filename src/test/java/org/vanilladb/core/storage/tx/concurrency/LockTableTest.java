@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.concurrency;
 
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.logging.Level;
@@ -131,7 +132,273 @@ public class LockTableTest {
 		}
 	}
 	
-	// TODO: We need a deadlock avoidance test case
+	@Test
+	public void testReleaseSLocksOnly() {
+		lockTbl.xLock(blocks[40], txNum1);
+		lockTbl.sLock(blocks[41], txNum1);
+		lockTbl.releaseAll(txNum1, true);
+
+		try {
+			lockTbl.xLock(blocks[41], txNum2);
+		} catch (LockAbortException e) {
+			fail("*****LockTableTest: slock not released");
+		}
+		try {
+			lockTbl.sLock(blocks[40], txNum2);
+			fail("*****LockTableTest: xlock released with slocks");
+		} catch (LockAbortException e) {
+		}
+
+		// The xlock should still be released at the end
+		lockTbl.releaseAll(txNum1, false);
+		try {
+			lockTbl.xLock(blocks[40], txNum2);
+		} catch (LockAbortException e) {
+			fail("*****LockTableTest: xlock not released");
+		}
+		lockTbl.releaseAll(txNum2, false);
+	}
+
+	@Test
+	public void testWaitQueue() throws InterruptedException {
+		final long txNum3 = 3;
+		final boolean[] granted = new boolean[1];
+		lockTbl.xLock(blocks[50], txNum1);
+
+		// The waiting request is granted once the xlock is released
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					lockTbl.sLock(blocks[50], txNum3);
+					granted[0] = true;
+				} catch (LockAbortException e) {
+				} finally {
+					lockTbl.releaseAll(txNum3, false);
+				}
+			}
+		};
+		waiter.start();
+		Thread.sleep(100);
+		lockTbl.releaseAll(txNum1, false);
+		waiter.join();
+		assertTrue("*****LockTableTest: waiting request not granted", granted[0]);
+	}
+
+	@Test
+	public void testFifoWaitQueue() throws InterruptedException {
+		final long xTxNum = 41, sTxNum = 42;
+		final boolean[] granted = new boolean[2];
+		lockTbl.sLock(blocks[55], txNum1);
+
+		// The xlock request waits for the slock
+		Thread xWaiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					lockTbl.xLock(blocks[55], xTxNum);
+					granted[0] = true;
+				} catch (LockAbortException e) {
+				}
+			}
+		};
+		xWaiter.start();
+		Thread.sleep(100);
+
+		// The slock request is compatible with the holder, but should queue
+		// up behind the xlock request
+		Thread sWaiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					lockTbl.sLock(blocks[55], sTxNum);
+					granted[1] = true;
+				} catch (LockAbortException e) {
+				}
+			}
+		};
+		sWaiter.start();
+		Thread.sleep(100);
+		assertTrue("*****LockTableTest: slock overtakes the waiting xlock", !granted[1]);
+
+		lockTbl.releaseAll(txNum1, false);
+		xWaiter.join();
+		assertTrue("*****LockTableTest: xlock not granted", granted[0]);
+		Thread.sleep(100);
+		assertTrue("*****LockTableTest: slock granted with the xlock", !granted[1]);
+
+		lockTbl.releaseAll(xTxNum, false);
+		sWaiter.join();
+		lockTbl.releaseAll(sTxNum, false);
+		assertTrue("*****LockTableTest: slock not granted", granted[1]);
+	}
+
+	@Test
+	public void testWoundWaitingTx() throws InterruptedException {
+		final long olderTxNum = 20, youngerTxNum = 30, holderTxNum = 10;
+		final boolean[] aborted = new boolean[1];
+		lockTbl.sLock(blocks[61], holderTxNum);
+
+		// The younger tx holds blocks[60] and waits for blocks[61]
+		Thread younger = new Thread() {
+			@Override
+			public void run() {
+				try {
+					lockTbl.xLock(blocks[60], youngerTxNum);
+					lockTbl.xLock(blocks[61], youngerTxNum);
+				} catch (LockAbortException e) {
+					aborted[0] = true;
+				} finally {
+					lockTbl.releaseAll(youngerTxNum, false);
+				}
+			}
+		};
+		younger.start();
+		Thread.sleep(100);
+
+		// The older tx wounds the younger one, which should abort right away
+		// instead of timing out
+		long woundCount = lockTbl.woundCount();
+		long start = System.currentTimeMillis();
+		lockTbl.sLock(blocks[60], olderTxNum);
+		younger.join();
+		long elapsed = System.currentTimeMillis() - start;
+		lockTbl.releaseAll(olderTxNum, false);
+		lockTbl.releaseAll(holderTxNum, false);
+
+		assertTrue("*****LockTableTest: wounded tx not aborted", aborted[0]);
+		assertTrue("*****LockTableTest: wound not counted", lockTbl.woundCount() > woundCount);
+		assertTrue("*****LockTableTest: wounded tx aborted too late", elapsed < 500);
+	}
+
+	@Test
+	public void testLockInOrder() throws InterruptedException {
+		final long olderTxNum = 20, youngerTxNum = 30;
+		final boolean[] granted = new boolean[1];
+		Object[] objs = { blocks[72], blocks[70], records[71] };
+		int[] lockTypes = { LockTable.X_LOCK, LockTable.X_LOCK, LockTable.S_LOCK };
+		lockTbl.lockInOrder(objs, lockTypes, youngerTxNum);
+
+		// The older tx waits for the younger one without wounding it
+		final Object[] olderObjs = { records[71], blocks[70] };
+		final int[] olderLockTypes = { LockTable.X_LOCK, LockTable.S_LOCK };
+		long woundCount = lockTbl.woundCount();
+		Thread older = new Thread() {
+			@Override
+			public void run() {
+				try {
+					lockTbl.lockInOrder(olderObjs, olderLockTypes, olderTxNum);
+					granted[0] = true;
+				} catch (LockAbortException e) {
+				}
+			}
+		};
+		older.start();
+		Thread.sleep(100);
+		assertTrue("*****LockTableTest: declared locks granted before release", !granted[0]);
+		assertTrue("*****LockTableTest: younger tx wounded", lockTbl.woundCount() == woundCount);
+
+		lockTbl.releaseAll(youngerTxNum, false);
+		older.join();
+		lockTbl.releaseAll(olderTxNum, false);
+		assertTrue("*****LockTableTest: declared locks not granted", granted[0]);
+	}
+
+	@Test
+	public void testLockInOrderWithUndeclared() throws InterruptedException {
+		final long olderTxNum = 50, youngerTxNum = 60;
+		final boolean[] granted = new boolean[1];
+		lockTbl.xLock(records[81], youngerTxNum);
+
+		// The older tx locks records[80] in order, and waits for records[81]
+		Thread older = new Thread() {
+			@Override
+			public void run() {
+				try {
+					lockTbl.lockInOrder(new Object[] { records[81], records[80] },
+							new int[] { LockTable.X_LOCK, LockTable.X_LOCK }, olderTxNum);
+					granted[0] = true;
+				} catch (LockAbortException e) {
+				}
+			}
+		};
+		older.start();
+		Thread.sleep(100);
+
+		// The younger tx did not lock in order, so it is wounded instead of
+		// waiting for the older one until timeout
+		long start = System.currentTimeMillis();
+		try {
+			lockTbl.xLock(records[80], youngerTxNum);
+			fail("*****LockTableTest: undeclared tx not wounded by declared tx");
+		} catch (LockAbortException e) {
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		lockTbl.releaseAll(youngerTxNum, false);
+		older.join();
+		lockTbl.releaseAll(olderTxNum, false);
+
+		assertTrue("*****LockTableTest: wounded tx aborted too late", elapsed < 500);
+		assertTrue("*****LockTableTest: declared locks not granted", granted[0]);
+	}
+
+	@Test
+	public void testLeavingOrder() throws InterruptedException {
+		final long olderTxNum = 52, youngerTxNum = 62;
+		final boolean[] granted = new boolean[1];
+		lockTbl.lockInOrder(new Object[] { records[83] }, new int[] { LockTable.X_LOCK },
+				youngerTxNum);
+
+		// The older tx waits for the younger one without wounding it
+		Thread older = new Thread() {
+			@Override
+			public void run() {
+				try {
+					lockTbl.lockInOrder(new Object[] { records[82], records[83] },
+							new int[] { LockTable.X_LOCK, LockTable.X_LOCK }, olderTxNum);
+					granted[0] = true;
+				} catch (LockAbortException e) {
+				}
+			}
+		};
+		older.start();
+		Thread.sleep(100);
+
+		// Locking out of the order, the younger tx is wounded
+		try {
+			lockTbl.xLock(records[82], youngerTxNum);
+			fail("*****LockTableTest: tx leaving the order not wounded");
+		} catch (LockAbortException e) {
+		}
+		lockTbl.releaseAll(youngerTxNum, false);
+		older.join();
+		lockTbl.releaseAll(olderTxNum, false);
+
+		assertTrue("*****LockTableTest: declared locks not granted", granted[0]);
+	}
+
+	@Test
+	public void testItemOrder() {
+		Object[] ordered = { "_testlocktable.0", "_testlocktable.1",
+				new BlockId("_testlocktable.0", 2), new BlockId("_testlocktable.0", 10),
+				new BlockId("_testlocktable.1", 1),
+				new RecordId(new BlockId("_testlocktable.0", 2), 7),
+				new RecordId(new BlockId("_testlocktable.0", 10), 3),
+				new RecordId(new BlockId("_testlocktable.0", 10), 4), 5, 9 };
+		for (int i = 0; i < ordered.length; i++) {
+			for (int j = 0; j < ordered.length; j++) {
+				int c = LockTable.compareItems(ordered[i], ordered[j]);
+				assertTrue("*****LockTableTest: bad order of " + ordered[i] + " and "
+						+ ordered[j], Integer.signum(c) == Integer.signum(i - j));
+			}
+		}
+
+		try {
+			LockTable.compareItems(new Object(), new Object());
+			fail("*****LockTableTest: ordered items which are not comparable");
+		} catch (IllegalArgumentException e) {
+		}
+	}
 
 	@Test
 	public void testMultiGranularityLocking() {
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+
+/**
+ * A micro-benchmark comparing {@link OptimisticConcurrencyMgr} with
+ * {@link SerializableConcurrencyMgr}. Each thread runs transactions which
+ * read a few records and update one of them, through the concurrency
+ * managers only. The conflict rate is the chance that a transaction picks
+ * its records from a small set of hot records instead of a large one. It is
+ * not a part of the test suite; run it with
+ * {@code mvn test -Dtest=OptimisticConcurrencyBenchmark}.
+ */
+public class OptimisticConcurrencyBenchmark {
+	private static Logger logger = Logger.getLogger(OptimisticConcurrencyBenchmark.class.getName());
+
+	private static final String FILE_NAME = "_tempoccbench";
+	private static final int HOT_RECORD_COUNT = 16;
+	private static final int RECORD_COUNT = 100000;
+	private static final int READS_PER_TX = 4;
+	private static final int[] CONFLICT_RATES = { 0, 10, 50, 100 };
+	private static final long DURATION = 1000;
+	private static final int THREAD_COUNT = Math.max(8, Runtime.getRuntime().availableProcessors());
+
+	private static RecordId[] records;
+	private static AtomicLong nextTxNum = new AtomicLong(1L << 40);
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(OptimisticConcurrencyBenchmark.class);
+
+		records = new RecordId[RECORD_COUNT];
+		for (int i = 0; i < RECORD_COUNT; i++)
+			records[i] = new RecordId(new BlockId(FILE_NAME, i / 100), i % 100);
+	}
+
+	@Test
+	public void benchmark() throws InterruptedException {
+		// Warm up
+		run(false, 10);
+		run(true, 10);
+
+		for (int conflictRate : CONFLICT_RATES) {
+			long[] locking = run(false, conflictRate);
+			long[] optimistic = run(true, conflictRate);
+			if (logger.isLoggable(Level.INFO))
+				logger.info(String.format(
+						"%d%% conflicts: serializable %.0f txs/s (%d aborts), optimistic %.0f txs/s (%d aborts)",
+						conflictRate, locking[0] * 1000.0 / DURATION, locking[1],
+						optimistic[0] * 1000.0 / DURATION, optimistic[1]));
+		}
+	}
+
+	private long[] run(final boolean optimistic, final int conflictRate) throws InterruptedException {
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final long[] commitCounts = new long[THREAD_COUNT];
+		final long[] abortCounts = new long[THREAD_COUNT];
+		final long[] endTime = new long[1];
+		Thread[] threads = new Thread[THREAD_COUNT];
+
+		for (int t = 0; t < THREAD_COUNT; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(id);
+					try {
+						startLatch.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					while (System.currentTimeMillis() < endTime[0]) {
+						long txNum = nextTxNum.getAndIncrement();
+						ConcurrencyMgr ccMgr = optimistic ? new OptimisticConcurrencyMgr(txNum)
+								: new SerializableConcurrencyMgr(txNum);
+						int range = random.nextInt(100) < conflictRate ? HOT_RECORD_COUNT : RECORD_COUNT;
+						try {
+							RecordId rid = null;
+							for (int i = 0; i < READS_PER_TX; i++) {
+								rid = records[random.nextInt(range)];
+								ccMgr.readRecord(rid);
+							}
+							ccMgr.modifyRecord(rid);
+							ccMgr.validateCommit();
+							ccMgr.onTxCommit(null);
+							commitCounts[id]++;
+						} catch (LockAbortException e) {
+							ccMgr.onTxRollback(null);
+							abortCounts[id]++;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		endTime[0] = System.currentTimeMillis() + DURATION;
+		startLatch.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		long[] result = new long[2];
+		for (int t = 0; t < THREAD_COUNT; t++) {
+			result[0] += commitCounts[t];
+			result[1] += abortCounts[t];
+		}
+		return result;
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.TransactionMgr;
+
+public class OptimisticConcurrencyTest {
+	private static Logger logger = Logger.getLogger(OptimisticConcurrencyTest.class.getName());
+
+	private static String fileName = "_testoptimistic.0";
+	private static BlockId blk = new BlockId(fileName, 1);
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(OptimisticConcurrencyTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN OPTIMISTIC CONCURRENCY TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH OPTIMISTIC CONCURRENCY TEST");
+	}
+
+	@Test
+	public void testReadsTakeNoLock() {
+		RecordId rid = new RecordId(blk, 1);
+		Transaction occTx = newOptimisticTx();
+		Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+
+		occTx.concurrencyMgr().readFile(fileName);
+		occTx.concurrencyMgr().readRecord(rid);
+		try {
+			tx.concurrencyMgr().modifyRecord(rid);
+		} catch (LockAbortException e) {
+			fail("*****OptimisticConcurrencyTest: the read is locked");
+		}
+		tx.rollback();
+		occTx.rollback();
+	}
+
+	@Test
+	public void testValidationFailure() {
+		RecordId rid = new RecordId(blk, 2);
+		Transaction occTx = newOptimisticTx();
+		occTx.concurrencyMgr().readRecord(rid);
+
+		// Another transaction modifies the record read and commits
+		Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		tx.concurrencyMgr().modifyRecord(rid);
+		tx.commit();
+
+		try {
+			occTx.commit();
+			fail("*****OptimisticConcurrencyTest: bad validation");
+		} catch (LockAbortException e) {
+			// occTx has been rolled back
+		}
+	}
+
+	@Test
+	public void testValidationOfLockedRecord() {
+		RecordId rid = new RecordId(blk, 3);
+		Transaction occTx = newOptimisticTx();
+		occTx.concurrencyMgr().readRecord(rid);
+
+		// The record read may be dirty while another transaction xlocks it
+		Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		tx.concurrencyMgr().modifyRecord(rid);
+
+		try {
+			occTx.commit();
+			fail("*****OptimisticConcurrencyTest: bad validation");
+		} catch (LockAbortException e) {
+			// occTx has been rolled back
+		}
+		tx.rollback();
+	}
+
+	@Test
+	public void testValidationAgainstEscalation() {
+		RecordId rid = new RecordId(blk, 7);
+		Transaction occTx = newOptimisticTx();
+		occTx.concurrencyMgr().readRecord(rid);
+
+		// Another transaction escalates to a file lock, and then modifies the
+		// record read without locking it
+		Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		int recsPerBlk = SerializableConcurrencyMgr.BLOCK_ESCALATION_THRESHOLD;
+		for (int i = 0; i <= SerializableConcurrencyMgr.FILE_ESCALATION_THRESHOLD; i++)
+			tx.concurrencyMgr().modifyRecord(
+					new RecordId(new BlockId(fileName, 2 + i / recsPerBlk), i % recsPerBlk));
+		tx.concurrencyMgr().modifyRecord(rid);
+		tx.commit();
+
+		try {
+			occTx.commit();
+			fail("*****OptimisticConcurrencyTest: bad validation");
+		} catch (LockAbortException e) {
+			// occTx has been rolled back
+		}
+	}
+
+	@Test
+	public void testValidationSuccess() {
+		RecordId rid1 = new RecordId(blk, 4), rid2 = new RecordId(blk, 5);
+		Transaction occTx = newOptimisticTx();
+		occTx.concurrencyMgr().readRecord(rid1);
+		occTx.concurrencyMgr().readRecord(rid2);
+		occTx.concurrencyMgr().modifyRecord(rid2);
+
+		// Another transaction modifies an unrelated record
+		Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		tx.concurrencyMgr().modifyRecord(new RecordId(blk, 6));
+		tx.commit();
+
+		try {
+			occTx.commit();
+		} catch (LockAbortException e) {
+			fail("*****OptimisticConcurrencyTest: bad validation");
+		}
+	}
+
+	private static Transaction newOptimisticTx() {
+		Transaction tx = VanillaDb.txMgr().newTransaction(TransactionMgr.TRANSACTION_OPTIMISTIC, false);
+		if (!(tx.concurrencyMgr() instanceof OptimisticConcurrencyMgr))
+			fail("*****OptimisticConcurrencyTest: wrong concurrency manager");
+		return tx;
+	}
+}
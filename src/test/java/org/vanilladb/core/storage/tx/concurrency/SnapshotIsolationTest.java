@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.query.algebra.Plan;
+import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.query.planner.Planner;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VarcharConstant;
+import org.vanilladb.core.storage.buffer.BufferMgr;
+import org.vanilladb.core.storage.metadata.TableInfo;
+import org.vanilladb.core.storage.record.RecordFile;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
+
+public class SnapshotIsolationTest {
+	private static Logger logger = Logger.getLogger(SnapshotIsolationTest.class.getName());
+
+	private static TableInfo ti;
+	private static long nextTxNum = 1000000;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(SnapshotIsolationTest.class);
+
+		Schema sch = new Schema();
+		sch.addField("id", Type.INTEGER);
+		sch.addField("name", Type.VARCHAR(20));
+		ti = new TableInfo("_testsnapshot" + System.currentTimeMillis(), sch);
+
+		Transaction tx = newTransaction();
+		RecordFile.formatFileHeader(ti.fileName(), tx);
+		tx.commit();
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN SNAPSHOT ISOLATION TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH SNAPSHOT ISOLATION TEST");
+	}
+
+	@Test
+	public void testReadOldVersion() {
+		RecordId rid = insert(1, "old");
+
+		Transaction writer = newTransaction();
+		Transaction reader = newTransaction();
+		update(writer, rid, "new");
+
+		// The reader neither waits for the writer nor sees its change
+		assertEquals(new VarcharConstant("old"), read(reader, rid));
+
+		writer.commit();
+		assertEquals(new VarcharConstant("old"), read(reader, rid));
+
+		Transaction newReader = newTransaction();
+		assertEquals(new VarcharConstant("new"), read(newReader, rid));
+
+		reader.commit();
+		newReader.commit();
+	}
+
+	@Test
+	public void testFirstUpdaterWins() {
+		RecordId rid = insert(2, "first");
+
+		Transaction tx1 = newTransaction();
+		Transaction tx2 = newTransaction();
+		update(tx1, rid, "tx1");
+		tx1.commit();
+
+		try {
+			update(tx2, rid, "tx2");
+			fail("*****SnapshotIsolationTest: lost update");
+		} catch (LockAbortException e) {
+			// tx2 has been rolled back
+		}
+
+		Transaction reader = newTransaction();
+		assertEquals(new VarcharConstant("tx1"), read(reader, rid));
+		reader.commit();
+	}
+
+	@Test
+	public void testInsertAndDelete() {
+		RecordId rid = insert(3, "deleted");
+
+		Transaction reader = newTransaction();
+		int count = count(reader);
+
+		insert(4, "inserted");
+		Transaction writer = newTransaction();
+		RecordFile rf = ti.open(writer, true);
+		rf.delete(rid);
+		rf.close();
+		writer.commit();
+
+		// The reader sees neither the insertion nor the deletion
+		assertEquals(count, count(reader));
+		assertEquals(new VarcharConstant("deleted"), read(reader, rid));
+		reader.commit();
+
+		Transaction newReader = newTransaction();
+		assertEquals(count, count(newReader));
+		newReader.commit();
+	}
+
+	@Test
+	public void testLockFreeReadOnly() {
+		RecordId rid = insert(6, "old");
+
+		// A locking writer keeps the before-images for read-only transactions
+		Transaction writer = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		Transaction reader = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, true);
+		assertTrue(reader.concurrencyMgr() instanceof ReadOnlyConcurrencyMgr);
+		update(writer, rid, "new");
+
+		assertEquals(new VarcharConstant("old"), read(reader, rid));
+		writer.commit();
+		assertEquals(new VarcharConstant("old"), read(reader, rid));
+		reader.commit();
+
+		reader = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, true);
+		assertEquals(new VarcharConstant("new"), read(reader, rid));
+		reader.commit();
+	}
+
+	@Test
+	public void testGarbageCollection() {
+		RecordId rid = insert(5, "gc");
+		Transaction writer = newTransaction();
+		update(writer, rid, "gc2");
+
+		// The versions of a running writer are still needed
+		ConcurrencyMgr.versionStore.collectGarbage();
+		if (ConcurrencyMgr.versionStore.versionCount() == 0)
+			fail("*****SnapshotIsolationTest: versions removed too early");
+
+		writer.commit();
+		ConcurrencyMgr.versionStore.collectGarbage();
+		assertEquals(0, ConcurrencyMgr.versionStore.versionCount());
+	}
+
+	@Test
+	public void testIndexedSelection() {
+		Planner planner = VanillaDb.newPlanner();
+		String tblName = "testsnapshotidx";
+		Transaction tx = newTransaction();
+		planner.executeUpdate("create table " + tblName + " (id int, name varchar(20))", tx);
+		planner.executeUpdate("create index " + tblName + "_id on " + tblName + " (id)", tx);
+		planner.executeUpdate("insert into " + tblName + " (id, name) values (1, 'old')", tx);
+		tx.commit();
+
+		Transaction reader = newTransaction();
+		Transaction writer = newTransaction();
+		planner.executeUpdate("insert into " + tblName + " (id, name) values (2, 'new')", writer);
+		planner.executeUpdate("update " + tblName + " set id = 3 where id = 1", writer);
+		writer.commit();
+
+		// The index has the committed entries, while the reader sees neither
+		// the insertion nor the update
+		assertEquals(0, countWhere(planner, reader, tblName, "id = 2"));
+		assertEquals(0, countWhere(planner, reader, tblName, "id = 3"));
+		assertEquals(1, countWhere(planner, reader, tblName, "id = 1"));
+		reader.commit();
+
+		// So does a lock-free read-only transaction
+		reader = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, true);
+		writer = newTransaction();
+		planner.executeUpdate("update " + tblName + " set id = 4 where id = 3", writer);
+		writer.commit();
+		assertEquals(0, countWhere(planner, reader, tblName, "id = 4"));
+		assertEquals(1, countWhere(planner, reader, tblName, "id = 3"));
+		reader.commit();
+	}
+
+	private static synchronized Transaction newTransaction() {
+		long txNum = nextTxNum++;
+		return new Transaction(VanillaDb.txMgr(), new SnapshotIsolationConcurrencyMgr(txNum),
+				new RecoveryMgr(txNum, false), new BufferMgr(txNum), false, txNum);
+	}
+
+	private static RecordId insert(int id, String name) {
+		Transaction tx = newTransaction();
+		RecordFile rf = ti.open(tx, true);
+		rf.insert();
+		rf.setVal("id", new IntegerConstant(id));
+		rf.setVal("name", new VarcharConstant(name));
+		RecordId rid = rf.currentRecordId();
+		rf.close();
+		tx.commit();
+		return rid;
+	}
+
+	private static void update(Transaction tx, RecordId rid, String name) {
+		RecordFile rf = ti.open(tx, true);
+		rf.moveToRecordId(rid);
+		rf.setVal("name", new VarcharConstant(name));
+		rf.close();
+	}
+
+	private static Constant read(Transaction tx, RecordId rid) {
+		RecordFile rf = ti.open(tx, true);
+		rf.moveToRecordId(rid);
+		Constant val = rf.getVal("name");
+		rf.close();
+		return val;
+	}
+
+	private static int countWhere(Planner planner, Transaction tx, String tblName, String pred) {
+		Plan p = planner.createQueryPlan("select name from " + tblName + " where " + pred, tx);
+		Scan s = p.open();
+		s.beforeFirst();
+		int count = 0;
+		while (s.next())
+			count++;
+		s.close();
+		return count;
+	}
+
+	private static int count(Transaction tx) {
+		RecordFile rf = ti.open(tx, true);
+		rf.beforeFirst();
+		int count = 0;
+		while (rf.next())
+			count++;
+		rf.close();
+		return count;
+	}
+}
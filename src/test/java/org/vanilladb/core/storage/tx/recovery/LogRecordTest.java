@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.vanilladb.core.sql.Type.DOUBLE;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.BigIntConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.DoubleConstant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.VarcharConstant;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.PageFormatter;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.tx.Transaction;
+
+public class LogRecordTest {
+	private static Logger logger = Logger.getLogger(LogRecordTest.class.getName());
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(LogRecordTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN LOG RECORD TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH LOG RECORD TEST");
+	}
+
+	@Test
+	public void testEncoding() {
+		BlockId blk = new BlockId("logrecordtest.tbl", 12);
+		Map<BlockId, LogSeqNum> dirtyPages = new LinkedHashMap<BlockId, LogSeqNum>();
+		dirtyPages.put(blk, new LogSeqNum(3, 168));
+		dirtyPages.put(new BlockId("logrecordtest_idx", 2), new LogSeqNum(4, 8));
+		LogRecord[] recs = new LogRecord[] { new StartRecord(1234567890123L),
+				new SetValueRecord(1234567890123L, blk, 20, new VarcharConstant("abcdefg").asBytes(),
+						new VarcharConstant("xyz")),
+				new SetValueClr(1234567890123L, blk, 4, new IntegerConstant(-9876).asBytes(),
+						new IntegerConstant(9876), new LogSeqNum(3, 168)),
+				new SetSlotRecord(1234567890123L, blk, 5, 0, new byte[] { 1, 2, 3 }, 1,
+						new byte[] { 4, 5, 6, 7 }),
+				new SetSlotClr(1234567890123L, blk, 5, 1, new byte[] { 4, 5, 6, 7 }, 0,
+						new byte[] { 1, 2, 3 }, new LogSeqNum(3, 168)),
+				new IndexPageInsertRecord(7, new BlockId("logrecordtest_idx", 2), true, DOUBLE, 16),
+				new IndexInsertEndRecord(7, "logrecordtest", "cid", new DoubleConstant(-1.5), 12, 3,
+						new LogSeqNum(3, 168)),
+				new CheckpointBeginRecord(),
+				new CheckpointRecord(new LogSeqNum(3, 168), Arrays.asList(1L, 1234567890123L), dirtyPages),
+				new CheckpointRecord(), new CommitRecord(7) };
+		for (LogRecord rec : recs)
+			rec.writeToLog();
+
+		// The records should be read back in reverse order
+		LogRecordIterator iter = new LogRecordIterator();
+		for (int i = recs.length - 1; i >= 0; i--)
+			assertEquals("*****LogRecordTest: bad log record", recs[i].toString(), iter.next().toString());
+	}
+
+	@Test
+	public void testEncodingFromPage() {
+		Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		Buffer buff = tx.bufferMgr().pinNew("logrecordtest.tbl", new PageFormatter() {
+			@Override
+			public void format(Buffer buf) {
+				// leave the page empty
+			}
+		});
+
+		// The images copied from the page and the constants should be the
+		// same as the serialized constants, including the unpaired surrogate
+		// which is replaced with '?'
+		Constant[][] vals = { { new IntegerConstant(-5), new IntegerConstant(7) },
+				{ new BigIntConstant(1L << 40), new BigIntConstant(-3) },
+				{ new DoubleConstant(2.5), new DoubleConstant(-0.125) },
+				{ new VarcharConstant("abc"), new VarcharConstant("\u00e9\u4e2d\ud83d\ude00x") },
+				{ new VarcharConstant("\u00e9t\u00e9"), new VarcharConstant("a\ud800") } };
+		for (Constant[] pair : vals) {
+			buff.setVal(0, pair[0], tx.getTransactionNumber(), null);
+			Constant newVal = Constant.newInstance(pair[1].getType(), pair[1].asBytes());
+
+			SetValueRecord.writeToLog(1234567890123L, buff, 0, pair[1]);
+			SetValueRecord rec = new SetValueRecord(1234567890123L, buff.block(), 0, pair[0].asBytes(), newVal);
+			assertEquals("*****LogRecordTest: bad log record", rec.toString(),
+					new LogRecordIterator().next().toString());
+
+			SetValueClr.writeToLog(1234567890123L, buff, 0, pair[1], new LogSeqNum(3, 168));
+			SetValueClr clr = new SetValueClr(1234567890123L, buff.block(), 0, pair[0].asBytes(), newVal,
+					new LogSeqNum(3, 168));
+			assertEquals("*****LogRecordTest: bad log record", clr.toString(),
+					new LogRecordIterator().next().toString());
+		}
+		tx.bufferMgr().unpin(buff);
+		tx.commit();
+	}
+
+	@Test
+	public void testCheckpointRedoLsn() {
+		Map<BlockId, LogSeqNum> dirtyPages = new LinkedHashMap<BlockId, LogSeqNum>();
+		CheckpointRecord ckpt = new CheckpointRecord(new LogSeqNum(5, 0), Arrays.asList(1L), dirtyPages);
+		assertEquals("*****LogRecordTest: bad redo point", new LogSeqNum(5, 0), ckpt.redoLsn());
+
+		// The redo point is the oldest recovery LSN of the dirty pages
+		dirtyPages.put(new BlockId("logrecordtest.tbl", 1), new LogSeqNum(4, 32));
+		dirtyPages.put(new BlockId("logrecordtest.tbl", 2), new LogSeqNum(3, 168));
+		ckpt = new CheckpointRecord(new LogSeqNum(5, 0), Arrays.asList(1L), dirtyPages);
+		assertEquals("*****LogRecordTest: bad redo point", new LogSeqNum(3, 168), ckpt.redoLsn());
+	}
+}
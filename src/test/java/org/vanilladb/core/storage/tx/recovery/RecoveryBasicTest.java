@@ -46,7 +46,9 @@ import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.index.Index;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.metadata.CatalogMgr;
+import org.vanilladb.core.storage.metadata.TableInfo;
 import org.vanilladb.core.storage.metadata.index.IndexInfo;
+import org.vanilladb.core.storage.record.RecordFile;
 import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.util.BarrierStartRunner;
@@ -153,6 +155,62 @@ public class RecoveryBasicTest {
 		assertTrue("*****RecoveryTest: bad rollback", ti == 9876 && ts.equals("abcdefg"));
 		bm.unpin(buff);
 	}
+	@Test
+	public void testSlottedRollback() {
+		String tblName = "recoverybasictest_slotted";
+		Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		Schema schema = new Schema();
+		schema.addField("cid", INTEGER);
+		schema.addField("title", VARCHAR(300));
+		md.createTable(tblName, schema, RecordFile.FMT_SLOTTED, tx);
+		TableInfo ti = md.getTableInfo(tblName, tx);
+		RecordFile rf = ti.open(tx, true);
+		for (int id = 0; id < 200; id++) {
+			rf.insert();
+			rf.setVal("cid", new IntegerConstant(id));
+			rf.setVal("title", new VarcharConstant("title" + id));
+		}
+		rf.close();
+		tx.commit();
+
+		// grow, delete and insert records, then roll back
+		String longTitle = "title";
+		while (longTitle.length() < 250)
+			longTitle += "-title";
+		tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		rf = ti.open(tx, true);
+		rf.beforeFirst();
+		while (rf.next()) {
+			int cid = (Integer) rf.getVal("cid").asJavaVal();
+			if (cid % 2 == 0)
+				rf.setVal("title", new VarcharConstant(longTitle));
+			else if (cid % 5 == 0)
+				rf.delete();
+		}
+		for (int id = 200; id < 250; id++) {
+			rf.insert();
+			rf.setVal("cid", new IntegerConstant(id));
+			rf.setVal("title", new VarcharConstant(longTitle));
+		}
+		rf.close();
+		tx.rollback();
+
+		// verify that the original records are back
+		tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		rf = ti.open(tx, true);
+		rf.beforeFirst();
+		int count = 0;
+		while (rf.next()) {
+			int cid = (Integer) rf.getVal("cid").asJavaVal();
+			String title = (String) rf.getVal("title").asJavaVal();
+			assertTrue("*****RecoveryTest: bad slotted rollback", cid == count && title.equals("title" + cid));
+			count++;
+		}
+		rf.close();
+		tx.commit();
+		assertTrue("*****RecoveryTest: bad slotted rollback", count == 200);
+	}
+
 	@Test
 	public void testRecover() {
 
@@ -501,7 +559,8 @@ public class RecoveryBasicTest {
 		RecoveryMgr.recover(tx);
 		tx.commit();
 
-		tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, true);
+		// A read-only transaction reads snapshots, which a B-tree index cannot serve
+		tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
 		idxmap = md.getIndexInfo(dataTableName, tx);
 		cidIndex = idxmap.get("cid").open(tx);
 		cidIndex.beforeFirst(ConstantRange.newInstance(int5));
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import java.sql.Connection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.PageFormatter;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * A benchmark of the restart time against the size of the log. Each round
+ * writes set value records of committed transactions to the log without
+ * applying them to the pages, as if the system crashed before flushing any
+ * of them, and measures how long the recovery takes to redo them. It is not
+ * a part of the test suite; run it with
+ * {@code mvn test -Dtest=RecoveryBenchmark}, and set
+ * {@code org.vanilladb.core.storage.tx.recovery.RecoveryMgr.REDO_THREADS} to
+ * compare the numbers of redo threads.
+ */
+public class RecoveryBenchmark {
+	private static Logger logger = Logger.getLogger(RecoveryBenchmark.class.getName());
+
+	private static final String FILE_NAME = "recoverybench.tbl";
+	private static final int BLOCK_COUNT = 256;
+	private static final int RECORDS_PER_TX = 100;
+	private static final int[] LOG_SIZES = { 10000, 50000, 200000 };
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(RecoveryBenchmark.class);
+
+		Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		PageFormatter fmtr = new PageFormatter() {
+			@Override
+			public void format(Buffer buf) {
+				// leave the page empty
+			}
+		};
+		for (int i = 0; i < BLOCK_COUNT; i++)
+			tx.bufferMgr().unpin(tx.bufferMgr().pinNew(FILE_NAME, fmtr));
+		tx.commit();
+	}
+
+	@Test
+	public void benchmarkRestart() {
+		// Warm up
+		restart(LOG_SIZES[0]);
+
+		for (int logSize : LOG_SIZES) {
+			long time = restart(logSize);
+			if (logger.isLoggable(Level.INFO))
+				logger.info(String.format("%d records with %d redo threads: %d ms (%.0f records/s)", logSize,
+						RecoveryMgr.REDO_THREADS, time, logSize * 1000.0 / Math.max(time, 1)));
+		}
+	}
+
+	private long restart(int logSize) {
+		for (int written = 0; written < logSize; written += RECORDS_PER_TX) {
+			Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+			for (int i = written; i < written + RECORDS_PER_TX; i++) {
+				Buffer buff = tx.bufferMgr().pin(new BlockId(FILE_NAME, i % BLOCK_COUNT));
+				tx.recoveryMgr().logSetVal(buff, (i / BLOCK_COUNT) % 100 * 4, new IntegerConstant(i));
+				tx.bufferMgr().unpin(buff);
+			}
+			tx.commit();
+		}
+
+		Transaction recoveryTx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+		long start = System.currentTimeMillis();
+		RecoveryMgr.recover(recoveryTx);
+		long time = System.currentTimeMillis() - start;
+		recoveryTx.commit();
+		return time;
+	}
+}